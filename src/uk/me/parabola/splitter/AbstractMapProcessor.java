@@ -13,14 +13,28 @@
 
 package uk.me.parabola.splitter;
 
+import java.util.ArrayDeque;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 public abstract class AbstractMapProcessor implements MapProcessor {
 	public static final int UNASSIGNED = Short.MIN_VALUE;
 
+	/**
+	 * The areas of the nodes of the message which is currently processed by
+	 * {@link #consume(BlockingQueue)}, null if the nodes were not classified.
+	 * The k-th call of {@link Result#next()} returns the areas of the k-th node.
+	 */
+	protected NodeClassifier.Result classifiedNodes;
+
 	public boolean skipTags(){
 		return false;
 	}
+	public Set<String> getWantedKeys(){
+		return null;
+	}
 	public boolean skipNodes(){
 		return false;
 	}
@@ -31,6 +45,22 @@ public abstract class AbstractMapProcessor implements MapProcessor {
 		return false;
 	}
 
+	public boolean useBatches(){
+		return false;
+	}
+
+	public boolean useNodeBlocks() {
+		return false;
+	}
+
+	public void processNodeBlock(NodeBlock block) {
+		block.parse(this);
+	}
+
+	public boolean skipNodeBlock(Area bounds, long minId, long maxId) {
+		return false;
+	}
+
 	public void boundTag(Area bounds){}
 
 	public void processNode(Node n){}
@@ -39,6 +69,16 @@ public abstract class AbstractMapProcessor implements MapProcessor {
 	
 	public void processRelation(Relation r) {}
 
+	public void processNodes(NodeBatch nodes) {
+		for (int i = 0; i < nodes.size(); i++)
+			processNode(nodes.toNode(i));
+	}
+
+	public void processWays(WayBatch ways) {
+		for (int i = 0; i < ways.size(); i++)
+			processWay(ways.toWay(i));
+	}
+
 	public boolean endMap(){
 		return true;
 	}
@@ -47,42 +87,129 @@ public abstract class AbstractMapProcessor implements MapProcessor {
 	}
 	
 	public void startFile() {};
+
+	/**
+	 * (performance) Returns a classifier which finds the areas of the nodes
+	 * with several threads before they are passed to the processor by
+	 * {@link #consume(BlockingQueue)}, see {@link #classifiedNodes}.
+	 * @return the classifier or null
+	 */
+	protected NodeClassifier createNodeClassifier() {
+		return null;
+	}
 		
 	/**
 	 * Simple method that allows all processors to use the producer/consumer pattern
 	 */
 	public final boolean consume(BlockingQueue<OSMMessage> queue) {
+		NodeClassifier classifier = createNodeClassifier();
+		if (classifier != null) {
+			try {
+				return consume(queue, classifier);
+			} finally {
+				classifier.shutdown();
+			}
+		}
 		while (true) {
 			try {
-				OSMMessage msg = queue.take();
-				switch (msg.type) {
-				case ELEMENTS:
-					for (Element el : msg.elements) {
-						if (el instanceof Node)
-							processNode((Node) el);
-						else if (el instanceof Way)
-							processWay((Way) el);
-						else if (el instanceof Relation)
-							processRelation((Relation) el);
-					}
-					break;
-				case BOUNDS:
-					boundTag(msg.bounds);
-					break;
-				case END_MAP:
-					return endMap();
-				case START_FILE:
-					startFile();
-					break;
-				case EXIT:
-					return true;
-				default:
-					break;
-				}
+				Boolean res = process(queue.take());
+				if (res != null)
+					return res;
 			} catch (InterruptedException e) {
 				throw new RuntimeException(e);
 			}
 		}
 	}
 
+	/**
+	 * Classify the nodes of the next messages while the previous
+	 * messages are processed. The messages are processed in their order.
+	 */
+	private boolean consume(BlockingQueue<OSMMessage> queue, NodeClassifier classifier) {
+		final int maxPending = 2 * classifier.getNumThreads();
+		ArrayDeque<PendingMessage> pending = new ArrayDeque<>();
+		try {
+			while (true) {
+				OSMMessage msg = null;
+				if (pending.isEmpty())
+					msg = queue.take();
+				else if (pending.size() < maxPending)
+					msg = queue.poll();
+				if (msg != null) {
+					pending.add(new PendingMessage(msg, classifier.submit(msg)));
+					continue;
+				}
+				// nothing new to classify, process the oldest message
+				PendingMessage oldest = pending.poll();
+				Boolean res;
+				try {
+					if (oldest.result != null)
+						classifiedNodes = oldest.result.get();
+					res = process(oldest.msg);
+				} finally {
+					classifiedNodes = null;
+				}
+				if (res != null)
+					return res;
+			}
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new SplitFailedException("failed to classify nodes", e.getCause());
+		}
+	}
+
+	private static class PendingMessage {
+		final OSMMessage msg;
+		final Future<NodeClassifier.Result> result;
+
+		PendingMessage(OSMMessage msg, Future<NodeClassifier.Result> result) {
+			this.msg = msg;
+			this.result = result;
+		}
+	}
+
+	/**
+	 * Pass the content of the message to the processor.
+	 * @return the result of {@link #endMap()} or null if more messages are expected
+	 */
+	private Boolean process(OSMMessage msg) {
+		switch (msg.type) {
+		case ELEMENTS:
+			for (Element el : msg.elements) {
+				if (el instanceof Node)
+					processNode((Node) el);
+				else if (el instanceof Way)
+					processWay((Way) el);
+				else if (el instanceof Relation)
+					processRelation((Relation) el);
+			}
+			break;
+		case NODES:
+			processNodes(msg.nodes);
+			msg.nodes.recycle();
+			break;
+		case WAYS:
+			processWays(msg.ways);
+			msg.ways.recycle();
+			break;
+		case NODE_BLOCK:
+			processNodeBlock(msg.nodeBlock);
+			break;
+		case BOUNDS:
+			boundTag(msg.bounds);
+			break;
+		case END_MAP:
+			return endMap();
+		case START_FILE:
+			startFile();
+			break;
+		case EXIT:
+			return true;
+		default:
+			break;
+		}
+		return null;
+	}
+
 }
@@ -34,6 +34,8 @@ public class Area {
 	private Rectangle javaRect;
 	private boolean isJoinable = true;
 	private boolean isPseudoArea;
+	/** number of nodes estimated from the density map, 0 if unknown */
+	private long estimatedNodes;
 	
 	public boolean isJoinable() {
 		return isJoinable;
@@ -231,4 +233,15 @@ public class Area {
 		this.isPseudoArea = isPseudoArea;
 	}
 
+	/**
+	 * @return the number of nodes estimated from the density map, 0 if unknown
+	 */
+	public long getEstimatedNodes() {
+		return estimatedNodes;
+	}
+
+	public void setEstimatedNodes(long estimatedNodes) {
+		this.estimatedNodes = estimatedNodes;
+	}
+
 }
@@ -13,6 +13,9 @@
 package uk.me.parabola.splitter;
 
 import java.awt.Rectangle;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -183,4 +186,36 @@ public class AreaDictionary {
 	public static int translate(int singleWriterId) {
 		return (singleWriterId - DICT_START);
 	}
+
+	/**
+	 * Write the sets in the order of their int values. 
+	 * @param dos the stream
+	 * @throws IOException
+	 */
+	void write(DataOutputStream dos) throws IOException {
+		dos.writeInt(sets.size());
+		for (AreaSet set : sets) {
+			dos.writeInt(set.cardinality());
+			for (int i : set)
+				dos.writeInt(i);
+		}
+	}
+
+	/**
+	 * Add the sets written by {@link #write(DataOutputStream)} for the same areas,
+	 * so that they are translated to the same int values. 
+	 * @param dis the stream
+	 * @throws IOException
+	 */
+	void read(DataInputStream dis) throws IOException {
+		int numSets = dis.readInt();
+		for (int i = 0; i < numSets; i++) {
+			AreaSet set = new AreaSet();
+			int cardinality = dis.readInt();
+			for (int j = 0; j < cardinality; j++)
+				set.set(dis.readInt());
+			if (translate(set) != i - DICT_START)
+				throw new IOException("area dictionary doesn't match the areas");
+		}
+	}
 }
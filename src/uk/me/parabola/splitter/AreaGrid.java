@@ -14,19 +14,24 @@
 package uk.me.parabola.splitter;
 
 import java.util.BitSet;
+import java.util.HashMap;
 
 /**
  * A grid that covers the area covered by all areas. Each grid element contains 
  * information about the tiles that are intersecting the grid element and whether 
  * the grid element lies completely within such a tile area.
  * This is used to minimize the needed tests when analyzing coordinates of node coordinates.
+ * The grid is not changed after it was created and the results are immutable, so it can
+ * be used by several threads.
  * @author GerdP
  *
  */
 public class AreaGrid implements AreaIndex{
 	private final Grid grid;
-	protected final AreaGridResult r;
 	protected final AreaDictionary areaDictionary;
+	/** the results for the indexes of the area dictionary, first without, then with tests */
+	private final HashMap<Integer, AreaGridResult> results = new HashMap<>();
+	private final HashMap<Integer, AreaGridResult> resultsWithTest = new HashMap<>();
 
 	/**
 	 * Create a grid to speed up the search of area candidates.
@@ -34,10 +39,24 @@ public class AreaGrid implements AreaIndex{
 	 */
 	AreaGrid(AreaDictionary areaDictionary) {
 		this.areaDictionary = areaDictionary;
-		r = new AreaGridResult();
 		grid = new Grid(null, null);
 	}
 
+	/**
+	 * @param idx the index of the set of areas in the area dictionary
+	 * @param testNeeded true if the candidates must be tested
+	 * @return the shared result instance
+	 */
+	private AreaGridResult getResult(int idx, boolean testNeeded) {
+		HashMap<Integer, AreaGridResult> map = testNeeded ? resultsWithTest : results;
+		AreaGridResult res = map.get(idx);
+		if (res == null) {
+			res = new AreaGridResult(areaDictionary.getSet(idx), testNeeded);
+			map.put(idx, res);
+		}
+		return res;
+	}
+
 	public Area getBounds(){
 		return grid.getBounds();
 	}
@@ -62,8 +81,7 @@ public class AreaGrid implements AreaIndex{
 		private int gridMinLat, gridMinLon; 
 		// bounds of the complete grid
 		private Area bounds = null;
-		private int[][] indexGrid;
-		private BitSet[] testGrid;
+		private AreaGridResult[][] resultGrid;
 		private Grid[][] subGrid = null; 
 		private final int maxCompares;
 		private int usedSubGridElems = 0;
@@ -80,12 +98,7 @@ public class AreaGrid implements AreaIndex{
 				gridDimLon = SUB_GRID_DIM_LON;
 				gridDimLat = SUB_GRID_DIM_LAT;
 			}
-			indexGrid = new int[gridDimLon + 1][gridDimLat + 1];
-			// is true for an element if the list of areas needs to be tested
-			testGrid = new BitSet[gridDimLon + 1];
-			for (int lon = 0; lon < testGrid.length; lon++) {
-				testGrid[lon] = new BitSet(gridDimLat + 1);
-			}
+			resultGrid = new AreaGridResult[gridDimLon + 1][gridDimLat + 1];
 			this.bounds = bounds;
 			maxCompares = fillGrid(usedAreas);
 		}
@@ -128,6 +141,11 @@ public class AreaGrid implements AreaIndex{
 			assert gridStepLat * gridDimLat >= gridHeight : "gridStepLat is too small";
 
 			int maxAreaSearch = 0;
+			// is true for an element if the list of areas needs to be tested
+			BitSet[] testGrid = new BitSet[gridDimLon + 1];
+			for (int lon = 0; lon < testGrid.length; lon++) {
+				testGrid[lon] = new BitSet(gridDimLat + 1);
+			}
 			AreaSet[][] gridAreas = new AreaSet[gridDimLon+1][gridDimLat+1];
 
 			for (int j = 0; j < areaDictionary.getNumOfAreas(); j++) {
@@ -162,9 +180,7 @@ public class AreaGrid implements AreaIndex{
 			for (int lon = 0; lon <= gridDimLon; lon++) {
 				for (int lat = 0; lat <= gridDimLat; lat++) {
 					AreaSet areaSet = (gridAreas[lon][lat]);
-					if (areaSet == null)
-						indexGrid[lon][lat] = AbstractMapProcessor.UNASSIGNED;
-					else {
+					if (areaSet != null) {
 						areaSet.lock();
 						if (testGrid[lon].get(lat)){
 							int numTests = areaSet.cardinality();
@@ -186,7 +202,7 @@ public class AreaGrid implements AreaIndex{
 							}
 							maxAreaSearch = Math.max(maxAreaSearch, numTests);
 						}
-						indexGrid[lon][lat] = areaDictionary.translate(areaSet);
+						resultGrid[lon][lat] = getResult(areaDictionary.translate(areaSet), testGrid[lon].get(lat));
 					}
 				}
 			}
@@ -224,12 +240,7 @@ public class AreaGrid implements AreaIndex{
 				}
 			}
 			// get list of area candidates from grid
-			int idx = indexGrid[gridLonIdx][gridLatIdx];
-			if (idx == AbstractMapProcessor.UNASSIGNED) 
-				return null;
-			r.testNeeded = testGrid[gridLonIdx].get(gridLatIdx);
-			r.set = areaDictionary.getSet(idx);
-			return r; 		
+			return resultGrid[gridLonIdx][gridLatIdx];
 		}
 	}
 }
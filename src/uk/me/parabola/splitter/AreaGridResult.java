@@ -14,12 +14,18 @@
 package uk.me.parabola.splitter;
 
 /**
- * A helper class to combine the results of the {@link AreaGrid} 
+ * A helper class to combine the results of the {@link AreaGrid}. 
+ * Instances are shared and immutable.
  * @author GerdP
  *
  */
 public class AreaGridResult{
-	AreaSet set;	// set of indexes to the area dictionary
-	boolean testNeeded; // true: the list must be checked with the Area.contains() method 
+	final AreaSet set;	// set of indexes to the area dictionary
+	final boolean testNeeded; // true: the list must be checked with the Area.contains() method 
+
+	AreaGridResult(AreaSet set, boolean testNeeded) {
+		this.set = set;
+		this.testNeeded = testNeeded;
+	}
 }
 
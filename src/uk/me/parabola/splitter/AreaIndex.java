@@ -25,8 +25,9 @@ public interface AreaIndex{
 	public Area getBounds();
 	/**
 	 * Return a set of area candidates for this node. 
+	 * Implementations must allow calls from several threads.
 	 * @param n the node
-	 * @return a reference to a static AreaGridResult instance
+	 * @return a reference to a shared immutable AreaGridResult instance or null
 	 */
 	public AreaGridResult get (final Node n);
 
@@ -34,7 +35,7 @@ public interface AreaIndex{
 	 * Return a set of area candidates for these coordinates
 	 * @param lat the latitude value in map units
 	 * @param lon the longitude value in map units
-	 * @return a reference to a static AreaGridResult instance 
+	 * @return a reference to a shared immutable AreaGridResult instance or null
 	 */
 	public AreaGridResult get (int lat, int lon);
 
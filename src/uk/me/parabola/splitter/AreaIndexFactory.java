@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+package uk.me.parabola.splitter;
+
+/**
+ * Creates the {@link AreaIndex} implementation selected with --area-index.
+ *
+ * @author agent
+ */
+public class AreaIndexFactory {
+	public static final String AUTO = "auto";
+	public static final String GRID = "grid";
+	public static final String FLAT_GRID = "flat-grid";
+	public static final String RTREE = "rtree";
+
+	private AreaIndexFactory() {
+	}
+
+	/**
+	 * @param type the value of --area-index
+	 * @return true if the value is valid
+	 */
+	public static boolean isValidType(String type) {
+		return AUTO.equals(type) || GRID.equals(type) || FLAT_GRID.equals(type) || RTREE.equals(type);
+	}
+
+	/**
+	 * Create the index for the areas.
+	 * With "auto" the flat grid is used when its elements can be smaller than the
+	 * smallest area, else the {@link AreaGrid} with its sub grids. The R-tree
+	 * builds fastest and needs the least memory, but the lookups are slower,
+	 * so it is only used when it is selected.
+	 * @param type the value of --area-index
+	 * @param areaDictionary the dictionary with the areas
+	 * @return the index
+	 */
+	public static AreaIndex create(String type, AreaDictionary areaDictionary) {
+		if (AUTO.equals(type)) {
+			if (FlatAreaGrid.isSuitable(areaDictionary))
+				type = FLAT_GRID;
+			else
+				type = GRID;
+		}
+		switch (type) {
+		case FLAT_GRID:
+			return new FlatAreaGrid(areaDictionary);
+		case RTREE:
+			return new AreaRTree(areaDictionary);
+		case GRID:
+			return new AreaGrid(areaDictionary);
+		default:
+			throw new IllegalArgumentException("invalid area index type " + type);
+		}
+	}
+}
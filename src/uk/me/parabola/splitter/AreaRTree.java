@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+package uk.me.parabola.splitter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A packed R-tree of the extended areas, built with the Sort-Tile-Recursive
+ * algorithm: the boxes of each level are sorted into vertical slices, each
+ * slice is sorted by latitude, and groups of NODE_SIZE consecutive boxes get
+ * a parent box in the next level. The boxes of a level are stored in one int
+ * array. The size of the tree doesn't depend on the size of the areas, so it
+ * is useful for many irregular areas.
+ * The returned areas contain the point, no further test is needed.
+ * The tree is not changed after it was created, so it can be used by several threads.
+ *
+ * @author agent
+ */
+public class AreaRTree implements AreaIndex {
+	private static final int NODE_SIZE = 16;
+	private static final int NONE = -1;
+	private static final int MULTIPLE = -2;
+	// positions in the box arrays
+	private static final int MIN_LAT = 0;
+	private static final int MIN_LON = 1;
+	private static final int MAX_LAT = 2;
+	private static final int MAX_LON = 3;
+	private static final int BOX_SIZE = 4;
+
+	private final Area bounds;
+	/** minLat, minLon, maxLat, maxLon of each box, level 0 are the areas */
+	private final int[][] boxes;
+	/** for each level above 0, the positions of the first and last + 1 child of each box */
+	private final int[][] firstChild;
+	private final int[][] endChild;
+	/** the area numbers of the boxes in level 0 */
+	private final int[] areaNums;
+	/** the results for nodes which are only in one area */
+	private final AreaGridResult[] singleResults;
+
+	/**
+	 * Create the tree.
+	 * @param areaDictionary the dictionary with the areas
+	 */
+	AreaRTree(AreaDictionary areaDictionary) {
+		int numAreas = areaDictionary.getNumOfAreas();
+		singleResults = new AreaGridResult[numAreas];
+		// the current level as boxes with the area number or the range of children
+		int[][] level = new int[numAreas][];
+		for (int i = 0; i < numAreas; i++) {
+			Area a = areaDictionary.getExtendedArea(i);
+			level[i] = new int[] { a.getMinLat(), a.getMinLong(), a.getMaxLat(), a.getMaxLong(), i, 0 };
+			AreaSet set = new AreaSet(i);
+			set.lock();
+			singleResults[i] = new AreaGridResult(set, false);
+		}
+		ArrayList<int[][]> levels = new ArrayList<>();
+		while (true) {
+			sortTiles(level);
+			levels.add(level);
+			if (level.length <= 1)
+				break;
+			int[][] parents = new int[(level.length + NODE_SIZE - 1) / NODE_SIZE][];
+			for (int i = 0; i < parents.length; i++) {
+				int start = i * NODE_SIZE;
+				int end = Math.min(level.length, start + NODE_SIZE);
+				int[] p = { Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE, start, end };
+				for (int c = start; c < end; c++) {
+					p[MIN_LAT] = Math.min(p[MIN_LAT], level[c][MIN_LAT]);
+					p[MIN_LON] = Math.min(p[MIN_LON], level[c][MIN_LON]);
+					p[MAX_LAT] = Math.max(p[MAX_LAT], level[c][MAX_LAT]);
+					p[MAX_LON] = Math.max(p[MAX_LON], level[c][MAX_LON]);
+				}
+				parents[i] = p;
+			}
+			level = parents;
+		}
+		int numLevels = levels.size();
+		boxes = new int[numLevels][];
+		firstChild = new int[numLevels][];
+		endChild = new int[numLevels][];
+		areaNums = new int[numAreas];
+		for (int l = 0; l < numLevels; l++) {
+			int[][] entries = levels.get(l);
+			boxes[l] = new int[entries.length * BOX_SIZE];
+			if (l > 0) {
+				firstChild[l] = new int[entries.length];
+				endChild[l] = new int[entries.length];
+			}
+			for (int i = 0; i < entries.length; i++) {
+				System.arraycopy(entries[i], 0, boxes[l], i * BOX_SIZE, BOX_SIZE);
+				if (l == 0) {
+					areaNums[i] = entries[i][4];
+				} else {
+					firstChild[l][i] = entries[i][4];
+					endChild[l][i] = entries[i][5];
+				}
+			}
+		}
+		int[] top = boxes[numLevels - 1];
+		bounds = new Area(top[MIN_LAT], top[MIN_LON], top[MAX_LAT], top[MAX_LON]);
+		System.out.println("AreaRTree with " + numLevels + " levels for grid area " + bounds);
+	}
+
+	/**
+	 * Sort the boxes into vertical slices of whole groups, and each slice by latitude.
+	 */
+	private static void sortTiles(int[][] level) {
+		Arrays.sort(level, new Comparator<int[]>() {
+			@Override
+			public int compare(int[] b1, int[] b2) {
+				return Long.compare((long) b1[MIN_LON] + b1[MAX_LON], (long) b2[MIN_LON] + b2[MAX_LON]);
+			}
+		});
+		int numGroups = (level.length + NODE_SIZE - 1) / NODE_SIZE;
+		int sliceSize = (int) Math.ceil(Math.sqrt(numGroups)) * NODE_SIZE;
+		for (int start = 0; start < level.length; start += sliceSize) {
+			Arrays.sort(level, start, Math.min(level.length, start + sliceSize), new Comparator<int[]>() {
+				@Override
+				public int compare(int[] b1, int[] b2) {
+					return Long.compare((long) b1[MIN_LAT] + b1[MAX_LAT], (long) b2[MIN_LAT] + b2[MAX_LAT]);
+				}
+			});
+		}
+	}
+
+	@Override
+	public Area getBounds() {
+		return bounds;
+	}
+
+	@Override
+	public AreaGridResult get(final Node n) {
+		return get(n.getMapLat(), n.getMapLon());
+	}
+
+	@Override
+	public AreaGridResult get(int lat, int lon) {
+		if (!bounds.contains(lat, lon))
+			return null;
+		int top = boxes.length - 1;
+		int found = top == 0 ? search(0, 0, 1, lat, lon, NONE) : search(top - 1, firstChild[top][0], endChild[top][0], lat, lon, NONE);
+		if (found == NONE)
+			return null;
+		if (found != MULTIPLE)
+			return singleResults[found];
+		// rare: the point is in more than one area
+		AreaSet set = new AreaSet();
+		collect(top, 0, 1, lat, lon, set);
+		set.lock();
+		return new AreaGridResult(set, false);
+	}
+
+	/**
+	 * Search the boxes start to end - 1 of the level.
+	 * @param found the result so far
+	 * @return the area number, NONE, or MULTIPLE
+	 */
+	private int search(int level, int start, int end, int lat, int lon, int found) {
+		int[] b = boxes[level];
+		for (int i = start; i < end; i++) {
+			int pos = i * BOX_SIZE;
+			if (lat < b[pos + MIN_LAT] || lat > b[pos + MAX_LAT] || lon < b[pos + MIN_LON] || lon > b[pos + MAX_LON])
+				continue;
+			if (level == 0) {
+				if (found != NONE)
+					return MULTIPLE;
+				found = areaNums[i];
+			} else {
+				found = search(level - 1, firstChild[level][i], endChild[level][i], lat, lon, found);
+				if (found == MULTIPLE)
+					return MULTIPLE;
+			}
+		}
+		return found;
+	}
+
+	private void collect(int level, int start, int end, int lat, int lon, AreaSet set) {
+		int[] b = boxes[level];
+		for (int i = start; i < end; i++) {
+			int pos = i * BOX_SIZE;
+			if (lat < b[pos + MIN_LAT] || lat > b[pos + MAX_LAT] || lon < b[pos + MIN_LON] || lon > b[pos + MAX_LON])
+				continue;
+			if (level == 0)
+				set.set(areaNums[i]);
+			else
+				collect(level - 1, firstChild[level][i], endChild[level][i], lat, lon, set);
+		}
+	}
+}
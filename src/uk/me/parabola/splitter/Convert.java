@@ -13,6 +13,8 @@
 
 package uk.me.parabola.splitter;
 
+import java.nio.charset.StandardCharsets;
+
 /**
  * Conversion utility methods
  *
@@ -85,4 +87,53 @@ public class Convert {
 			return decimal / PowersOfTen[i - decimalPoint - 2];
 		return decimal;
 	}
+
+	/**
+	 * Parses UTF-8 encoded characters into a double. Gives the same results as
+	 * {@link #parseDouble(String)}.
+	 *
+	 * @param buf the buffer with the characters to parse into a double
+	 * @param off the position of the first character
+	 * @param len the number of bytes
+	 * @return the double value represented by the bytes.
+	 * @throws NumberFormatException if the value failed to parse.
+	 */
+	public static double parseDouble(byte[] buf, int off, int len) throws NumberFormatException
+	{
+		if (len <= 0)
+			throw new NumberFormatException("empty String");
+		int end = Math.min(len, 19);  // No point trying to handle more digits than a double precision number can deal with
+		int i = 0;
+		int c = buf[off];
+
+		boolean isNegative = (c == '-');
+		if ((isNegative || (c == '+')) && (++i < end))
+			c = buf[off + i];
+
+		long decimal = 0;
+		int decimalPoint = -1;
+		while (true) {
+			int digit = c - '0';
+			if ((digit >= 0) && (digit < 10)) {
+				long tmp = decimal * 10 + digit;
+				if (tmp < decimal)
+					throw new NumberFormatException("Overflow! Too many digits in " + new String(buf, off, len, StandardCharsets.UTF_8));
+				decimal = tmp;
+			} else if ((c == '.') && (decimalPoint < 0))
+				decimalPoint = i;
+			else {
+				// We're out of our depth, let the JDK have a go. This is *much* slower
+				return Double.parseDouble(new String(buf, off, len, StandardCharsets.UTF_8));
+			}
+			if (++i >= end)
+				break;
+			c = buf[off + i];
+		}
+		if (isNegative)
+			decimal = -decimal;
+
+		if (decimalPoint >= 0 && decimalPoint < i - 1)
+			return decimal / PowersOfTen[i - decimalPoint - 2];
+		return decimal;
+	}
 }
@@ -12,6 +12,8 @@
  */
 package uk.me.parabola.splitter;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
@@ -19,6 +21,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import uk.me.parabola.splitter.tools.Long2IntClosedMap;
 import uk.me.parabola.splitter.tools.Long2IntClosedMapFunction;
 import uk.me.parabola.splitter.tools.OSMId2ObjectMap;
 import uk.me.parabola.splitter.tools.SparseLong2IntMap;
@@ -34,6 +37,7 @@ public class DataStorer {
 	public static final int NODE_TYPE = 0;
 	public static final int WAY_TYPE = 1;
 	public static final int REL_TYPE = 2;
+	private static final String[] MAP_NAMES = { "node", "way", "rel" };
 
 	private final int numOfAreas;
 
@@ -58,11 +62,12 @@ public class DataStorer {
 	 * @param overlapAmount
 	 * @param numOfWriters
 	 *            the number of writers that are used
+	 * @param areaIndexType the type of the area index, see {@link AreaIndexFactory}
 	 */
-	DataStorer(List<Area> areas, int overlapAmount) {
+	DataStorer(List<Area> areas, int overlapAmount, String areaIndexType) {
 		this.numOfAreas = areas.size();
 		this.areaDictionary = new AreaDictionary(areas, overlapAmount);
-		this.areaIndex = new AreaGrid(areaDictionary);
+		this.areaIndex = AreaIndexFactory.create(areaIndexType, areaDictionary);
 		return;
 	}
 
@@ -161,6 +166,53 @@ public class DataStorer {
 		}
 	}
 
+	/**
+	 * Save the results of the problem list and multi-tile analysis for
+	 * other processes, see {@link ShardData}. 
+	 * @param dos the stream for the dictionary and the relations
+	 * @param dir the directory for the writer maps
+	 * @throws IOException
+	 */
+	void writeSharedData(DataOutputStream dos, File dir) throws IOException {
+		areaDictionary.write(dos);
+		long[] ids = oneTileOnlyRels.keys();
+		dos.writeInt(ids.length);
+		for (long id : ids) {
+			dos.writeLong(id);
+			dos.writeInt(oneTileOnlyRels.get(id));
+		}
+		for (int type = 0; type < maps.length; type++) {
+			dos.writeBoolean(maps[type] != null);
+			if (maps[type] != null)
+				maps[type].saveForSeqAccess(getSharedMapFile(dir, type));
+		}
+	}
+
+	/**
+	 * Read the data written by {@link #writeSharedData(DataOutputStream, File)}.
+	 * @param dis the stream for the dictionary and the relations
+	 * @param dir the directory with the writer maps
+	 * @throws IOException
+	 */
+	void readSharedData(DataInputStream dis, File dir) throws IOException {
+		areaDictionary.read(dis);
+		int numRels = dis.readInt();
+		for (int i = 0; i < numRels; i++) {
+			long id = dis.readLong();
+			oneTileOnlyRels.put(id, dis.readInt());
+		}
+		for (int type = 0; type < maps.length; type++) {
+			if (dis.readBoolean()) {
+				maps[type] = Long2IntClosedMap.loadForSeqAccess(MAP_NAMES[type], getSharedMapFile(dir, type),
+						AbstractMapProcessor.UNASSIGNED);
+			}
+		}
+	}
+
+	private static File getSharedMapFile(File dir, int type) {
+		return new File(dir, "shard-" + MAP_NAMES[type] + "-map.bin");
+	}
+
 	public OSMWriter[] getWriters() {
 		return writers;
 	}
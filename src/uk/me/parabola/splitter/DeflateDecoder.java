@@ -0,0 +1,572 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+/**
+ * A decoder for gzip files (RFC 1952 and RFC 1951) that can start at any
+ * deflate block boundary without knowing the preceding data.
+ * The output is a sequence of symbols. The first {@link #WINDOW_SIZE}
+ * symbols are the window: either the known preceding bytes or markers
+ * (values starting at {@link #MARKER_BASE}) that stand for the unknown
+ * bytes. Back references into an unknown window copy the markers,
+ * they are replaced by the real bytes when the window is known.
+ * Used by {@link ParallelGZipInputStream}.
+ *
+ * @author agent
+ */
+class DeflateDecoder {
+	static final int WINDOW_SIZE = 32768;
+	static final int MARKER_BASE = 256;
+	/** stop decoding a chunk at the next block boundary when it produced this many bytes */
+	private static final int MAX_OUTPUT = 64 * 1024 * 1024;
+	private static final int READ_SIZE = 256 * 1024;
+
+	private static final int[] LENGTH_BASE = { 3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43,
+			51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258 };
+	private static final int[] LENGTH_EXTRA = { 0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4,
+			4, 4, 5, 5, 5, 5, 0 };
+	private static final int[] DIST_BASE = { 1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257, 385,
+			513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577 };
+	private static final int[] DIST_EXTRA = { 0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9,
+			10, 10, 11, 11, 12, 12, 13, 13 };
+	private static final int[] CODE_LENGTH_ORDER = { 16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1,
+			15 };
+
+	private static final int[] FIXED_LIT_TABLE = new int[1 << 9];
+	private static final int[] FIXED_DIST_TABLE = new int[1 << 5];
+	static {
+		byte[] lengths = new byte[288];
+		Arrays.fill(lengths, 0, 144, (byte) 8);
+		Arrays.fill(lengths, 144, 256, (byte) 9);
+		Arrays.fill(lengths, 256, 280, (byte) 7);
+		Arrays.fill(lengths, 280, 288, (byte) 8);
+		if (buildTable(lengths, 0, 288, FIXED_LIT_TABLE, true) != 9)
+			throw new IllegalStateException("failed to build the fixed literal/length table");
+		// like zlib, use all 32 codes so that the code is complete, the codes 30 and 31 are invalid
+		Arrays.fill(lengths, 0, 32, (byte) 5);
+		if (buildTable(lengths, 0, 32, FIXED_DIST_TABLE, true) != 5)
+			throw new IllegalStateException("failed to build the fixed distance table");
+	}
+
+	// the input
+	private final FileChannel channel;
+	private final long fileSize;
+	private byte[] buf = new byte[0];
+	private long bufStart;
+	private int bufLen;
+	// position of the next byte that is moved into bitBuf
+	private long nextByte;
+	private long bitBuf;
+	private int bitCount;
+
+	// the Huffman tables of the current block, entries are (symbol << 4 | code length)
+	private final int[] litTable = new int[1 << 15];
+	private final int[] distTable = new int[1 << 15];
+	private final int[] precodeTable = new int[1 << 7];
+	private final byte[] lengths = new byte[320];
+	private int[] curLitTable;
+	private int[] curDistTable;
+	private int litMask;
+	private int distMask;
+
+	// the result
+	char[] out = new char[WINDOW_SIZE];
+	int outLen;
+	long startBit;
+	long endBit;
+	boolean eof;
+	/** for each member that ends in the decoded data: the output position, the CRC and the size from the trailer */
+	final IntArrayList memberEnds = new IntArrayList();
+	final IntArrayList memberCrcs = new IntArrayList();
+	final IntArrayList memberSizes = new IntArrayList();
+	/** the BSIZE value of the last read header if it has a BGZF extra field, else -1 */
+	int bgzfBlockSize = -1;
+
+	DeflateDecoder(FileChannel channel, long fileSize) {
+		this.channel = channel;
+		this.fileSize = fileSize;
+	}
+
+	/**
+	 * Prepare the output. The window is filled with markers.
+	 */
+	void resetOutput() {
+		for (int i = 0; i < WINDOW_SIZE; i++)
+			out[i] = (char) (MARKER_BASE + i);
+		outLen = WINDOW_SIZE;
+		memberEnds.clear();
+		memberCrcs.clear();
+		memberSizes.clear();
+		eof = false;
+	}
+
+	/**
+	 * Prepare the output with the known bytes before the start.
+	 * @param window the last bytes, may be shorter than the window size
+	 * @param len number of valid bytes in window
+	 */
+	void resetOutput(byte[] window, int len) {
+		resetOutput();
+		for (int i = 0; i < len; i++)
+			out[WINDOW_SIZE - len + i] = (char) (window[i] & 0xff);
+	}
+
+	/**
+	 * Move to a bit position in the file.
+	 */
+	void seek(long bitPos) throws IOException {
+		nextByte = bitPos >>> 3;
+		bitBuf = 0;
+		bitCount = 0;
+		refill();
+		dropBits((int) (bitPos & 7));
+	}
+
+	long position() {
+		return nextByte * 8 - bitCount;
+	}
+
+	boolean atEnd() {
+		return position() >= fileSize * 8;
+	}
+
+	private byte byteAt(long pos) throws IOException {
+		if (pos < bufStart || pos >= bufStart + bufLen) {
+			if (pos >= fileSize)
+				return 0;
+			load(pos);
+		}
+		return buf[(int) (pos - bufStart)];
+	}
+
+	/**
+	 * Make sure that the buffer contains the given position. Data before
+	 * the buffer start is kept, so that seeking back is cheap.
+	 */
+	private void load(long pos) throws IOException {
+		if (pos < bufStart || pos > bufStart + bufLen + READ_SIZE) {
+			bufStart = pos;
+			bufLen = 0;
+		}
+		while (pos >= bufStart + bufLen) {
+			if (bufLen + READ_SIZE > buf.length)
+				buf = Arrays.copyOf(buf, Math.max(buf.length * 2, bufLen + READ_SIZE));
+			int n = (int) Math.min(READ_SIZE, fileSize - bufStart - bufLen);
+			ByteBuffer bb = ByteBuffer.wrap(buf, bufLen, n);
+			while (bb.hasRemaining()) {
+				if (channel.read(bb, bufStart + bb.position()) < 0)
+					throw new EOFException("unexpected end of gzip file");
+			}
+			bufLen += n;
+		}
+	}
+
+	/**
+	 * Fill the bit buffer with at least 56 bits. Beyond the end of the file zeros are used,
+	 * this is detected with {@link #checkEnd()}.
+	 */
+	private void refill() throws IOException {
+		long idx = nextByte - bufStart;
+		if (idx >= 0 && idx + 8 <= bufLen) {
+			// fast path: read 8 bytes and keep as many as fit
+			int i = (int) idx;
+			byte[] b = buf;
+			long v = (b[i] & 0xffL) | (b[i + 1] & 0xffL) << 8 | (b[i + 2] & 0xffL) << 16 | (b[i + 3] & 0xffL) << 24
+					| (b[i + 4] & 0xffL) << 32 | (b[i + 5] & 0xffL) << 40 | (b[i + 6] & 0xffL) << 48
+					| (b[i + 7] & 0xffL) << 56;
+			int n = (63 - bitCount) >>> 3;
+			bitBuf |= (v << bitCount) & ((1L << (bitCount + n * 8)) - 1);
+			nextByte += n;
+			bitCount += n * 8;
+			return;
+		}
+		if (nextByte > fileSize + 8)
+			throw new EOFException("unexpected end of gzip file");
+		while (bitCount <= 56) {
+			bitBuf |= (long) (byteAt(nextByte++) & 0xff) << bitCount;
+			bitCount += 8;
+		}
+	}
+
+	private void dropBits(int n) {
+		bitBuf >>>= n;
+		bitCount -= n;
+	}
+
+	/**
+	 * Read up to 32 bits.
+	 */
+	private int bits(int n) throws IOException {
+		if (bitCount < n)
+			refill();
+		int v = (int) (bitBuf & ((1L << n) - 1));
+		dropBits(n);
+		return v;
+	}
+
+	private void checkEnd() throws IOException {
+		if (position() > fileSize * 8)
+			throw new EOFException("unexpected end of gzip file");
+	}
+
+	private int readByteAligned() throws IOException {
+		return bits(8);
+	}
+
+	/**
+	 * Read a gzip member header at the current (byte aligned) position.
+	 * @return false if the data at the position is not a gzip header
+	 */
+	boolean readMemberHeader() throws IOException {
+		dropBits(bitCount & 7);
+		if (fileSize * 8 - position() < 10 * 8)
+			return false;
+		if (readByteAligned() != 0x1f || readByteAligned() != 0x8b)
+			return false;
+		if (readByteAligned() != 8)
+			throw new IOException("unsupported compression method in gzip file");
+		int flags = readByteAligned();
+		bits(32); // modification time
+		bits(16); // extra flags and OS
+		bgzfBlockSize = -1;
+		if ((flags & 4) != 0) {
+			int xlen = bits(16);
+			int read = 0;
+			while (read + 4 <= xlen) {
+				int si1 = readByteAligned();
+				int si2 = readByteAligned();
+				int slen = bits(16);
+				read += 4;
+				if (si1 == 'B' && si2 == 'C' && slen == 2) {
+					bgzfBlockSize = bits(16) + 1;
+				} else {
+					for (int i = 0; i < slen; i++)
+						readByteAligned();
+				}
+				read += slen;
+			}
+			for (; read < xlen; read++)
+				readByteAligned();
+		}
+		if ((flags & 8) != 0) {
+			while (readByteAligned() != 0) {
+				// file name
+			}
+		}
+		if ((flags & 16) != 0) {
+			while (readByteAligned() != 0) {
+				// comment
+			}
+		}
+		if ((flags & 2) != 0)
+			bits(16); // header CRC
+		checkEnd();
+		return true;
+	}
+
+	/**
+	 * Quick test if a dynamic block with BFINAL = 0 may start at the given position.
+	 */
+	private boolean maybeBlockStart(long bitPos) throws IOException {
+		long p = bitPos >>> 3;
+		int v = ((byteAt(p) & 0xff) | (byteAt(p + 1) & 0xff) << 8 | (byteAt(p + 2) & 0xff) << 16) >>> (bitPos & 7);
+		if ((v & 7) != 4)
+			return false;
+		return ((v >>> 3) & 31) <= 29 && ((v >>> 8) & 31) <= 29;
+	}
+
+	/**
+	 * Search the first position in the given range where decoding works.
+	 * The output must be prepared with {@link #resetOutput()}.
+	 * @param fromBit start of the search range
+	 * @param toBit end of the search range (exclusive)
+	 * @param stopBit stop decoding at the first block boundary at or after this position
+	 * @return true if a block start was found
+	 */
+	boolean decodeFromFirstBlock(long fromBit, long toBit, long stopBit) throws IOException {
+		toBit = Math.min(toBit, fileSize * 8);
+		for (long p = fromBit; p < toBit; p++) {
+			if (!maybeBlockStart(p))
+				continue;
+			seek(p + 3);
+			if (readDynamicHeader() != null)
+				continue;
+			try {
+				decodeBlock(curLitTable, litMask, curDistTable, distMask);
+				checkEnd();
+				decode(-1, stopBit);
+				startBit = p;
+				return true;
+			} catch (IOException e) {
+				// not a block start
+				resetOutput();
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Decode deflate blocks.
+	 * @param bitPos the start of a block or -1 to continue at the current position
+	 * @param stopBit stop at the first block boundary at or after this position
+	 * @throws IOException if the data is invalid
+	 */
+	void decode(long bitPos, long stopBit) throws IOException {
+		if (bitPos >= 0) {
+			startBit = bitPos;
+			seek(bitPos);
+		}
+		while (position() < stopBit && outLen - WINDOW_SIZE < MAX_OUTPUT) {
+			int header = bits(3);
+			int type = header >>> 1;
+			if (type == 0) {
+				decodeStored();
+			} else if (type == 1) {
+				decodeBlock(FIXED_LIT_TABLE, (1 << 9) - 1, FIXED_DIST_TABLE, (1 << 5) - 1);
+			} else if (type == 2) {
+				String error = readDynamicHeader();
+				if (error != null)
+					throw new IOException(error);
+				decodeBlock(curLitTable, litMask, curDistTable, distMask);
+			} else {
+				throw new IOException("invalid deflate block type");
+			}
+			checkEnd();
+			if ((header & 1) != 0) {
+				// the last block of a member, read the trailer
+				dropBits(bitCount & 7);
+				memberCrcs.add(bits(16) | bits(16) << 16);
+				memberSizes.add(bits(16) | bits(16) << 16);
+				memberEnds.add(outLen - WINDOW_SIZE);
+				checkEnd();
+				// like GZIPInputStream, anything after the last member that isn't a header is ignored
+				if (!readMemberHeader()) {
+					eof = true;
+					break;
+				}
+			}
+		}
+		endBit = position();
+	}
+
+	private void decodeStored() throws IOException {
+		dropBits(bitCount & 7);
+		int len = bits(16);
+		int nlen = bits(16);
+		if (len != (~nlen & 0xffff))
+			throw new IOException("invalid stored block lengths");
+		ensureOutput(len);
+		for (int i = 0; i < len; i++)
+			out[outLen++] = (char) bits(8);
+	}
+
+	private void ensureOutput(int n) {
+		if (outLen + n > out.length)
+			out = Arrays.copyOf(out, Math.max(out.length + (out.length >>> 1), outLen + n));
+	}
+
+	/**
+	 * Read the code lengths of a dynamic block and build the tables.
+	 * @return null or an error message
+	 */
+	private String readDynamicHeader() throws IOException {
+		int nlen = bits(5) + 257;
+		int ndist = bits(5) + 1;
+		int ncode = bits(4) + 4;
+		if (nlen > 286 || ndist > 30)
+			return "too many length or distance symbols";
+		Arrays.fill(lengths, 0, 19, (byte) 0);
+		for (int i = 0; i < ncode; i++)
+			lengths[CODE_LENGTH_ORDER[i]] = (byte) bits(3);
+		int maxLen = buildTable(lengths, 0, 19, precodeTable, true);
+		if (maxLen <= 0)
+			return "invalid code lengths set";
+		int mask = (1 << maxLen) - 1;
+		int n = 0;
+		while (n < nlen + ndist) {
+			if (bitCount < 16)
+				refill();
+			int e = precodeTable[(int) bitBuf & mask];
+			dropBits(e & 15);
+			int sym = e >>> 4;
+			if (sym < 16) {
+				lengths[n++] = (byte) sym;
+			} else {
+				int repeat;
+				byte value = 0;
+				if (sym == 16) {
+					if (n == 0)
+						return "invalid bit length repeat";
+					value = lengths[n - 1];
+					repeat = 3 + bits(2);
+				} else if (sym == 17) {
+					repeat = 3 + bits(3);
+				} else {
+					repeat = 11 + bits(7);
+				}
+				if (n + repeat > nlen + ndist)
+					return "invalid bit length repeat";
+				while (repeat-- > 0)
+					lengths[n++] = value;
+			}
+		}
+		if (lengths[256] == 0)
+			return "invalid code -- missing end-of-block";
+		int litBits = buildTable(lengths, 0, nlen, litTable, false);
+		if (litBits <= 0)
+			return "invalid literal/lengths set";
+		int distBits = buildTable(lengths, nlen, ndist, distTable, false);
+		if (distBits < 0)
+			return "invalid distances set";
+		curLitTable = litTable;
+		litMask = (1 << litBits) - 1;
+		curDistTable = distTable;
+		distMask = (1 << Math.max(1, distBits)) - 1;
+		return null;
+	}
+
+	/**
+	 * Build a lookup table for a canonical Huffman code. The table is indexed
+	 * with the next bits of the input (LSB first), unused entries are 0.
+	 * @param lens the code lengths
+	 * @param off the first code length
+	 * @param n the number of symbols
+	 * @param table the table, must have at least 2^maxLength entries
+	 * @param requireComplete true if an incomplete code is an error
+	 * @return the maximum code length, 0 if no code is used, or -1 if the code is invalid
+	 */
+	private static int buildTable(byte[] lens, int off, int n, int[] table, boolean requireComplete) {
+		int[] count = new int[16];
+		for (int i = 0; i < n; i++)
+			count[lens[off + i]]++;
+		int maxLen = 15;
+		while (maxLen > 0 && count[maxLen] == 0)
+			maxLen--;
+		if (maxLen == 0) {
+			if (requireComplete)
+				return -1;
+			// no codes, every use is an error
+			table[0] = table[1] = 0;
+			return 0;
+		}
+		// check for an over-subscribed or incomplete set
+		int left = 1;
+		for (int len = 1; len <= 15; len++) {
+			left <<= 1;
+			left -= count[len];
+			if (left < 0)
+				return -1;
+		}
+		if (left > 0 && (requireComplete || maxLen != 1))
+			return -1;
+		int size = 1 << maxLen;
+		Arrays.fill(table, 0, size, 0);
+		int[] nextCode = new int[16];
+		int code = 0;
+		for (int len = 1; len <= 15; len++) {
+			code = (code + count[len - 1]) << 1;
+			nextCode[len] = code;
+		}
+		nextCode[0] = 0;
+		for (int sym = 0; sym < n; sym++) {
+			int len = lens[off + sym];
+			if (len == 0)
+				continue;
+			int c = nextCode[len]++;
+			int rev = Integer.reverse(c) >>> (32 - len);
+			int entry = sym << 4 | len;
+			for (int i = rev; i < size; i += 1 << len)
+				table[i] = entry;
+		}
+		return maxLen;
+	}
+
+	/**
+	 * Decode the symbols of a Huffman coded block.
+	 */
+	private void decodeBlock(int[] lit, int lMask, int[] dist, int dMask) throws IOException {
+		char[] o = out;
+		int oLen = outLen;
+		try {
+			while (true) {
+				if (bitCount < 48)
+					refill();
+				int e = lit[(int) bitBuf & lMask];
+				int len = e & 15;
+				if (len == 0)
+					throw new IOException("invalid literal/length code");
+				dropBits(len);
+				int sym = e >>> 4;
+				if (sym < 256) {
+					if (oLen == o.length) {
+						outLen = oLen;
+						ensureOutput(1);
+						o = out;
+					}
+					o[oLen++] = (char) sym;
+					continue;
+				}
+				if (sym == 256)
+					break;
+				sym -= 257;
+				if (sym >= 29)
+					throw new IOException("invalid literal/length code");
+				int length = LENGTH_BASE[sym];
+				int extra = LENGTH_EXTRA[sym];
+				if (extra > 0) {
+					length += (int) bitBuf & ((1 << extra) - 1);
+					dropBits(extra);
+				}
+				e = dist[(int) bitBuf & dMask];
+				len = e & 15;
+				if (len == 0)
+					throw new IOException("invalid distance code");
+				dropBits(len);
+				int dsym = e >>> 4;
+				if (dsym >= 30)
+					throw new IOException("invalid distance code");
+				int distance = DIST_BASE[dsym];
+				extra = DIST_EXTRA[dsym];
+				if (extra > 0) {
+					distance += (int) bitBuf & ((1 << extra) - 1);
+					dropBits(extra);
+				}
+				if (distance > oLen)
+					throw new IOException("invalid distance too far back");
+				if (oLen + length > o.length) {
+					outLen = oLen;
+					ensureOutput(length);
+					o = out;
+				}
+				int from = oLen - distance;
+				if (distance >= length) {
+					System.arraycopy(o, from, o, oLen, length);
+					oLen += length;
+				} else {
+					for (int i = 0; i < length; i++)
+						o[oLen++] = o[from + i];
+				}
+			}
+		} finally {
+			outLen = oLen;
+		}
+	}
+}
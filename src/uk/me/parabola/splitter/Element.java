@@ -12,15 +12,33 @@
  */
 package uk.me.parabola.splitter;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import uk.me.parabola.splitter.tools.StringDictionary;
 
 /**
+ * Base class of the OSM elements. The tags are stored as pairs of ids
+ * of the run-wide {@link #TAGS} dictionary. Strings which are not in the
+ * dictionary are kept in a separate array.
+ * 
  * @author Steve Ratcliffe
  */
 public abstract class Element {
-	protected ArrayList<Tag> tags; 
+	/** the maximum number of strings in the tag dictionary */
+	protected static final int MAX_DICTIONARY_SIZE = 1 << 18;
+	/** longer values are rare and often unique (names, notes), they are not added to the dictionary */
+	private static final int MAX_INTERNED_VALUE_LENGTH = 16;
+	/** dictionary for tag keys and common tag values, shared by all elements */
+	public static final StringDictionary TAGS = new StringDictionary(MAX_DICTIONARY_SIZE);
+	private static final int CREATED_BY_ID = TAGS.getId("created_by");
+
+	// key and value ids, NOT_INTERNED if the string is stored in tagStrings
+	private int[] tagIds;
+	private String[] tagStrings;
+	private int numTags;
 	private long id;
 	private int version;
 	
@@ -56,34 +74,122 @@ public abstract class Element {
 		}
 		final public String key,value;
 	}
-	
+
+	/**
+	 * @param key a tag key
+	 * @return the id of the key in {@link #TAGS} or {@link StringDictionary#NOT_INTERNED}
+	 */
+	public static int getKeyId(String key) {
+		return TAGS.getId(key);
+	}
+
+	/**
+	 * @param value a tag value
+	 * @return the id of the value in {@link #TAGS} or {@link StringDictionary#NOT_INTERNED}
+	 */
+	public static int getValueId(String value) {
+		if (value.length() > MAX_INTERNED_VALUE_LENGTH)
+			return StringDictionary.NOT_INTERNED;
+		return TAGS.getId(value);
+	}
+
 	public void addTag(String key, String value) {
-		if (key.equals("created_by"))
+		addTag(getKeyId(key), key, getValueId(value), value);
+	}
+
+	/**
+	 * Add a tag with known dictionary ids. 
+	 * @param keyId the id returned by {@link #getKeyId(String)}
+	 * @param key the key, only used if keyId is {@link StringDictionary#NOT_INTERNED}
+	 * @param valueId the id returned by {@link #getValueId(String)}
+	 * @param value the value, only used if valueId is {@link StringDictionary#NOT_INTERNED}
+	 */
+	public void addTag(int keyId, String key, int valueId, String value) {
+		if (keyId == CREATED_BY_ID || keyId == StringDictionary.NOT_INTERNED && key.equals("created_by"))
 			return;
 		// Most elements are nodes. Most nodes have no tags. Create the tag table lazily
-		if (tags == null)
-			tags = new ArrayList<>(4);
-
-		tags.add(new Tag(key, value));
+		if (tagIds == null)
+			tagIds = new int[4];
+		else if (2 * numTags == tagIds.length)
+			tagIds = Arrays.copyOf(tagIds, tagIds.length * 2);
+		int pos = 2 * numTags;
+		tagIds[pos] = keyId;
+		tagIds[pos + 1] = valueId;
+		if (keyId == StringDictionary.NOT_INTERNED || valueId == StringDictionary.NOT_INTERNED) {
+			if (tagStrings == null || tagStrings.length < tagIds.length)
+				tagStrings = tagStrings == null ? new String[tagIds.length] : Arrays.copyOf(tagStrings, tagIds.length);
+			if (keyId == StringDictionary.NOT_INTERNED)
+				tagStrings[pos] = key;
+			if (valueId == StringDictionary.NOT_INTERNED)
+				tagStrings[pos + 1] = value;
+		}
+		numTags++;
 	}
 
 	public boolean hasTags() {
-		return tags != null && !tags.isEmpty();
+		return numTags > 0;
+	}
+
+	public int getTagCount() {
+		return numTags;
+	}
+
+	/**
+	 * @param i the tag index
+	 * @return the id of the key in {@link #TAGS} or {@link StringDictionary#NOT_INTERNED}
+	 */
+	public int getTagKeyId(int i) {
+		return tagIds[2 * i];
+	}
+
+	/**
+	 * @param i the tag index
+	 * @return the id of the value in {@link #TAGS} or {@link StringDictionary#NOT_INTERNED}
+	 */
+	public int getTagValueId(int i) {
+		return tagIds[2 * i + 1];
+	}
+
+	public String getTagKey(int i) {
+		return getTagString(2 * i);
+	}
+
+	public String getTagValue(int i) {
+		return getTagString(2 * i + 1);
+	}
+
+	private String getTagString(int pos) {
+		int stringId = tagIds[pos];
+		return stringId == StringDictionary.NOT_INTERNED ? tagStrings[pos] : TAGS.getString(stringId);
 	}
 
 	public Iterator<Tag> tagsIterator() {
-		if (tags == null)
+		if (numTags == 0)
 			return Collections.emptyIterator();
 
-		return tags.iterator();
+		return new Iterator<Tag>() {
+			private int pos;
+
+			@Override
+			public boolean hasNext() {
+				return pos < numTags;
+			}
+
+			@Override
+			public Tag next() {
+				if (pos >= numTags)
+					throw new NoSuchElementException();
+				Tag tag = new Tag(getTagKey(pos), getTagValue(pos));
+				pos++;
+				return tag;
+			}
+		};
 	}
 	
 	public String getTag (String key){
-		if (tags == null)
-			return null;
-		for (Tag tag:tags){
-			if (key.equals(tag.key))
-				return tag.value;
+		for (int i = 0; i < numTags; i++) {
+			if (key.equals(getTagKey(i)))
+				return getTagValue(i);
 		}
 		return null;
 	}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+package uk.me.parabola.splitter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+
+/**
+ * A single level grid that covers the area covered by all areas. The grid is
+ * stored in one int array, each element contains the index of the precomputed
+ * result for the set of areas which intersect the grid element, together with
+ * a flag that tells whether the grid element lies completely within all these
+ * areas. The cells are small enough to lie within the smallest area, so that
+ * most nodes need no test.
+ * The grid is not changed after it was created, so it can be used by several threads.
+ *
+ * @author agent
+ */
+public class FlatAreaGrid implements AreaIndex {
+	/** the maximum number of grid elements */
+	private static final int MAX_CELLS = 1 << 22;
+	/** the wanted number of grid elements along each side of the smallest area */
+	private static final int CELLS_PER_AREA_SIDE = 4;
+	/** the minimum number of grid elements in each direction */
+	private static final int MIN_DIM = 512;
+	private static final int EMPTY = -1;
+
+	private final Area bounds;
+	private final int minLat;
+	private final int minLon;
+	private final int cellHeight;
+	private final int cellWidth;
+	private final int dimLon;
+	/** index into results or EMPTY for each grid element, the lowest bit is set if no test is needed */
+	private final int[] cells;
+	private final AreaGridResult[] results;
+
+	/**
+	 * Create the grid.
+	 * @param areaDictionary the dictionary with the areas
+	 */
+	FlatAreaGrid(AreaDictionary areaDictionary) {
+		int numAreas = areaDictionary.getNumOfAreas();
+		Area[] extAreas = new Area[numAreas];
+		for (int i = 0; i < numAreas; i++)
+			extAreas[i] = areaDictionary.getExtendedArea(i);
+		bounds = calcBounds(extAreas);
+		minLat = bounds.getMinLat();
+		minLon = bounds.getMinLong();
+		long[] dims = calcWantedDims(extAreas, bounds);
+		double scale = 1;
+		if (dims[0] * dims[1] > MAX_CELLS)
+			scale = Math.sqrt((double) MAX_CELLS / (dims[0] * dims[1]));
+		int dimLat = (int) Math.max(1, Math.min(MAX_CELLS, dims[1] * scale));
+		dimLon = (int) Math.max(1, Math.min(MAX_CELLS / dimLat, dims[0] * scale));
+		// the cells of the last row and column may exceed the bounds
+		cellWidth = (int) (((long) bounds.getWidth() + dimLon) / dimLon);
+		cellHeight = (int) (((long) bounds.getHeight() + dimLat) / dimLat);
+
+		cells = new int[dimLon * dimLat];
+		Arrays.fill(cells, EMPTY);
+		BitSet testNeeded = new BitSet(cells.length);
+		ArrayList<AreaSet> sets = new ArrayList<>();
+		// maps a set and an added area to the resulting set
+		Long2IntOpenHashMap transitions = new Long2IntOpenHashMap();
+		transitions.defaultReturnValue(EMPTY);
+		int maxTests = 0;
+		for (int j = 0; j < numAreas; j++) {
+			Area a = extAreas[j];
+			int startLon = (a.getMinLong() - minLon) / cellWidth;
+			int endLon = Math.min(dimLon - 1, (a.getMaxLong() - minLon) / cellWidth);
+			int startLat = (a.getMinLat() - minLat) / cellHeight;
+			int endLat = Math.min(dimLat - 1, (a.getMaxLat() - minLat) / cellHeight);
+			// the sets of neighbouring cells are often equal
+			int lastSet = EMPTY - 1;
+			int lastNewSet = EMPTY;
+			for (int lat = startLat; lat <= endLat; lat++) {
+				int cellMinLat = minLat + lat * cellHeight;
+				int cellMaxLat = Math.min(bounds.getMaxLat(), cellMinLat + cellHeight - 1);
+				boolean insideLat = a.getMinLat() <= cellMinLat && cellMaxLat <= a.getMaxLat();
+				for (int lon = startLon; lon <= endLon; lon++) {
+					int pos = lat * dimLon + lon;
+					int oldSet = cells[pos];
+					if (oldSet != lastSet) {
+						lastSet = oldSet;
+						long key = ((long) oldSet << 32) | j;
+						lastNewSet = transitions.get(key);
+						if (lastNewSet == EMPTY) {
+							AreaSet set = oldSet == EMPTY ? new AreaSet() : new AreaSet(sets.get(oldSet));
+							set.set(j);
+							set.lock();
+							lastNewSet = sets.size();
+							sets.add(set);
+							transitions.put(key, lastNewSet);
+						}
+					}
+					cells[pos] = lastNewSet;
+					if (!testNeeded.get(pos)) {
+						int cellMinLon = minLon + lon * cellWidth;
+						int cellMaxLon = Math.min(bounds.getMaxLong(), cellMinLon + cellWidth - 1);
+						if (!insideLat || a.getMinLong() > cellMinLon || cellMaxLon > a.getMaxLong())
+							testNeeded.set(pos);
+					}
+				}
+			}
+		}
+		results = new AreaGridResult[2 * sets.size()];
+		for (int i = 0; i < sets.size(); i++) {
+			results[2 * i] = new AreaGridResult(sets.get(i), true);
+			results[2 * i + 1] = new AreaGridResult(sets.get(i), false);
+		}
+		for (int pos = 0; pos < cells.length; pos++) {
+			int set = cells[pos];
+			if (set == EMPTY)
+				continue;
+			if (testNeeded.get(pos))
+				maxTests = Math.max(maxTests, sets.get(set).cardinality());
+			cells[pos] = 2 * set + (testNeeded.get(pos) ? 0 : 1);
+		}
+		System.out.println("FlatAreaGrid [" + dimLon + "][" + dimLat + "] for grid area " + bounds
+				+ " requires max. " + maxTests + " checks for each node");
+	}
+
+	private static Area calcBounds(Area[] areas) {
+		Area tmpBounds = null;
+		for (Area a : areas)
+			tmpBounds = (tmpBounds == null) ? a : tmpBounds.add(a);
+		// create new Area to make sure that we don't update the existing area
+		return new Area(tmpBounds.getMinLat(), tmpBounds.getMinLong(), tmpBounds.getMaxLat(), tmpBounds.getMaxLong());
+	}
+
+	/**
+	 * @return the number of grid elements in both directions so that the
+	 * smallest area covers {@link #CELLS_PER_AREA_SIDE} elements, at least {@link #MIN_DIM}.
+	 */
+	private static long[] calcWantedDims(Area[] areas, Area bounds) {
+		int minWidth = Integer.MAX_VALUE;
+		int minHeight = Integer.MAX_VALUE;
+		for (Area a : areas) {
+			minWidth = Math.min(minWidth, a.getWidth());
+			minHeight = Math.min(minHeight, a.getHeight());
+		}
+		long dimLon = Math.max(MIN_DIM, (long) bounds.getWidth() * CELLS_PER_AREA_SIDE / Math.max(1, minWidth));
+		long dimLat = Math.max(MIN_DIM, (long) bounds.getHeight() * CELLS_PER_AREA_SIDE / Math.max(1, minHeight));
+		return new long[] { dimLon, dimLat };
+	}
+
+	/**
+	 * @param areaDictionary the dictionary with the areas
+	 * @return true if the grid elements can be small enough for the smallest area
+	 */
+	static boolean isSuitable(AreaDictionary areaDictionary) {
+		Area[] extAreas = new Area[areaDictionary.getNumOfAreas()];
+		for (int i = 0; i < extAreas.length; i++)
+			extAreas[i] = areaDictionary.getExtendedArea(i);
+		long[] dims = calcWantedDims(extAreas, calcBounds(extAreas));
+		return dims[0] * dims[1] <= MAX_CELLS;
+	}
+
+	@Override
+	public Area getBounds() {
+		return bounds;
+	}
+
+	@Override
+	public AreaGridResult get(final Node n) {
+		return get(n.getMapLat(), n.getMapLon());
+	}
+
+	@Override
+	public AreaGridResult get(int lat, int lon) {
+		if (!bounds.contains(lat, lon))
+			return null;
+		int cell = cells[((lat - minLat) / cellHeight) * dimLon + (lon - minLon) / cellWidth];
+		return cell == EMPTY ? null : results[cell];
+	}
+}
@@ -51,9 +51,16 @@ public class Main {
 	/** The amount in map units that tiles overlap. The default is overwritten depending on user settings. */
 	private int overlapAmount = -1;
 
+	/** The maximum number of areas in a distribution or problem-list pass. */
+	private int maxAreasPerPass;
+
 	/** The number of tiles to be written. The default is overwritten depending on user settings. */
 	private int numTiles = -1;
 
+	/** The shard written by this process, 0 for the coordinator, or -1 if the split is not sharded. */
+	private int shard = -1;
+	private int numShards;
+
 	/** The path where the results are written out to. */
 	private File fileOutputDir;
 
@@ -110,6 +117,10 @@ public class Main {
 			osmFileHandler.setFileNames(fileNameList);
 			osmFileHandler.setMixed(mainOptions.isMixed()); 
 			osmFileHandler.setMaxThreads(mainOptions.getMaxThreads().getCount());
+			osmFileHandler.setReadAhead(mainOptions.getReadAhead());
+			osmFileHandler.setPrefetchNextFile(mainOptions.isPrefetchNextFile());
+			if (mainOptions.getWorkCache() != null)
+				osmFileHandler.setWorkCacheDir(new File(mainOptions.getWorkCache()));
 
 			if (mainOptions.isKeepComplete() && mainOptions.getProblemFile() != null) {
 				// read the user list now so that possible problems are reported early
@@ -117,20 +128,35 @@ public class Main {
 					throw new IllegalArgumentException();
 			}
 			
-			// first step: either read or calculate the list of areas
-			List<Area> areas = split();
 			DataStorer dataStorer;
-			if (mainOptions.isKeepComplete()) {
-				// optional step a: calculate list of ways and relations which are contained in multiple areas 
-				dataStorer = calcProblemLists(areas);
-				// optional step b: calculate the writers for the list of "problem" ways and relations 
-				useProblemLists(dataStorer);
+			if (shard > 0) {
+				// the coordinator did all other steps
+				ShardData shardData = ShardData.load(fileOutputDir, numShards, mainOptions.getAreaIndex());
+				overlapAmount = shardData.getOverlapAmount();
+				dataStorer = shardData.getDataStorer();
+				System.out.println("Writing shard " + shard + " of " + numShards);
+				writeTiles(dataStorer, shardData.getFirstArea(shard), shardData.getEndArea(shard));
+				dataStorer.finish();
 			} else {
-				dataStorer = new DataStorer(areas, overlapAmount);
+				// first step: either read or calculate the list of areas
+				// the passes and shards process consecutive areas, so neighbours should be consecutive
+				List<Area> areas = PassPlanner.sortByLocation(split());
+				if (mainOptions.isKeepComplete()) {
+					// optional step a: calculate list of ways and relations which are contained in multiple areas 
+					dataStorer = calcProblemLists(areas);
+					// optional step b: calculate the writers for the list of "problem" ways and relations 
+					useProblemLists(dataStorer);
+				} else {
+					dataStorer = new DataStorer(areas, overlapAmount, mainOptions.getAreaIndex());
+				}
+				if (shard == 0) {
+					ShardData.save(fileOutputDir, dataStorer, numShards, overlapAmount);
+				} else {
+					// final step: write the OSM output files
+					writeTiles(dataStorer, 0, areas.size());
+					dataStorer.finish();
+				}
 			}
-			// final step: write the OSM output files
-			writeTiles(dataStorer);
-			dataStorer.finish();
 		} catch (IOException e) {
 			System.err.println("Error opening or reading file " + e);
 			e.printStackTrace();
@@ -273,7 +299,7 @@ public class Main {
 	}
 
 	private DataStorer calcProblemLists(List<Area> areas) {
-		DataStorer dataStorer = problemList.calcProblemLists(osmFileHandler, areas, overlapAmount, mainOptions);
+		DataStorer dataStorer = problemList.calcProblemLists(osmFileHandler, areas, overlapAmount, maxAreasPerPass, mainOptions);
 		String problemReport = mainOptions.getProblemReport();
 		if (problemReport != null) {
 			problemList.writeProblemList(fileOutputDir, problemReport);
@@ -348,6 +374,26 @@ public class Main {
 				throw new IllegalArgumentException();
 			}
 		}
+		String shardParm = params.getShard();
+		if (shardParm != null) {
+			String[] parts = shardParm.split("/");
+			try {
+				if (parts.length != 2)
+					throw new NumberFormatException();
+				shard = Integer.parseInt(parts[0].trim());
+				numShards = Integer.parseInt(parts[1].trim());
+			} catch (NumberFormatException e) {
+				shard = -1;
+			}
+			if (shard < 0 || numShards < 1 || shard > numShards) {
+				System.err.println("Error: Invalid value " + shardParm
+						+ ". The --shard parameter must be i/n with n > 0 and i from 0 to n.");
+				throw new IllegalArgumentException();
+			}
+			if (shard > 0 && params.getSplitFile() != null) {
+				System.out.println("Parameter --split-file is ignored, the areas are read from " + ShardData.FILE_NAME);
+			}
+		}
 		// The description to write into the template.args file.
 		String geoNamesFile = params.getGeonamesFile();
 		checkOptionalFileOption(geoNamesFile, "geonames-file");
@@ -366,9 +412,23 @@ public class Main {
 		String outputDir = params.getOutputDir();
 		fileOutputDir = new File(outputDir == null ? DEFAULT_DIR : outputDir);
 
-		int maxAreasPerPass = params.getMaxAreas();
-		if (maxAreasPerPass < 1 || maxAreasPerPass > 9999) {
-			System.err.println("The --max-areas parameter must be a value between 1 and 9999.");
+		String maxAreas = params.getMaxAreas();
+		if ("auto".equals(maxAreas)) {
+			maxAreasPerPass = PassPlanner.calcMaxAreasPerPass(Runtime.getRuntime().maxMemory());
+			System.out.println("Processing up to " + maxAreasPerPass + " areas in a single pass (--max-areas=auto)");
+		} else {
+			try {
+				maxAreasPerPass = Integer.parseInt(maxAreas);
+			} catch (NumberFormatException e) {
+				maxAreasPerPass = 0;
+			}
+			if (maxAreasPerPass < 1) {
+				System.err.println("The --max-areas parameter must be auto or a value greater than 0.");
+				throw new IllegalArgumentException();
+			}
+		}
+		if (params.getMaxOpenFiles() < 1) {
+			System.err.println("The --max-open-files parameter must be a value greater than 0.");
 			throw new IllegalArgumentException();
 		}
 		String problemFile = params.getProblemFile();
@@ -388,6 +448,19 @@ public class Main {
 			}
 		}
 
+		if (!AreaIndexFactory.isValidType(params.getAreaIndex())) {
+			System.err.println("The --area-index parameter must be either auto, grid, flat-grid, or rtree.");
+			throw new IllegalArgumentException();
+		}
+
+		String workCacheDir = params.getWorkCache();
+		if (workCacheDir != null) {
+			File dir = new File(workCacheDir);
+			if (!dir.isDirectory() && !dir.mkdirs()) {
+				throw new IllegalArgumentException("work-cache directory cannot be created: " + workCacheDir);
+			}
+		}
+
 		boolean keepComplete = params.isKeepComplete();
 		if (params.isMixed()  && (keepComplete || problemFile != null)) {
 			System.err.println(
@@ -422,6 +495,10 @@ public class Main {
 			throw new IllegalArgumentException(
 					"the --stop-after parameter must be one of " + validStopAfter + ".");
 		}
+		if (params.isCopyNodeBlocks()
+				&& (!"pbf".equals(outputType) || !"keep".equals(params.getHandleElementVersion()))) {
+			System.out.println("Parameter --copy-node-blocks is ignored, it requires --output=pbf and --handle-element-version=keep");
+		}
 		int searchLimit = params.getSearchLimit();
 		if (searchLimit < 1000) {
 			throw new IllegalArgumentException("The --search-limit parameter must be 1000 or higher.");
@@ -514,36 +591,52 @@ public class Main {
 	 * 
 	 * @param dataStorer
 	 *            collects data used in different program passes
+	 * @param firstArea the index of the first area to write
+	 * @param endArea the index of the last area to write + 1
 	 */
-	private void writeTiles(DataStorer dataStorer) throws IOException {
+	private void writeTiles(DataStorer dataStorer, int firstArea, int endArea) throws IOException {
 		List<Area> areas = dataStorer.getAreaDictionary().getAreas();
+		int numAreas = endArea - firstArea;
+		if (numAreas == 0) {
+			System.out.println("No areas to write");
+			return;
+		}
 		// the final split passes,
 		dataStorer.switchToSeqAccess(fileOutputDir);
 		dataStorer.setWriters(createWriters(areas));
 
 		System.out.println("Distributing data " + new Date());
 
-		int numPasses = (int) Math.ceil((double) areas.size() / mainOptions.getMaxAreas());
-		int areasPerPass = (int) Math.ceil((double) areas.size() / numPasses);
+		int[] passStarts = PassPlanner.calcPassStarts(areas, firstArea, endArea, maxAreasPerPass);
+		int numPasses = passStarts.length - 1;
 
 		long startDistPass = System.currentTimeMillis();
 		if (numPasses > 1) {
-			System.out.println("Processing " + areas.size() + " areas in " + numPasses + " passes, " + areasPerPass
-					+ " areas at a time");
+			System.out.println("Processing " + numAreas + " areas in " + numPasses + " passes, up to "
+					+ maxAreasPerPass + " areas at a time");
 		} else {
-			System.out.println("Processing " + areas.size() + " areas in a single pass");
+			System.out.println("Processing " + numAreas + " areas in a single pass");
 		}
+		// the first pass searches the areas of the nodes for all passes
+		NodeAreaCache nodeAreas = null;
+		if (numPasses > 1)
+			nodeAreas = new NodeAreaCache(fileOutputDir, firstArea, endArea - 1);
 		for (int i = 0; i < numPasses; i++) {
-			int areaOffset = i * areasPerPass;
-			int numAreasThisPass = Math.min(areasPerPass, areas.size() - i * areasPerPass);
+			int areaOffset = passStarts[i];
+			int numAreasThisPass = passStarts[i + 1] - areaOffset;
 			dataStorer.restartWriterMaps();
-			SplitProcessor processor = new SplitProcessor(dataStorer, areaOffset, numAreasThisPass, mainOptions);
+			SplitProcessor processor = new SplitProcessor(dataStorer, areaOffset, numAreasThisPass, mainOptions,
+					nodeAreas);
 
+			long nodes = 0;
+			for (int j = areaOffset; j < areaOffset + numAreasThisPass; j++)
+				nodes += areas.get(j).getEstimatedNodes();
 			System.out.println("Starting distribution pass " + (i + 1) + " of " + numPasses + ", processing "
-					+ numAreasThisPass + " areas (" + areas.get(i * areasPerPass).getMapId() + " to "
-					+ areas.get(i * areasPerPass + numAreasThisPass - 1).getMapId() + ')');
+					+ numAreasThisPass + " areas with " + Utils.format(nodes) + " estimated nodes");
 			osmFileHandler.execute(processor);
 		}
+		if (nodeAreas != null)
+			nodeAreas.finish();
 		System.out.println("Distribution pass(es) took " + (System.currentTimeMillis() - startDistPass) + " ms");
 	}
 
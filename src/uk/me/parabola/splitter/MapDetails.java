@@ -40,6 +40,18 @@ public class MapDetails {
 			maxLon = lon;
 	}
 
+	/**
+	 * Add the bounds of other map details.
+	 * @param other the other details
+	 */
+	public void addToBounds(MapDetails other) {
+		// nothing was added to the other details
+		if (other.minLat > other.maxLat)
+			return;
+		addToBounds(other.minLat, other.minLon);
+		addToBounds(other.maxLat, other.maxLon);
+	}
+
 	/**
 	 * Get the bounds of this map.
 	 *
@@ -13,6 +13,7 @@
 
 package uk.me.parabola.splitter;
 
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 
 public interface MapProcessor {
@@ -23,6 +24,14 @@ public interface MapProcessor {
 	 */
 	
 	boolean skipTags();
+
+	/**
+	 * (performance) Returns the keys of the tags that the processor uses when
+	 * {@link #skipTags()} returns false. Readers may drop all other tags.
+	 * @return the keys or null if all tags are needed
+	 */
+	Set<String> getWantedKeys();
+
 	/**
 	 * (performance) Returns true if the reader is allowed to skip nodes
 	 * while reading OSM data
@@ -40,6 +49,41 @@ public interface MapProcessor {
 	 */
 	boolean skipRels();
 
+	/**
+	 * (performance) Returns true if the processor wants to receive nodes and ways
+	 * via {@link #processNodes(NodeBatch)} and {@link #processWays(WayBatch)}.
+	 * Batches don't contain tags, so readers use them only when
+	 * {@link #skipTags()} also returns true.
+	 */
+	boolean useBatches();
+
+	/**
+	 * (performance) Returns true if the processor wants to receive complete
+	 * blocks of nodes via {@link #processNodeBlock(NodeBlock)}. Only pbf readers
+	 * do that, and only for blocks with a bounding box in the block index.
+	 */
+	boolean useNodeBlocks();
+
+	/**
+	 * Called with a block of nodes instead of the single nodes when
+	 * {@link #useNodeBlocks()} returns true. A processor which doesn't want to
+	 * handle the block as a whole calls {@link NodeBlock#parse(MapProcessor)}.
+	 */
+	void processNodeBlock(NodeBlock block);
+
+	/**
+	 * (performance) Returns true if the reader is allowed to skip a block of
+	 * nodes because the processor doesn't need any of them. Readers ask only
+	 * for blocks which contain nothing but nodes and whose bounding box is
+	 * known from an index. The method may be called by another thread and
+	 * before the previous elements were processed, so the result must not
+	 * depend on the processed elements.
+	 * @param bounds the bounding box of the nodes in map units
+	 * @param minId the lowest node id in the block
+	 * @param maxId the highest node id in the block
+	 */
+	boolean skipNodeBlock(Area bounds, long minId, long maxId);
+
 	/**
 	 * returns a value that identifies the current phase
 	 * @return
@@ -65,6 +109,20 @@ public interface MapProcessor {
 	*/
 	void processWay(Way w);
 	
+	/**
+	 * Called with a list of nodes instead of {@link #processNode(Node)} when
+	 * {@link #useBatches()} returns true. The batch is reused by the caller,
+	 * so the processor must not keep a reference to it.
+	 */
+	void processNodes(NodeBatch nodes);
+
+	/**
+	 * Called with a list of ways instead of {@link #processWay(Way)} when
+	 * {@link #useBatches()} returns true. The batch is reused by the caller,
+	 * so the processor must not keep a reference to it.
+	 */
+	void processWays(WayBatch ways);
+
 	/**
 	 * Called when a whole relation has been processed. 
 	*/
@@ -12,7 +12,6 @@
  */ 
 package uk.me.parabola.splitter;
 
-import uk.me.parabola.splitter.Relation.Member;
 import uk.me.parabola.splitter.tools.Long2IntClosedMap;
 import uk.me.parabola.splitter.tools.Long2IntClosedMapFunction;
 import uk.me.parabola.splitter.tools.OSMId2ObjectMap;
@@ -23,9 +22,12 @@ import it.unimi.dsi.fastutil.longs.LongArrayList;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Analyzes elements that should be written to multiple tiles 
@@ -38,12 +40,17 @@ class MultiTileProcessor extends AbstractMapProcessor {
 	private final static int PHASE4_WAYS_ONLY = 4;
 	
 	private final boolean addParentRels = false;
-	private final static byte MEM_NODE_TYPE = 1;
-	private final static byte MEM_WAY_TYPE  = 2;
-	private final static byte MEM_REL_TYPE  = 3;
-	private final static byte MEM_INVALID_TYPE = -1;
+	private final static byte MEM_NODE_TYPE = Relation.MEM_NODE;
+	private final static byte MEM_WAY_TYPE  = Relation.MEM_WAY;
+	private final static byte MEM_REL_TYPE  = Relation.MEM_RELATION;
 	private final static int PROBLEM_WIDTH = Utils.toMapUnit(180.0);
 	protected final static String[] NAME_TAGS = {"name","name:en","int_name","note"};
+	// the keys used for the names of relations, other keys with "name" are rarely used alone
+	private final static Set<String> WANTED_KEYS = new HashSet<>(Arrays.asList(NAME_TAGS));
+	static {
+		WANTED_KEYS.addAll(Arrays.asList("type", "postal_code", "official_name", "alt_name", "old_name",
+				"short_name", "loc_name"));
+	}
 	private final static String NOT_SORTED_MSG = "Maybe the IDs are not sorted. This is not supported with keep-complete=true or --problem-list";
 	
 	private int phase = PHASE1_RELS_ONLY;
@@ -70,6 +77,7 @@ class MultiTileProcessor extends AbstractMapProcessor {
 	private int neededWaysCount; 
 	private int neededMpWaysCount; 
 	private int visitId;
+	private final Way reusedWay = new Way();
 	
 
 	MultiTileProcessor(DataStorer dataStorer, LongArrayList problemWayList, LongArrayList problemRelList) {
@@ -96,6 +104,11 @@ class MultiTileProcessor extends AbstractMapProcessor {
 		return true;
 	}
 
+	@Override
+	public Set<String> getWantedKeys() {
+		return WANTED_KEYS;
+	}
+
 	@Override
 	public boolean skipNodes() {
 		if (phase == PHASE3_NODES_AND_WAYS)
@@ -115,6 +128,11 @@ class MultiTileProcessor extends AbstractMapProcessor {
 		return true;
 	}
 
+	@Override
+	public boolean useBatches() {
+		return phase != PHASE1_RELS_ONLY;
+	}
+
 	@Override
 	public int getPhase() {
 		return phase;
@@ -124,13 +142,42 @@ class MultiTileProcessor extends AbstractMapProcessor {
 	public void processNode(Node node) {
 		if (phase == PHASE3_NODES_AND_WAYS){
 			if (neededNodes.get(node.getId())){
-				storeCoord(node);
+				storeCoord(node.getId(), node.getMapLat(), node.getMapLon());
 				// return memory to GC
 				neededNodes.clear(node.getId());
 			}
 		}
 	}
 
+	@Override
+	public void processNodes(NodeBatch nodes) {
+		if (phase != PHASE3_NODES_AND_WAYS)
+			return;
+		for (int i = 0; i < nodes.size(); i++) {
+			long id = nodes.getId(i);
+			if (neededNodes.get(id)) {
+				storeCoord(id, nodes.getMapLat(i), nodes.getMapLon(i));
+				// return memory to GC
+				neededNodes.clear(id);
+			}
+		}
+	}
+
+	@Override
+	public void processWays(WayBatch ways) {
+		long[] refs = ways.getRefs();
+		for (int i = 0; i < ways.size(); i++) {
+			if (!neededWays.get(ways.getId(i)))
+				continue;
+			// processWay() doesn't keep a reference to the way, so one instance is enough
+			reusedWay.setId(ways.getId(i));
+			LongArrayList wayRefs = reusedWay.getRefs();
+			wayRefs.clear();
+			wayRefs.addElements(0, refs, ways.getRefStart(i), ways.getRefEnd(i) - ways.getRefStart(i));
+			processWay(reusedWay);
+		}
+	}
+
 	@Override
 	public void processWay(Way way) {
 		if (phase == PHASE2_WAYS_ONLY){
@@ -491,10 +538,11 @@ class MultiTileProcessor extends AbstractMapProcessor {
 
 	/**
 	 * Store the coordinates of a node in the most appropriate data structure.
-	 * @param node
+	 * @param id the node id
+	 * @param mapLat the latitude in map units
+	 * @param mapLon the longitude in map units
 	 */
-	private void storeCoord(Node node) {
-		long id = node.getId();
+	private void storeCoord(long id, int mapLat, int mapLon) {
 		if (lastCoordId >= id){
 			System.err.println("Error: Node ids are not sorted. Use e.g. osmosis to sort the input data.");
 			System.err.println("This is not supported with keep-complete=true or --problem-list"); 
@@ -508,8 +556,8 @@ class MultiTileProcessor extends AbstractMapProcessor {
 			throw new SplitFailedException(NOT_SORTED_MSG);
 		}
 				
-		nodeLons[nodePos ] = node.getMapLon();
-		nodeLats[nodePos] = node.getMapLat();
+		nodeLons[nodePos] = mapLon;
+		nodeLats[nodePos] = mapLat;
 		lastCoordId = id;
 	}
 
@@ -813,7 +861,7 @@ class MultiTileProcessor extends AbstractMapProcessor {
 		LongArrayList polygonWays = new LongArrayList();
 		for (int i = 0; i < rel.numMembers; i++){
 			long memId = rel.memRefs[i];
-			if (rel.memTypes[i] == MEM_WAY_TYPE && "inner".equals(rel.memRoles[i]) == false){
+			if (rel.memTypes[i] == MEM_WAY_TYPE && rel.memRoles[i] != Relation.INNER_ROLE){
 				wayMembers.add(memId);
 			}
 		}
@@ -938,7 +986,7 @@ class MultiTileProcessor extends AbstractMapProcessor {
 
 		private final long id;
 		protected final byte[] memTypes;
-		protected final String[] memRoles;
+		protected final int[] memRoles;
 		protected final long[] memRefs;
 		protected final int numMembers;
 		private final String name;
@@ -948,30 +996,21 @@ class MultiTileProcessor extends AbstractMapProcessor {
 		private short flags; 	// flags for the MultiTileProcessor
 		
 		public MTRelation(Relation rel){
-			numMembers  = rel.getMembers().size();
+			numMembers  = rel.getMemberCount();
 			memTypes = new byte[numMembers];
-			memRoles = new String[numMembers];
+			memRoles = new int[numMembers];
 			memRefs = new long[numMembers];
 			id = rel.getId();
 			for (int i = 0; i<numMembers; i++){
-				Member mem = rel.getMembers().get(i);
-				memRefs[i] = mem.getRef(); 
-				memRoles[i] = mem.getRole().intern();
-				if ("node".equals(mem.getType())){
-					memTypes[i] = MEM_NODE_TYPE;
+				memRefs[i] = rel.getMemberRef(i); 
+				memRoles[i] = rel.getMemberRoleId(i);
+				memTypes[i] = rel.getMemberType(i);
+				if (memTypes[i] == MEM_NODE_TYPE)
 					flags |= HAS_NODES;
-				}
-				else if ("way".equals(mem.getType())){
-					memTypes[i] = MEM_WAY_TYPE;
+				else if (memTypes[i] == MEM_WAY_TYPE)
 					flags |= HAS_WAYS;
-				} 
-				else if ("relation".equals(mem.getType())){
-					memTypes[i] = MEM_REL_TYPE;
+				else if (memTypes[i] == MEM_REL_TYPE)
 					flags |= HAS_RELS;
-				}
-				else
-					memTypes[i] = MEM_INVALID_TYPE;
-				
 			}
 
 			String type = rel.getTag("type");
@@ -18,26 +18,85 @@ package uk.me.parabola.splitter;
  * @author Steve Ratcliffe
  */
 public class Node extends Element {
-	private double lat, lon;
+	/** the coordinates in units of 1e-7 degrees */
+	private int lat, lon;
 	private int mapLat, mapLon;
 
+	/**
+	 * Set id and coordinates.
+	 * @param id the node id
+	 * @param lat the latitude in degrees
+	 * @param lon the longitude in degrees
+	 * @throws IllegalArgumentException if the coordinates are invalid
+	 */
 	public void set(long id, double lat, double lon) {
+		long fixedLat = Utils.toFixed(lat);
+		if (fixedLat != (int) fixedLat)
+			throw new IllegalArgumentException("invalid lattitude value " + lat);
+		long fixedLon = Utils.toFixed(lon);
+		if (fixedLon != (int) fixedLon)
+			throw new IllegalArgumentException("invalid longitude value " + lon);
+		setFixed(id, (int) fixedLat, (int) fixedLon);
+	}
+
+	/**
+	 * Set id and coordinates.
+	 * @param id the node id
+	 * @param lat the latitude in units of 1e-7 degrees
+	 * @param lon the longitude in units of 1e-7 degrees
+	 * @throws IllegalArgumentException if the coordinates are invalid
+	 */
+	public void setFixed(long id, int lat, int lon) {
 		setId(id);
 		this.lat = lat;
 		this.lon = lon;
-		this.mapLat = Utils.toMapUnit(lat);
-		this.mapLon = Utils.toMapUnit(lon);
+		this.mapLat = toMapLat(lat);
+		this.mapLon = toMapLon(lon);
+	}
+
+	/**
+	 * Convert a latitude value to map units.
+	 * @param lat the latitude in units of 1e-7 degrees
+	 * @throws IllegalArgumentException if the value is out of range
+	 */
+	static int toMapLat(int lat) {
+		int mapLat = Utils.fixedToMapUnit(lat);
 		if (mapLat < Utils.MIN_LAT_MAP_UNITS || mapLat > Utils.MAX_LAT_MAP_UNITS)
-			throw new IllegalArgumentException("invalid lattitude value " + lat);
+			throw new IllegalArgumentException("invalid lattitude value " + Utils.fixedToDegrees(lat));
+		return mapLat;
+	}
+
+	/**
+	 * Convert a longitude value to map units.
+	 * @param lon the longitude in units of 1e-7 degrees
+	 * @throws IllegalArgumentException if the value is out of range
+	 */
+	static int toMapLon(int lon) {
+		int mapLon = Utils.fixedToMapUnit(lon);
 		if (mapLon < Utils.MIN_LON_MAP_UNITS || mapLon > Utils.MAX_LON_MAP_UNITS)
-			throw new IllegalArgumentException("invalid longitude value " + lon);
+			throw new IllegalArgumentException("invalid longitude value " + Utils.fixedToDegrees(lon));
+		return mapLon;
 	}
 
 	public double getLat() {
-		return lat;
+		return Utils.fixedToDegrees(lat);
 	}
 
 	public double getLon() {
+		return Utils.fixedToDegrees(lon);
+	}
+
+	/**
+	 * @return the latitude in units of 1e-7 degrees
+	 */
+	public int getFixedLat() {
+		return lat;
+	}
+
+	/**
+	 * @return the longitude in units of 1e-7 degrees
+	 */
+	public int getFixedLon() {
 		return lon;
 	}
 
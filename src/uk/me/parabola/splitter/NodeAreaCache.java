@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Stores the areas of the nodes found in the first distribution pass in a
+ * temporary file, so that the following passes don't have to search the
+ * areas again. The value of a node is the {@link AreaDictionary} index of
+ * all areas written in the distribution passes which contain the node, so
+ * each pass only has to filter its own areas.
+ * The nodes must be added and read in ascending order of the ids, only
+ * nodes with at least one area are stored. Each entry is written as the
+ * difference to the previous id, followed by the value if it is different
+ * to the previous one, so most nodes need one or two bytes.
+ *
+ * @author agent
+ */
+class NodeAreaCache {
+	private static final int BUF_SIZE = 1 << 16;
+
+	private final int firstArea;
+	private final int lastArea;
+	private final File file;
+	private final byte[] buf = new byte[BUF_SIZE];
+	private int bufPos;
+	private int bufLen;
+	private OutputStream out;
+	private InputStream in;
+	/** false if the ids were not in ascending order */
+	private boolean valid = true;
+	private long count;
+	private long bytes;
+
+	// the position in the file
+	private long numRead;
+	private long currentId;
+	private int currentVal;
+
+	/**
+	 * Create an empty cache.
+	 * @param dir the directory for the temporary file
+	 * @param firstArea the first area of the distribution passes
+	 * @param lastArea the last area of the distribution passes
+	 * @throws IOException
+	 */
+	NodeAreaCache(File dir, int firstArea, int lastArea) throws IOException {
+		this.firstArea = firstArea;
+		this.lastArea = lastArea;
+		file = File.createTempFile("node-areas", null, dir);
+		file.deleteOnExit();
+		out = new FileOutputStream(file);
+	}
+
+	int getFirstArea() {
+		return firstArea;
+	}
+
+	int getLastArea() {
+		return lastArea;
+	}
+
+	/**
+	 * @return true if the cache was filled and can be read
+	 */
+	boolean isReadable() {
+		return out == null && valid;
+	}
+
+	/**
+	 * Add a node.
+	 * @param id the node id, must be higher than the id of the previous node
+	 * @param areasId the {@link AreaDictionary} index of the areas of the node
+	 */
+	void add(long id, int areasId) {
+		if (!valid)
+			return;
+		long delta = id - currentId;
+		if (count > 0 && (delta <= 0 || delta >= 1L << 62)) {
+			// not sorted, can't be read sequentially
+			System.out.println("Nodes are not sorted by id, the areas of the nodes are calculated in each pass");
+			valid = false;
+			return;
+		}
+		try {
+			if (count == 0) {
+				writeVarLong(zigzag(id) << 1 | 1);
+				writeVarLong(zigzag(areasId));
+			} else if (areasId == currentVal) {
+				writeVarLong(delta << 1);
+			} else {
+				writeVarLong(delta << 1 | 1);
+				writeVarLong(zigzag((long) areasId - currentVal));
+			}
+		} catch (IOException e) {
+			throw new SplitFailedException("Failed to write to temp file " + file, e);
+		}
+		currentId = id;
+		currentVal = areasId;
+		++count;
+	}
+
+	/**
+	 * Finish the first pass.
+	 */
+	void finishWrite() {
+		try {
+			if (bufPos > 0)
+				out.write(buf, 0, bufPos);
+			out.close();
+		} catch (IOException e) {
+			throw new SplitFailedException("Failed to write to temp file " + file, e);
+		}
+		bytes += bufPos;
+		bufPos = 0;
+		out = null;
+		if (valid)
+			System.out.println("Stored areas of " + Utils.format(count) + " nodes in " + Utils.format(bytes)
+					+ " bytes for the following passes");
+		else
+			file.delete();
+	}
+
+	/**
+	 * Get the value for the node. The ids must be ascending, nodes may be skipped.
+	 * @param id the node id
+	 * @return the {@link AreaDictionary} index of the areas or {@link AbstractMapProcessor#UNASSIGNED}
+	 */
+	int get(long id) {
+		try {
+			if (in == null) {
+				in = new FileInputStream(file);
+				bufPos = bufLen = 0;
+				numRead = 0;
+				currentId = Long.MIN_VALUE;
+			}
+			while (currentId < id) {
+				if (numRead >= count) {
+					currentId = Long.MAX_VALUE;
+					break;
+				}
+				long v = readVarLong();
+				if (numRead == 0) {
+					currentId = unzigzag(v >>> 1);
+					currentVal = (int) unzigzag(readVarLong());
+				} else {
+					currentId += v >>> 1;
+					if ((v & 1) != 0)
+						currentVal += (int) unzigzag(readVarLong());
+				}
+				++numRead;
+			}
+		} catch (IOException e) {
+			throw new SplitFailedException("Failed to read from temp file " + file, e);
+		}
+		return currentId == id ? currentVal : AbstractMapProcessor.UNASSIGNED;
+	}
+
+	/**
+	 * Close the file after a pass, the next call of {@link #get(long)} starts at the beginning.
+	 */
+	void close() {
+		if (in != null) {
+			try {
+				in.close();
+			} catch (IOException e) {
+				// ignore
+			}
+			in = null;
+		}
+	}
+
+	/**
+	 * Remove the temporary file.
+	 */
+	void finish() {
+		close();
+		if (file.exists())
+			file.delete();
+	}
+
+	private static long zigzag(long v) {
+		return (v << 1) ^ (v >> 63);
+	}
+
+	private static long unzigzag(long v) {
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	private void writeVarLong(long v) throws IOException {
+		if (bufPos + 10 > BUF_SIZE) {
+			out.write(buf, 0, bufPos);
+			bytes += bufPos;
+			bufPos = 0;
+		}
+		while ((v & ~0x7fL) != 0) {
+			buf[bufPos++] = (byte) ((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		buf[bufPos++] = (byte) v;
+	}
+
+	private long readVarLong() throws IOException {
+		long v = 0;
+		for (int shift = 0;; shift += 7) {
+			if (bufPos >= bufLen) {
+				bufLen = in.read(buf, 0, BUF_SIZE);
+				bufPos = 0;
+				if (bufLen <= 0)
+					throw new IOException("unexpected end of file");
+			}
+			int b = buf[bufPos++];
+			v |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+				return v;
+		}
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+package uk.me.parabola.splitter;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A list of nodes without tags, stored in primitive arrays. Used instead of
+ * {@link Node} instances when the processor returns true for
+ * {@link MapProcessor#useBatches()}.
+ *
+ * @author agent
+ *
+ */
+public class NodeBatch {
+	private static final int INITIAL_CAPACITY = 1024;
+	/** batches which are passed between threads are recycled */
+	private static final ArrayBlockingQueue<NodeBatch> pool = new ArrayBlockingQueue<>(64);
+
+	private int size;
+	private long[] ids = new long[INITIAL_CAPACITY];
+	private int[] versions = new int[INITIAL_CAPACITY];
+	private int[] mapLats = new int[INITIAL_CAPACITY];
+	private int[] mapLons = new int[INITIAL_CAPACITY];
+	// the coordinates in units of 1e-7 degrees
+	private int[] lats = new int[INITIAL_CAPACITY];
+	private int[] lons = new int[INITIAL_CAPACITY];
+
+	/**
+	 * @return an empty batch, either a recycled one or a new one
+	 */
+	public static NodeBatch obtain() {
+		NodeBatch batch = pool.poll();
+		return batch != null ? batch : new NodeBatch();
+	}
+
+	/**
+	 * Return this batch to the pool. It must not be used afterwards.
+	 */
+	public void recycle() {
+		size = 0;
+		pool.offer(this);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Add a node.
+	 * @param id the node id
+	 * @param version the version
+	 * @param lat the latitude in units of 1e-7 degrees
+	 * @param lon the longitude in units of 1e-7 degrees
+	 * @throws IllegalArgumentException if the coordinates are invalid
+	 */
+	public void add(long id, int version, int lat, int lon) {
+		int mapLat = Node.toMapLat(lat);
+		int mapLon = Node.toMapLon(lon);
+		if (size == ids.length)
+			grow(size + 1);
+		ids[size] = id;
+		versions[size] = version;
+		mapLats[size] = mapLat;
+		mapLons[size] = mapLon;
+		lats[size] = lat;
+		lons[size] = lon;
+		size++;
+	}
+
+	/**
+	 * Append all nodes of another batch.
+	 * @param other the other batch
+	 */
+	public void addAll(NodeBatch other) {
+		int n = other.size;
+		if (size + n > ids.length)
+			grow(size + n);
+		System.arraycopy(other.ids, 0, ids, size, n);
+		System.arraycopy(other.versions, 0, versions, size, n);
+		System.arraycopy(other.mapLats, 0, mapLats, size, n);
+		System.arraycopy(other.mapLons, 0, mapLons, size, n);
+		System.arraycopy(other.lats, 0, lats, size, n);
+		System.arraycopy(other.lons, 0, lons, size, n);
+		size += n;
+	}
+
+	private void grow(int minCapacity) {
+		int newCapacity = Math.max(minCapacity, ids.length * 2);
+		ids = Arrays.copyOf(ids, newCapacity);
+		versions = Arrays.copyOf(versions, newCapacity);
+		mapLats = Arrays.copyOf(mapLats, newCapacity);
+		mapLons = Arrays.copyOf(mapLons, newCapacity);
+		lats = Arrays.copyOf(lats, newCapacity);
+		lons = Arrays.copyOf(lons, newCapacity);
+	}
+
+	public long getId(int i) {
+		return ids[i];
+	}
+
+	public int getVersion(int i) {
+		return versions[i];
+	}
+
+	public int getMapLat(int i) {
+		return mapLats[i];
+	}
+
+	public int getMapLon(int i) {
+		return mapLons[i];
+	}
+
+	/**
+	 * Create a node object for an entry.
+	 * @param i the index
+	 * @return a new node
+	 */
+	public Node toNode(int i) {
+		Node node = new Node();
+		node.setFixed(ids[i], lats[i], lons[i]);
+		node.setVersion(versions[i]);
+		return node;
+	}
+}
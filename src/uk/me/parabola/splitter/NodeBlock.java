@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter;
+
+import uk.me.parabola.splitter.parser.BinaryMapParser;
+
+/**
+ * A block of a pbf file which contains only nodes and whose bounding box
+ * is known from the block index. Used instead of single nodes when the
+ * processor returns true for {@link MapProcessor#useNodeBlocks()}.
+ *
+ * @author agent
+ */
+public class NodeBlock {
+	private final Area bounds;
+	private final long[] ids;
+	private final byte[] rawBlock;
+	private final byte[] data;
+	private final int offset;
+	private final int len;
+
+	/**
+	 * @param bounds the bounding box of the nodes in map units
+	 * @param ids the node ids in the order of the block
+	 * @param rawBlock the complete block as stored in the file
+	 * @param data buffer with the uncompressed PrimitiveBlock
+	 * @param offset start of the PrimitiveBlock in data
+	 * @param len length of the PrimitiveBlock
+	 */
+	public NodeBlock(Area bounds, long[] ids, byte[] rawBlock, byte[] data, int offset, int len) {
+		this.bounds = bounds;
+		this.ids = ids;
+		this.rawBlock = rawBlock;
+		this.data = data;
+		this.offset = offset;
+		this.len = len;
+	}
+
+	/**
+	 * @return the bounding box of the nodes in map units
+	 */
+	public Area getBounds() {
+		return bounds;
+	}
+
+	/**
+	 * @return the node ids, the array must not be modified
+	 */
+	public long[] getIds() {
+		return ids;
+	}
+
+	/**
+	 * @return the complete block (header length, blob header and blob) as stored
+	 *         in the input file. It can be copied unchanged to a pbf file.
+	 */
+	public byte[] getRawBlock() {
+		return rawBlock;
+	}
+
+	/**
+	 * Decode the nodes and pass them to the usual methods of the processor.
+	 * Used by processors which cannot handle the block as a whole.
+	 * @param processor the processor
+	 */
+	public void parse(MapProcessor processor) {
+		new BinaryMapParser(processor, 0).parse(data, offset, len);
+	}
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Finds the areas which contain the nodes of the messages passed to a
+ * processor. Each message is classified by one of the threads of a pool
+ * while the consumer thread processes the previous messages, see
+ * {@link AbstractMapProcessor#consume(java.util.concurrent.BlockingQueue)}.
+ * The consumer thread only has to store the results in the order of the nodes.
+ *
+ * @author agent
+ */
+public class NodeClassifier {
+	/** result for a node which is in more than one area */
+	public static final int MULTIPLE_AREAS = AbstractMapProcessor.UNASSIGNED + 1;
+
+	private final AreaIndex index;
+	private final Area[] bounds;
+	private final int firstArea;
+	private final int lastArea;
+	private final int numThreads;
+	private final ExecutorService pool;
+	// for statistics
+	private final AtomicLong countFullTests = new AtomicLong();
+	private final AtomicLong countQuickTests = new AtomicLong();
+
+	/**
+	 * @param index the index of the areas, must allow calls from several threads
+	 * @param bounds the bounds which are tested for each area number
+	 * @param firstArea the first area number to use
+	 * @param lastArea the last area number to use
+	 * @param numThreads the number of threads
+	 */
+	public NodeClassifier(AreaIndex index, Area[] bounds, int firstArea, int lastArea, int numThreads) {
+		this.index = index;
+		this.bounds = bounds;
+		this.firstArea = firstArea;
+		this.lastArea = lastArea;
+		this.numThreads = numThreads;
+		pool = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+			private int count;
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "classifier-" + count++);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	public int getNumThreads() {
+		return numThreads;
+	}
+
+	/**
+	 * Start the classification of the nodes in the message.
+	 * @param msg the message
+	 * @return the future result or null if the message contains no nodes
+	 */
+	public Future<Result> submit(final OSMMessage msg) {
+		if (msg.getType() == OSMMessage.Type.NODES) {
+			return pool.submit(new Callable<Result>() {
+				@Override
+				public Result call() {
+					NodeBatch nodes = msg.getNodes();
+					Result res = new Result(nodes.size());
+					for (int i = 0; i < nodes.size(); i++)
+						res.areas[i] = classify(nodes.getMapLat(i), nodes.getMapLon(i), res, i);
+					addStats(res);
+					return res;
+				}
+			});
+		}
+		if (msg.getType() == OSMMessage.Type.ELEMENTS) {
+			final List<Element> elements = msg.getElements();
+			int numNodes = 0;
+			for (Element el : elements) {
+				if (el instanceof Node)
+					++numNodes;
+			}
+			if (numNodes == 0)
+				return null;
+			final int size = numNodes;
+			return pool.submit(new Callable<Result>() {
+				@Override
+				public Result call() {
+					Result res = new Result(size);
+					int i = 0;
+					for (Element el : elements) {
+						if (el instanceof Node) {
+							Node n = (Node) el;
+							res.areas[i] = classify(n.getMapLat(), n.getMapLon(), res, i);
+							++i;
+						}
+					}
+					addStats(res);
+					return res;
+				}
+			});
+		}
+		return null;
+	}
+
+	/**
+	 * @return the area number, {@link AbstractMapProcessor#UNASSIGNED} or {@link #MULTIPLE_AREAS}
+	 */
+	private int classify(int mapLat, int mapLon, Result res, int pos) {
+		AreaGridResult candidates = index.get(mapLat, mapLon);
+		if (candidates == null)
+			return AbstractMapProcessor.UNASSIGNED;
+		int found = AbstractMapProcessor.UNASSIGNED;
+		AreaSet set = null;
+		for (int n : candidates.set) {
+			if (n < firstArea || n > lastArea)
+				continue;
+			if (candidates.testNeeded) {
+				++res.countFullTests;
+				if (!bounds[n].contains(mapLat, mapLon))
+					continue;
+			} else {
+				++res.countQuickTests;
+			}
+			if (found == AbstractMapProcessor.UNASSIGNED) {
+				found = n;
+			} else {
+				if (set == null)
+					set = new AreaSet(found);
+				set.set(n);
+			}
+		}
+		if (set == null)
+			return found;
+		if (res.sets == null)
+			res.sets = new AreaSet[res.areas.length];
+		res.sets[pos] = set;
+		return MULTIPLE_AREAS;
+	}
+
+	private void addStats(Result res) {
+		countFullTests.addAndGet(res.countFullTests);
+		countQuickTests.addAndGet(res.countQuickTests);
+	}
+
+	/**
+	 * @return the number of nodes which were tested with the bounds of an area
+	 */
+	public long getCountFullTests() {
+		return countFullTests.get();
+	}
+
+	/**
+	 * @return the number of nodes which were found in an area without a test
+	 */
+	public long getCountQuickTests() {
+		return countQuickTests.get();
+	}
+
+	public void shutdown() {
+		pool.shutdownNow();
+	}
+
+	/**
+	 * The areas of the nodes of one message, in the order of the nodes.
+	 */
+	public static class Result {
+		private final int[] areas;
+		private AreaSet[] sets;
+		private int pos = -1;
+		private long countFullTests;
+		private long countQuickTests;
+
+		Result(int size) {
+			areas = new int[size];
+		}
+
+		/**
+		 * Move to the next node.
+		 * @return the area number, {@link AbstractMapProcessor#UNASSIGNED} or {@link #MULTIPLE_AREAS}
+		 */
+		public int next() {
+			return areas[++pos];
+		}
+
+		/**
+		 * @return the areas of the current node if {@link #next()} returned {@link #MULTIPLE_AREAS}
+		 */
+		public AreaSet getAreas() {
+			return sets[pos];
+		}
+	}
+}
@@ -14,25 +14,29 @@
 package uk.me.parabola.splitter;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
-import java.io.Reader;
 import java.nio.channels.FileChannel;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 
 import org.xmlpull.v1.XmlPullParserException;
 
-import crosby.binary.file.BlockInputStream;
-import it.unimi.dsi.fastutil.shorts.ShortArrayList;
 import uk.me.parabola.splitter.parser.BinaryMapParser;
+import uk.me.parabola.splitter.parser.O5mIndex;
 import uk.me.parabola.splitter.parser.O5mMapParser;
+import uk.me.parabola.splitter.parser.O5mParallelReader;
 import uk.me.parabola.splitter.parser.OSMXMLParser;
+import uk.me.parabola.splitter.parser.PbfBlockIndex;
+import uk.me.parabola.splitter.parser.PbfBlockReader;
+import uk.me.parabola.splitter.parser.WorkCache;
+import uk.me.parabola.splitter.parser.WorkCacheReader;
+import uk.me.parabola.splitter.parser.WorkCacheWriter;
 
 /**
  * A class which stores parameters needed to process input (OSM) files
@@ -44,9 +48,9 @@ public class OSMFileHandler {
 	/** list of OSM input files to process */
 	private List<String> filenames;
 	// for faster access on blocks in pbf files
-	private final HashMap<String, ShortArrayList> blockTypeMap = new HashMap<>();
+	private final HashMap<String, PbfBlockIndex> pbfIndexMap = new HashMap<>();
 	// for faster access on blocks in o5m files
-	private final HashMap<String, long[]> skipArrayMap = new HashMap<>();
+	private final HashMap<String, O5mIndex> o5mIndexMap = new HashMap<>();
 
 	// Whether or not the source OSM file(s) contain strictly nodes first, then
 	// ways, then rels,
@@ -54,6 +58,14 @@ public class OSMFileHandler {
 	private boolean mixed;
 
 	private int maxThreads = 1;
+	// number of chunks that are read ahead, 0 means no read-ahead
+	private int readAhead;
+	private boolean prefetchNextFile;
+	/** directory for the work cache or null */
+	private File workCacheDir;
+	private final HashMap<String, WorkCache> workCacheMap = new HashMap<>();
+	/** files for which no work cache could be written */
+	private final HashSet<String> noWorkCache = new HashSet<>();
 	
 	/** if this is true we may not want to use producer/consumer pattern */ 
 	private MapProcessor realProcessor;
@@ -70,46 +82,31 @@ public class OSMFileHandler {
 		this.maxThreads = maxThreads;
 	}
 
+	public void setReadAhead(int readAhead) {
+		this.readAhead = readAhead;
+	}
+
+	public void setPrefetchNextFile(boolean prefetchNextFile) {
+		this.prefetchNextFile = prefetchNextFile;
+	}
+
+	public void setWorkCacheDir(File workCacheDir) {
+		this.workCacheDir = workCacheDir;
+	}
+
 	public boolean process(MapProcessor processor) {
 		// create appropriate parser for each input file
-		for (String filename : filenames) {
+		for (int i = 0; i < filenames.size(); i++) {
+			String filename = filenames.get(i);
 			System.out.println("Processing " + filename);
+			if (prefetchNextFile && i + 1 < filenames.size())
+				ReadAhead.prefetch(filenames.get(i + 1));
 			processor.startFile();
 			try {
-				if (filename.endsWith(".o5m")) {
-					File file = new File(filename);
-					try (RandomAccessFile raf = new RandomAccessFile(file, "r");
-							FileChannel fileChannel = raf.getChannel()) {
-						long[] skipArray = skipArrayMap.get(filename);
-						O5mMapParser o5mParser = new O5mMapParser(processor, fileChannel, skipArray);
-						o5mParser.parse();
-						if (skipArray == null) {
-							skipArray = o5mParser.getSkipArray();
-							skipArrayMap.put(filename, skipArray);
-						}
-					}
-				} else if (filename.endsWith(".pbf")) {
-					// Is it a binary file?
-					File file = new File(filename);
-					ShortArrayList blockTypes = blockTypeMap.get(filename);
-					BinaryMapParser binParser = new BinaryMapParser(processor, blockTypes, 1);
-					try (InputStream stream = new FileInputStream(file)) {
-						BlockInputStream blockinput = (new BlockInputStream(stream, binParser));
-						blockinput.process();
-						if (blockTypes == null) {
-							// remember this file
-							blockTypes = binParser.getBlockList();
-							blockTypeMap.put(filename, blockTypes);
-						}
-					}
-				} else {
-					// No, try XML.
-					try (Reader reader = Utils.openFile(filename, maxThreads > 1)) {
-						OSMXMLParser parser = new OSMXMLParser(processor, mixed);
-						parser.setReader(reader);
-						parser.parse();
-					}
-				}
+				if (workCacheDir != null)
+					processWithCache(filename, processor);
+				else
+					parse(filename, processor);
 			} catch (FileNotFoundException e) {
 				System.out.println(e);
 				throw new SplitFailedException("ERROR: file " + filename + " was not found");
@@ -129,13 +126,166 @@ public class OSMFileHandler {
 		}
 		return processor.endMap();
 	}
-	
-	
+
+	/**
+	 * Read the work cache of the file. If there is none, parse the file and write the cache.
+	 */
+	private void processWithCache(String filename, MapProcessor processor) throws IOException, XmlPullParserException {
+		File file = new File(filename);
+		WorkCache cache = workCacheMap.get(filename);
+		if (cache == null && !noWorkCache.contains(filename))
+			cache = WorkCache.load(workCacheDir, file);
+		if (cache != null) {
+			workCacheMap.put(filename, cache);
+			new WorkCacheReader(processor, cache, readAhead).process();
+			return;
+		}
+		WorkCacheWriter writer = null;
+		if (!noWorkCache.contains(filename)) {
+			try {
+				writer = new WorkCacheWriter(processor, workCacheDir, file);
+			} catch (IOException e) {
+				System.out.println("Cannot create work cache for " + filename + ": " + e.getMessage());
+			}
+		}
+		if (writer == null) {
+			noWorkCache.add(filename);
+			parse(filename, processor);
+			return;
+		}
+		boolean done = false;
+		try {
+			parse(filename, writer);
+			cache = writer.finish();
+			done = true;
+		} finally {
+			if (!done)
+				writer.abort();
+		}
+		if (cache != null) {
+			System.out.println("Wrote work cache " + cache.getFile());
+			workCacheMap.put(filename, cache);
+		} else {
+			noWorkCache.add(filename);
+		}
+	}
+
+	/**
+	 * Create the appropriate parser for the file and pass the elements to the processor.
+	 */
+	private void parse(String filename, MapProcessor processor) throws IOException, XmlPullParserException {
+		if (filename.endsWith(".o5m")) {
+			File file = new File(filename);
+			try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+					FileChannel fileChannel = raf.getChannel()) {
+				long modified = file.lastModified();
+				O5mIndex index = o5mIndexMap.get(filename);
+				if (index == null)
+					index = O5mIndex.load(file, fileChannel);
+				if (index != null && maxThreads > 1) {
+					// if the processor can be sharded, this must match willShard()
+					// decode the segments with maxThreads threads
+					O5mParallelReader reader = new O5mParallelReader(processor, fileChannel, index, maxThreads);
+					reader.setPrefetch(readAhead > 0);
+					reader.process();
+				} else {
+					O5mMapParser o5mParser = new O5mMapParser(processor, fileChannel, index);
+					o5mParser.setPrefetch(readAhead > 0);
+					o5mParser.parse();
+					if (index == null) {
+						// remember this file
+						index = o5mParser.getIndex();
+						index.save(file, fileChannel, modified);
+					}
+				}
+				o5mIndexMap.put(filename, index);
+			}
+		} else if (filename.endsWith(".pbf")) {
+			// Is it a binary file?
+			File file = new File(filename);
+			BinaryMapParser binParser = new BinaryMapParser(processor, 1);
+			try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+					FileChannel fileChannel = raf.getChannel()) {
+				long modified = file.lastModified();
+				PbfBlockIndex index = pbfIndexMap.get(filename);
+				if (index == null)
+					index = PbfBlockIndex.load(file, fileChannel);
+				// inflating and decoding the blocks is done by maxThreads threads
+				PbfBlockReader blockReader = new PbfBlockReader(fileChannel, binParser, maxThreads, index);
+				blockReader.setReadAhead(readAhead);
+				blockReader.process();
+				if (index == null) {
+					// remember this file
+					index = blockReader.getIndex();
+					index.save(file, fileChannel, modified);
+				} else if (index.isChanged()) {
+					// bounding boxes of node blocks were added
+					index.save(file, fileChannel, modified);
+				}
+				pbfIndexMap.put(filename, index);
+			}
+		} else {
+			// No, try XML.
+			try (InputStream is = Utils.openInputStream(filename, maxThreads, readAhead)) {
+				OSMXMLParser parser = new OSMXMLParser(processor, mixed);
+				parser.setInputStream(is);
+				parser.parse();
+			}
+		}
+	}
+
+	/**
+	 * Check if the readers of all input files pass the nodes of each decoder
+	 * thread to its own shard of the processor, see {@link ShardableProcessor}.
+	 * Only then the processor doesn't need a consumer thread. The pbf reader
+	 * does this, the o5m reader only if an index of the file exists. The work
+	 * cache and the other readers pass the elements to the processor.
+	 * @param processor the processor
+	 * @return true if the processor will only be used by shards
+	 */
+	private boolean willShard(MapProcessor processor) {
+		if (!(processor instanceof ShardableProcessor) || workCacheDir != null)
+			return false;
+		if (processor.skipNodes() || !processor.skipWays() || !processor.skipRels())
+			return false;
+		for (String filename : filenames) {
+			if (filename.endsWith(".pbf"))
+				continue;
+			if (!filename.endsWith(".o5m") || loadO5mIndex(filename) == null)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Load the index of an o5m file and keep it for the following passes.
+	 * @param filename the name of the o5m file
+	 * @return the index or null if there is no valid index
+	 */
+	private O5mIndex loadO5mIndex(String filename) {
+		O5mIndex index = o5mIndexMap.get(filename);
+		if (index != null)
+			return index;
+		File file = new File(filename);
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			index = O5mIndex.load(file, raf.getChannel());
+		} catch (IOException e) {
+			// reported when the file is parsed
+			return null;
+		}
+		if (index != null)
+			o5mIndexMap.put(filename, index);
+		return index;
+	}
+
 	RuntimeException exception = null;
 	public boolean execute(MapProcessor processor) {
 		realProcessor = processor;
 		if (maxThreads == 1)
 			return process(processor);
+		// the readers pass the nodes of each decoder thread to its own shard
+		if (willShard(processor))
+			return process(processor);
 		
 		// use two threads  
 		BlockingQueue<OSMMessage> queue = new ArrayBlockingQueue<>(10);
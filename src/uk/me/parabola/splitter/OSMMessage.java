@@ -21,10 +21,13 @@ import java.util.List;
  *
  */
 public class OSMMessage {
-	public enum Type {START_FILE, ELEMENTS, BOUNDS, END_MAP, EXIT}; 
+	public enum Type {START_FILE, ELEMENTS, NODES, WAYS, NODE_BLOCK, BOUNDS, END_MAP, EXIT}; 
 
-	// either el or bounds must be null
+	// only one of elements, nodes, ways, nodeBlock, or bounds is set
 	List<Element> elements;
+	NodeBatch nodes;
+	WayBatch ways;
+	NodeBlock nodeBlock;
 	Area bounds;
 	Type type;
 
@@ -33,6 +36,21 @@ public class OSMMessage {
 		type = Type.ELEMENTS;
 	}
 
+	public OSMMessage(NodeBatch nodes) {
+		this.nodes = nodes;
+		type = Type.NODES;
+	}
+
+	public OSMMessage(WayBatch ways) {
+		this.ways = ways;
+		type = Type.WAYS;
+	}
+
+	public OSMMessage(NodeBlock nodeBlock) {
+		this.nodeBlock = nodeBlock;
+		type = Type.NODE_BLOCK;
+	}
+
 	public OSMMessage(Area bounds) {
 		this.bounds = bounds;
 		type = Type.BOUNDS;
@@ -41,6 +59,33 @@ public class OSMMessage {
 	public OSMMessage(Type t) {
 		assert !t.equals(Type.BOUNDS); 
 		assert !t.equals(Type.ELEMENTS); 
+		assert !t.equals(Type.NODES); 
+		assert !t.equals(Type.WAYS); 
+		assert !t.equals(Type.NODE_BLOCK);
 		type = t;
 	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public List<Element> getElements() {
+		return elements;
+	}
+
+	public NodeBatch getNodes() {
+		return nodes;
+	}
+
+	public WayBatch getWays() {
+		return ways;
+	}
+
+	public NodeBlock getNodeBlock() {
+		return nodeBlock;
+	}
+
+	public Area getBounds() {
+		return bounds;
+	}
 }
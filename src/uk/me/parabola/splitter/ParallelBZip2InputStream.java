@@ -0,0 +1,568 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.tools.bzip2.CBZip2InputStream;
+
+/**
+ * An input stream that decompresses bzip2 data with several threads.
+ * The blocks of a bzip2 stream can be decompressed independently. A scanner
+ * thread searches the block markers (they are not byte aligned), the blocks
+ * are decompressed by a pool of threads with {@link CBZip2InputStream}
+ * and the results are returned in the original order.
+ * Concatenated streams as written by parallel compressors are supported.
+ *
+ * @author agent
+ */
+public class ParallelBZip2InputStream extends InputStream {
+	private static final long BLOCK_MAGIC = 0x314159265359L;
+	private static final long EOS_MAGIC = 0x177245385090L;
+	private static final long MAGIC_MASK = (1L << 48) - 1;
+	private static final int MAGIC_BITS = 48;
+	private static final int READ_SIZE = 64 * 1024;
+	/**
+	 * The block marker may also appear in the compressed data. A block that
+	 * was split at such a position can't be decoded, it is merged with up to
+	 * this number of following parts.
+	 */
+	private static final int MAX_MERGES = 3;
+
+	private static final int[] CRC_TABLE = new int[256];
+	static {
+		for (int i = 0; i < 256; i++) {
+			int c = i << 24;
+			for (int k = 0; k < 8; k++)
+				c = (c & 0x80000000) != 0 ? (c << 1) ^ 0x04c11db7 : c << 1;
+			CRC_TABLE[i] = c;
+		}
+	}
+
+	private final ExecutorService pool;
+	private final BlockingQueue<Entry> queue;
+	private final Scanner scanner;
+	private final Thread scannerThread;
+
+	// only used by the reading thread
+	private byte[] current = new byte[0];
+	private int currentPos;
+	private int currentLen;
+	private int combinedCrc;
+	private boolean eof;
+	private boolean closed;
+
+	/**
+	 * @param source the compressed data, starting with the "BZh" header
+	 * @param numThreads the number of threads used to decompress blocks
+	 * @throws IOException if the source doesn't start with a bzip2 header
+	 */
+	public ParallelBZip2InputStream(InputStream source, int numThreads) throws IOException {
+		numThreads = Math.max(1, numThreads);
+		scanner = new Scanner(source);
+		if (!scanner.readStreamHeader())
+			throw new IOException("Stream is not in the BZip2 format");
+		queue = new ArrayBlockingQueue<>(2 * numThreads);
+		pool = Executors.newFixedThreadPool(numThreads, r -> {
+			Thread t = new Thread(r, "bzip2 decoder");
+			t.setDaemon(true);
+			return t;
+		});
+		scannerThread = new Thread(scanner, "bzip2 scanner");
+		scannerThread.setDaemon(true);
+		scannerThread.start();
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (currentPos >= currentLen && !nextBlock())
+			return -1;
+		return current[currentPos++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if (currentPos >= currentLen && !nextBlock())
+			return -1;
+		int n = Math.min(len, currentLen - currentPos);
+		System.arraycopy(current, currentPos, b, off, n);
+		currentPos += n;
+		return n;
+	}
+
+	@Override
+	public int available() {
+		return currentLen - currentPos;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		eof = true;
+		scannerThread.interrupt();
+		pool.shutdownNow();
+		scanner.source.close();
+	}
+
+	/**
+	 * Make the next decompressed block the current one.
+	 * @return false at the end of the data
+	 */
+	private boolean nextBlock() throws IOException {
+		if (closed)
+			throw new IOException("stream closed");
+		while (!eof) {
+			Entry e = take();
+			switch (e.type) {
+			case BLOCK:
+				Decoded decoded = getDecoded(e);
+				combinedCrc = combineCrc(combinedCrc, decoded.crc);
+				current = decoded.data;
+				currentPos = 0;
+				currentLen = decoded.len;
+				if (currentLen > 0)
+					return true;
+				break;
+			case STREAM_END:
+				if (e.crc != combinedCrc)
+					throw new IOException("BZip2 CRC error");
+				combinedCrc = 0;
+				break;
+			case ERROR:
+				eof = true;
+				throw e.exception;
+			default:
+				eof = true;
+				break;
+			}
+		}
+		return false;
+	}
+
+	private Entry take() throws IOException {
+		try {
+			return queue.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while decompressing bzip2 data");
+		}
+	}
+
+	/**
+	 * Wait for the result of a block. If it can't be decoded, try again
+	 * with the following parts appended.
+	 */
+	private Decoded getDecoded(Entry e) throws IOException {
+		try {
+			return waitFor(e.result);
+		} catch (IOException ex) {
+			Segment merged = e.segment;
+			for (int i = 0; i < MAX_MERGES; i++) {
+				Entry next = take();
+				if (next.type != EntryType.BLOCK) {
+					if (next.type == EntryType.ERROR)
+						throw next.exception;
+					break;
+				}
+				next.result.cancel(true);
+				merged = merged.append(next.segment);
+				try {
+					return decode(merged, e.level);
+				} catch (IOException ignored) {
+					// try with the next part
+				}
+			}
+			throw ex;
+		}
+	}
+
+	/**
+	 * @return the combined CRC of a stream after adding the CRC of the next block
+	 */
+	private static int combineCrc(int combinedCrc, int blockCrc) {
+		return ((combinedCrc << 1) | (combinedCrc >>> 31)) ^ blockCrc;
+	}
+
+	private static Decoded waitFor(Future<Decoded> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while decompressing bzip2 data");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			throw new IOException("bzip2 block can't be decoded: " + cause, cause);
+		}
+	}
+
+	/**
+	 * Decompress one block.
+	 * @param seg the compressed block, starting with the block marker
+	 * @param level the block size of the stream (1 .. 9)
+	 * @return the decompressed data
+	 * @throws IOException if the data is invalid or the CRC doesn't match
+	 */
+	private static Decoded decode(Segment seg, int level) throws IOException {
+		int storedCrc = (int) seg.getBits(MAGIC_BITS, 32);
+		byte[] stream = seg.toStream(level, storedCrc);
+		byte[] out = new byte[level * 100000 + 1000];
+		int n = 0;
+		try (CBZip2InputStream in = new CBZip2InputStream(new ByteArrayInputStream(stream))) {
+			while (true) {
+				if (n == out.length)
+					out = Arrays.copyOf(out, out.length * 2);
+				int count = in.read(out, n, out.length - n);
+				if (count < 0)
+					break;
+				n += count;
+			}
+		} catch (RuntimeException e) {
+			throw new IOException("bzip2 block can't be decoded: " + e, e);
+		}
+		// the decoder only prints a message for a CRC error
+		int crc = 0xffffffff;
+		for (int i = 0; i < n; i++)
+			crc = (crc << 8) ^ CRC_TABLE[((crc >>> 24) ^ out[i]) & 0xff];
+		crc = ~crc;
+		if (crc != storedCrc)
+			throw new IOException("bzip2 block CRC error");
+		return new Decoded(out, n, crc);
+	}
+
+	private enum EntryType {
+		BLOCK, STREAM_END, END, ERROR
+	}
+
+	/**
+	 * An element in the queue between the scanner and the reader.
+	 */
+	private static class Entry {
+		final EntryType type;
+		Segment segment;
+		int level;
+		Future<Decoded> result;
+		int crc;
+		IOException exception;
+
+		Entry(EntryType type) {
+			this.type = type;
+		}
+	}
+
+	private static class Decoded {
+		final byte[] data;
+		final int len;
+		final int crc;
+
+		Decoded(byte[] data, int len, int crc) {
+			this.data = data;
+			this.len = len;
+			this.crc = crc;
+		}
+	}
+
+	/**
+	 * A sequence of bits that doesn't start at a byte boundary.
+	 */
+	private static class Segment {
+		final byte[] data;
+		final int startBit;
+		final int bitLen;
+
+		Segment(byte[] data, int startBit, int bitLen) {
+			this.data = data;
+			this.startBit = startBit;
+			this.bitLen = bitLen;
+		}
+
+		/**
+		 * @return the 8 bits starting at the given bit position in data, missing bits are 0
+		 */
+		private int byteAt(int bitPos) {
+			int idx = bitPos >>> 3;
+			int shift = bitPos & 7;
+			int b = (data[idx] & 0xff) << shift;
+			if (shift != 0 && idx + 1 < data.length)
+				b |= (data[idx + 1] & 0xff) >>> (8 - shift);
+			return b & 0xff;
+		}
+
+		long getBits(int offset, int n) {
+			long res = 0;
+			for (int i = 0; i < n; i++) {
+				int pos = startBit + offset + i;
+				res = (res << 1) | ((data[pos >>> 3] >>> (7 - (pos & 7))) & 1);
+			}
+			return res;
+		}
+
+		void writeTo(BitWriter out) {
+			int fullBytes = bitLen >>> 3;
+			for (int i = 0; i < fullBytes; i++)
+				out.writeByte(byteAt(startBit + i * 8));
+			for (int i = fullBytes * 8; i < bitLen; i++)
+				out.writeBits(1, getBits(i, 1));
+		}
+
+		Segment append(Segment other) {
+			BitWriter out = new BitWriter(data.length + other.data.length + 1);
+			writeTo(out);
+			other.writeTo(out);
+			return new Segment(out.buf, 0, out.bitLen);
+		}
+
+		/**
+		 * @return a complete bzip2 stream without the leading "BZ" that contains only this block
+		 */
+		byte[] toStream(int level, int blockCrc) {
+			BitWriter out = new BitWriter(data.length + 16);
+			out.writeByte('h');
+			out.writeByte('0' + level);
+			writeTo(out);
+			out.writeBits(MAGIC_BITS, EOS_MAGIC);
+			// the combined CRC of a stream with one block is the block CRC
+			out.writeBits(32, blockCrc & 0xffffffffL);
+			return Arrays.copyOf(out.buf, (out.bitLen + 7) >>> 3);
+		}
+	}
+
+	private static class BitWriter {
+		byte[] buf;
+		int bitLen;
+
+		BitWriter(int size) {
+			buf = new byte[size];
+		}
+
+		void writeByte(int b) {
+			int idx = bitLen >>> 3;
+			if (idx + 2 > buf.length)
+				buf = Arrays.copyOf(buf, buf.length * 2 + 2);
+			int shift = bitLen & 7;
+			if (shift == 0) {
+				buf[idx] = (byte) b;
+			} else {
+				buf[idx] |= (byte) (b >>> shift);
+				buf[idx + 1] = (byte) (b << (8 - shift));
+			}
+			bitLen += 8;
+		}
+
+		void writeBits(int n, long v) {
+			for (int i = n - 1; i >= 0; i--) {
+				int idx = bitLen >>> 3;
+				if (idx + 1 > buf.length)
+					buf = Arrays.copyOf(buf, buf.length * 2 + 2);
+				if (((v >>> i) & 1) != 0)
+					buf[idx] |= (byte) (0x80 >>> (bitLen & 7));
+				bitLen++;
+			}
+		}
+	}
+
+	/**
+	 * Reads the compressed data, splits it into blocks and starts the
+	 * decompression of each block.
+	 */
+	private class Scanner implements Runnable {
+		final InputStream source;
+		// the compressed data, starting with the byte that contains the current segment start
+		byte[] buf = new byte[4 * READ_SIZE];
+		int len;
+		boolean sourceEOF;
+		// bit positions in buf
+		int pos;
+		int level;
+		// the combined CRC of the stored CRCs of the blocks of the current stream
+		int streamCrc;
+
+		Scanner(InputStream source) {
+			this.source = source;
+		}
+
+		@Override
+		public void run() {
+			try {
+				do {
+					scanStream();
+				} while (readStreamHeader());
+				put(new Entry(EntryType.END));
+			} catch (IOException e) {
+				Entry err = new Entry(EntryType.ERROR);
+				err.exception = e;
+				try {
+					put(err);
+				} catch (InterruptedException e1) {
+					// closed
+				}
+			} catch (InterruptedException e) {
+				// closed
+			}
+		}
+
+		private void put(Entry e) throws InterruptedException {
+			queue.put(e);
+		}
+
+		/**
+		 * Make sure that the byte with the given index is in the buffer.
+		 * @return false if the end of the source was reached
+		 */
+		private boolean ensure(int idx) throws IOException {
+			while (idx >= len) {
+				if (sourceEOF)
+					return false;
+				if (len + READ_SIZE > buf.length)
+					buf = Arrays.copyOf(buf, buf.length * 2);
+				int n = source.read(buf, len, READ_SIZE);
+				if (n < 0)
+					sourceEOF = true;
+				else
+					len += n;
+			}
+			return true;
+		}
+
+		/**
+		 * Remove the bytes before the given byte index from the buffer.
+		 */
+		private void discard(int idx) {
+			System.arraycopy(buf, idx, buf, 0, len - idx);
+			len -= idx;
+			pos -= idx * 8;
+		}
+
+		/**
+		 * Read the header of a stream at the next byte boundary.
+		 * @return false at the end of the data or if the data that follows is not a bzip2 stream
+		 */
+		boolean readStreamHeader() throws IOException {
+			int idx = (pos + 7) >>> 3;
+			if (!ensure(idx + 3))
+				return false;
+			if (buf[idx] != 'B' || buf[idx + 1] != 'Z' || buf[idx + 2] != 'h' || buf[idx + 3] < '1' || buf[idx + 3] > '9')
+				return false; // like CBZip2InputStream, ignore anything that follows a stream
+			level = buf[idx + 3] - '0';
+			pos = (idx + 4) * 8;
+			discard(idx + 4);
+			return true;
+		}
+
+		/**
+		 * Find the blocks of a stream and pass them to the decoders.
+		 */
+		private void scanStream() throws IOException, InterruptedException {
+			long window = 0;
+			int segStart = -1;
+			streamCrc = 0;
+			// markers can't overlap
+			int minMarkerEnd = pos + MAGIC_BITS;
+			while (true) {
+				int idx = pos >>> 3;
+				if (!ensure(idx))
+					throw new IOException("unexpected end of bzip2 stream");
+				int b = buf[idx];
+				int bit = pos & 7;
+				boolean found = false;
+				while (bit < 8) {
+					window = ((window << 1) | ((b >>> (7 - bit)) & 1)) & MAGIC_MASK;
+					bit++;
+					if ((window == BLOCK_MAGIC || window == EOS_MAGIC) && idx * 8 + bit >= minMarkerEnd) {
+						found = true;
+						break;
+					}
+				}
+				pos = idx * 8 + bit;
+				if (!found)
+					continue;
+				int markerStart = pos - MAGIC_BITS;
+				int endCrc = 0;
+				if (window == EOS_MAGIC) {
+					if (!ensure((pos + 31) >>> 3))
+						throw new IOException("unexpected end of bzip2 stream");
+					endCrc = (int) new Segment(buf, 0, len * 8).getBits(pos, 32);
+					if (segStart >= 0 && !isStreamEnd(pos + 32, endCrc, getStoredCrc(segStart)))
+						continue;
+				}
+				if (segStart >= 0)
+					submit(new Segment(Arrays.copyOfRange(buf, segStart >>> 3, (markerStart + 7) >>> 3),
+							segStart & 7, markerStart - segStart));
+				if (window == EOS_MAGIC) {
+					Entry end = new Entry(EntryType.STREAM_END);
+					end.crc = endCrc;
+					pos += 32;
+					put(end);
+					return;
+				}
+				// the marker starts a new block
+				discard(markerStart >>> 3);
+				segStart = pos - MAGIC_BITS;
+				minMarkerEnd = pos + MAGIC_BITS;
+				window = 0;
+			}
+		}
+
+		private int getStoredCrc(int blockStart) {
+			return (int) new Segment(buf, 0, len * 8).getBits(blockStart + MAGIC_BITS, 32);
+		}
+
+		/**
+		 * The end of stream marker may also appear in the compressed data of a
+		 * block. It is accepted if the stored CRC matches the combined CRC of
+		 * the blocks, else only if it is followed by the zero bits that pad the
+		 * stream to a byte boundary and the end of the data or another stream.
+		 * A block marker in the compressed data changes the combined CRC.
+		 * @param endPos the bit position after the stored CRC
+		 * @param crc the stored CRC
+		 * @param lastBlockCrc the stored CRC of the last block
+		 * @return true if the marker ends the stream
+		 */
+		private boolean isStreamEnd(int endPos, int crc, int lastBlockCrc) throws IOException {
+			if (crc == combineCrc(streamCrc, lastBlockCrc))
+				return true;
+			int idx = (endPos + 7) >>> 3;
+			if ((endPos & 7) != 0 && (buf[endPos >>> 3] & (0xff >>> (endPos & 7))) != 0)
+				return false;
+			if (!ensure(idx))
+				return true;
+			return ensure(idx + 3) && buf[idx] == 'B' && buf[idx + 1] == 'Z' && buf[idx + 2] == 'h'
+					&& buf[idx + 3] >= '1' && buf[idx + 3] <= '9';
+		}
+
+		private void submit(final Segment seg) throws InterruptedException {
+			final int blockLevel = level;
+			int blockCrc = (int) seg.getBits(MAGIC_BITS, 32);
+			streamCrc = combineCrc(streamCrc, blockCrc);
+			Entry e = new Entry(EntryType.BLOCK);
+			e.segment = seg;
+			e.level = blockLevel;
+			e.result = pool.submit(() -> decode(seg, blockLevel));
+			put(e);
+		}
+	}
+}
@@ -0,0 +1,450 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter;
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+/**
+ * An input stream that decompresses a gzip file with several threads.
+ * <p>
+ * The compressed data is divided into chunks of equal size. For each chunk
+ * a thread searches the first position where a deflate block starts and
+ * decodes from there without knowing the preceding data (see
+ * {@link DeflateDecoder}). The reading thread checks that each chunk starts
+ * exactly where the previous one ended and replaces the references to the
+ * unknown data with the last bytes of the previous chunk. A chunk that was
+ * started at a wrong position is decoded again.
+ * <p>
+ * Files in the BGZF format (many small gzip members with the compressed size
+ * in the header) are decompressed without searching.
+ *
+ * @author agent
+ */
+public class ParallelGZipInputStream extends InputStream {
+	/** size of the compressed data that is decoded by one task */
+	private static final int CHUNK_SIZE = 1024 * 1024;
+	/** smaller files are not worth the effort */
+	public static final long MIN_FILE_SIZE = 4 * CHUNK_SIZE;
+	private static final int WINDOW_SIZE = DeflateDecoder.WINDOW_SIZE;
+
+	private final FileInputStream fileStream;
+	private final FileChannel channel;
+	private final long fileSize;
+	private final ExecutorService pool;
+	private final int maxPending;
+	private final ArrayDeque<Future<Chunk>> pending = new ArrayDeque<>();
+
+	// the chunks of a normal gzip file
+	private long deflateStart;
+	private int numChunks;
+	private int nextChunk;
+	private Chunk nextCandidate;
+	private long expectedBit;
+	// the members of a BGZF file, null for other files
+	private LongArrayList bgzfOffsets;
+	private IntArrayList bgzfTaskStarts;
+
+	// only used by the reading thread
+	private byte[] current = new byte[0];
+	private int currentPos;
+	private int currentLen;
+	private final byte[] window = new byte[WINDOW_SIZE];
+	private int windowLen;
+	private final CRC32 crc = new CRC32();
+	private long memberSize;
+	private boolean eof;
+
+	/**
+	 * @param fileName the gzip file
+	 * @param numThreads the number of threads used to decompress the data
+	 * @throws IOException if the file can't be read or is not in gzip format
+	 */
+	public ParallelGZipInputStream(String fileName, int numThreads) throws IOException {
+		fileStream = new FileInputStream(fileName);
+		channel = fileStream.getChannel();
+		fileSize = channel.size();
+		numThreads = Math.max(1, numThreads);
+		maxPending = 2 * numThreads;
+		try {
+			DeflateDecoder header = new DeflateDecoder(channel, fileSize);
+			header.seek(0);
+			if (!header.readMemberHeader())
+				throw new IOException("Not in GZIP format");
+			if (header.bgzfBlockSize > 0)
+				bgzfOffsets = readBgzfOffsets();
+			if (bgzfOffsets == null) {
+				deflateStart = header.position();
+				expectedBit = deflateStart;
+				numChunks = (int) ((fileSize * 8 - deflateStart + CHUNK_SIZE * 8L - 1) / (CHUNK_SIZE * 8L));
+			} else {
+				bgzfTaskStarts = new IntArrayList();
+				long taskStart = -CHUNK_SIZE;
+				for (int i = 0; i < bgzfOffsets.size() - 1; i++) {
+					if (bgzfOffsets.getLong(i) - taskStart >= CHUNK_SIZE) {
+						bgzfTaskStarts.add(i);
+						taskStart = bgzfOffsets.getLong(i);
+					}
+				}
+				bgzfTaskStarts.add(bgzfOffsets.size() - 1);
+				numChunks = bgzfTaskStarts.size() - 1;
+			}
+		} catch (IOException e) {
+			fileStream.close();
+			throw e;
+		}
+		pool = Executors.newFixedThreadPool(numThreads, r -> {
+			Thread t = new Thread(r, "gzip decoder");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (currentPos >= currentLen && !nextChunk())
+			return -1;
+		return current[currentPos++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if (currentPos >= currentLen && !nextChunk())
+			return -1;
+		int n = Math.min(len, currentLen - currentPos);
+		System.arraycopy(current, currentPos, b, off, n);
+		currentPos += n;
+		return n;
+	}
+
+	@Override
+	public int available() {
+		return currentLen - currentPos;
+	}
+
+	@Override
+	public void close() throws IOException {
+		eof = true;
+		pool.shutdownNow();
+		fileStream.close();
+	}
+
+	/**
+	 * Make the next decompressed data the current one.
+	 * @return false at the end of the file
+	 */
+	private boolean nextChunk() throws IOException {
+		while (!eof) {
+			Chunk chunk;
+			if (bgzfOffsets != null) {
+				chunk = takeResult();
+				if (chunk == null) {
+					eof = true;
+					return false;
+				}
+				current = chunk.bytes;
+				currentLen = chunk.bytesLen;
+			} else {
+				chunk = nextValidChunk();
+				resolve(chunk);
+				expectedBit = chunk.endBit;
+				eof = chunk.eof;
+			}
+			currentPos = 0;
+			if (currentLen > 0)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Find the chunk that starts where the previous one ended. Decode the
+	 * data between chunks if necessary.
+	 */
+	private Chunk nextValidChunk() throws IOException {
+		while (true) {
+			Chunk candidate = nextCandidate;
+			nextCandidate = null;
+			if (candidate == null)
+				candidate = takeResult();
+			if (candidate == null)
+				return decodeKnown(expectedBit, Long.MAX_VALUE);
+			if (candidate.startBit == expectedBit)
+				return candidate;
+			if (candidate.startBit > expectedBit) {
+				// decode the gap, the candidate is probably the next chunk
+				nextCandidate = candidate;
+				return decodeKnown(expectedBit, candidate.startBit);
+			}
+			// the chunk didn't start at a block boundary or the data was already decoded
+		}
+	}
+
+	/**
+	 * Decode in the reading thread, starting at a known block boundary.
+	 */
+	private Chunk decodeKnown(long startBit, long stopBit) throws IOException {
+		DeflateDecoder decoder = new DeflateDecoder(channel, fileSize);
+		decoder.resetOutput(window, windowLen);
+		decoder.decode(startBit, stopBit);
+		return new Chunk(decoder);
+	}
+
+	/**
+	 * Replace the references to the preceding data and check the CRC of each finished member.
+	 */
+	private void resolve(Chunk chunk) throws IOException {
+		int n = chunk.len - WINDOW_SIZE;
+		if (current.length < n)
+			current = new byte[n];
+		byte[] res = current;
+		char[] symbols = chunk.symbols;
+		int missing = WINDOW_SIZE - windowLen;
+		for (int i = 0; i < n; i++) {
+			int v = symbols[WINDOW_SIZE + i];
+			if (v < DeflateDecoder.MARKER_BASE) {
+				res[i] = (byte) v;
+			} else {
+				int pos = v - DeflateDecoder.MARKER_BASE - missing;
+				if (pos < 0)
+					throw new IOException("invalid gzip data: distance too far back");
+				res[i] = window[pos];
+			}
+		}
+		currentLen = n;
+
+		int pos = 0;
+		for (int i = 0; i < chunk.memberEnds.size(); i++) {
+			int end = chunk.memberEnds.getInt(i);
+			crc.update(res, pos, end - pos);
+			memberSize += end - pos;
+			if ((int) crc.getValue() != chunk.memberCrcs.getInt(i))
+				throw new IOException("Corrupt GZIP trailer");
+			if ((int) memberSize != chunk.memberSizes.getInt(i))
+				throw new IOException("Corrupt GZIP trailer");
+			crc.reset();
+			memberSize = 0;
+			pos = end;
+		}
+		crc.update(res, pos, n - pos);
+		memberSize += n - pos;
+
+		// keep the last bytes for the next chunk
+		if (n >= WINDOW_SIZE) {
+			System.arraycopy(res, n - WINDOW_SIZE, window, 0, WINDOW_SIZE);
+			windowLen = WINDOW_SIZE;
+		} else {
+			int keep = Math.min(windowLen, WINDOW_SIZE - n);
+			System.arraycopy(window, windowLen - keep, window, 0, keep);
+			System.arraycopy(res, 0, window, keep, n);
+			windowLen = keep + n;
+		}
+	}
+
+	/**
+	 * @return the result of the next task or null if all chunks were processed
+	 */
+	private Chunk takeResult() throws IOException {
+		while (pending.size() < maxPending && nextChunk < numChunks) {
+			final int i = nextChunk++;
+			pending.addLast(pool.submit(() -> bgzfOffsets != null ? decodeBgzf(i) : decodeChunk(i)));
+		}
+		Future<Chunk> f = pending.pollFirst();
+		if (f == null)
+			return null;
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while decompressing gzip data");
+		} catch (ExecutionException e) {
+			if (bgzfOffsets == null) {
+				// the data is decoded again in the reading thread
+				return new Chunk();
+			}
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			throw new IOException("gzip data can't be decoded: " + cause, cause);
+		}
+	}
+
+	private long chunkStart(int i) {
+		return i >= numChunks ? fileSize * 8 : deflateStart + i * CHUNK_SIZE * 8L;
+	}
+
+	/**
+	 * Decode a chunk without knowing the preceding data. Called by the worker threads.
+	 */
+	private Chunk decodeChunk(int i) throws IOException {
+		DeflateDecoder decoder = new DeflateDecoder(channel, fileSize);
+		decoder.resetOutput();
+		long end = chunkStart(i + 1);
+		if (i == 0) {
+			decoder.decode(deflateStart, end);
+		} else if (!decoder.decodeFromFirstBlock(chunkStart(i), end, end)) {
+			return new Chunk();
+		}
+		return new Chunk(decoder);
+	}
+
+	/**
+	 * Read the offsets of all members of a BGZF file.
+	 * @return the offsets with the file size as last element or null if the file is not a complete BGZF file
+	 */
+	private LongArrayList readBgzfOffsets() throws IOException {
+		LongArrayList offsets = new LongArrayList();
+		long pos = 0;
+		ByteBuffer header = ByteBuffer.allocate(12);
+		while (pos < fileSize) {
+			header.clear();
+			if (readFully(header, pos) < 12)
+				return null;
+			if ((header.get(0) & 0xff) != 0x1f || (header.get(1) & 0xff) != 0x8b || header.get(3) != 4)
+				return null;
+			int xlen = (header.get(10) & 0xff) | (header.get(11) & 0xff) << 8;
+			ByteBuffer extra = ByteBuffer.allocate(xlen);
+			if (readFully(extra, pos + 12) < xlen)
+				return null;
+			int blockSize = -1;
+			for (int i = 0; i + 4 <= xlen;) {
+				int slen = (extra.get(i + 2) & 0xff) | (extra.get(i + 3) & 0xff) << 8;
+				if (extra.get(i) == 'B' && extra.get(i + 1) == 'C' && slen == 2 && i + 6 <= xlen)
+					blockSize = ((extra.get(i + 4) & 0xff) | (extra.get(i + 5) & 0xff) << 8) + 1;
+				i += 4 + slen;
+			}
+			if (blockSize < 0)
+				return null;
+			offsets.add(pos);
+			pos += blockSize;
+		}
+		if (pos != fileSize)
+			return null;
+		offsets.add(fileSize);
+		return offsets;
+	}
+
+	private int readFully(ByteBuffer buf, long pos) throws IOException {
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, pos + buf.position()) < 0)
+				break;
+		}
+		return buf.position();
+	}
+
+	/**
+	 * Decompress a group of BGZF members. Called by the worker threads.
+	 */
+	private Chunk decodeBgzf(int task) throws IOException {
+		int first = bgzfTaskStarts.getInt(task);
+		int last = bgzfTaskStarts.getInt(task + 1);
+		long start = bgzfOffsets.getLong(first);
+		int size = (int) (bgzfOffsets.getLong(last) - start);
+		ByteBuffer in = ByteBuffer.allocate(size);
+		if (readFully(in, start) < size)
+			throw new EOFException("unexpected end of gzip file");
+		byte[] data = in.array();
+		int outSize = 0;
+		for (int i = first; i < last; i++) {
+			int end = (int) (bgzfOffsets.getLong(i + 1) - start);
+			outSize += getIntLE(data, end - 4);
+		}
+		Chunk chunk = new Chunk();
+		chunk.bytes = new byte[outSize];
+		Inflater inflater = new Inflater(true);
+		CRC32 memberCrc = new CRC32();
+		try {
+			for (int i = first; i < last; i++) {
+				int pos = (int) (bgzfOffsets.getLong(i) - start);
+				int end = (int) (bgzfOffsets.getLong(i + 1) - start);
+				int xlen = (data[pos + 10] & 0xff) | (data[pos + 11] & 0xff) << 8;
+				int dataStart = pos + 12 + xlen;
+				int expectedSize = getIntLE(data, end - 4);
+				inflater.reset();
+				inflater.setInput(data, dataStart, end - 8 - dataStart);
+				int n = 0;
+				while (n < expectedSize && !inflater.finished()) {
+					int count = inflater.inflate(chunk.bytes, chunk.bytesLen + n, expectedSize - n);
+					if (count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+						break;
+					n += count;
+				}
+				if (n != expectedSize)
+					throw new IOException("Corrupt GZIP trailer");
+				memberCrc.reset();
+				memberCrc.update(chunk.bytes, chunk.bytesLen, n);
+				if ((int) memberCrc.getValue() != getIntLE(data, end - 8))
+					throw new IOException("Corrupt GZIP trailer");
+				chunk.bytesLen += n;
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("invalid gzip data: " + e.getMessage());
+		} finally {
+			inflater.end();
+		}
+		return chunk;
+	}
+
+	private static int getIntLE(byte[] buf, int pos) {
+		return (buf[pos] & 0xff) | (buf[pos + 1] & 0xff) << 8 | (buf[pos + 2] & 0xff) << 16 | (buf[pos + 3] & 0xff) << 24;
+	}
+
+	/**
+	 * The result of a task.
+	 */
+	private static class Chunk {
+		long startBit = -1;
+		long endBit;
+		boolean eof;
+		// the decoded symbols, starting with the window
+		char[] symbols;
+		int len;
+		IntArrayList memberEnds;
+		IntArrayList memberCrcs;
+		IntArrayList memberSizes;
+		// the decoded data of BGZF members
+		byte[] bytes;
+		int bytesLen;
+
+		Chunk() {
+		}
+
+		Chunk(DeflateDecoder decoder) {
+			startBit = decoder.startBit;
+			endBit = decoder.endBit;
+			eof = decoder.eof;
+			symbols = decoder.out;
+			len = decoder.outLen;
+			memberEnds = decoder.memberEnds;
+			memberCrcs = decoder.memberCrcs;
+			memberSizes = decoder.memberSizes;
+		}
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Plans the passes over the input. The passes and the shards process ranges
+ * of consecutive areas, so the areas are sorted along a Hilbert curve. This
+ * way each range covers a compact region, the nodes, ways and relations
+ * which lie in multiple areas mostly lie in areas of the same range, and the
+ * blocks of nodes outside of a range can be skipped.
+ * The ranges are balanced by the estimated number of nodes of the areas.
+ *
+ * @author agent
+ */
+class PassPlanner {
+	/** the number of bits of each coordinate on the curve */
+	private static final int ORDER = 16;
+	/** the number of areas in a pass with --max-areas=auto is never lower than this */
+	static final int MIN_AUTO_AREAS = 2048;
+	/**
+	 * the heap reserved for each area of a pass with --max-areas=auto, mainly
+	 * for the elements buffered in the writer queues. Half of the heap is
+	 * left for the maps of the nodes and ways.
+	 */
+	private static final long HEAP_PER_AREA = 128 * 1024;
+
+	private PassPlanner() {
+	}
+
+	/**
+	 * Sort the areas by the position of their centres on a Hilbert curve
+	 * which covers the bounding box of all areas. The map ids are not changed.
+	 * @param areas the areas
+	 * @return a new list with the sorted areas
+	 */
+	static List<Area> sortByLocation(List<Area> areas) {
+		if (areas.size() < 3)
+			return new ArrayList<>(areas);
+		long minLat = Long.MAX_VALUE, minLon = Long.MAX_VALUE;
+		long maxLat = Long.MIN_VALUE, maxLon = Long.MIN_VALUE;
+		for (Area a : areas) {
+			minLat = Math.min(minLat, a.getMinLat());
+			minLon = Math.min(minLon, a.getMinLong());
+			maxLat = Math.max(maxLat, a.getMaxLat());
+			maxLon = Math.max(maxLon, a.getMaxLong());
+		}
+		long height = Math.max(1, maxLat - minLat);
+		long width = Math.max(1, maxLon - minLon);
+		long maxPos = (1L << ORDER) - 1;
+		// the position on the curve in the upper bits, the index in the lower bits keeps the sort stable
+		long[] keys = new long[areas.size()];
+		for (int i = 0; i < keys.length; i++) {
+			Area a = areas.get(i);
+			long lat = ((long) a.getMinLat() + a.getMaxLat()) / 2;
+			long lon = ((long) a.getMinLong() + a.getMaxLong()) / 2;
+			int x = (int) ((lon - minLon) * maxPos / width);
+			int y = (int) ((lat - minLat) * maxPos / height);
+			keys[i] = hilbertIndex(x, y) << 31 | i;
+		}
+		Arrays.sort(keys);
+		List<Area> sorted = new ArrayList<>(areas.size());
+		for (long key : keys)
+			sorted.add(areas.get((int) (key & Integer.MAX_VALUE)));
+		return sorted;
+	}
+
+	/**
+	 * Calculate the distance of a point from the start of a Hilbert curve.
+	 * @param x the x coordinate, 0 to 2^{@link #ORDER} - 1
+	 * @param y the y coordinate, 0 to 2^{@link #ORDER} - 1
+	 * @return the distance
+	 */
+	static long hilbertIndex(int x, int y) {
+		long d = 0;
+		for (int s = 1 << (ORDER - 1); s > 0; s >>= 1) {
+			int rx = (x & s) > 0 ? 1 : 0;
+			int ry = (y & s) > 0 ? 1 : 0;
+			d += (long) s * s * ((3 * rx) ^ ry);
+			// rotate the quadrant
+			if (ry == 0) {
+				if (rx == 1) {
+					x = s - 1 - x;
+					y = s - 1 - y;
+				}
+				int t = x;
+				x = y;
+				y = t;
+			}
+		}
+		return d;
+	}
+
+	/**
+	 * Divide a range of areas into ranges of consecutive areas with similar
+	 * numbers of estimated nodes. Without estimates, e.g. when the areas were
+	 * read from a split-file, each range gets a similar number of areas.
+	 * @param areas the areas
+	 * @param firstArea the index of the first area
+	 * @param endArea the index of the last area + 1
+	 * @param numRanges the number of ranges
+	 * @param maxAreas the maximum number of areas in a range
+	 * @return the index of the first area of each range, followed by endArea
+	 */
+	static int[] calcRangeStarts(List<Area> areas, int firstArea, int endArea, int numRanges, int maxAreas) {
+		long[] weights = new long[endArea - firstArea];
+		long remaining = 0;
+		for (int i = 0; i < weights.length; i++) {
+			weights[i] = Math.max(1, areas.get(firstArea + i).getEstimatedNodes());
+			remaining += weights[i];
+		}
+		int[] starts = new int[numRanges + 1];
+		int pos = 0;
+		for (int range = 0; range < numRanges; range++) {
+			starts[range] = firstArea + pos;
+			int rangesLeft = numRanges - range;
+			long target = remaining / rangesLeft;
+			// leave at least one area for each following range, but not more than they can take
+			int minEnd = (int) Math.max(pos + 1, weights.length - (long) (rangesLeft - 1) * maxAreas);
+			int maxEnd = Math.min(pos + maxAreas, weights.length - (rangesLeft - 1));
+			long sum = 0;
+			while (pos < maxEnd && (pos < minEnd || rangesLeft == 1 || sum + weights[pos] / 2 <= target)) {
+				sum += weights[pos++];
+			}
+			remaining -= sum;
+		}
+		starts[numRanges] = endArea;
+		return starts;
+	}
+
+	/**
+	 * Calculate the maximum number of areas of a pass for --max-areas=auto.
+	 * The output files and their buffers are limited by --max-open-files, so
+	 * each area of a pass only needs memory for its writer queue. The maps of
+	 * the nodes and ways of a pass grow with the number of nodes, not with the
+	 * number of areas.
+	 * @param maxHeap the maximum heap size in bytes
+	 * @return the number of areas
+	 */
+	static int calcMaxAreasPerPass(long maxHeap) {
+		return (int) Math.max(MIN_AUTO_AREAS, Math.min(Integer.MAX_VALUE, maxHeap / 2 / HEAP_PER_AREA));
+	}
+
+	/**
+	 * Divide a range of areas into the passes.
+	 * @param areas the areas
+	 * @param firstArea the index of the first area
+	 * @param endArea the index of the last area + 1
+	 * @param maxAreasPerPass the maximum number of areas in a pass
+	 * @return the index of the first area of each pass, followed by endArea
+	 */
+	static int[] calcPassStarts(List<Area> areas, int firstArea, int endArea, int maxAreasPerPass) {
+		int numPasses = (int) Math.ceil((double) (endArea - firstArea) / maxAreasPerPass);
+		return calcRangeStarts(areas, firstArea, endArea, numPasses, maxAreasPerPass);
+	}
+}
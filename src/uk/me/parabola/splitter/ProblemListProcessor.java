@@ -12,13 +12,13 @@
  */
 package uk.me.parabola.splitter;
 
-import uk.me.parabola.splitter.Relation.Member;
 import uk.me.parabola.splitter.args.SplitterParams;
 import uk.me.parabola.splitter.tools.SparseLong2IntMap;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 /**
@@ -52,9 +52,13 @@ class ProblemListProcessor extends AbstractMapProcessor {
 	private boolean isFirstPass;
 	private boolean isLastPass;
 	private AreaIndex areaIndex;
+	private final int maxThreads;
 	private final HashSet<String> wantedBoundaryAdminLevels = new HashSet<>();
 	
 	private final HashSet<String> wantedBoundaryTagValues;
+	/** the extended bounds of the areas of this pass and the bounding box of them */
+	private final Area[] passBounds;
+	private final Area passBbox;
 	
 	ProblemListProcessor(DataStorer dataStorer, int areaOffset,
 			int numAreasThisPass, SplitterParams mainOptions) {
@@ -69,12 +73,20 @@ class ProblemListProcessor extends AbstractMapProcessor {
 			ways = dataStorer.getUsedWays(); 
 		
 		this.areaIndex = dataStorer.getGrid();
+		this.maxThreads = mainOptions.getMaxThreads().getCount();
 		this.coords = new SparseLong2IntMap("coord");
 		this.coords.defaultReturnValue(UNASSIGNED);
 		this.isFirstPass = (areaOffset == 0);
 		this.areaOffset = areaOffset;
 		this.lastAreaOffset = areaOffset + numAreasThisPass - 1;
 		this.isLastPass = (areaOffset + numAreasThisPass == dataStorer.getNumOfAreas());
+		passBounds = new Area[numAreasThisPass];
+		Area bbox = null;
+		for (int i = 0; i < numAreasThisPass; i++) {
+			passBounds[i] = areaDictionary.getExtendedArea(areaOffset + i);
+			bbox = (bbox == null) ? passBounds[i] : bbox.add(passBounds[i]);
+		}
+		passBbox = bbox;
 		String boundaryTagsParm = mainOptions.getBoundaryTags();
 		if ("use-exclude-list".equals(boundaryTagsParm)) 
 			wantedBoundaryTagValues = null;
@@ -101,6 +113,14 @@ class ProblemListProcessor extends AbstractMapProcessor {
 		return false;
 	}
 
+	// the keys used in processRelation()
+	private final static Set<String> WANTED_KEYS = new HashSet<>(Arrays.asList("type", "boundary", "admin_level"));
+
+	@Override
+	public Set<String> getWantedKeys() {
+		return WANTED_KEYS;
+	}
+
 	@Override
 	public boolean skipNodes() {
 		if (phase == PHASE2_RELS_ONLY)
@@ -120,6 +140,33 @@ class ProblemListProcessor extends AbstractMapProcessor {
 		return true;
 	}
 		
+	@Override
+	public boolean useBatches() {
+		return phase == PHASE1_NODES_AND_WAYS;
+	}
+
+	/**
+	 * Nodes outside of the areas of this pass are not used.
+	 */
+	@Override
+	public boolean skipNodeBlock(Area bounds, long minId, long maxId) {
+		if (passBbox.intersects(bounds)) {
+			for (Area a : passBounds) {
+				if (a.intersects(bounds))
+					return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	protected NodeClassifier createNodeClassifier() {
+		if (phase != PHASE1_NODES_AND_WAYS || maxThreads <= 1)
+			return null;
+		Area[] bounds = areaDictionary.getAreas().toArray(new Area[0]);
+		return new NodeClassifier(areaIndex, bounds, areaOffset, lastAreaOffset, maxThreads - 1);
+	}
+
 	@Override
 	public int getPhase(){
 		return phase;
@@ -129,10 +176,30 @@ class ProblemListProcessor extends AbstractMapProcessor {
 	public void processNode(Node node) {
 		if (phase == PHASE2_RELS_ONLY)
 			return;
+		processNode(node.getId(), node.getMapLat(), node.getMapLon());
+	}
+
+	@Override
+	public void processNodes(NodeBatch nodes) {
+		if (phase == PHASE2_RELS_ONLY)
+			return;
+		for (int i = 0; i < nodes.size(); i++)
+			processNode(nodes.getId(i), nodes.getMapLat(i), nodes.getMapLon(i));
+	}
+
+	private void processNode(long id, int mapLat, int mapLon) {
+		if (classifiedNodes != null) {
+			int area = classifiedNodes.next();
+			if (area == NodeClassifier.MULTIPLE_AREAS)
+				storeCoord(id, areaDictionary.translate(classifiedNodes.getAreas()));
+			else if (area != UNASSIGNED)
+				storeCoord(id, AreaDictionary.translate(area));
+			return;
+		}
 		int countAreas = 0;
 		int lastUsedArea = UNASSIGNED;
 		int areaIdx = UNASSIGNED;
-		AreaGridResult areaCandidates = areaIndex.get(node);
+		AreaGridResult areaCandidates = areaIndex.get(mapLat, mapLon);
 		if (areaCandidates == null) 
 			return;
 		
@@ -142,7 +209,7 @@ class ProblemListProcessor extends AbstractMapProcessor {
 			if (n < areaOffset || n > lastAreaOffset)
 				continue;
 
-			if (areaCandidates.testNeeded ? areaDictionary.getArea(n).contains(node) : true) {
+			if (areaCandidates.testNeeded ? areaDictionary.getArea(n).contains(mapLat, mapLon) : true) {
 				areaSet.set(n);
 				++countAreas;
 				lastUsedArea = n;
@@ -153,11 +220,15 @@ class ProblemListProcessor extends AbstractMapProcessor {
 				areaIdx = areaDictionary.translate(areaSet);
 			else  
 				areaIdx = AreaDictionary.translate(lastUsedArea); // no need to do lookup in the dictionary 
-			coords.put(node.getId(), areaIdx);
-			++countCoords;
-			if (countCoords % 10_000_000 == 0){
-				System.out.println("coord MAP occupancy: " + Utils.format(countCoords) + ", number of area dictionary entries: " + areaDictionary.size());
-			}
+			storeCoord(id, areaIdx);
+		}
+	}
+
+	private void storeCoord(long id, int areaIdx) {
+		coords.put(id, areaIdx);
+		++countCoords;
+		if (countCoords % 10_000_000 == 0){
+			System.out.println("coord MAP occupancy: " + Utils.format(countCoords) + ", number of area dictionary entries: " + areaDictionary.size());
 		}
 	}
 	
@@ -165,12 +236,31 @@ class ProblemListProcessor extends AbstractMapProcessor {
 	public void processWay(Way way) {
 		if (phase == PHASE2_RELS_ONLY)
 			return;
+		processWay(way.getId(), way.getRefs().elements(), 0, way.getRefs().size());
+	}
+
+	@Override
+	public void processWays(WayBatch ways) {
+		if (phase == PHASE2_RELS_ONLY)
+			return;
+		long[] refs = ways.getRefs();
+		for (int i = 0; i < ways.size(); i++)
+			processWay(ways.getId(i), refs, ways.getRefStart(i), ways.getRefEnd(i));
+	}
+
+	/**
+	 * @param wayId the way id
+	 * @param refs array with the node ids
+	 * @param start index of the first node id of the way
+	 * @param end index after the last node id of the way
+	 */
+	private void processWay(long wayId, long[] refs, int start, int end) {
 		boolean maybeChanged = false;
 		int oldclIndex = UNASSIGNED;
 		areaSet.clear();
-		for (long id : way.getRefs()){ 
+		for (int i = start; i < end; i++) { 
 			// Get the list of areas that the way is in. 
-			int clIdx = coords.get(id);
+			int clIdx = coords.get(refs[i]);
 			if (clIdx != UNASSIGNED && oldclIndex != clIdx){
 				areaSet.or(areaDictionary.getSet(clIdx));
 				oldclIndex = clIdx;
@@ -178,18 +268,18 @@ class ProblemListProcessor extends AbstractMapProcessor {
 			}
 		}
 		if (!isFirstPass && maybeChanged || (isLastPass & !isFirstPass)){
-			int wayAreaIdx = ways.get(way.getId());
+			int wayAreaIdx = ways.get(wayId);
 			if (wayAreaIdx != UNASSIGNED)
 				areaSet.or(areaDictionary.getSet(wayAreaIdx));
 		}
 		
 		if (isLastPass){
 			if (checkIfMultipleAreas(areaSet)){
-				problemWays.add(way.getId());
+				problemWays.add(wayId);
 			}
 		}
 		if (maybeChanged && !areaSet.isEmpty()){
-			ways.put(way.getId(), areaDictionary.translate(areaSet));
+			ways.put(wayId, areaDictionary.translate(areaSet));
 		}
 	}
 	
@@ -250,10 +340,10 @@ class ProblemListProcessor extends AbstractMapProcessor {
 		}
 		int oldclIndex = UNASSIGNED;
 		int oldwlIndex = UNASSIGNED;
-		//System.out.println("r" + rel.getId() + " " + rel.getMembers().size());
-		for (Member mem : rel.getMembers()) {
-			long id = mem.getRef();
-			if (mem.getType().equals("node")) {
+		for (int i = 0; i < rel.getMemberCount(); i++) {
+			long id = rel.getMemberRef(i);
+			byte type = rel.getMemberType(i);
+			if (type == Relation.MEM_NODE) {
 				int clIdx = coords.get(id);
 
 				if (clIdx != UNASSIGNED){
@@ -264,7 +354,7 @@ class ProblemListProcessor extends AbstractMapProcessor {
 
 				}
 
-			} else if (mem.getType().equals("way")) {
+			} else if (type == Relation.MEM_WAY) {
 				int wlIdx = ways.get(id);
 
 				if (wlIdx != UNASSIGNED){
@@ -46,10 +46,12 @@ public class ProblemLists {
 	 * @param osmFileHandler
 	 * @param realAreas list of areas, possibly overlapping if read from split-file
 	 * @param overlapAmount 
+	 * @param maxAreasPerPass the maximum number of areas in a pass
 	 * @param mainOptions main options
 	 * @return
 	 */
-	public DataStorer calcProblemLists(OSMFileHandler osmFileHandler, List<Area> realAreas, int overlapAmount, SplitterParams mainOptions) {
+	public DataStorer calcProblemLists(OSMFileHandler osmFileHandler, List<Area> realAreas, int overlapAmount,
+			int maxAreasPerPass, SplitterParams mainOptions) {
 		long startProblemListGenerator = System.currentTimeMillis();
 		ArrayList<Area> distinctAreas = getNonOverlappingAreas(realAreas);
 		if (distinctAreas.size() > realAreas.size()) {
@@ -77,11 +79,11 @@ public class ProblemLists {
 		System.out.println("Generating problem list for " + distinctAreas.size() + " distinct areas");
 		List<Area> workAreas = addPseudoAreas(distinctAreas);
 
-		int numPasses = (int) Math.ceil((double) workAreas.size() / mainOptions.getMaxAreas());
-		int areasPerPass = (int) Math.ceil((double) workAreas.size() / numPasses);
+		int[] passStarts = PassPlanner.calcPassStarts(workAreas, 0, workAreas.size(), maxAreasPerPass);
+		int numPasses = passStarts.length - 1;
 		if (numPasses > 1) {
-			System.out.println("Processing " + distinctAreas.size() + " areas in " + numPasses + " passes, "
-					+ areasPerPass + " areas at a time");
+			System.out.println("Processing " + distinctAreas.size() + " areas in " + numPasses + " passes, up to "
+					+ maxAreasPerPass + " areas at a time");
 		} else {
 			System.out.println("Processing " + distinctAreas.size() + " areas in a single pass");
 		}
@@ -96,15 +98,15 @@ public class ProblemLists {
 				System.out.println("Pseudo area " + area.getMapId() + " covers " + area);
 		}
 
-		DataStorer distinctDataStorer = new DataStorer(workAreas, overlapAmount);
+		DataStorer distinctDataStorer = new DataStorer(workAreas, overlapAmount, mainOptions.getAreaIndex());
 		System.out.println("Starting problem-list-generator pass(es)");
 		
 		for (int pass = 0; pass < numPasses; pass++) {
 			System.out.println("-----------------------------------");
 			System.out.println("Starting problem-list-generator pass " + (pass + 1) + " of " + numPasses);
 			long startThisPass = System.currentTimeMillis();
-			int areaOffset = pass * areasPerPass;
-			int numAreasThisPass = Math.min(areasPerPass, workAreas.size() - pass * areasPerPass);
+			int areaOffset = passStarts[pass];
+			int numAreasThisPass = passStarts[pass + 1] - areaOffset;
 			ProblemListProcessor processor = new ProblemListProcessor(distinctDataStorer, areaOffset, numAreasThisPass,
 					mainOptions);
 
@@ -120,7 +122,7 @@ public class ProblemLists {
 		}
 		System.out.println("Problem-list-generator pass(es) took "
 				+ (System.currentTimeMillis() - startProblemListGenerator) + " ms");
-		DataStorer dataStorer = new DataStorer(realAreas, overlapAmount);
+		DataStorer dataStorer = new DataStorer(realAreas, overlapAmount, mainOptions.getAreaIndex());
 		dataStorer.translateDistinctToRealAreas(distinctDataStorer);
 		return dataStorer;
 	}
@@ -15,6 +15,7 @@ package uk.me.parabola.splitter;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 
 import uk.me.parabola.splitter.OSMMessage.Type;
@@ -41,6 +42,11 @@ public class QueueProcessor extends AbstractMapProcessor {
 		return realProcessor.skipTags();
 	}
 
+	@Override
+	public Set<String> getWantedKeys() {
+		return realProcessor.getWantedKeys();
+	}
+
 	@Override
 	public boolean skipNodes() {
 		return realProcessor.skipNodes();
@@ -56,6 +62,21 @@ public class QueueProcessor extends AbstractMapProcessor {
 		return realProcessor.skipRels();
 	}
 
+	@Override
+	public boolean useBatches() {
+		return realProcessor.useBatches();
+	}
+
+	@Override
+	public boolean useNodeBlocks() {
+		return realProcessor.useNodeBlocks();
+	}
+
+	@Override
+	public boolean skipNodeBlock(Area bounds, long minId, long maxId) {
+		return realProcessor.skipNodeBlock(bounds, minId, maxId);
+	}
+
 	@Override
 	public void boundTag(Area bounds) {
 		addToQueue(bounds);
@@ -76,6 +97,47 @@ public class QueueProcessor extends AbstractMapProcessor {
 		addToQueue(r);
 	}
 
+	@Override
+	public void processNodes(NodeBatch nodes) {
+		try {
+			if (stagedNodes == null) {
+				flush();
+				stagedNodes = NodeBatch.obtain();
+			}
+			// the caller reuses the batch, so copy the data
+			stagedNodes.addAll(nodes);
+			if (stagedNodes.size() >= NUM_STAGING)
+				flush();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public void processWays(WayBatch ways) {
+		try {
+			if (stagedWays == null) {
+				flush();
+				stagedWays = WayBatch.obtain();
+			}
+			stagedWays.addAll(ways);
+			if (stagedWays.size() >= NUM_STAGING)
+				flush();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public void processNodeBlock(NodeBlock block) {
+		try {
+			flush();
+			queue.put(new OSMMessage(block));
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	@Override
 	public void startFile() {
 		try {
@@ -104,9 +166,14 @@ public class QueueProcessor extends AbstractMapProcessor {
 	/** number of OSM elements to collect before adding them to the queue */
 	private static final int NUM_STAGING = 1000;
 	private List<Element> staging = new ArrayList<>(NUM_STAGING);
+	/** batches are collected separately, at most one of them is not null */
+	private NodeBatch stagedNodes;
+	private WayBatch stagedWays;
 
 	private void addToQueue(Element el) {
 		try {
+			if (stagedNodes != null || stagedWays != null)
+				flush();
 			staging.add(el);
 			if (staging.size() >= NUM_STAGING)
 				flush();
@@ -125,6 +192,15 @@ public class QueueProcessor extends AbstractMapProcessor {
 	}
 
 	private void flush() throws InterruptedException {
+		// the order of the elements is kept because only one kind is staged at a time
+		if (stagedNodes != null) {
+			queue.put(new OSMMessage(stagedNodes));
+			stagedNodes = null;
+		}
+		if (stagedWays != null) {
+			queue.put(new OSMMessage(stagedWays));
+			stagedWays = null;
+		}
 		if (staging == null || staging.isEmpty())
 			return;
 		queue.put(new OSMMessage(staging));
@@ -0,0 +1,334 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+package uk.me.parabola.splitter;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+/**
+ * Reads ranges of a file in a background thread into large direct buffers,
+ * so that the disk latency overlaps with the decoding of the data.
+ * The ranges are added with {@link #addRange(long, long)} before the first
+ * read, the consumer must read them in ascending order but may skip data.
+ * Also offers a prefetch of file regions into the page cache for the
+ * readers that use memory mapping.
+ *
+ * @author agent
+ *
+ */
+public class ReadAhead implements Closeable {
+	/** size of the buffers that are filled by the background thread */
+	public static final int CHUNK_SIZE = 1 << 20;
+	/** the number of bytes that are prefetched from the next input file */
+	private static final int PREFETCH_FILE_SIZE = 1 << 26;
+	/** buffers are recycled because direct memory is released late */
+	private static final ArrayBlockingQueue<ByteBuffer> pool = new ArrayBlockingQueue<>(64);
+	private static final Chunk EOF_MARKER = new Chunk();
+	private static final ExecutorService prefetcher = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "prefetch");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private final FileChannel channel;
+	private final LongArrayList starts = new LongArrayList();
+	private final LongArrayList ends = new LongArrayList();
+	private final BlockingQueue<Chunk> filled;
+	private Thread loaderThread;
+	private volatile boolean closed;
+	private volatile IOException error;
+
+	// only accessed by the consumer
+	private Chunk current;
+
+	/**
+	 * @param channel the file
+	 * @param queueDepth the maximum number of chunks that are read ahead
+	 */
+	public ReadAhead(FileChannel channel, int queueDepth) {
+		this.channel = channel;
+		filled = new ArrayBlockingQueue<>(Math.max(1, queueDepth) + 1);
+	}
+
+	/**
+	 * Add a range that should be read. Adjacent ranges are merged.
+	 * @param start the first position
+	 * @param end the position after the last byte
+	 */
+	public void addRange(long start, long end) {
+		if (loaderThread != null)
+			throw new IllegalStateException("range added after read started");
+		if (end <= start)
+			return;
+		int n = starts.size();
+		if (n > 0) {
+			if (start < ends.getLong(n - 1))
+				throw new IllegalArgumentException("ranges must be added in ascending order");
+			if (start == ends.getLong(n - 1)) {
+				ends.set(n - 1, end);
+				return;
+			}
+		}
+		starts.add(start);
+		ends.add(end);
+	}
+
+	/**
+	 * Copy bytes from the given file position into the buffer until it is full.
+	 * The position must not be lower than the end of the previous read and it
+	 * must be within one of the ranges.
+	 * @param pos the file position
+	 * @param buf the buffer
+	 * @throws IOException in case of I/O errors or if the data is not available
+	 */
+	public void read(long pos, ByteBuffer buf) throws IOException {
+		while (buf.hasRemaining()) {
+			Chunk chunk = chunkFor(pos);
+			if (chunk == null)
+				throw new EOFException("unexpected end of file at position " + pos);
+			ByteBuffer src = chunk.data.duplicate();
+			src.position((int) (pos - chunk.start));
+			if (src.remaining() > buf.remaining())
+				src.limit(src.position() + buf.remaining());
+			pos += src.remaining();
+			buf.put(src);
+		}
+	}
+
+	/**
+	 * Find the chunk that contains the position, earlier chunks are released.
+	 * @return the chunk or null if no more data is available
+	 */
+	private Chunk chunkFor(long pos) throws IOException {
+		while (current != EOF_MARKER && (current == null || pos >= current.start + current.data.limit())) {
+			if (current != null)
+				pool.offer(current.data);
+			current = take();
+		}
+		if (current == EOF_MARKER)
+			return null;
+		if (pos < current.start)
+			throw new IOException("file position " + pos + " was not requested for read-ahead");
+		return current;
+	}
+
+	private Chunk take() throws IOException {
+		if (loaderThread == null) {
+			loaderThread = new Thread(this::load, "read-ahead");
+			loaderThread.setDaemon(true);
+			loaderThread.start();
+		}
+		try {
+			Chunk chunk = filled.take();
+			if (chunk == EOF_MARKER && error != null)
+				throw new IOException("read-ahead failed: " + error.getMessage(), error);
+			return chunk;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while waiting for read-ahead", e);
+		}
+	}
+
+	/**
+	 * The loop of the background thread.
+	 */
+	private void load() {
+		try {
+			for (int i = 0; i < starts.size() && !closed; i++) {
+				long pos = starts.getLong(i);
+				long end = ends.getLong(i);
+				while (pos < end && !closed) {
+					ByteBuffer buf = pool.poll();
+					if (buf == null)
+						buf = ByteBuffer.allocateDirect(CHUNK_SIZE);
+					buf.clear();
+					if (end - pos < CHUNK_SIZE)
+						buf.limit((int) (end - pos));
+					while (buf.hasRemaining()) {
+						int n = channel.read(buf, pos + buf.position());
+						if (n < 0)
+							break;
+					}
+					buf.flip();
+					if (buf.limit() == 0) {
+						pool.offer(buf);
+						break; // file is shorter than expected
+					}
+					Chunk chunk = new Chunk();
+					chunk.start = pos;
+					chunk.data = buf;
+					filled.put(chunk);
+					pos += buf.limit();
+				}
+			}
+		} catch (IOException e) {
+			error = e;
+		} catch (InterruptedException e) {
+			return;
+		}
+		try {
+			filled.put(EOF_MARKER);
+		} catch (InterruptedException e) {
+			// closed
+		}
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		// don't interrupt the loader, that would close the channel
+		while (true) {
+			boolean alive = loaderThread != null && loaderThread.isAlive();
+			Chunk chunk;
+			while ((chunk = filled.poll()) != null) {
+				if (chunk != EOF_MARKER)
+					pool.offer(chunk.data);
+			}
+			if (!alive)
+				break;
+			try {
+				loaderThread.join(10);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		if (current != null && current != EOF_MARKER)
+			pool.offer(current.data);
+		current = null;
+	}
+
+	/**
+	 * Open a file as a stream which is read ahead in a background thread.
+	 * @param name the file name
+	 * @param queueDepth the maximum number of chunks that are read ahead
+	 * @return the stream
+	 * @throws IOException
+	 */
+	@SuppressWarnings("resource")
+	public static InputStream openStream(String name, int queueDepth) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(name, "r");
+		try {
+			FileChannel fc = raf.getChannel();
+			ReadAhead readAhead = new ReadAhead(fc, queueDepth);
+			readAhead.addRange(0, fc.size());
+			return readAhead.new ReadAheadInputStream(raf);
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Load a region of a file into the page cache in the background.
+	 * Errors are ignored, the data is read again when it is used.
+	 * @param channel the file
+	 * @param pos the start of the region
+	 * @param len the length of the region, at most {@link Integer#MAX_VALUE} 
+	 */
+	public static void prefetch(FileChannel channel, long pos, long len) {
+		if (len <= 0)
+			return;
+		try {
+			// the mapping stays valid when the channel is closed
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, pos, len);
+			prefetcher.execute(buffer::load);
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+
+	/**
+	 * Load the start of a file into the page cache in the background.
+	 * Errors are ignored, the file is opened again when it is processed.
+	 * @param name the file name
+	 */
+	public static void prefetch(String name) {
+		prefetcher.execute(() -> {
+			try (RandomAccessFile raf = new RandomAccessFile(name, "r")) {
+				FileChannel fc = raf.getChannel();
+				long len = Math.min(PREFETCH_FILE_SIZE, fc.size());
+				if (len > 0)
+					fc.map(FileChannel.MapMode.READ_ONLY, 0, len).load();
+			} catch (IOException e) {
+				// ignore
+			}
+		});
+	}
+
+	private static class Chunk {
+		long start;
+		ByteBuffer data;
+	}
+
+	/**
+	 * A stream over the ranges of the read-ahead, closes the file on close.
+	 */
+	private class ReadAheadInputStream extends InputStream {
+		private final Closeable file;
+		private long pos;
+
+		ReadAheadInputStream(Closeable file) {
+			this.file = file;
+		}
+
+		@Override
+		public int read() throws IOException {
+			Chunk chunk = chunkFor(pos);
+			if (chunk == null)
+				return -1;
+			return chunk.data.get((int) (pos++ - chunk.start)) & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0)
+				return 0;
+			Chunk chunk = chunkFor(pos);
+			if (chunk == null)
+				return -1;
+			ByteBuffer src = chunk.data.duplicate();
+			src.position((int) (pos - chunk.start));
+			int n = Math.min(len, src.remaining());
+			src.get(b, off, n);
+			pos += n;
+			return n;
+		}
+
+		@Override
+		public int available() {
+			if (current == null || current == EOF_MARKER)
+				return 0;
+			return (int) Math.max(0, current.start + current.data.limit() - pos);
+		}
+
+		@Override
+		public void close() throws IOException {
+			ReadAhead.this.close();
+			file.close();
+		}
+	}
+}
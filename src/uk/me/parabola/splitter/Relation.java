@@ -12,45 +12,122 @@
  */
 package uk.me.parabola.splitter;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+
+import uk.me.parabola.splitter.tools.StringDictionary;
 
 /**
+ * A relation. The members are stored in parallel arrays, the roles
+ * are replaced by ids of a dictionary that is shared by all relations.
+ * Long roles and roles which don't fit into the dictionary are stored
+ * as strings.
+ *
  * @author Steve Ratcliffe
  */
 public class Relation extends Element {
-	private final List<Member> members = new ArrayList<>();
+	public static final byte MEM_NODE = 0;
+	public static final byte MEM_WAY = 1;
+	public static final byte MEM_RELATION = 2;
+	private static final String[] TYPE_NAMES = { "node", "way", "relation" };
+
+	/** longer roles are rare, they are not added to the dictionary */
+	private static final int MAX_INTERNED_ROLE_LENGTH = 16;
+	// the role dictionary
+	private static final StringDictionary roles = new StringDictionary(MAX_DICTIONARY_SIZE);
+	/** the id of the role "inner", added before the dictionary can be full */
+	public static final int INNER_ROLE = getRoleId("inner");
+
+	private static final byte[] NO_TYPES = {};
+	private static final long[] NO_REFS = {};
+	private static final int[] NO_ROLES = {};
+
+	private byte[] memTypes = NO_TYPES;
+	private long[] memRefs = NO_REFS;
+	private int[] memRoles = NO_ROLES;
+	// the roles with id NOT_INTERNED, created lazily
+	private String[] memRoleStrings;
+	private int numMembers;
 
-	public void addMember(String type, long ref, String role) {
-		Member mem = new Member(type, ref, role);
-		members.add(mem);
+	/**
+	 * Add a member.
+	 * @param type one of {@link #MEM_NODE}, {@link #MEM_WAY}, {@link #MEM_RELATION}
+	 * @param ref the id of the member
+	 * @param role the role, not null
+	 */
+	public void addMember(byte type, long ref, String role) {
+		if (numMembers == memTypes.length) {
+			int newSize = Math.max(4, numMembers * 2);
+			memTypes = Arrays.copyOf(memTypes, newSize);
+			memRefs = Arrays.copyOf(memRefs, newSize);
+			memRoles = Arrays.copyOf(memRoles, newSize);
+		}
+		int roleId = getRoleId(role);
+		if (roleId == StringDictionary.NOT_INTERNED) {
+			if (memRoleStrings == null || memRoleStrings.length < memRoles.length)
+				memRoleStrings = memRoleStrings == null ? new String[memRoles.length]
+						: Arrays.copyOf(memRoleStrings, memRoles.length);
+			memRoleStrings[numMembers] = role;
+		}
+		memTypes[numMembers] = type;
+		memRefs[numMembers] = ref;
+		memRoles[numMembers] = roleId;
+		numMembers++;
 	}
 
-	public List<Member> getMembers() {
-		return members;
+	public int getMemberCount() {
+		return numMembers;
 	}
 
-	public static class Member {
-		private String type;
-		private long ref;
-		private String role;
+	/**
+	 * @param i the member index
+	 * @return one of {@link #MEM_NODE}, {@link #MEM_WAY}, {@link #MEM_RELATION}
+	 */
+	public byte getMemberType(int i) {
+		return memTypes[i];
+	}
 
-		Member(String type, long ref, String role) {
-			this.type = type;
-			this.ref = ref;
-			this.role = role;
-		}
+	/**
+	 * @param i the member index
+	 * @return "node", "way", or "relation"
+	 */
+	public String getMemberTypeName(int i) {
+		return TYPE_NAMES[memTypes[i]];
+	}
 
-		public String getType() {
-			return type;
-		}
+	public long getMemberRef(int i) {
+		return memRefs[i];
+	}
 
-		public long getRef() {
-			return ref;
-		}
+	/**
+	 * @param i the member index
+	 * @return the id of the role in the role dictionary or {@link StringDictionary#NOT_INTERNED}
+	 */
+	public int getMemberRoleId(int i) {
+		return memRoles[i];
+	}
 
-		public String getRole() {
-			return role;
-		}
+	public String getMemberRole(int i) {
+		int roleId = memRoles[i];
+		return roleId == StringDictionary.NOT_INTERNED ? memRoleStrings[i] : roles.getString(roleId);
+	}
+
+	/**
+	 * Get the id of a role, the role is added to the dictionary if it is not yet known.
+	 * @param role the role
+	 * @return the id or {@link StringDictionary#NOT_INTERNED} if the role is
+	 *         too long or the dictionary is full
+	 */
+	public static int getRoleId(String role) {
+		if (role.length() > MAX_INTERNED_ROLE_LENGTH)
+			return StringDictionary.NOT_INTERNED;
+		return roles.getId(role);
+	}
+
+	/**
+	 * @param roleId an id returned by {@link #getRoleId(String)}, not {@link StringDictionary#NOT_INTERNED}
+	 * @return the role
+	 */
+	public static String getRole(int roleId) {
+		return roles.getString(roleId);
 	}
 }
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The data that is shared by the processes of a sharded split, see --shard.
+ * The coordinator (shard 0) calculates the areas, the problem lists and the
+ * multi-tile writer maps once and saves them in the output directory. Each
+ * shard reads them and writes only its own range of areas, so the output is
+ * the same as with a single process.
+ *
+ * @author agent
+ */
+class ShardData {
+	static final String FILE_NAME = "shards.bin";
+	private static final int MAGIC = 0x53504c54; // "SPLT"
+	private static final int VERSION = 1;
+
+	private final DataStorer dataStorer;
+	private final int[] shardStarts;
+	private final int overlapAmount;
+
+	private ShardData(DataStorer dataStorer, int[] shardStarts, int overlapAmount) {
+		this.dataStorer = dataStorer;
+		this.shardStarts = shardStarts;
+		this.overlapAmount = overlapAmount;
+	}
+
+	DataStorer getDataStorer() {
+		return dataStorer;
+	}
+
+	int getOverlapAmount() {
+		return overlapAmount;
+	}
+
+	/**
+	 * @param shard the shard number, 1 to the number of shards
+	 * @return the index of the first area of the shard
+	 */
+	int getFirstArea(int shard) {
+		return shardStarts[shard - 1];
+	}
+
+	/**
+	 * @param shard the shard number, 1 to the number of shards
+	 * @return the index of the last area of the shard + 1
+	 */
+	int getEndArea(int shard) {
+		return shardStarts[shard];
+	}
+
+	/**
+	 * Save the areas, the ranges of the shards, and the results of the problem list and
+	 * multi-tile analysis.
+	 * @param dir the output directory
+	 * @param dataStorer the data storer with the areas and the results
+	 * @param numShards the number of shards
+	 * @param overlapAmount the overlap
+	 * @throws IOException
+	 */
+	static void save(File dir, DataStorer dataStorer, int numShards, int overlapAmount) throws IOException {
+		List<Area> areas = dataStorer.getAreaDictionary().getAreas();
+		int[] starts = PassPlanner.calcRangeStarts(areas, 0, areas.size(), numShards, areas.size());
+		try (DataOutputStream dos = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(new File(dir, FILE_NAME))))) {
+			dos.writeInt(MAGIC);
+			dos.writeInt(VERSION);
+			dos.writeInt(overlapAmount);
+			dos.writeInt(areas.size());
+			for (Area area : areas) {
+				dos.writeInt(area.getMapId());
+				dos.writeInt(area.getMinLat());
+				dos.writeInt(area.getMinLong());
+				dos.writeInt(area.getMaxLat());
+				dos.writeInt(area.getMaxLong());
+				dos.writeLong(area.getEstimatedNodes());
+			}
+			dos.writeInt(numShards);
+			for (int start : starts)
+				dos.writeInt(start);
+			dataStorer.writeSharedData(dos, dir);
+		}
+		for (int shard = 1; shard <= numShards; shard++) {
+			int first = starts[shard - 1];
+			int end = starts[shard];
+			long nodes = 0;
+			for (int i = first; i < end; i++)
+				nodes += areas.get(i).getEstimatedNodes();
+			if (first == end)
+				System.out.println("Shard " + shard + " of " + numShards + ": no areas");
+			else
+				System.out.println("Shard " + shard + " of " + numShards + ": " + (end - first) + " areas, "
+						+ Utils.format(nodes) + " estimated nodes");
+		}
+	}
+
+	/**
+	 * Read the data saved by the coordinator.
+	 * @param dir the output directory
+	 * @param numShards the expected number of shards
+	 * @param areaIndexType the type of the area index, see {@link AreaIndexFactory}
+	 * @return the data
+	 * @throws IOException
+	 */
+	static ShardData load(File dir, int numShards, String areaIndexType) throws IOException {
+		File file = new File(dir, FILE_NAME);
+		if (!file.exists())
+			throw new SplitFailedException("File " + file + " not found, it is written by the run with --shard=0/" + numShards);
+		try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (dis.readInt() != MAGIC || dis.readInt() != VERSION)
+				throw new SplitFailedException("File " + file + " has an unknown format");
+			int overlapAmount = dis.readInt();
+			int numAreas = dis.readInt();
+			List<Area> areas = new ArrayList<>(numAreas);
+			for (int i = 0; i < numAreas; i++) {
+				int mapId = dis.readInt();
+				Area area = new Area(dis.readInt(), dis.readInt(), dis.readInt(), dis.readInt());
+				area.setMapId(mapId);
+				area.setEstimatedNodes(dis.readLong());
+				areas.add(area);
+			}
+			int savedShards = dis.readInt();
+			if (savedShards != numShards)
+				throw new SplitFailedException("File " + file + " was written for " + savedShards + " shards, not for " + numShards);
+			int[] starts = new int[numShards + 1];
+			for (int i = 0; i < starts.length; i++)
+				starts[i] = dis.readInt();
+			DataStorer dataStorer = new DataStorer(areas, overlapAmount, areaIndexType);
+			dataStorer.readSharedData(dis, dir);
+			return new ShardData(dataStorer, starts, overlapAmount);
+		}
+	}
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+package uk.me.parabola.splitter;
+
+/**
+ * (performance) A processor that only collects nodes and whose result doesn't
+ * depend on the order of the nodes. Readers which decode with several threads
+ * pass the nodes of each thread to its own shard created with
+ * {@link #createShard()} and merge the shards with
+ * {@link #mergeShard(ShardableProcessor)} when the file is read.
+ *
+ * @author agent
+ */
+public interface ShardableProcessor extends MapProcessor {
+
+	/**
+	 * @return a new, empty processor of the same kind
+	 */
+	ShardableProcessor createShard();
+
+	/**
+	 * Add the results of a shard returned by {@link #createShard()}.
+	 * @param shard the shard
+	 */
+	void mergeShard(ShardableProcessor shard);
+}
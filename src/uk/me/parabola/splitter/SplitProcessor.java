@@ -12,17 +12,23 @@
  */
 package uk.me.parabola.splitter;
 
-import uk.me.parabola.splitter.Relation.Member;
 import uk.me.parabola.splitter.args.SplitterParams;
 import uk.me.parabola.splitter.tools.Long2IntClosedMapFunction;
 import uk.me.parabola.splitter.tools.SparseLong2IntMap;
+import uk.me.parabola.splitter.tools.SpscQueue;
+import uk.me.parabola.splitter.writer.BinaryMapWriter;
 import uk.me.parabola.splitter.writer.OSMWriter;
+import uk.me.parabola.splitter.writer.WriterPool;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Splits a map into multiple areas.
@@ -42,18 +48,49 @@ class SplitProcessor extends AbstractMapProcessor {
 	private long countQuickTest;
 	private long countFullTest;
 	private long countCoords;
+	private long countCopiedBlocks;
 	private long countWays;
 	private final int writerOffset;
 	private final int lastWriter;
 	private final AreaIndex writerIndex;
 	private final int maxThreads;
 
-	private final InputQueueInfo[] writerInputQueues;
-	protected final BlockingQueue<InputQueueInfo> toProcess;
-	private final ArrayList<Thread> workerThreads;
-	protected final InputQueueInfo STOP_MSG = new InputQueueInfo(null);
+	/** the queues of the writers of this pass, null if the writers are called directly */
+	private final WriterQueue[] writerInputQueues;
+	private final OSMWriterWorker[] workers;
+	/** limits the open files if the writers are called directly, else null */
+	private final WriterPool writerPool;
 
 	private AreaSet usedWriters;
+
+	private static final int NO_AREA = -2;
+	/** the node ids are grouped into buckets of 2^MULTI_TILE_BUCKET_SHIFT ids */
+	private static final int MULTI_TILE_BUCKET_SHIFT = 8;
+	/** extended bounds of all areas, only set if blocks of nodes may be copied */
+	private Area[] extendedAreas;
+	/** the classifier used while the nodes are passed by another thread, or null */
+	private NodeClassifier classifier;
+
+	/** the areas of the nodes found in the first of several passes, or null */
+	private final NodeAreaCache nodeAreas;
+	/** true if this pass fills the cache */
+	private final boolean fillNodeAreas;
+	/** true if this pass reads the areas of the nodes from the cache */
+	private final boolean useNodeAreas;
+	/** the range of areas which are searched for the nodes */
+	private final int firstSearchedArea;
+	private final int lastSearchedArea;
+	private final AreaSet foundAreas = new AreaSet();
+	private final AreaSet passAreas = new AreaSet();
+	// the last result of filterPassAreas()
+	private int lastAreasId = UNASSIGNED;
+	private int lastPassAreasId = UNASSIGNED;
+	/** the bounding box of the extended bounds of the searched areas */
+	private final Area searchedBounds;
+	/** the sorted buckets of node ids with nodes of multi-tile elements written in this pass, or null */
+	private final long[] multiTileNodeBuckets;
+	// for statistics, only written by the reading thread
+	private long countSkippedBlocks;
 	
 	/**
 	 * Distribute the OSM data to separate OSM files. 
@@ -61,8 +98,11 @@ class SplitProcessor extends AbstractMapProcessor {
 	 * @param writerOffset first writer to be used
 	 * @param numWritersThisPass number of writers to used
 	 * @param mainOptions main program options
+	 * @param nodeAreas the cache that is filled in the first pass and read in the
+	 * following passes, or null
 	 */
-	SplitProcessor(DataStorer dataStorer, int writerOffset, int numWritersThisPass, SplitterParams mainOptions){
+	SplitProcessor(DataStorer dataStorer, int writerOffset, int numWritersThisPass, SplitterParams mainOptions,
+			NodeAreaCache nodeAreas) {
 		this.dataStorer = dataStorer;
 		this.writerDictionary = dataStorer.getAreaDictionary();
 		this.writers = dataStorer.getWriters();
@@ -74,29 +114,141 @@ class SplitProcessor extends AbstractMapProcessor {
 		this.countWays = ways.size();
 		this.writerOffset = writerOffset;
 		this.lastWriter = writerOffset + numWritersThisPass-1;
+		this.nodeAreas = nodeAreas;
+		useNodeAreas = nodeAreas != null && nodeAreas.isReadable();
+		fillNodeAreas = nodeAreas != null && !useNodeAreas && writerOffset == nodeAreas.getFirstArea();
+		if (fillNodeAreas) {
+			firstSearchedArea = nodeAreas.getFirstArea();
+			lastSearchedArea = nodeAreas.getLastArea();
+		} else {
+			firstSearchedArea = writerOffset;
+			lastSearchedArea = lastWriter;
+		}
+		Area bounds = null;
+		for (int i = firstSearchedArea; i <= lastSearchedArea; i++)
+			bounds = (bounds == null) ? writers[i].getExtendedBounds() : bounds.add(writers[i].getExtendedBounds());
+		searchedBounds = bounds;
 		this.maxThreads = mainOptions.getMaxThreads().getCount();
-		this.toProcess = new ArrayBlockingQueue<>(numWritersThisPass);
-		this.writerInputQueues = new InputQueueInfo[numWritersThisPass];
-		for (int i = 0; i < writerInputQueues.length; i++) {
-			writerInputQueues[i] = new InputQueueInfo(this.writers[i + writerOffset]);
-			writers[i + writerOffset].initForWrite(); 
+		int maxOpenFiles = mainOptions.getMaxOpenFiles();
+		for (int i = writerOffset; i <= lastWriter; i++) {
+			writers[i].initForWrite(); 
 		}
 		nodeWriterMap = dataStorer.getWriterMap(DataStorer.NODE_TYPE);
 		wayWriterMap = dataStorer.getWriterMap(DataStorer.WAY_TYPE);
 		relWriterMap = dataStorer.getWriterMap(DataStorer.REL_TYPE);
+		multiTileNodeBuckets = calcMultiTileNodeBuckets();
 		usedWriters = new AreaSet(); 
+		if (mainOptions.isCopyNodeBlocks() && "pbf".equals(mainOptions.getOutput())
+				&& "keep".equals(mainOptions.getHandleElementVersion())) {
+			extendedAreas = new Area[writerDictionary.getNumOfAreas()];
+			for (int i = 0; i < extendedAreas.length; i++)
+				extendedAreas[i] = writerDictionary.getExtendedArea(i);
+		}
 
-		int noOfWorkerThreads = Math.min(this.maxThreads - 1, numWritersThisPass);
-		workerThreads = new ArrayList<>(noOfWorkerThreads);
-		for (int i = 0; i < noOfWorkerThreads; i++) {
-			Thread worker = new Thread(new OSMWriterWorker());
-			worker.setName("worker-" + i);
-			workerThreads.add(worker);
-			worker.start();
+		if (maxThreads > 1) {
+			writerInputQueues = new WriterQueue[numWritersThisPass];
+			for (int i = 0; i < writerInputQueues.length; i++) {
+				writerInputQueues[i] = new WriterQueue(writers[i + writerOffset]);
+			}
+			workers = new OSMWriterWorker[Math.min(maxThreads - 1, numWritersThisPass)];
+			for (int i = 0; i < workers.length; i++) {
+				workers[i] = new OSMWriterWorker("worker-" + i, maxOpenFiles / workers.length);
+			}
+			assignWriters();
+			for (OSMWriterWorker worker : workers) {
+				worker.thread.start();
+			}
+			writerPool = null;
+		} else {
+			writerInputQueues = null;
+			workers = new OSMWriterWorker[0];
+			writerPool = new WriterPool(maxOpenFiles);
 		}
-		
 	} 
 
+	/**
+	 * Assign each writer of this pass to exactly one worker thread, so that
+	 * the writers are never shared between threads. The writers with the most
+	 * nodes expected by the density map are assigned first, each to the worker
+	 * with the lowest load so far. Without estimates (e.g. when the areas were
+	 * read from a split-file) this is a round-robin distribution.
+	 */
+	private void assignWriters() {
+		WriterQueue[] sorted = writerInputQueues.clone();
+		Arrays.sort(sorted, new Comparator<WriterQueue>() {
+			@Override
+			public int compare(WriterQueue q1, WriterQueue q2) {
+				return Long.compare(q2.getExpectedNodes(), q1.getExpectedNodes());
+			}
+		});
+		for (WriterQueue queue : sorted) {
+			OSMWriterWorker best = workers[0];
+			for (OSMWriterWorker worker : workers) {
+				if (worker.expectedNodes < best.expectedNodes)
+					best = worker;
+			}
+			best.add(queue);
+		}
+	}
+
+	/**
+	 * Find the nodes of multi-tile elements which have to be written in this pass.
+	 * Blocks of nodes which contain one of them are never skipped.
+	 * @return the sorted buckets of the node ids or null if there is no node writer map
+	 */
+	private long[] calcMultiTileNodeBuckets() {
+		if (nodeWriterMap == null)
+			return null;
+		LongArrayList buckets = new LongArrayList();
+		int lastIdx = UNASSIGNED;
+		boolean inPass = false;
+		for (long id = nodeWriterMap.nextKeySeq(); id != Long.MAX_VALUE; id = nodeWriterMap.nextKeySeq()) {
+			int multiTileWriterIdx = nodeWriterMap.getSeq(id);
+			if (multiTileWriterIdx != lastIdx) {
+				lastIdx = multiTileWriterIdx;
+				inPass = false;
+				for (int n : writerDictionary.getSet(multiTileWriterIdx)) {
+					if (n >= writerOffset && n <= lastWriter) {
+						inPass = true;
+						break;
+					}
+				}
+			}
+			long bucket = id >> MULTI_TILE_BUCKET_SHIFT;
+			if (inPass && (buckets.isEmpty() || buckets.getLong(buckets.size() - 1) != bucket))
+				buckets.add(bucket);
+		}
+		try {
+			nodeWriterMap.close();
+		} catch (IOException e) {
+			throw new SplitFailedException("failed to read node writer map", e);
+		}
+		return buckets.toLongArray();
+	}
+
+	/**
+	 * Skip a block of nodes if it doesn't intersect the searched areas and
+	 * doesn't contain nodes of multi-tile elements of this pass.
+	 */
+	@Override
+	public boolean skipNodeBlock(Area bounds, long minId, long maxId) {
+		if (searchedBounds.intersects(bounds)) {
+			for (int i = firstSearchedArea; i <= lastSearchedArea; i++) {
+				if (writers[i].getExtendedBounds().intersects(bounds))
+					return false;
+			}
+		}
+		if (multiTileNodeBuckets != null) {
+			int pos = Arrays.binarySearch(multiTileNodeBuckets, minId >> MULTI_TILE_BUCKET_SHIFT);
+			if (pos < 0)
+				pos = -pos - 1;
+			if (pos < multiTileNodeBuckets.length && multiTileNodeBuckets[pos] <= maxId >> MULTI_TILE_BUCKET_SHIFT)
+				return false;
+		}
+		++countSkippedBlocks;
+		return true;
+	}
+
 	/**
 	 * Get the active writers associated to the index  
 	 * @param multiTileWriterIdx
@@ -122,6 +274,127 @@ class SplitProcessor extends AbstractMapProcessor {
 		}
 	}
 
+	@Override
+	protected NodeClassifier createNodeClassifier() {
+		if (maxThreads <= 1 || useNodeAreas)
+			return null;
+		Area[] bounds = new Area[writers.length];
+		for (int i = firstSearchedArea; i <= lastSearchedArea; i++)
+			bounds[i] = writers[i].getExtendedBounds();
+		classifier = new NodeClassifier(writerIndex, bounds, firstSearchedArea, lastSearchedArea, maxThreads - 1);
+		return classifier;
+	}
+
+	@Override
+	public boolean useNodeBlocks() {
+		return extendedAreas != null;
+	}
+
+	/**
+	 * Copy the block unchanged to the output file if all its nodes belong to
+	 * a single area, else process the nodes one by one. Nodes of multi-tile
+	 * elements are additionally written to the other areas of the element.
+	 */
+	@Override
+	public void processNodeBlock(NodeBlock block) {
+		int writerIdx = findSingleArea(block.getBounds());
+		if (writerIdx == UNASSIGNED) {
+			block.parse(this);
+			return;
+		}
+		boolean inPass = writerIdx != NO_AREA && writerIdx >= writerOffset && writerIdx <= lastWriter;
+		if (inPass && !(writers[writerIdx] instanceof BinaryMapWriter)) {
+			// a pseudo writer
+			block.parse(this);
+			return;
+		}
+		if (fillNodeAreas && writerIdx != NO_AREA && writerIdx >= firstSearchedArea && writerIdx <= lastSearchedArea) {
+			int areasId = AreaDictionary.translate(writerIdx);
+			for (long id : block.getIds())
+				nodeAreas.add(id, areasId);
+		}
+		final int[] multiTileWriters = getMultiTileWriters(block);
+		usedWriters.clear();
+		if (inPass) {
+			usedWriters.set(writerIdx);
+			int writersID = AreaDictionary.translate(writerIdx);
+			for (long id : block.getIds())
+				coords.put(id, writersID);
+			countCoords += block.getIds().length;
+			++countCopiedBlocks;
+			if (maxThreads > 1) {
+				addToWorkingQueue(writerIdx, block);
+			} else {
+				try {
+					((BinaryMapWriter) getOpenWriter(writerIdx)).write(block);
+				} catch (IOException e) {
+					throw new SplitFailedException("failed to write block of nodes", e);
+				}
+			}
+		}
+		if (multiTileWriters == null)
+			return;
+		block.parse(new AbstractMapProcessor() {
+			private int pos;
+
+			@Override
+			public void processNode(Node n) {
+				int multiTileWriterIdx = multiTileWriters[pos++];
+				if (multiTileWriterIdx == UNASSIGNED)
+					return;
+				try {
+					writeMultiTileNode(n, multiTileWriterIdx);
+				} catch (IOException e) {
+					throw new SplitFailedException("failed to write node " + n.getId(), e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * @param bbox a bounding box in map units
+	 * @return the area whose extended bounds contain the box if no other area intersects it,
+	 * NO_AREA if no area intersects it, else UNASSIGNED
+	 */
+	private int findSingleArea(Area bbox) {
+		int found = NO_AREA;
+		for (int i = 0; i < extendedAreas.length; i++) {
+			if (extendedAreas[i].intersects(bbox)) {
+				if (found != NO_AREA)
+					return UNASSIGNED;
+				found = i;
+			}
+		}
+		if (found != NO_AREA && !extendedAreas[found].contains(bbox))
+			return UNASSIGNED;
+		return found;
+	}
+
+	/**
+	 * Look up the nodes of the block in the node writer map. The map is read
+	 * sequentially, so this must be done once for all nodes of the block.
+	 * @return the multi-tile writer index for each node or null if no node
+	 * is part of a multi-tile element
+	 */
+	private int[] getMultiTileWriters(NodeBlock block) {
+		if (nodeWriterMap == null)
+			return null;
+		long[] ids = block.getIds();
+		int[] res = null;
+		for (int i = 0; i < ids.length; i++) {
+			int multiTileWriterIdx = nodeWriterMap.getSeq(ids[i]);
+			if (multiTileWriterIdx != UNASSIGNED) {
+				if (res == null) {
+					res = new int[ids.length];
+					Arrays.fill(res, 0, i, UNASSIGNED);
+				}
+			}
+			if (res != null)
+				res[i] = multiTileWriterIdx;
+		}
+		return res;
+	}
+
 	@Override
 	public void processWay(Way w) {
 		usedWriters.clear();
@@ -181,10 +454,10 @@ class SplitProcessor extends AbstractMapProcessor {
 			} else{
 				int oldclIndex = UNASSIGNED;
 				int oldwlIndex = UNASSIGNED;
-				for (Member mem : rel.getMembers()) {
-					// String role = mem.getRole();
-					long id = mem.getRef();
-					if (mem.getType().equals("node")) {
+				for (int i = 0; i < rel.getMemberCount(); i++) {
+					long id = rel.getMemberRef(i);
+					byte type = rel.getMemberType(i);
+					if (type == Relation.MEM_NODE) {
 						int clIdx = coords.get(id);
 
 						if (clIdx != UNASSIGNED){
@@ -193,7 +466,7 @@ class SplitProcessor extends AbstractMapProcessor {
 							}
 							oldclIndex = clIdx;
 						}
-					} else if (mem.getType().equals("way")) {
+					} else if (type == Relation.MEM_WAY) {
 						int wlIdx = ways.get(id);
 
 						if (wlIdx != UNASSIGNED){
@@ -217,106 +490,196 @@ class SplitProcessor extends AbstractMapProcessor {
 		coords.stats(0);
 		ways.stats(0);
 		Utils.printMem();
+		if (classifier != null) {
+			countFullTest += classifier.getCountFullTests();
+			countQuickTest += classifier.getCountQuickTests();
+		}
 		System.out.println("Full Node tests:  " + Utils.format(countFullTest));
 		System.out.println("Quick Node tests: " + Utils.format(countQuickTest)); 		
+		if (extendedAreas != null)
+			System.out.println("Copied node blocks: " + Utils.format(countCopiedBlocks));
+		if (countSkippedBlocks > 0)
+			System.out.println("Skipped node blocks: " + Utils.format(countSkippedBlocks));
 		coords = null;
 		ways = null;
-
-		for (int i = 0; i < writerInputQueues.length; i++) {
-			try {
-				writerInputQueues[i].stop();
-			} catch (InterruptedException e) {
-				throw new SplitFailedException(
-						"Failed to add the stop element for worker thread " + i,
-						e);
+		if (fillNodeAreas)
+			nodeAreas.finishWrite();
+		else if (useNodeAreas)
+			nodeAreas.close();
+
+		if (writerInputQueues != null) {
+			for (WriterQueue queue : writerInputQueues) {
+				queue.flush();
 			}
 		}
-		try {
-			if (maxThreads > 1)
-				toProcess.put(STOP_MSG);// Magic flag used to indicate that all data is done.
-
-		} catch (InterruptedException e1) {
-			e1.printStackTrace();
+		for (OSMWriterWorker worker : workers) {
+			worker.finish();
 		}
-
-		for (Thread workerThread : workerThreads) {
+		for (OSMWriterWorker worker : workers) {
 			try {
-				workerThread.join();
+				worker.thread.join();
 			} catch (InterruptedException e) {
 				throw new SplitFailedException("Failed to join for thread "
-						+ workerThread.getName(), e);
+						+ worker.thread.getName(), e);
 			}
+			if (worker.failure != null)
+				throw new SplitFailedException("Thread " + worker.thread.getName() + " failed to write element", worker.failure);
 		}
+		printQueueStats();
+		if (writerPool != null && writerPool.getCountSuspended() > 0)
+			System.out.println("Suspended writers " + Utils.format(writerPool.getCountSuspended()) + " times");
 		for (int i=writerOffset; i<= lastWriter; i++) {
 			writers[i].finishWrite();
 		}
 		return true; 		
 	}
 
+	private void printQueueStats() {
+		if (writerInputQueues == null)
+			return;
+		int maxDepth = 0;
+		long sumDepth = 0;
+		long countFlushes = 0;
+		long countStalls = 0;
+		long stallNanos = 0;
+		for (WriterQueue queue : writerInputQueues) {
+			maxDepth = Math.max(maxDepth, queue.maxDepth);
+			sumDepth += queue.sumDepth;
+			countFlushes += queue.countFlushes;
+			countStalls += queue.countStalls;
+			stallNanos += queue.stallNanos;
+		}
+		System.out.println("Writer queues: max. depth " + maxDepth + " of " + NO_ELEMENTS + ", avg. depth "
+				+ String.format("%.2f", countFlushes == 0 ? 0.0 : (double) sumDepth / countFlushes)
+				+ ", reader stalled " + Utils.format(countStalls) + " times for "
+				+ TimeUnit.NANOSECONDS.toMillis(stallNanos) + " ms");
+		for (OSMWriterWorker worker : workers) {
+			System.out.println("Thread " + worker.thread.getName() + " wrote " + worker.queues.size()
+					+ " areas with " + Utils.format(worker.expectedNodes) + " expected nodes, idle for "
+					+ TimeUnit.NANOSECONDS.toMillis(worker.idleNanos) + " ms, suspended writers "
+					+ Utils.format(worker.writerPool.getCountSuspended()) + " times");
+		}
+	}
+
 	private void writeNode(Node currentNode) throws IOException {
-		int countWriters = 0;
-		int lastUsedWriter = UNASSIGNED;
-		AreaGridResult writerCandidates = writerIndex.get(currentNode);
+		int areasId;
+		if (useNodeAreas) {
+			areasId = nodeAreas.get(currentNode.getId());
+		} else if (classifiedNodes != null) {
+			int area = classifiedNodes.next();
+			if (area == NodeClassifier.MULTIPLE_AREAS)
+				areasId = writerDictionary.translate(classifiedNodes.getAreas());
+			else if (area != UNASSIGNED)
+				areasId = AreaDictionary.translate(area); // no need to do lookup in the dictionary
+			else
+				areasId = UNASSIGNED;
+		} else {
+			areasId = findAreas(currentNode);
+		}
+		if (fillNodeAreas && areasId != UNASSIGNED)
+			nodeAreas.add(currentNode.getId(), areasId);
 		int multiTileWriterIdx = (nodeWriterMap != null) ? nodeWriterMap.getSeq(currentNode.getId()): UNASSIGNED;
-
-		boolean isSpecialNode = (multiTileWriterIdx != UNASSIGNED);
-		if (writerCandidates == null && !isSpecialNode)  {
+		if (areasId == UNASSIGNED && multiTileWriterIdx == UNASSIGNED)
 			return;
-		}
 		usedWriters.clear();
-		if (writerCandidates != null){
-			for (int n : writerCandidates.set) {
-				if (n < writerOffset || n > lastWriter)
-					continue;
-				OSMWriter writer = writers[n];
-				boolean found;
-				if (writerCandidates.testNeeded){
-					found = writer.getExtendedBounds().contains(currentNode);
-					++countFullTest;
-				}
-				else{ 
-					found = true;
-					++countQuickTest;
-				}
-				if (found) {
-					usedWriters.set(n);
-					++countWriters;
-					lastUsedWriter = n;
-					if (maxThreads > 1) {
-						addToWorkingQueue(n, currentNode);
-					} else {
-						writer.write(currentNode);
-					}
+		if (areasId != UNASSIGNED && (fillNodeAreas || useNodeAreas))
+			areasId = filterPassAreas(areasId);
+		if (areasId != UNASSIGNED) {
+			for (int n : writerDictionary.getSet(areasId)) {
+				usedWriters.set(n);
+				if (maxThreads > 1) {
+					addToWorkingQueue(n, currentNode);
+				} else {
+					getOpenWriter(n).write(currentNode);
 				}
 			}
+			storeCoord(currentNode.getId(), areasId);
 		}
-		if (isSpecialNode){
-			// this node is part of a multi-tile-polygon, add it to all tiles covered by the parent 
-			AreaSet nodeWriters = writerDictionary.getSet(multiTileWriterIdx);
-			for (int i : nodeWriters) {
-				if (i < writerOffset || i > lastWriter)
-					continue;
+		if (multiTileWriterIdx != UNASSIGNED)
+			writeMultiTileNode(currentNode, multiTileWriterIdx);
+	}
 
-				if (usedWriters.get(i) )
-					continue;
-				if (maxThreads > 1) {
-					addToWorkingQueue(i, currentNode);
-				} else {
-					writers[i].write(currentNode);
-				}
+	/**
+	 * Search the areas of the node with the area index.
+	 * @return the dictionary index of the areas in the searched range which contain
+	 * the node or UNASSIGNED
+	 */
+	private int findAreas(Node currentNode) {
+		AreaGridResult writerCandidates = writerIndex.get(currentNode);
+		if (writerCandidates == null)
+			return UNASSIGNED;
+		int countWriters = 0;
+		int lastUsedWriter = UNASSIGNED;
+		for (int n : writerCandidates.set) {
+			if (n < firstSearchedArea || n > lastSearchedArea)
+				continue;
+			boolean found;
+			if (writerCandidates.testNeeded){
+				found = writers[n].getExtendedBounds().contains(currentNode);
+				++countFullTest;
+			}
+			else{ 
+				found = true;
+				++countQuickTest;
+			}
+			if (found) {
+				if (countWriters == 0)
+					foundAreas.clear();
+				foundAreas.set(n);
+				++countWriters;
+				lastUsedWriter = n;
 			}
 		}
-		
-		if (countWriters > 0){
-			int writersID;
-			if (countWriters > 1)
-				writersID = writerDictionary.translate(usedWriters);
-			else  
-				writersID = AreaDictionary.translate(lastUsedWriter); // no need to do lookup in the dictionary
-			coords.put(currentNode.getId(), writersID);
-			++countCoords;
-			if (countCoords % 100_000_000 == 0){
-				System.out.println("coord MAP occupancy: " + Utils.format(countCoords) + ", number of area dictionary entries: " + writerDictionary.size());
+		if (countWriters == 0)
+			return UNASSIGNED;
+		if (countWriters == 1)
+			return AreaDictionary.translate(lastUsedWriter); // no need to do lookup in the dictionary
+		return writerDictionary.translate(foundAreas);
+	}
+
+	/**
+	 * Remove the areas which are not written in this pass. Consecutive nodes
+	 * often have the same areas, so the last result is kept.
+	 * @param areasId the dictionary index of the areas of a node in all passes
+	 * @return the dictionary index of the areas of this pass or UNASSIGNED
+	 */
+	private int filterPassAreas(int areasId) {
+		if (areasId != lastAreasId) {
+			passAreas.clear();
+			for (int n : writerDictionary.getSet(areasId)) {
+				if (n >= writerOffset && n <= lastWriter)
+					passAreas.set(n);
+			}
+			lastAreasId = areasId;
+			lastPassAreasId = passAreas.isEmpty() ? UNASSIGNED : writerDictionary.translate(passAreas);
+		}
+		return lastPassAreasId;
+	}
+
+	private void storeCoord(long id, int writersID) {
+		coords.put(id, writersID);
+		++countCoords;
+		if (countCoords % 100_000_000 == 0){
+			System.out.println("coord MAP occupancy: " + Utils.format(countCoords) + ", number of area dictionary entries: " + writerDictionary.size());
+		}
+	}
+
+	/**
+	 * This node is part of a multi-tile-polygon, add it to all tiles covered by the parent
+	 * which are not yet in usedWriters.
+	 */
+	private void writeMultiTileNode(Node currentNode, int multiTileWriterIdx) throws IOException {
+		AreaSet nodeWriters = writerDictionary.getSet(multiTileWriterIdx);
+		for (int i : nodeWriters) {
+			if (i < writerOffset || i > lastWriter)
+				continue;
+
+			if (usedWriters.get(i) )
+				continue;
+			if (maxThreads > 1) {
+				addToWorkingQueue(i, currentNode);
+			} else {
+				getOpenWriter(i).write(currentNode);
 			}
 		}
 	}
@@ -349,98 +712,187 @@ class SplitProcessor extends AbstractMapProcessor {
 				if (maxThreads > 1) {
 					addToWorkingQueue(n, el);
 				} else {
-					writers[n].write(el);
+					getOpenWriter(n).write(el);
 				}
 			}
 		}
 	}
 	
-	private void addToWorkingQueue(int writerNumber, Element element) {
-		try {
-			writerInputQueues[writerNumber-writerOffset].put(element);
-		} catch (InterruptedException e) {
-			throw new SplitFailedException("Failed to add to working queue", e);
-		}
+	/**
+	 * @return the writer, opened if needed, only used without worker threads
+	 */
+	private OSMWriter getOpenWriter(int writerNumber) {
+		OSMWriter writer = writers[writerNumber];
+		writerPool.use(writer);
+		return writer;
 	}
 
-	private class InputQueueInfo {
-		protected final OSMWriter writer;
-		private ArrayList<Element> staging;
-		protected final BlockingQueue<ArrayList<Element>> inputQueue;
+	private void addToWorkingQueue(int writerNumber, Object element) {
+		writerInputQueues[writerNumber-writerOffset].put(element);
+	}
 
-		public InputQueueInfo(OSMWriter writer) {
-			inputQueue =  new ArrayBlockingQueue<>(NO_ELEMENTS);
+	/**
+	 * The queue of one writer. The elements are collected in a staging list
+	 * which is passed to the worker thread that owns the writer when it is full.
+	 * Only the main thread adds elements, only the owner removes them.
+	 */
+	private class WriterQueue {
+		final OSMWriter writer;
+		// elements or blocks of nodes
+		private ArrayList<Object> staging;
+		final SpscQueue<ArrayList<Object>> inputQueue;
+		OSMWriterWorker owner;
+
+		// statistics, only written by the main thread
+		int maxDepth;
+		long sumDepth;
+		long countFlushes;
+		long countStalls;
+		long stallNanos;
+
+		WriterQueue(OSMWriter writer) {
+			this.inputQueue = new SpscQueue<>(NO_ELEMENTS);
 			this.writer = writer;
 			this.staging = new ArrayList<>(STAGING_SIZE);
 		}
 
-		void put(Element e) throws InterruptedException {
+		/**
+		 * @return the number of nodes expected for the writer, at least 1
+		 */
+		long getExpectedNodes() {
+			return Math.max(1, writer.getBounds().getEstimatedNodes());
+		}
+
+		void put(Object e) {
 			staging.add(e);
 			if (staging.size() >= STAGING_SIZE)
 				flush();
 		}
 
-		void flush() throws InterruptedException {
-			// System.out.println("Flush");
-			inputQueue.put(staging);
+		void flush() {
+			if (staging.isEmpty())
+				return;
+			if (!inputQueue.offer(staging)) {
+				long start = System.nanoTime();
+				do {
+					if (!owner.thread.isAlive())
+						throw new SplitFailedException("Thread " + owner.thread.getName() + " has stopped", owner.failure);
+					LockSupport.parkNanos(STALL_WAIT_NANOS);
+				} while (!inputQueue.offer(staging));
+				stallNanos += System.nanoTime() - start;
+				++countStalls;
+			}
+			int depth = inputQueue.size();
+			if (depth > maxDepth)
+				maxDepth = depth;
+			sumDepth += depth;
+			++countFlushes;
 			staging = new ArrayList<>(STAGING_SIZE);
-			toProcess.put(this);
-		}
-
-		void stop() throws InterruptedException {
-			flush();
+			owner.wakeUp();
 		}
 	}
 
 	public static final int NO_ELEMENTS = 3;
 	final int STAGING_SIZE = 300;
+	/** time to wait before the main thread checks again if a full queue has space */
+	private static final long STALL_WAIT_NANOS = 50_000;
 
+	/**
+	 * A worker thread which writes the elements of a fixed set of writers.
+	 */
 	private class OSMWriterWorker implements Runnable {
+		final Thread thread;
+		final ArrayList<WriterQueue> queues = new ArrayList<>();
+		/** limits the open files of the writers of this thread */
+		final WriterPool writerPool;
+		long expectedNodes;
+		/** set while the thread waits for work */
+		private volatile boolean idle;
+		/** set when no more elements will be added to the queues */
+		private volatile boolean finished;
+		volatile RuntimeException failure;
+		/** only valid after the thread was joined */
+		long idleNanos;
+
+		OSMWriterWorker(String name, int maxOpenFiles) {
+			thread = new Thread(this);
+			thread.setName(name);
+			writerPool = new WriterPool(maxOpenFiles);
+		}
+
+		void add(WriterQueue queue) {
+			queue.owner = this;
+			queues.add(queue);
+			expectedNodes += queue.getExpectedNodes();
+		}
+
+		void wakeUp() {
+			if (idle)
+				LockSupport.unpark(thread);
+		}
 
-		public OSMWriterWorker() {
+		void finish() {
+			finished = true;
+			LockSupport.unpark(thread);
 		}
 
 		@Override
 		public void run() {
-			boolean finished = false;
-			while (!finished) {
-				InputQueueInfo workPackage = null;
-				try {
-					workPackage = toProcess.take();
-				} catch (InterruptedException e1) {
-					e1.printStackTrace();
-					continue;
+			try {
+				while (true) {
+					// read the flag first, all elements are queued when it is set
+					boolean lastRound = finished;
+					if (writeQueued())
+						continue;
+					if (lastRound)
+						break;
+					long start = System.nanoTime();
+					idle = true;
+					// check again, the main thread may have missed the flag
+					if (!hasWork())
+						LockSupport.park(this);
+					idle = false;
+					idleNanos += System.nanoTime() - start;
 				}
-				if (workPackage == STOP_MSG) {
+			} catch (RuntimeException e) {
+				failure = e;
+				throw e;
+			}
+		}
+
+		private boolean hasWork() {
+			for (WriterQueue queue : queues) {
+				if (!queue.inputQueue.isEmpty())
+					return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Write all queued elements.
+		 * @return true if anything was written
+		 */
+		private boolean writeQueued() {
+			boolean written = false;
+			for (WriterQueue queue : queues) {
+				ArrayList<Object> elements;
+				while ((elements = queue.inputQueue.poll()) != null) {
+					written = true;
+					writerPool.use(queue.writer);
 					try {
-						toProcess.put(STOP_MSG); // Re-inject it so that other
-						// threads know that we're
-						// exiting.
-					} catch (InterruptedException e) {
-						e.printStackTrace();
-					}
-					finished = true;
-				} else {
-					synchronized (workPackage) {
-						while (!workPackage.inputQueue.isEmpty()) {
-							ArrayList<Element> elements = null;
-							try {
-								elements = workPackage.inputQueue.poll();
-								for (Element element : elements) {
-									workPackage.writer.write(element);
-								}
-							} catch (IOException e) {
-								throw new SplitFailedException("Thread "
-										+ Thread.currentThread().getName()
-										+ " failed to write element ", e);
-							}
+						for (Object element : elements) {
+							if (element instanceof NodeBlock)
+								((BinaryMapWriter) queue.writer).write((NodeBlock) element);
+							else
+								queue.writer.write((Element) element);
 						}
+					} catch (IOException e) {
+						throw new SplitFailedException("Thread " + thread.getName()
+								+ " failed to write element ", e);
 					}
-
 				}
 			}
-			System.out.println("Thread " + Thread.currentThread().getName()
-					+ " has finished");
+			return written;
 		}
 	}
 
@@ -75,6 +75,39 @@ public class Utils {
 		return (int) ((l - DELTA) * (1 << 24)/360);
 	}
 	
+	/** number of fixed point units per degree, o5m uses the same precision */
+	public static final int FIXED_POINT_UNITS = 10_000_000;
+
+	/**
+	 * Convert a fixed point value to map units. The result is the same
+	 * as that of {@link #toMapUnit(double)}, but no floating point arithmetic is needed.
+	 * @param fixed the lat or long in units of 1e-7 degrees
+	 * @return the value in map units
+	 */
+	public static int fixedToMapUnit(int fixed) {
+		// map units = fixed * 2^24 / (360 * 10^7), rounded half away from zero
+		long val = Math.abs((long) fixed) << 24;
+		int res = (int) ((val + 1_800_000_000L) / 3_600_000_000L);
+		return fixed < 0 ? -res : res;
+	}
+
+	/**
+	 * @param fixed the lat or long in units of 1e-7 degrees
+	 * @return the value in degrees
+	 */
+	public static double fixedToDegrees(int fixed) {
+		return (double) fixed / FIXED_POINT_UNITS;
+	}
+
+	/**
+	 * Convert degrees to the nearest fixed point value.
+	 * @param degrees the lat or long in degrees
+	 * @return the value in units of 1e-7 degrees, not limited to the int range 
+	 */
+	public static long toFixed(double degrees) {
+		return Math.round(degrees * FIXED_POINT_UNITS);
+	}
+
 	/**
 	 * Open a file and apply filters necessary to reading it such as decompression.
 	 *
@@ -84,7 +117,46 @@ public class Utils {
 	 */
 	@SuppressWarnings("resource")
 	public static Reader openFile(String name, boolean backgroundReader) throws IOException {
-		InputStream is = new BufferedInputStream(new FileInputStream(name), 8192);
+		return new InputStreamReader(openInputStream(name, backgroundReader), Charset.forName("UTF-8"));
+	}
+
+	/**
+	 * Open a file and uncompress it if the name ends with .gz, .bz2 or .zip.
+	 * @param name the file name
+	 * @param backgroundReader if true, read the file in a background thread
+	 * @return a stream with the uncompressed data
+	 * @throws IOException
+	 */
+	public static InputStream openInputStream(String name, boolean backgroundReader) throws IOException {
+		return openInputStream(name, backgroundReader ? Runtime.getRuntime().availableProcessors() : 1, 0);
+	}
+
+	/**
+	 * Open a file and uncompress it if the name ends with .gz, .bz2 or .zip.
+	 * @param name the file name
+	 * @param maxThreads the maximum number of threads, if greater than 1 the file is read
+	 * in a background thread and compressed data may be uncompressed in parallel
+	 * @param readAhead the number of chunks that are read ahead from the file, 0 means no read-ahead
+	 * @return a stream with the uncompressed data
+	 * @throws IOException
+	 */
+	@SuppressWarnings("resource")
+	public static InputStream openInputStream(String name, int maxThreads, int readAhead) throws IOException {
+		boolean backgroundReader = maxThreads > 1;
+		// inflating in java is slower than the native zlib, so this only pays off with a few cores
+		if (name.endsWith(".gz") && maxThreads >= 4
+				&& new File(name).length() >= ParallelGZipInputStream.MIN_FILE_SIZE) {
+			try {
+				return new ParallelGZipInputStream(name, maxThreads);
+			} catch (IOException e) {
+				throw new IOException( "Could not read " + name + " as a gz compressed file", e);
+			}
+		}
+		InputStream is;
+		if (readAhead > 0)
+			is = ReadAhead.openStream(name, readAhead);
+		else
+			is = new BufferedInputStream(new FileInputStream(name), 8192);
 		if (name.endsWith(".gz")) {
 			try {
 				is = new GZIPInputStream(is);
@@ -93,6 +165,10 @@ public class Utils {
 			}
 		} else if (name.endsWith(".bz2")) {
 			try {
+				if (backgroundReader) {
+					// decompress the blocks in parallel, this also reads the file in the background
+					return new ParallelBZip2InputStream(is, maxThreads);
+				}
 				is.read(); is.read();
 				is = new CBZip2InputStream(is);
 			} catch (IOException e) {
@@ -116,7 +192,7 @@ public class Utils {
 		if (backgroundReader) {
 			is = new BackgroundInputStream(is);
 		}
-		return new InputStreamReader(is, Charset.forName("UTF-8"));
+		return is;
 	}
 	
 	public static Rectangle area2Rectangle (Area area, int overlap){
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+package uk.me.parabola.splitter;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A list of ways without tags, stored in primitive arrays. The node
+ * references of all ways are stored in one array, the refs of way i are
+ * found between {@link #getRefStart(int)} and {@link #getRefEnd(int)}.
+ * Used instead of {@link Way} instances when the processor returns true for
+ * {@link MapProcessor#useBatches()}.
+ *
+ * @author agent
+ *
+ */
+public class WayBatch {
+	private static final int INITIAL_CAPACITY = 256;
+	/** batches which are passed between threads are recycled */
+	private static final ArrayBlockingQueue<WayBatch> pool = new ArrayBlockingQueue<>(64);
+
+	private int size;
+	private long[] ids = new long[INITIAL_CAPACITY];
+	private int[] versions = new int[INITIAL_CAPACITY];
+	/** refStarts[i] is the start of the refs of way i, refStarts[size] is the number of refs */
+	private int[] refStarts = new int[INITIAL_CAPACITY + 1];
+	private long[] refs = new long[INITIAL_CAPACITY * 16];
+	private int numRefs;
+
+	/**
+	 * @return an empty batch, either a recycled one or a new one
+	 */
+	public static WayBatch obtain() {
+		WayBatch batch = pool.poll();
+		return batch != null ? batch : new WayBatch();
+	}
+
+	/**
+	 * Return this batch to the pool. It must not be used afterwards.
+	 */
+	public void recycle() {
+		clear();
+		pool.offer(this);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void clear() {
+		size = 0;
+		numRefs = 0;
+	}
+
+	/**
+	 * Add a node reference to the way that is currently built.
+	 * @param ref the node id
+	 */
+	public void addRef(long ref) {
+		if (numRefs == refs.length)
+			refs = Arrays.copyOf(refs, refs.length * 2);
+		refs[numRefs++] = ref;
+	}
+
+	/**
+	 * Complete a way. It uses all refs that were added after the previous way.
+	 * @param id the way id
+	 * @param version the version
+	 */
+	public void addWay(long id, int version) {
+		if (size == ids.length)
+			grow(size + 1);
+		ids[size] = id;
+		versions[size] = version;
+		refStarts[++size] = numRefs;
+	}
+
+	/**
+	 * Append all ways of another batch.
+	 * @param other the other batch
+	 */
+	public void addAll(WayBatch other) {
+		int n = other.size;
+		if (size + n > ids.length)
+			grow(size + n);
+		if (numRefs + other.numRefs > refs.length)
+			refs = Arrays.copyOf(refs, Math.max(numRefs + other.numRefs, refs.length * 2));
+		System.arraycopy(other.ids, 0, ids, size, n);
+		System.arraycopy(other.versions, 0, versions, size, n);
+		System.arraycopy(other.refs, 0, refs, numRefs, other.numRefs);
+		for (int i = 1; i <= n; i++)
+			refStarts[size + i] = numRefs + other.refStarts[i];
+		size += n;
+		numRefs += other.numRefs;
+	}
+
+	private void grow(int minCapacity) {
+		int newCapacity = Math.max(minCapacity, ids.length * 2);
+		ids = Arrays.copyOf(ids, newCapacity);
+		versions = Arrays.copyOf(versions, newCapacity);
+		refStarts = Arrays.copyOf(refStarts, newCapacity + 1);
+	}
+
+	public long getId(int i) {
+		return ids[i];
+	}
+
+	public int getVersion(int i) {
+		return versions[i];
+	}
+
+	/**
+	 * @return the array with the refs of all ways, only valid until the batch is modified
+	 */
+	public long[] getRefs() {
+		return refs;
+	}
+
+	public int getRefStart(int i) {
+		return refStarts[i];
+	}
+
+	public int getRefEnd(int i) {
+		return refStarts[i + 1];
+	}
+
+	/**
+	 * Create a way object for an entry.
+	 * @param i the index
+	 * @return a new way
+	 */
+	public Way toWay(int i) {
+		Way way = new Way();
+		way.setId(ids[i]);
+		way.setVersion(versions[i]);
+		for (int j = refStarts[i]; j < refStarts[i + 1]; j++)
+			way.addRef(refs[j]);
+		return way;
+	}
+}
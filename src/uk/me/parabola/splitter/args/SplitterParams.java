@@ -28,9 +28,14 @@ public interface SplitterParams {
 	@Option(description = "A default description to give to each area.")
 	String getDescription();
 
-	@Option(defaultValue = "2048", description = "The maximum number of areas to process in a single pass. " + 
-	"More areas require more memory, but less time. Values: 1-9999.")
-	int getMaxAreas();
+	@Option(defaultValue = "auto", description = "The maximum number of areas to process in a single pass, or auto "
+			+ "to derive it from the maximum heap size. The nodes and ways of all areas of a pass are kept in memory, "
+			+ "so more areas require more memory, but less time.")
+	String getMaxAreas();
+
+	@Option(defaultValue = "2048", description = "The maximum number of output files that are open at the same time. "
+			+ "Other files are closed and reopened when needed, so a pass may contain more areas.")
+	int getMaxOpenFiles();
 
 	@Option(defaultValue = "auto", description = "Deprecated. Nodes/ways/rels that fall outside an area will still " 
 			+ "be included if they are within this many map units. ")
@@ -61,6 +66,10 @@ public interface SplitterParams {
 	@Option(description = "The name of a file containing the areas definitions. Can be .list or .kml. Providing such a file will save processing time.")
 	String getSplitFile();
 
+	@Option(description = "Split with several processes. --shard=0/n calculates the data that is shared by n processes, "
+			+ "--shard=i/n with i from 1 to n writes the i-th part of the areas. All processes must use the same output directory.")
+	String getShard();
+
 	@Option(description = "The name of a GeoNames file to use for determining tile names. Typically cities15000.zip from http://download.geonames.org/export/dump/")
 	String getGeonamesFile();
 
@@ -123,4 +132,24 @@ public interface SplitterParams {
 	@Option(defaultValue = "false", description = "Specify if splitter should ignore bounds tags in input files")
 	boolean getIgnoreOsmBounds();
 
+	@Option(defaultValue = "8", description = "The number of 1 MB buffers that are read ahead of the parser "
+			+ "by a background thread. For o5m files the next part of the file is loaded into the page cache instead. "
+			+ "Set =0 to disable.")
+	int getReadAhead();
+
+	@Option(description = "Load the start of the next input file into the page cache while the current file is processed.")
+	boolean isPrefetchNextFile();
+
+	@Option(description = "The path to a directory for a compact copy of the input files. It is written "
+			+ "while an input file is read the first time and read by the following passes. "
+			+ "It is reused in later runs as long as the input file is not changed.")
+	String getWorkCache();
+
+	@Option(description = "Copy blocks of nodes from pbf input files unchanged to the output file when all "
+			+ "nodes of the block belong to a single tile. Requires --output=pbf and --handle-element-version=keep.")
+	boolean isCopyNodeBlocks();
+
+	@Option(defaultValue = "auto", description = "The index used to find the areas of a node. Can be auto, grid, flat-grid, or rtree.")
+	String getAreaIndex();
+
 }
@@ -13,49 +13,147 @@
 
 package uk.me.parabola.splitter.parser;
 
-import crosby.binary.BinaryParser;
 import crosby.binary.Osmformat;
+import crosby.binary.file.BlockReaderAdapter;
+import crosby.binary.file.FileBlock;
 import crosby.binary.file.FileBlockPosition;
 
-import it.unimi.dsi.fastutil.shorts.ShortArrayList;
+import uk.me.parabola.splitter.AbstractMapProcessor;
 import uk.me.parabola.splitter.Area;
+import uk.me.parabola.splitter.Element;
 import uk.me.parabola.splitter.MapProcessor;
 import uk.me.parabola.splitter.Node;
+import uk.me.parabola.splitter.NodeBlock;
+import uk.me.parabola.splitter.NodeBatch;
 import uk.me.parabola.splitter.Relation;
+import uk.me.parabola.splitter.ShardableProcessor;
 import uk.me.parabola.splitter.UnknownFeatureException;
 import uk.me.parabola.splitter.Utils;
 import uk.me.parabola.splitter.Way;
+import uk.me.parabola.splitter.WayBatch;
+import uk.me.parabola.splitter.tools.StringDictionary;
 
-import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
-public class BinaryMapParser extends BinaryParser {
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+/**
+ * Parses the blocks of a pbf file. The data blocks are decoded directly from
+ * the protobuf wire format instead of using the generated Osmformat classes.
+ * Only the fields which are needed by the processor are decoded, all other
+ * fields are skipped using their length prefix. For example, the strings and
+ * the DenseInfo of a dense node group are not touched when the processor
+ * skips tags and only the ids are read from groups with skipped element types.
+ */
+public class BinaryMapParser implements BlockReaderAdapter {
 	private static final short TYPE_DENSE = 0x1;
 	private static final short TYPE_NODES = 0x2;
 	private static final short TYPE_WAYS = 0x4;
 	private static final short TYPE_RELS = 0x8;
-	private final ShortArrayList blockTypes = new ShortArrayList();
-	private final ShortArrayList knownBlockTypes;
+
+	// protobuf wire types
+	private static final int WIRE_VARINT = 0;
+	private static final int WIRE_FIXED64 = 1;
+	private static final int WIRE_LENGTH = 2;
+	private static final int WIRE_START_GROUP = 3;
+	private static final int WIRE_END_GROUP = 4;
+	private static final int WIRE_FIXED32 = 5;
 
 	// for status messages
 	private final ElementCounter elemCounter = new ElementCounter();
 
-	private short blockType = -1;
-	private int blockCount = -1;
+	// per block state
+	private short blockType;
+	private long minId;
+	private long maxId;
+	// bounding box of the decoded nodes in units of 1e-7 degrees
+	private int minLat, minLon, maxLat, maxLon;
+	private int granularity;
+	private long latOffset;
+	private long lonOffset;
 	private boolean skipTags;
 	private boolean skipNodes;
 	private boolean skipWays;
 	private boolean skipRels;
+	// null if all tags are wanted
+	private final KeyFilter keyFilter;
+	// nodes and ways are passed in batches
+	private final boolean useBatches;
+	private NodeBatch nodeBatch;
+	private WayBatch wayBatch;
 	private short wantedTypeMask = 0;
 	private int msgLevel;
 
-	public BinaryMapParser(MapProcessor processor, ShortArrayList knownBlockTypes, int msgLevel) {
+	// the block which is decoded
+	private byte[] buf;
+	private int pos;
+	private int blockEnd;
+	// the string table is indexed and decoded on demand
+	private int stringTableStart;
+	private int stringTableEnd;
+	private boolean stringsIndexed;
+	private int numStrings;
+	private int[] stringPos = new int[1000];
+	private int[] stringLen = new int[1000];
+	private String[] strings = new String[1000];
+	// ids of the strings in the tag dictionary, UNKNOWN_ID if not yet looked up
+	private int[] keyIds = new int[1000];
+	private int[] valueIds = new int[1000];
+	private static final int UNKNOWN_ID = -2;
+	// used in keyIds for keys which are not wanted by the processor
+	private static final int UNWANTED_KEY = -3;
+	// reused arrays for the packed fields of an element or a dense node group
+	private final LongArrayList ids = new LongArrayList();
+	private final LongArrayList lats = new LongArrayList();
+	private final LongArrayList lons = new LongArrayList();
+	private final IntArrayList versions = new IntArrayList();
+	private final IntArrayList keys = new IntArrayList();
+	private final IntArrayList vals = new IntArrayList();
+	private final IntArrayList roles = new IntArrayList();
+	private final IntArrayList memTypes = new IntArrayList();
+	/** if not null, the ids of skipped nodes are collected here */
+	private LongArrayList nodeIds;
+
+	/** a processor that skips everything, used to decode only the node ids */
+	private static final MapProcessor SKIP_ALL = new AbstractMapProcessor() {
+		@Override
+		public boolean skipTags() {
+			return true;
+		}
+
+		@Override
+		public boolean skipNodes() {
+			return true;
+		}
+
+		@Override
+		public boolean skipWays() {
+			return true;
+		}
+
+		@Override
+		public boolean skipRels() {
+			return true;
+		}
+	};
+
+	public BinaryMapParser(MapProcessor processor, int msgLevel) {
 		this.processor = processor;
-		this.knownBlockTypes = knownBlockTypes;
 		this.skipTags = processor.skipTags();
 		this.skipNodes = processor.skipNodes();
 		this.skipWays = processor.skipWays();
 		this.skipRels = processor.skipRels();
+		this.keyFilter = KeyFilter.create(processor);
 		this.msgLevel = msgLevel;
+		this.useBatches = skipTags && processor.useBatches();
+		if (useBatches) {
+			nodeBatch = new NodeBatch();
+			wayBatch = new WayBatch();
+		}
 
 		if (skipNodes == false) {
 			wantedTypeMask |= TYPE_DENSE;
@@ -69,172 +167,742 @@ public class BinaryMapParser extends BinaryParser {
 
 	MapProcessor processor;
 
-	public ShortArrayList getBlockList() {
-		return blockTypes;
+	/**
+	 * Create a parser for a decoder thread which passes the nodes to a shard
+	 * of the processor, see {@link ShardableProcessor}.
+	 * @return the parser or null if the processor cannot be sharded or wants more than nodes
+	 */
+	public BinaryMapParser createShardParser() {
+		if (!skipWays || !skipRels || !(processor instanceof ShardableProcessor))
+			return null;
+		return new BinaryMapParser(((ShardableProcessor) processor).createShard(), msgLevel);
+	}
+
+	/**
+	 * Add the results of a parser created with {@link #createShardParser()} to the processor.
+	 * @param shardParser the parser
+	 */
+	public void mergeShard(BinaryMapParser shardParser) {
+		((ShardableProcessor) processor).mergeShard((ShardableProcessor) shardParser.processor);
+	}
+
+	/**
+	 * @return true if the processor wants to receive complete blocks of nodes, see {@link MapProcessor#useNodeBlocks()}
+	 */
+	public boolean useNodeBlocks() {
+		return processor.useNodeBlocks();
+	}
+
+	/**
+	 * @return true if the processor doesn't need the nodes of the block, see {@link MapProcessor#skipNodeBlock(Area, long, long)}
+	 */
+	public boolean skipNodeBlock(Area bounds, long minId, long maxId) {
+		return processor.skipNodeBlock(bounds, minId, maxId);
+	}
+
+	/**
+	 * Pass a block of nodes to the processor.
+	 * @param block the block
+	 */
+	public void processNodeBlock(NodeBlock block) {
+		processor.processNodeBlock(block);
+	}
+
+	/**
+	 * Check if a block contains only nodes.
+	 * @param knownType the element types of the block as returned by {@link #getBlockType()}
+	 * @return true if the block contains nodes and nothing else
+	 */
+	public static boolean isNodeBlock(short knownType) {
+		return knownType != 0 && (knownType & ~(TYPE_DENSE | TYPE_NODES)) == 0;
+	}
+
+	/**
+	 * Check if a block with the given element types contains something that the processor wants.
+	 * @param knownType the element types of the block as returned by {@link #getBlockType()}
+	 * @return false if the block can be skipped
+	 */
+	public boolean isWanted(short knownType) {
+		return knownType == 0 || (knownType & wantedTypeMask) != 0;
 	}
 
 	@Override
 	public boolean skipBlock(FileBlockPosition block) {
-		blockCount++;
-		if (knownBlockTypes != null) {
-			blockType = knownBlockTypes.getShort(blockCount);
-			if (blockType != 0 && (blockType & wantedTypeMask) == 0)
-				return true;
-		} else if (blockType != -1) {
-			// System.out.println("previous block contained " + blockType );
-			blockTypes.add(blockType);
+		return skipBlock(block.getType());
+	}
+
+	@Override
+	public void handleBlock(FileBlock message) {
+		beginBlock();
+		if (message.getType().equals("OSMHeader")) {
+			try {
+				parse(Osmformat.HeaderBlock.parseFrom(message.getData()));
+			} catch (InvalidProtocolBufferException e) {
+				throw new IllegalArgumentException("invalid header block in pbf file: " + e.getMessage());
+			}
+		} else if (message.getType().equals("OSMData")) {
+			byte[] data = message.getData().toByteArray();
+			parse(data, 0, data.length);
 		}
-		blockType = 0;
-		// System.out.println("Seeing block of type: "+block.getType());
-		if (block.getType().equals("OSMData"))
+	}
+
+	/**
+	 * Decide if a block should be skipped.
+	 * @param type the type given in the block header
+	 * @return true if the block doesn't have to be read
+	 */
+	public boolean skipBlock(String type) {
+		// System.out.println("Seeing block of type: "+type);
+		if (type.equals("OSMData"))
 			return false;
-		if (block.getType().equals("OSMHeader"))
+		if (type.equals("OSMHeader"))
 			return false;
-		System.out.println("Skipped block of type: " + block.getType());
+		System.out.println("Skipped block of type: " + type);
 		return true;
 	}
 
+	/**
+	 * Called before a block is parsed.
+	 */
+	public void beginBlock() {
+		blockType = 0;
+		minId = Long.MAX_VALUE;
+		maxId = Long.MIN_VALUE;
+		minLat = minLon = Integer.MAX_VALUE;
+		maxLat = maxLon = Integer.MIN_VALUE;
+	}
+
+	/**
+	 * @return the element types found in the last parsed block
+	 */
+	public short getBlockType() {
+		return blockType;
+	}
+
+	/**
+	 * @return the lowest id found in the last parsed block or Long.MAX_VALUE if the block was empty
+	 */
+	public long getMinId() {
+		return minId;
+	}
+
+	/**
+	 * @return the highest id found in the last parsed block or Long.MIN_VALUE if the block was empty
+	 */
+	public long getMaxId() {
+		return maxId;
+	}
+
+	/**
+	 * @return the lowest latitude of the nodes decoded in the last parsed block in units of 1e-7 degrees,
+	 * the bounding box is empty if no nodes were decoded
+	 */
+	public int getMinLat() {
+		return minLat;
+	}
+
+	public int getMinLon() {
+		return minLon;
+	}
+
+	public int getMaxLat() {
+		return maxLat;
+	}
+
+	public int getMaxLon() {
+		return maxLon;
+	}
+
+	private void addToBounds(int lat, int lon) {
+		if (lat < minLat)
+			minLat = lat;
+		if (lat > maxLat)
+			maxLat = lat;
+		if (lon < minLon)
+			minLon = lon;
+		if (lon > maxLon)
+			maxLon = lon;
+	}
+
+	/**
+	 * Decode only the node ids of an uncompressed PrimitiveBlock.
+	 * @param data the buffer
+	 * @param offset the start of the block in the buffer
+	 * @param len the length of the block
+	 * @return the ids in the order of the block
+	 */
+	public static long[] decodeNodeIds(byte[] data, int offset, int len) {
+		BinaryMapParser parser = new BinaryMapParser(SKIP_ALL, 0);
+		parser.nodeIds = new LongArrayList();
+		parser.parse(data, offset, len);
+		return parser.nodeIds.toLongArray();
+	}
+
+	private void countId(long id) {
+		if (id < minId)
+			minId = id;
+		if (id > maxId)
+			maxId = id;
+	}
+
 	@Override
 	public void complete() {
-		blockTypes.add(blockType);
 		// End of map is sent when all input files are processed.
 		// So do nothing else.
 	}
 
-	// Per-block state for parsing, set when processing the header of a block;
-	@Override
-	protected void parseDense(Osmformat.DenseNodes nodes) {
-		blockType |= TYPE_DENSE;
-		if (skipNodes)
+	/**
+	 * Process an uncompressed PrimitiveBlock. The data is only used while this
+	 * method runs, so the caller may reuse the buffer afterwards.
+	 * @param data the buffer
+	 * @param offset the start of the block in the buffer
+	 * @param len the length of the block
+	 */
+	public void parse(byte[] data, int offset, int len) {
+		buf = data;
+		pos = offset;
+		blockEnd = offset + len;
+		granularity = 100;
+		latOffset = 0;
+		lonOffset = 0;
+		stringTableStart = stringTableEnd = pos;
+		stringsIndexed = false;
+		// the groups are decoded after the block header fields which may follow them
+		IntArrayList groups = new IntArrayList();
+		try {
+			while (pos < blockEnd) {
+				int tag = readTag();
+				switch (tag >>> 3) {
+				case 1:
+					stringTableEnd = readLength();
+					stringTableStart = pos;
+					pos = stringTableEnd;
+					break;
+				case 2:
+					int end = readLength();
+					groups.add(pos);
+					groups.add(end);
+					pos = end;
+					break;
+				case 17:
+					granularity = (int) readVarint();
+					break;
+				case 19:
+					latOffset = readVarint();
+					break;
+				case 20:
+					lonOffset = readVarint();
+					break;
+				default:
+					skipField(tag);
+				}
+			}
+			for (int i = 0; i < groups.size(); i += 2) {
+				pos = groups.getInt(i);
+				parseGroup(groups.getInt(i + 1));
+			}
+		} finally {
+			buf = null;
+			Arrays.fill(strings, 0, numStrings, null);
+			numStrings = 0;
+		}
+	}
+
+	private void parseGroup(int end) {
+		while (pos < end) {
+			int tag = readTag();
+			switch (tag >>> 3) {
+			case 1:
+				blockType |= TYPE_NODES;
+				parseNode(readLength());
+				break;
+			case 2:
+				blockType |= TYPE_DENSE;
+				parseDense(readLength());
+				break;
+			case 3:
+				blockType |= TYPE_WAYS;
+				parseWay(readLength());
+				break;
+			case 4:
+				blockType |= TYPE_RELS;
+				parseRelation(readLength());
+				break;
+			default:
+				skipField(tag);
+			}
+		}
+		if (useBatches) {
+			if (!nodeBatch.isEmpty()) {
+				processor.processNodes(nodeBatch);
+				nodeBatch.clear();
+			}
+			if (!wayBatch.isEmpty()) {
+				processor.processWays(wayBatch);
+				wayBatch.clear();
+			}
+		}
+	}
+
+	/**
+	 * Convert a latitude value of the block to a fixed point value.
+	 * @param raw the value as stored in the block
+	 * @return the latitude in units of 1e-7 degrees
+	 */
+	private int fixedLat(long raw) {
+		return toFixed(granularity * raw + latOffset);
+	}
+
+	/**
+	 * Convert a longitude value of the block to a fixed point value.
+	 * @param raw the value as stored in the block
+	 * @return the longitude in units of 1e-7 degrees
+	 */
+	private int fixedLon(long raw) {
+		return toFixed(granularity * raw + lonOffset);
+	}
+
+	private static int toFixed(long nanoDegrees) {
+		// exact with the default granularity of 100 nanodegrees, else rounded
+		long fixed = nanoDegrees % 100 == 0 ? nanoDegrees / 100 : Math.floorDiv(nanoDegrees + 50, 100);
+		if (fixed != (int) fixed)
+			throw new IllegalArgumentException("invalid coordinate value " + nanoDegrees * .000000001);
+		return (int) fixed;
+	}
+
+	private void parseDense(int end) {
+		ids.clear();
+		lats.clear();
+		lons.clear();
+		versions.clear();
+		keys.clear();
+		boolean hasInfo = false;
+		while (pos < end) {
+			int tag = readTag();
+			int field = tag >>> 3;
+			if (field == 1)
+				readPackedSigned(tag, ids);
+			else if (skipNodes)
+				skipField(tag);
+			else if (field == 5) {
+				hasInfo = true;
+				readDenseVersions(readLength());
+			} else if (field == 8)
+				readPackedSigned(tag, lats);
+			else if (field == 9)
+				readPackedSigned(tag, lons);
+			else if (field == 10 && !skipTags)
+				readPackedInts(tag, keys);
+			else
+				skipField(tag);
+		}
+		int maxi = ids.size();
+		if (skipNodes) {
+			long id = 0;
+			for (int i = 0; i < maxi; i++) {
+				id += ids.getLong(i);
+				countId(id);
+				if (nodeIds != null)
+					nodeIds.add(id);
+			}
 			return;
+		}
+		if (lats.size() != maxi || lons.size() != maxi || (!versions.isEmpty() && versions.size() != maxi))
+			throw new IllegalArgumentException("invalid dense node group in pbf block");
+		// like an Info without version, a DenseInfo without versions means version -1
+		int noVersion = hasInfo ? -1 : 0;
 		long last_id = 0, last_lat = 0, last_lon = 0;
 		int j = 0;
-		int maxi = nodes.getIdCount();
-		Node tmp = new Node();
 		for (int i = 0; i < maxi; i++) {
-			long lat = nodes.getLat(i) + last_lat;
-			last_lat = lat;
-			long lon = nodes.getLon(i) + last_lon;
-			last_lon = lon;
-			long id = nodes.getId(i) + last_id;
-			last_id = id;
-			double latf = parseLat(lat), lonf = parseLon(lon);
-
-			tmp = new Node();
-			tmp.set(id, latf, lonf);
-			if (nodes.hasDenseinfo())
-				tmp.setVersion(nodes.getDenseinfo().getVersion(i));
-
-			if (!skipTags) {
-				if (nodes.getKeysValsCount() > 0) {
-					while (nodes.getKeysVals(j) != 0) {
-						int keyid = nodes.getKeysVals(j++);
-						int valid = nodes.getKeysVals(j++);
-						tmp.addTag(getStringById(keyid), getStringById(valid));
-					}
-					j++; // Skip over the '0' delimiter.
-
+			last_lat += lats.getLong(i);
+			last_lon += lons.getLong(i);
+			last_id += ids.getLong(i);
+			int version = versions.isEmpty() ? noVersion : versions.getInt(i);
+			int lat = fixedLat(last_lat);
+			int lon = fixedLon(last_lon);
+			countId(last_id);
+			addToBounds(lat, lon);
+			if (useBatches) {
+				nodeBatch.add(last_id, version, lat, lon);
+				elemCounter.countNode(last_id);
+				continue;
+			}
+			Node tmp = new Node();
+			tmp.setFixed(last_id, lat, lon);
+			tmp.setVersion(version);
+			if (!keys.isEmpty()) {
+				while (keys.getInt(j) != 0) {
+					int keyid = keys.getInt(j++);
+					int valid = keys.getInt(j++);
+					addTag(tmp, keyid, valid);
 				}
+				j++; // Skip over the '0' delimiter.
 			}
 			processor.processNode(tmp);
-			elemCounter.countNode(tmp.getId());
+			elemCounter.countNode(last_id);
 		}
 	}
 
-	@Override
-	protected void parseNodes(List<Osmformat.Node> nodes) {
-		if (nodes.size() == 0)
+	private void readDenseVersions(int end) {
+		while (pos < end) {
+			int tag = readTag();
+			if (tag >>> 3 == 1)
+				readPackedInts(tag, versions);
+			else
+				skipField(tag);
+		}
+	}
+
+	private void parseNode(int end) {
+		long id = 0, lat = 0, lon = 0;
+		int version = 0;
+		keys.clear();
+		vals.clear();
+		while (pos < end) {
+			int tag = readTag();
+			int field = tag >>> 3;
+			if (field == 1)
+				id = readSigned();
+			else if (skipNodes)
+				skipField(tag);
+			else if (field == 8)
+				lat = readSigned();
+			else if (field == 9)
+				lon = readSigned();
+			else if (field == 4)
+				version = readInfoVersion(readLength());
+			else if (field == 2 && !skipTags)
+				readPackedInts(tag, keys);
+			else if (field == 3 && !skipTags)
+				readPackedInts(tag, vals);
+			else
+				skipField(tag);
+		}
+		countId(id);
+		if (skipNodes) {
+			if (nodeIds != null)
+				nodeIds.add(id);
 			return;
-		blockType |= TYPE_NODES;
-		if (skipNodes)
+		}
+		int fixedLat = fixedLat(lat);
+		int fixedLon = fixedLon(lon);
+		addToBounds(fixedLat, fixedLon);
+		if (useBatches) {
+			nodeBatch.add(id, version, fixedLat, fixedLon);
+			elemCounter.countNode(id);
 			return;
-		for (Osmformat.Node i : nodes) {
-			Node tmp = new Node();
-			for (int j = 0; j < i.getKeysCount(); j++)
-				tmp.addTag(getStringById(i.getKeys(j)), getStringById(i.getVals(j)));
-			long id = i.getId();
-			double latf = parseLat(i.getLat()), lonf = parseLon(i.getLon());
-
-			tmp.set(id, latf, lonf);
-			if (i.hasInfo())
-				tmp.setVersion(i.getInfo().getVersion());
-
-			processor.processNode(tmp);
-			elemCounter.countNode(tmp.getId());
 		}
+		Node tmp = new Node();
+		addTags(tmp);
+		tmp.setFixed(id, fixedLat, fixedLon);
+		tmp.setVersion(version);
+		processor.processNode(tmp);
+		elemCounter.countNode(id);
 	}
 
-	@Override
-	protected void parseWays(List<Osmformat.Way> ways) {
-		long numways = ways.size();
-		if (numways == 0)
-			return;
-		blockType |= TYPE_WAYS;
+	private void parseWay(int end) {
+		long id = 0;
+		int version = 0;
+		keys.clear();
+		vals.clear();
+		ids.clear();
+		while (pos < end) {
+			int tag = readTag();
+			int field = tag >>> 3;
+			if (field == 1)
+				id = readVarint();
+			else if (skipWays)
+				skipField(tag);
+			else if (field == 8)
+				readPackedSigned(tag, ids);
+			else if (field == 4)
+				version = readInfoVersion(readLength());
+			else if (field == 2 && !skipTags)
+				readPackedInts(tag, keys);
+			else if (field == 3 && !skipTags)
+				readPackedInts(tag, vals);
+			else
+				skipField(tag);
+		}
+		countId(id);
 		if (skipWays)
 			return;
-		for (Osmformat.Way i : ways) {
-			Way tmp = new Way();
-			if (skipTags == false) {
-				for (int j = 0; j < i.getKeysCount(); j++)
-					tmp.addTag(getStringById(i.getKeys(j)), getStringById(i.getVals(j)));
+		long last_id = 0;
+		if (useBatches) {
+			for (int j = 0; j < ids.size(); j++) {
+				last_id += ids.getLong(j);
+				wayBatch.addRef(last_id);
 			}
-			long last_id = 0;
-			for (long j : i.getRefsList()) {
-				tmp.addRef(j + last_id);
-				last_id = j + last_id;
+			wayBatch.addWay(id, version);
+			elemCounter.countWay(id);
+			return;
+		}
+		Way tmp = new Way();
+		addTags(tmp);
+		for (int j = 0; j < ids.size(); j++) {
+			last_id += ids.getLong(j);
+			tmp.addRef(last_id);
+		}
+		tmp.setId(id);
+		tmp.setVersion(version);
+		processor.processWay(tmp);
+		elemCounter.countWay(id);
+	}
+
+	private void parseRelation(int end) {
+		long id = 0;
+		// the version of a relation without info is the default value
+		int version = -1;
+		keys.clear();
+		vals.clear();
+		ids.clear();
+		roles.clear();
+		memTypes.clear();
+		while (pos < end) {
+			int tag = readTag();
+			int field = tag >>> 3;
+			if (field == 1)
+				id = readVarint();
+			else if (skipRels)
+				skipField(tag);
+			else if (field == 9)
+				readPackedSigned(tag, ids);
+			else if (field == 8)
+				readPackedInts(tag, roles);
+			else if (field == 10)
+				readPackedInts(tag, memTypes);
+			else if (field == 4)
+				version = readInfoVersion(readLength());
+			else if (field == 2 && !skipTags)
+				readPackedInts(tag, keys);
+			else if (field == 3 && !skipTags)
+				readPackedInts(tag, vals);
+			else
+				skipField(tag);
+		}
+		countId(id);
+		if (skipRels)
+			return;
+		if (roles.size() != ids.size() || memTypes.size() != ids.size())
+			throw new IllegalArgumentException("invalid members of relation " + id + " in pbf block");
+		Relation tmp = new Relation();
+		addTags(tmp);
+		tmp.setId(id);
+		tmp.setVersion(version);
+
+		long last_mid = 0;
+		for (int j = 0; j < ids.size(); j++) {
+			long mid = last_mid + ids.getLong(j);
+			last_mid = mid;
+			String role = getStringById(roles.getInt(j));
+			byte etype;
+
+			switch (memTypes.getInt(j)) {
+			case 0:
+				etype = Relation.MEM_NODE;
+				break;
+			case 1:
+				etype = Relation.MEM_WAY;
+				break;
+			case 2:
+				etype = Relation.MEM_RELATION;
+				break;
+			default:
+				continue; // TODO; Illegal file?
 			}
+			tmp.addMember(etype, mid, role);
+		}
+		processor.processRelation(tmp);
+		elemCounter.countRelation(id);
+	}
 
-			long id = i.getId();
-			tmp.setId(id);
-			if (i.hasInfo())
-				tmp.setVersion(i.getInfo().getVersion());
+	private void addTags(Element el) {
+		if (keys.size() != vals.size())
+			throw new IllegalArgumentException("different number of keys and values in pbf block");
+		for (int j = 0; j < keys.size(); j++)
+			addTag(el, keys.getInt(j), vals.getInt(j));
+	}
 
-			processor.processWay(tmp);
-			elemCounter.countWay(i.getId());
+	/**
+	 * Add a tag using the cached dictionary ids of the strings, so that each
+	 * string of the block is decoded and looked up only once. Unwanted keys
+	 * are recognised by their bytes, they and their values are never decoded.
+	 */
+	private void addTag(Element el, int keyIndex, int valueIndex) {
+		checkStringId(keyIndex);
+		checkStringId(valueIndex);
+		int keyId = keyIds[keyIndex];
+		if (keyId == UNKNOWN_ID) {
+			if (keyFilter != null && !keyFilter.isWanted(buf, stringPos[keyIndex], stringLen[keyIndex]))
+				keyId = UNWANTED_KEY;
+			else
+				keyId = Element.getKeyId(getStringById(keyIndex));
+			keyIds[keyIndex] = keyId;
 		}
+		if (keyId == UNWANTED_KEY)
+			return;
+		int valueId = valueIds[valueIndex];
+		if (valueId == UNKNOWN_ID) {
+			valueId = Element.getValueId(getStringById(valueIndex));
+			valueIds[valueIndex] = valueId;
+		}
+		el.addTag(keyId, keyId == StringDictionary.NOT_INTERNED ? getStringById(keyIndex) : null,
+				valueId, valueId == StringDictionary.NOT_INTERNED ? getStringById(valueIndex) : null);
 	}
 
-	@Override
-	protected void parseRelations(List<Osmformat.Relation> rels) {
-		if (rels.size() == 0)
+	/**
+	 * Read the version from an Info message.
+	 * @param end the end of the message
+	 * @return the version or -1 if the message doesn't contain one
+	 */
+	private int readInfoVersion(int end) {
+		int version = -1;
+		while (pos < end) {
+			int tag = readTag();
+			if (tag >>> 3 == 1)
+				version = (int) readVarint();
+			else
+				skipField(tag);
+		}
+		return version;
+	}
+
+	private String getStringById(int id) {
+		checkStringId(id);
+		String s = strings[id];
+		if (s == null) {
+			s = new String(buf, stringPos[id], stringLen[id], StandardCharsets.UTF_8);
+			strings[id] = s;
+		}
+		return s;
+	}
+
+	private void checkStringId(int id) {
+		if (!stringsIndexed)
+			indexStrings();
+		if (id < 0 || id >= numStrings)
+			throw new IllegalArgumentException("invalid string id " + id + " in pbf block");
+	}
+
+	/**
+	 * Find the positions of the strings in the string table. They are decoded when they are used.
+	 */
+	private void indexStrings() {
+		int savedPos = pos;
+		pos = stringTableStart;
+		while (pos < stringTableEnd) {
+			int tag = readTag();
+			if (tag >>> 3 == 1 && (tag & 7) == WIRE_LENGTH) {
+				int end = readLength();
+				if (numStrings == stringPos.length) {
+					stringPos = Arrays.copyOf(stringPos, numStrings * 2);
+					stringLen = Arrays.copyOf(stringLen, numStrings * 2);
+					strings = Arrays.copyOf(strings, numStrings * 2);
+					keyIds = Arrays.copyOf(keyIds, numStrings * 2);
+					valueIds = Arrays.copyOf(valueIds, numStrings * 2);
+				}
+				keyIds[numStrings] = UNKNOWN_ID;
+				valueIds[numStrings] = UNKNOWN_ID;
+				stringPos[numStrings] = pos;
+				stringLen[numStrings] = end - pos;
+				numStrings++;
+				pos = end;
+			} else
+				skipField(tag);
+		}
+		pos = savedPos;
+		stringsIndexed = true;
+	}
+
+	/**
+	 * Read a repeated sint64 field, either packed or as single value.
+	 */
+	private void readPackedSigned(int tag, LongArrayList list) {
+		if ((tag & 7) != WIRE_LENGTH) {
+			list.add(readSigned());
 			return;
-		blockType |= TYPE_RELS;
-		if (skipRels)
+		}
+		int end = readLength();
+		while (pos < end)
+			list.add(readSigned());
+	}
+
+	/**
+	 * Read a repeated int32, uint32 or enum field, either packed or as single value.
+	 */
+	private void readPackedInts(int tag, IntArrayList list) {
+		if ((tag & 7) != WIRE_LENGTH) {
+			list.add((int) readVarint());
 			return;
-		for (Osmformat.Relation i : rels) {
-			Relation tmp = new Relation();
-			if (skipTags == false) {
-				for (int j = 0; j < i.getKeysCount(); j++)
-					tmp.addTag(getStringById(i.getKeys(j)), getStringById(i.getVals(j)));
-			}
-			long id = i.getId();
-			tmp.setId(id);
-			tmp.setVersion(i.getInfo().getVersion());
-
-			long last_mid = 0;
-			for (int j = 0; j < i.getMemidsCount(); j++) {
-				long mid = last_mid + i.getMemids(j);
-				last_mid = mid;
-				String role = getStringById(i.getRolesSid(j));
-				String etype = null;
-
-				if (i.getTypes(j) == Osmformat.Relation.MemberType.NODE)
-					etype = "node";
-				else if (i.getTypes(j) == Osmformat.Relation.MemberType.WAY)
-					etype = "way";
-				else if (i.getTypes(j) == Osmformat.Relation.MemberType.RELATION)
-					etype = "relation";
-				else
-					assert false; // TODO; Illegal file?
-
-				tmp.addMember(etype, mid, role);
+		}
+		int end = readLength();
+		while (pos < end)
+			list.add((int) readVarint());
+	}
+
+	private int readTag() {
+		return (int) readVarint();
+	}
+
+	/**
+	 * Read the length of a length delimited field.
+	 * @return the end position of the field
+	 */
+	private int readLength() {
+		int len = (int) readVarint();
+		if (len < 0 || len > blockEnd - pos)
+			throw new IllegalArgumentException("invalid field length " + len + " in pbf block");
+		return pos + len;
+	}
+
+	private void skipField(int tag) {
+		switch (tag & 7) {
+		case WIRE_VARINT:
+			readVarint();
+			break;
+		case WIRE_FIXED64:
+			pos += 8;
+			break;
+		case WIRE_LENGTH:
+			pos = readLength();
+			break;
+		case WIRE_START_GROUP:
+			// a deprecated group, skip the fields up to the matching end tag
+			int endTag = (tag & ~7) | WIRE_END_GROUP;
+			while (true) {
+				if (pos >= blockEnd)
+					throw new IllegalArgumentException("unterminated group in pbf block");
+				int t = readTag();
+				if (t == endTag)
+					break;
+				skipField(t);
 			}
-			processor.processRelation(tmp);
-			elemCounter.countRelation(tmp.getId());
+			break;
+		case WIRE_FIXED32:
+			pos += 4;
+			break;
+		default:
+			throw new IllegalArgumentException("unsupported wire type " + (tag & 7) + " in pbf block");
 		}
 	}
 
-	@Override
+	private long readSigned() {
+		long v = readVarint();
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	private long readVarint() {
+		long v = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buf[pos++];
+			v |= (long) (b & 0x7f) << shift;
+			shift += 7;
+		} while (b < 0);
+		return v;
+	}
+
 	public void parse(Osmformat.HeaderBlock block) {
 
 		for (String s : block.getRequiredFeaturesList()) {
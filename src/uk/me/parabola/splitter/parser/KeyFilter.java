@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter.parser;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+import uk.me.parabola.splitter.MapProcessor;
+
+/**
+ * The tag keys wanted by a processor, see {@link MapProcessor#getWantedKeys()}.
+ * Keys can be checked in their UTF-8 encoding, so that the parsers don't have
+ * to create strings for the keys of unwanted tags.
+ *
+ * @author agent
+ */
+class KeyFilter {
+	private final Set<String> keys;
+	private final byte[][] encodedKeys;
+
+	private KeyFilter(Set<String> keys) {
+		this.keys = keys;
+		encodedKeys = new byte[keys.size()][];
+		int i = 0;
+		for (String key : keys)
+			encodedKeys[i++] = key.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @param processor the processor
+	 * @return the filter or null if the processor wants all tags
+	 */
+	static KeyFilter create(MapProcessor processor) {
+		if (processor.skipTags())
+			return null;
+		Set<String> keys = processor.getWantedKeys();
+		return keys == null ? null : new KeyFilter(keys);
+	}
+
+	boolean isWanted(String key) {
+		return keys.contains(key);
+	}
+
+	/**
+	 * @param buf the buffer
+	 * @param offset start of the UTF-8 encoded key
+	 * @param len the number of bytes
+	 * @return true if the key is wanted
+	 */
+	boolean isWanted(byte[] buf, int offset, int len) {
+		for (byte[] key : encodedKeys) {
+			if (key.length != len)
+				continue;
+			int i = 0;
+			while (i < len && key[i] == buf[offset + i])
+				i++;
+			if (i == len)
+				return true;
+		}
+		return false;
+	}
+}
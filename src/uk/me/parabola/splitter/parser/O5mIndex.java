@@ -0,0 +1,399 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter.parser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import uk.me.parabola.splitter.Area;
+import uk.me.parabola.splitter.Utils;
+
+/**
+ * Index of the segments of an o5m file. A segment starts either at a
+ * reset flag or at a check point where the decoder state (delta values and
+ * the string table) was saved, so each segment can be decoded
+ * independently. For each segment the index also stores which data set
+ * types it contains and the range of ids and the bounding box of the nodes.
+ * The index is saved in a file next to the o5m file. It is only used when
+ * the size, the modification time and the start of the file didn't change.
+ *
+ * @author agent
+ */
+public class O5mIndex {
+	public static final String SUFFIX = ".idx";
+	private static final int MAGIC = 0x534f3549; // SO5I
+	private static final int VERSION = 2;
+	private static final int CRC_LEN = 4096;
+	/** the number of delta values saved at a check point */
+	static final int NUM_DELTAS = 10;
+
+	/** bits for the type mask of a segment */
+	public static final int TYPE_NODES = 0x1;
+	public static final int TYPE_WAYS = 0x2;
+	public static final int TYPE_RELS = 0x4;
+	public static final int TYPE_OTHER = 0x8;
+
+	private final List<Segment> segments = new ArrayList<>();
+	private final long fileSize;
+	private long lastModified;
+	private long headerCrc;
+
+	/**
+	 * @param fileSize the size of the o5m file 
+	 */
+	O5mIndex(long fileSize) {
+		this.fileSize = fileSize;
+	}
+
+	/**
+	 * A segment of the file.
+	 */
+	static class Segment {
+		final long start;
+		int typeMask;
+		/** the decoder state at the start or null if the segment starts with a reset flag */
+		final long[] deltas;
+		final byte[] stringTable;
+		long minNodeId = Long.MAX_VALUE;
+		long maxNodeId = Long.MIN_VALUE;
+		// bounding box of the nodes in units of 1e-7 degrees, empty if the segment has no nodes
+		int minLat = Integer.MAX_VALUE;
+		int minLon = Integer.MAX_VALUE;
+		int maxLat = Integer.MIN_VALUE;
+		int maxLon = Integer.MIN_VALUE;
+
+		Segment(long start, long[] deltas, byte[] stringTable) {
+			this.start = start;
+			this.deltas = deltas;
+			this.stringTable = stringTable;
+		}
+	}
+
+	/**
+	 * Add a segment that starts with a reset flag.
+	 * @param pos the position of the reset flag
+	 */
+	void addReset(long pos) {
+		segments.add(new Segment(pos, null, null));
+	}
+
+	/**
+	 * Add a segment that starts with a saved decoder state.
+	 * @param pos the position of the first data set
+	 * @param deltas the delta values
+	 * @param stringTable the encoded positions of the string table entries, see {@link #encodePositions(long[], int)}
+	 */
+	void addCheckPoint(long pos, long[] deltas, byte[] stringTable) {
+		segments.add(new Segment(pos, deltas, stringTable));
+	}
+
+	/**
+	 * Add a data set type to the last segment.
+	 * @param typeBit one of the TYPE_ values
+	 */
+	void addType(int typeBit) {
+		segments.get(segments.size() - 1).typeMask |= typeBit;
+	}
+
+	/**
+	 * Add a node to the last segment.
+	 * @param id the node id
+	 * @param lat the latitude in units of 1e-7 degrees
+	 * @param lon the longitude in units of 1e-7 degrees
+	 */
+	void addNode(long id, int lat, int lon) {
+		Segment seg = segments.get(segments.size() - 1);
+		seg.minNodeId = Math.min(seg.minNodeId, id);
+		seg.maxNodeId = Math.max(seg.maxNodeId, id);
+		seg.minLat = Math.min(seg.minLat, lat);
+		seg.minLon = Math.min(seg.minLon, lon);
+		seg.maxLat = Math.max(seg.maxLat, lat);
+		seg.maxLon = Math.max(seg.maxLon, lon);
+	}
+
+	public int size() {
+		return segments.size();
+	}
+
+	Segment get(int i) {
+		return segments.get(i);
+	}
+
+	/**
+	 * @return the position of the segment start
+	 */
+	public long getStart(int i) {
+		return segments.get(i).start;
+	}
+
+	/**
+	 * @return the position after the last byte of the segment
+	 */
+	public long getEnd(int i) {
+		return i + 1 < segments.size() ? segments.get(i + 1).start : fileSize;
+	}
+
+	/**
+	 * @param i the segment
+	 * @param wantedMask the wanted types
+	 * @return true if the segment contains one of the wanted types or data which is always needed
+	 */
+	public boolean isWanted(int i, int wantedMask) {
+		int mask = segments.get(i).typeMask;
+		return (mask & (wantedMask | TYPE_OTHER)) != 0;
+	}
+
+	/**
+	 * @param i the segment
+	 * @param typeBit one of the TYPE_ values
+	 * @return true if the segment contains elements of the given type
+	 */
+	public boolean contains(int i, int typeBit) {
+		return (segments.get(i).typeMask & typeBit) != 0;
+	}
+
+	/**
+	 * @param i the segment
+	 * @return true if the segment contains nodes and nothing else
+	 */
+	public boolean isNodeSegment(int i) {
+		return segments.get(i).typeMask == TYPE_NODES;
+	}
+
+	/**
+	 * @param i the segment
+	 * @return the bounding box of the nodes in map units or null if the segment has no nodes
+	 */
+	public Area getNodeBounds(int i) {
+		Segment seg = segments.get(i);
+		if (seg.minLat > seg.maxLat)
+			return null;
+		return new Area(Utils.fixedToMapUnit(seg.minLat), Utils.fixedToMapUnit(seg.minLon),
+				Utils.fixedToMapUnit(seg.maxLat), Utils.fixedToMapUnit(seg.maxLon));
+	}
+
+	public long getMinNodeId(int i) {
+		return segments.get(i).minNodeId;
+	}
+
+	public long getMaxNodeId(int i) {
+		return segments.get(i).maxNodeId;
+	}
+
+	long getLastStart() {
+		return segments.isEmpty() ? -1 : segments.get(segments.size() - 1).start;
+	}
+
+	/**
+	 * Encode file positions which are given in ascending order as delta values.
+	 * @param positions the positions
+	 * @param n number of positions to encode
+	 * @return the encoded positions
+	 */
+	static byte[] encodePositions(long[] positions, int n) {
+		ByteBuffer buf = ByteBuffer.allocate(4 + n * 10);
+		buf.putInt(n);
+		long last = 0;
+		for (int i = 0; i < n; i++) {
+			long delta = positions[i] - last;
+			last = positions[i];
+			// delta is only negative for corrupt files, store it as 64 bit value
+			while ((delta & ~0x7fL) != 0) {
+				buf.put((byte) ((delta & 0x7f) | 0x80));
+				delta >>>= 7;
+			}
+			buf.put((byte) delta);
+		}
+		byte[] res = new byte[buf.position()];
+		System.arraycopy(buf.array(), 0, res, 0, res.length);
+		return res;
+	}
+
+	/**
+	 * Decode positions created with {@link #encodePositions(long[], int)}
+	 * @param data the encoded data
+	 * @return the positions
+	 */
+	static long[] decodePositions(byte[] data) {
+		ByteBuffer buf = ByteBuffer.wrap(data);
+		int n = buf.getInt();
+		// each position needs at least one byte
+		if (n < 0 || n > buf.remaining())
+			throw new IllegalArgumentException("invalid number of positions " + n);
+		long[] positions = new long[n];
+		long last = 0;
+		for (int i = 0; i < positions.length; i++) {
+			long delta = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = buf.get();
+				delta |= (long) (b & 0x7f) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			last += delta;
+			positions[i] = last;
+		}
+		return positions;
+	}
+
+	/**
+	 * Load the index for an o5m file.
+	 * @param o5mFile the o5m file
+	 * @param channel channel of the opened file, used to check the start of the file
+	 * @return the index or null if no valid index was found. A damaged index is ignored.
+	 */
+	public static O5mIndex load(File o5mFile, FileChannel channel) {
+		File indexFile = new File(o5mFile.getPath() + SUFFIX);
+		if (!indexFile.exists())
+			return null;
+		O5mIndex index;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				return null;
+			index = new O5mIndex(in.readLong());
+			index.lastModified = in.readLong();
+			index.headerCrc = in.readLong();
+			if (index.fileSize != o5mFile.length() || index.lastModified != o5mFile.lastModified())
+				return null;
+			if (index.headerCrc != calcCrc(channel))
+				return null;
+			long indexSize = indexFile.length();
+			int n = in.readInt();
+			if (n < 0 || n > indexSize)
+				throw new IOException("invalid number of segments " + n);
+			long lastStart = 0;
+			for (int i = 0; i < n; i++) {
+				long start = in.readLong();
+				if (start < lastStart || start >= index.fileSize)
+					throw new IOException("invalid start of segment " + i);
+				lastStart = start;
+				int typeMask = in.readInt();
+				Segment seg;
+				if (in.readBoolean()) {
+					int numDeltas = in.readInt();
+					if (numDeltas != NUM_DELTAS)
+						throw new IOException("invalid check point in segment " + i);
+					long[] deltas = new long[numDeltas];
+					for (int j = 0; j < deltas.length; j++)
+						deltas[j] = in.readLong();
+					int len = in.readInt();
+					if (len < 4 || len > indexSize)
+						throw new IOException("invalid string table in segment " + i);
+					byte[] stringTable = new byte[len];
+					in.readFully(stringTable);
+					if (decodePositions(stringTable).length > O5mMapParser.STRING_TABLE_SIZE)
+						throw new IOException("invalid string table in segment " + i);
+					seg = new Segment(start, deltas, stringTable);
+				} else {
+					seg = new Segment(start, null, null);
+				}
+				seg.typeMask = typeMask;
+				seg.minNodeId = in.readLong();
+				seg.maxNodeId = in.readLong();
+				seg.minLat = in.readInt();
+				seg.minLon = in.readInt();
+				seg.maxLat = in.readInt();
+				seg.maxLon = in.readInt();
+				index.segments.add(seg);
+			}
+		} catch (IOException | RuntimeException e) {
+			System.out.println("Ignoring invalid index file " + indexFile + ": " + e.getMessage());
+			return null;
+		}
+		return index.size() > 0 ? index : null;
+	}
+
+	/**
+	 * Save the index next to the o5m file. Failures are reported but
+	 * otherwise ignored, the index is only an optimisation. The index is
+	 * written to a temporary file which is renamed when it is complete, so
+	 * other processes reading the same o5m file never see a partial index.
+	 * @param o5mFile the o5m file
+	 * @param channel channel of the opened file, used to calculate the checksum of the file start
+	 * @param modified the modification time of the file when it was opened
+	 */
+	public void save(File o5mFile, FileChannel channel, long modified) {
+		if (size() == 0 || modified != o5mFile.lastModified())
+			return;
+		File indexFile = new File(o5mFile.getPath() + SUFFIX);
+		File tmpFile = null;
+		try {
+			lastModified = modified;
+			headerCrc = calcCrc(channel);
+			tmpFile = File.createTempFile(indexFile.getName(), ".tmp", indexFile.getAbsoluteFile().getParentFile());
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+				writeTo(out);
+			}
+			Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			System.out.println("Cannot write index file " + indexFile + ": " + e.getMessage());
+			if (tmpFile != null)
+				tmpFile.delete();
+		}
+	}
+
+	private void writeTo(DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(fileSize);
+		out.writeLong(lastModified);
+		out.writeLong(headerCrc);
+		out.writeInt(segments.size());
+		for (Segment seg : segments) {
+			out.writeLong(seg.start);
+			out.writeInt(seg.typeMask);
+			out.writeBoolean(seg.deltas != null);
+			if (seg.deltas != null) {
+				out.writeInt(seg.deltas.length);
+				for (long v : seg.deltas)
+					out.writeLong(v);
+				out.writeInt(seg.stringTable.length);
+				out.write(seg.stringTable);
+			}
+			out.writeLong(seg.minNodeId);
+			out.writeLong(seg.maxNodeId);
+			out.writeInt(seg.minLat);
+			out.writeInt(seg.minLon);
+			out.writeInt(seg.maxLat);
+			out.writeInt(seg.maxLon);
+		}
+	}
+
+	private static long calcCrc(FileChannel channel) throws IOException {
+		int len = (int) Math.min(CRC_LEN, channel.size());
+		ByteBuffer buf = ByteBuffer.allocate(len);
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, buf.position()) < 0)
+				throw new IOException("unexpected end of file");
+		}
+		CRC32 crc = new CRC32();
+		crc.update(buf.array(), 0, len);
+		return crc.getValue();
+	}
+}
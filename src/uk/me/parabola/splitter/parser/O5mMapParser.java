@@ -16,20 +16,27 @@ package uk.me.parabola.splitter.parser;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
 import uk.me.parabola.splitter.Area;
 import uk.me.parabola.splitter.Element;
 import uk.me.parabola.splitter.MapProcessor;
 import uk.me.parabola.splitter.Node;
+import uk.me.parabola.splitter.NodeBatch;
+import uk.me.parabola.splitter.ReadAhead;
 import uk.me.parabola.splitter.Relation;
 import uk.me.parabola.splitter.Utils;
 import uk.me.parabola.splitter.Way;
+import uk.me.parabola.splitter.WayBatch;
 
 /**
  * Parser for the o5m format described here: http://wiki.openstreetmap.org/wiki/O5m
  * The routines to are based on the osmconvert.c source from Markus Weber who allows 
  * to copy them for any o5m IO, thanks a lot for that. 
+ * The input file is memory mapped in large windows. The string table only
+ * keeps the file positions of the string pairs, the strings are
+ * created when they are really needed.
  * @author GerdP  
  *
  */
@@ -45,46 +52,72 @@ public class O5mMapParser {
 	private static final int RESET_FLAG = 0xff;
 	
 	// o5m constants
-	private static final int STRING_TABLE_SIZE = 15000;
+	static final int STRING_TABLE_SIZE = 15000;
 	private static final int MAX_STRING_PAIR_SIZE = 250 + 2;
-	private static final String[] REL_REF_TYPES = {"node", "way", "relation", "?"};
 	private static final double FACTOR = 1d / 1000000000; // used with 100*<Val>*FACTOR 
+	// minimum distance between two check points in the index 
+	private static final long CHECK_POINT_MIN_DISTANCE = 32L * 1024 * 1024;
 	
-	// for status messages
-	private final ElementCounter elemCounter = new ElementCounter();
+	// for status messages, null if the caller counts the elements
+	private final ElementCounter elemCounter;
 	// flags set by the processor to signal what information is not needed
 	private final boolean skipTags;
 	private final boolean skipNodes;
 	private final boolean skipWays;
 	private final boolean skipRels;
+	// null if all tags are wanted
+	private final KeyFilter keyFilter;
+	private final int wantedMask;
+	// nodes and ways are collected in batches
+	private final boolean useBatches;
+	private final NodeBatch nodeBatch;
+	private final WayBatch wayBatch;
+	private static final int BATCH_SIZE = 1000;
 
 	private final FileChannel fileChannel;
-	// Buffer size, must be a power of 2
+	private final long fileSize;
+	// size of the memory mapped windows
+	private static final int MAP_SIZE = 1 << 26;
+	// Buffer size used when the file cannot be mapped, must be a power of 2
 	private static final int BUF_SIZE = 0x1000;
+	private boolean useMapping = true;
+	// if true, the next mapped window is loaded in the background
+	private boolean prefetch;
 	
-	private final ByteBuffer fileBuffer = ByteBuffer.allocate(BUF_SIZE);
+	private ByteBuffer fileBuffer;
 	private long filePos;
 	private long bufStart;
 	private int bufSize = -1; 
+	// small buffer for strings which are no longer in fileBuffer
+	private final ByteBuffer stringBuffer = ByteBuffer.allocate(2 * MAX_STRING_PAIR_SIZE);
+	private long stringBufStart = -1;
+	private int stringBufSize;
 
 	private long nextFilePos;  
+	private long endPos;
 
 	
 	private final MapProcessor processor;
 	
 	// buffer for byte -> String conversions
 	private final byte[] cnvBuffer; 
+	private int cnvLength;
 	
-	// the o5m string table
-	private String[][] stringTable;
+	// the o5m string table: the file positions of the string pairs and the 
+	// strings which were already created for them
+	private final long[] stringTablePos;
+	private final String[][] stringTable;
 	private final String[] stringPair;
 	private int currStringTablePos;
-	// a counter that must be maintained by all routines that read data
+	// number of string pairs stored since the last reset
+	private int numStoredPairs;
 
-	// performance: save byte position of first occurrence of a data set type (node, way, relation)
-	// to allow skipping large parts of the stream
-	private long[] firstPosInFile;
-	private long[] skipArray;
+	// performance: the segments of the file allow skipping large parts of the stream
+	private final O5mIndex knownIndex;
+	private O5mIndex newIndex;
+	// true if the string pairs of the tags in the current segment are not needed
+	private boolean skipTagPairs;
+	private final long checkPointDistance;
 	
 	// for delta calculations
 	private long lastNodeId;
@@ -99,29 +132,86 @@ public class O5mMapParser {
 	 * A parser for the o5m format.
 	 * @param processor A mapProcessor instance
 	 * @param fc the file channel for the input file 
-	 * @param skipArray An Array of longs that is used to hold information of file position of the first occurrence of 
-	 * each known 05m data type (esp. nodes, ways, and relations). 
+	 * @param index the segment index of the file or null. If null, the whole file is read and a new index is created.
 	 * @throws IOException 
 	 */
-	public O5mMapParser(MapProcessor processor, FileChannel fc, long[] skipArray) throws IOException{
+	public O5mMapParser(MapProcessor processor, FileChannel fc, O5mIndex index) throws IOException{
+		this(processor, fc, index, new ElementCounter());
+	}
+
+	/**
+	 * A parser for the o5m format.
+	 * @param processor A mapProcessor instance
+	 * @param fc the file channel for the input file 
+	 * @param index the segment index of the file or null
+	 * @param elemCounter used for status messages, may be null  
+	 * @throws IOException 
+	 */
+	O5mMapParser(MapProcessor processor, FileChannel fc, O5mIndex index, ElementCounter elemCounter) throws IOException{
 		this.fileChannel = fc;
+		this.fileSize = fc.size();
 		this.processor = processor;
-		this.skipArray = skipArray;
+		this.knownIndex = index;
+		this.elemCounter = elemCounter;
 		this.skipTags = processor.skipTags();
 		this.skipNodes = processor.skipNodes();
 		this.skipWays = processor.skipWays();
 		this.skipRels = processor.skipRels();
+		this.keyFilter = KeyFilter.create(processor);
+		this.wantedMask = calcWantedMask(processor);
+		this.useBatches = skipTags && processor.useBatches();
+		this.nodeBatch = useBatches ? new NodeBatch() : null;
+		this.wayBatch = useBatches ? new WayBatch() : null;
 		this.cnvBuffer = new byte[4000]; // OSM data should not contain string pairs with length > 512
 		this.stringPair = new String[2];
+		this.stringTablePos = new long[STRING_TABLE_SIZE];
+		this.stringTable = new String[2][STRING_TABLE_SIZE];
 		this.lastRef = new long[3];
-		if (skipArray == null) {
-			firstPosInFile = new long[256];
-			Arrays.fill(firstPosInFile, -1);
-		}
+		// each file is split into at most ~256 segments
+		this.checkPointDistance = Math.max(CHECK_POINT_MIN_DISTANCE, fileSize / 256);
 		reset();
 	}
 
+	/**
+	 * @param prefetch if true, the next part of the file is loaded in the background 
+	 */
+	public void setPrefetch(boolean prefetch) {
+		this.prefetch = prefetch;
+	}
+
+	/**
+	 * @param processor the processor
+	 * @return the {@link O5mIndex} type mask for the data sets that are wanted by the processor 
+	 */
+	static int calcWantedMask(MapProcessor processor) {
+		int mask = 0;
+		if (!processor.skipNodes())
+			mask |= O5mIndex.TYPE_NODES;
+		if (!processor.skipWays())
+			mask |= O5mIndex.TYPE_WAYS;
+		if (!processor.skipRels())
+			mask |= O5mIndex.TYPE_RELS;
+		return mask;
+	}
 	
+	/**
+	 * @param processor the processor
+	 * @param index the index
+	 * @param i the segment
+	 * @param wantedMask the wanted types, see {@link #calcWantedMask(MapProcessor)}
+	 * @return true if the segment contains data that is needed by the processor
+	 */
+	static boolean isWanted(MapProcessor processor, O5mIndex index, int i, int wantedMask) {
+		if (!index.isWanted(i, wantedMask))
+			return false;
+		if (index.isNodeSegment(i)) {
+			Area bounds = index.getNodeBounds(i);
+			if (bounds != null && processor.skipNodeBlock(bounds, index.getMinNodeId(i), index.getMaxNodeId(i)))
+				return false;
+		}
+		return true;
+	}
+
 	/**
 	 * parse the input stream.
 	 * @throws IOException 
@@ -130,70 +220,186 @@ public class O5mMapParser {
 		int start = get() & 0xff;
 		if (start != RESET_FLAG) 
 			throw new IOException("wrong header byte " + start);
-		if (skipArray != null) {
-			if (skipNodes) {
-				if (skipWays)
-					filePos = skipArray[REL_DATASET]; // jump to first relation
-				else
-					filePos = skipArray[WAY_DATASET]; // jump to first way
-			}
-		}
-		if (filePos >= 0)
+		if (knownIndex == null) {
+			// read everything and create the index
+			newIndex = new O5mIndex(fileSize);
+			filePos = 0;
+			endPos = fileSize;
 			readFile();
+			return;
+		}
+		int lastSegment = -1;
+		for (int i = 0; i < knownIndex.size(); i++) {
+			if (!isWanted(processor, knownIndex, i, wantedMask))
+				continue;
+			// the string table is incomplete after a segment with skipped tag pairs
+			boolean skipPairs = canSkipTagPairs(i);
+			if (lastSegment != i - 1 || (skipTagPairs && !skipPairs))
+				restoreState(knownIndex.get(i));
+			skipTagPairs = skipPairs;
+			filePos = knownIndex.getStart(i);
+			endPos = knownIndex.getEnd(i);
+			if (readFile())
+				break;
+			lastSegment = i;
+		}
+	}
+
+	/**
+	 * Parse a single segment of the file.
+	 * @param seg the segment number in the known index
+	 * @throws IOException
+	 */
+	void parseSegment(int seg) throws IOException {
+		restoreState(knownIndex.get(seg));
+		skipTagPairs = canSkipTagPairs(seg);
+		filePos = knownIndex.getStart(seg);
+		endPos = knownIndex.getEnd(seg);
+		readFile();
+	}
+
+	/**
+	 * The string pairs of the tags don't have to be stored in the string table
+	 * if the tags are not needed and no relation in the segment may refer to them
+	 * with its member roles. The string table is restored at the start of each segment.
+	 * @param seg the segment number in the known index
+	 * @return true if the tags of the segment can be skipped
+	 */
+	private boolean canSkipTagPairs(int seg) {
+		return skipTags && skipRels && !knownIndex.contains(seg, O5mIndex.TYPE_RELS);
+	}
+
+	/**
+	 * @return the index that was used or created while reading the file
+	 */
+	public O5mIndex getIndex() {
+		return knownIndex != null ? knownIndex : newIndex;
 	}
 	
 	/**
-	 * Read the file following the initial byte.
+	 * Read data sets until the end position or the end of data is reached.
+	 * @return true if the end of data was found
 	 * @throws IOException
 	 */
-	private void readFile() throws IOException {
-		boolean done = false;
-		while (!done) {
-			long size = 0;
+	private boolean readFile() throws IOException {
+		boolean eod = readDataSets();
+		flushBatches();
+		return eod;
+	}
+
+	private boolean readDataSets() throws IOException {
+		while (filePos < endPos) {
+			long dataSetPos = filePos;
 			int fileType = get() & 0xff;
+			if (useBatches && fileType != NODE_DATASET && fileType != WAY_DATASET)
+				flushBatches();
+			if (newIndex != null)
+				addToIndex(dataSetPos, fileType);
 			if (fileType >= 0 && fileType < 0xf0) {
-				if (skipArray == null) {
-					// save first occurrence of a data set type
-					if (firstPosInFile[fileType] == -1) {
-						firstPosInFile[fileType] = Math.max(0, filePos- 1);
-					}
-				}
-				size = readUnsignedNum64();
+				long size = readUnsignedNum64();
 				nextFilePos = filePos + size;
-				
-				
-				boolean doSkip = false;
-				if (fileType == NODE_DATASET && skipNodes) doSkip = true;
-				else if (fileType == WAY_DATASET && skipWays) doSkip = true;
-				else if (fileType == REL_DATASET && skipRels) doSkip = true;
-				switch(fileType) {
-				case NODE_DATASET: 
-				case WAY_DATASET: 
-				case REL_DATASET: 
-				case BBOX_DATASET:
-				case TIMESTAMP_DATASET:
-				case HEADER_DATASET:
-					if (doSkip) { 
-						filePos = nextFilePos;
-						continue;
-					}
-					break;					
-				default:	
-				}
 			}
-			if (fileType == NODE_DATASET) readNode();
-			else if (fileType == WAY_DATASET) readWay();
-			else if (fileType == REL_DATASET) readRel();
+			// data sets which are not wanted are still decoded to maintain the string table and the delta values  
+			if (fileType == NODE_DATASET) readNode(!skipNodes);
+			else if (fileType == WAY_DATASET) readWay(!skipWays);
+			else if (fileType == REL_DATASET) readRel(!skipRels);
 			else if (fileType == BBOX_DATASET) readBBox();
 			else if (fileType == TIMESTAMP_DATASET) readFileTimestamp();
 			else if (fileType == HEADER_DATASET) readHeader();
-			else if (fileType == EOD_FLAG) done = true;
+			else if (fileType == EOD_FLAG) return true;
 			else if (fileType == RESET_FLAG) reset();
 			else {
 				if (fileType < 0xf0)
 					filePos = nextFilePos; // skip unknown data set
 			}
 		}
+		return false;
+	}
+
+	/**
+	 * Pass the collected nodes and ways to the processor.
+	 */
+	private void flushBatches() {
+		if (!useBatches)
+			return;
+		if (!nodeBatch.isEmpty()) {
+			processor.processNodes(nodeBatch);
+			nodeBatch.clear();
+		}
+		if (!wayBatch.isEmpty()) {
+			processor.processWays(wayBatch);
+			wayBatch.clear();
+		}
+	}
+
+	/**
+	 * Add a data set to the new index. A new segment is started with each 
+	 * reset flag and after each checkPointDistance bytes.
+	 * @param pos the position of the data set
+	 * @param fileType the data set type 
+	 */
+	private void addToIndex(long pos, int fileType) {
+		if (fileType == RESET_FLAG) {
+			newIndex.addReset(pos);
+			return;
+		}
+		if (fileType >= 0xf0)
+			return;
+		if (pos - newIndex.getLastStart() >= checkPointDistance) {
+			long[] deltas = { lastNodeId, lastWayId, lastRelId, lastRef[0], lastRef[1], lastRef[2], lastTs,
+					lastChangeSet, lastLon, lastLat };
+			int n = Math.min(numStoredPairs, STRING_TABLE_SIZE);
+			long[] positions = new long[n];
+			for (int i = 0; i < n; i++) {
+				int idx = currStringTablePos - n + i;
+				if (idx < 0)
+					idx += STRING_TABLE_SIZE;
+				positions[i] = stringTablePos[idx];
+			}
+			newIndex.addCheckPoint(pos, deltas, O5mIndex.encodePositions(positions, n));
+		}
+		switch (fileType) {
+		case NODE_DATASET:
+			newIndex.addType(O5mIndex.TYPE_NODES);
+			break;
+		case WAY_DATASET:
+			newIndex.addType(O5mIndex.TYPE_WAYS);
+			break;
+		case REL_DATASET:
+			newIndex.addType(O5mIndex.TYPE_RELS);
+			break;
+		case BBOX_DATASET:
+		case TIMESTAMP_DATASET:
+		case HEADER_DATASET:
+			newIndex.addType(O5mIndex.TYPE_OTHER);
+			break;
+		default:
+		}
+	}
+
+	/**
+	 * Set the delta values and the string table to the values saved for a segment. 
+	 * @param seg the segment
+	 */
+	private void restoreState(O5mIndex.Segment seg) {
+		reset();
+		if (seg.deltas == null) 
+			return; // segment starts with reset flag
+		long[] d = seg.deltas;
+		lastNodeId = d[0];
+		lastWayId = d[1];
+		lastRelId = d[2];
+		lastRef[0] = d[3];
+		lastRef[1] = d[4];
+		lastRef[2] = d[5];
+		lastTs = d[6];
+		lastChangeSet = d[7];
+		lastLon = (int) d[8];
+		lastLat = (int) d[9];
+		long[] positions = O5mIndex.decodePositions(seg.stringTable);
+		System.arraycopy(positions, 0, stringTablePos, 0, positions.length);
+		numStoredPairs = positions.length;
+		currStringTablePos = positions.length % STRING_TABLE_SIZE;
 	}
 	
 	/**
@@ -229,37 +435,51 @@ public class O5mMapParser {
 
 	/**
 	 * read a node data set.
+	 * @param wanted false if only the delta values and string table should be updated
 	 * @throws IOException
 	 */
-	private void readNode() throws IOException{
-		Node node = new Node();
-		
+	private void readNode(boolean wanted) throws IOException{
 		lastNodeId += readSignedNum64();
 		if (filePos == nextFilePos)
 			return; // only nodeId: this is a delete action, we ignore it 
 		int version = readVersionTsAuthor();
-		node.setVersion(version);
 		if (filePos == nextFilePos)
 			return; // only nodeId+version: this is a delete action, we ignore it 
 		int lon = readSignedNum32() + lastLon; lastLon = lon;
 		int lat = readSignedNum32() + lastLat; lastLat = lat;
-			
-		double flon = 100L * lon * FACTOR;
-		double flat = 100L * lat * FACTOR;
-		assert flat >= -90.0 && flat <= 90.0;
-		assert flon >= -180.0 && flon <= 180.0;
-
-		node.set(lastNodeId, flat, flon);
+		if (newIndex != null)
+			newIndex.addNode(lastNodeId, lat, lon);
+		if (!wanted) {
+			readTags(null);
+			return;
+		}
+		if (useBatches) {
+			if (!wayBatch.isEmpty())
+				flushBatches();
+			nodeBatch.add(lastNodeId, version, lat, lon);
+			readTags(null);
+			if (elemCounter != null)
+				elemCounter.countNode(lastNodeId);
+			if (nodeBatch.size() >= BATCH_SIZE)
+				flushBatches();
+			return;
+		}
+		Node node = new Node();
+		node.setVersion(version);
+		// o5m stores the coordinates in units of 1e-7 degrees
+		node.setFixed(lastNodeId, lat, lon);
 		readTags(node);
-		elemCounter.countNode(lastNodeId);
+		if (elemCounter != null)
+			elemCounter.countNode(lastNodeId);
 		processor.processNode(node);
 	}
 	
 	/**
 	 * read a way data set.
+	 * @param wanted false if only the delta values and string table should be updated
 	 * @throws IOException
 	 */
-	private void readWay() throws IOException{
+	private void readWay(boolean wanted) throws IOException{
 		lastWayId += readSignedNum64();
 		if (filePos == nextFilePos)
 			return; // only wayId: this is a delete action, we ignore it 
@@ -267,28 +487,48 @@ public class O5mMapParser {
 		int version = readVersionTsAuthor();
 		if (filePos == nextFilePos)
 			return; // only wayId + version: this is a delete action, we ignore it 
-		Way way = new Way();
-		way.setId(lastWayId);
-		way.setVersion(version);
 		long refSize = readUnsignedNum32();
 		long stop = filePos + refSize;
+		if (wanted && useBatches) {
+			if (!nodeBatch.isEmpty())
+				flushBatches();
+			while (filePos < stop) {
+				lastRef[0] += readSignedNum64();
+				wayBatch.addRef(lastRef[0]);
+			}
+			readTags(null);
+			wayBatch.addWay(lastWayId, version);
+			if (elemCounter != null)
+				elemCounter.countWay(lastWayId);
+			if (wayBatch.size() >= BATCH_SIZE)
+				flushBatches();
+			return;
+		}
+		Way way = wanted ? new Way() : null;
 		
 		while (filePos < stop) {
 			lastRef[0] += readSignedNum64();
-			way.addRef(lastRef[0]);
+			if (way != null)
+				way.addRef(lastRef[0]);
 		}
 		
 		readTags(way);
-		elemCounter.countWay(lastWayId);
+		if (way == null)
+			return;
+		way.setId(lastWayId);
+		way.setVersion(version);
+		if (elemCounter != null)
+			elemCounter.countWay(lastWayId);
 		processor.processWay(way);
 		
 	}
 	
 	/**
 	 * read a relation data set.
+	 * @param wanted false if only the delta values and string table should be updated
 	 * @throws IOException
 	 */
-	private void readRel() throws IOException{
+	private void readRel(boolean wanted) throws IOException{
 		lastRelId += readSignedNum64(); 
 		if (filePos == nextFilePos)
 			return; // only relId: this is a delete action, we ignore it 
@@ -296,33 +536,47 @@ public class O5mMapParser {
 		if (filePos == nextFilePos)
 			return; // only relId + version: this is a delete action, we ignore it 
 		
-		Relation rel = new Relation();
-		rel.setId(lastRelId);
-		rel.setVersion(version);
+		Relation rel = wanted ? new Relation() : null;
 		long refSize = readUnsignedNum32();
 		long stop = filePos + refSize;
 		while (filePos < stop) {
 			long deltaRef = readSignedNum64();
-			int refType = readRelRef();
-			lastRef[refType] += deltaRef;
-			rel.addMember(stringPair[0], lastRef[refType], stringPair[1]);
+			int refType = readRelRef(wanted);
+			// the o5m ref types 0, 1, 2 are node, way, relation, 3 means unknown
+			if (refType < 3) {
+				lastRef[refType] += deltaRef;
+				if (rel != null)
+					rel.addMember((byte) refType, lastRef[refType], stringPair[1]);
+			}
 		}
 		
 		// tags
 		readTags(rel);
-		elemCounter.countRelation(lastRelId);
+		if (rel == null)
+			return;
+		rel.setId(lastRelId);
+		rel.setVersion(version);
+		if (elemCounter != null)
+			elemCounter.countRelation(lastRelId);
 		processor.processRelation(rel);
 	}
 	
+	/**
+	 * Read the tags of an element. 
+	 * @param elem the element or null if the tags are not needed
+	 * @throws IOException
+	 */
 	private void readTags(Element elem) throws IOException{
-		// we cannot skip the tags if we read relations (roles) 
-		if (skipTags && skipRels) { 
+		// we cannot skip the tags if a relation may refer to them (roles) or if we create the index
+		if (skipTagPairs) { 
 			filePos = nextFilePos;
 			return;
 		}
+		boolean wanted = !skipTags && elem != null;
 		while (filePos < nextFilePos) {
-			readStringPair();
-			if (!skipTags) {
+			// the string table has to be maintained, but we don't always need the strings 
+			readStringPair(wanted);
+			if (wanted && stringPair[0] != null) {
 				elem.addTag(stringPair[0], stringPair[1]);
 			}
 		}
@@ -331,29 +585,31 @@ public class O5mMapParser {
 	}
 	/**
 	 * Store a new string pair (length check must be performed by caller).
+	 * @param pos the file position of the string pair
 	 */
-	private void storeStringPair() {
+	private void storeStringPair(long pos) {
+		stringTablePos[currStringTablePos] = pos;
 		stringTable[0][currStringTablePos] = stringPair[0];
 		stringTable[1][currStringTablePos] = stringPair[1];
 		++currStringTablePos;
+		++numStoredPairs;
 		if (currStringTablePos >= STRING_TABLE_SIZE)
 			currStringTablePos = 0;
 	}
 
 	/**
-	 * set stringPair to the values referenced by given string reference
-	 * No checking is performed.
+	 * Calculate the string table index for a string reference.
 	 * @param ref valid values are 1 .. STRING_TABLE_SIZE
+	 * @return the index 
 	 * @throws IOException 
 	 */
-	private void setStringRefPair(int ref) throws IOException{
+	private int getStringTableIndex(int ref) throws IOException{
 		int pos = currStringTablePos - ref;
 		if (pos < 0) 
 			pos += STRING_TABLE_SIZE;
 		if (pos < 0 || pos >= STRING_TABLE_SIZE)
 			throw new IOException("invalid string table reference: " + ref); 
-		stringPair[0] = stringTable[0][pos];
-		stringPair[1] = stringTable[1][pos];
+		return pos;
 	}
 
 	/**
@@ -380,70 +636,107 @@ public class O5mMapParser {
 	private void readAuthor() throws IOException{
 		int stringRef = readUnsignedNum32();
 		if (stringRef == 0) {
+			// the author is not used, just maintain the string table
 			long toReadStart = filePos;
 			long uidNum = readUnsignedNum64();
-			if (uidNum == 0)
-				stringPair[0] = "";
-			else {
-				stringPair[0] = Long.toString(uidNum);
+			if (uidNum != 0)
 				get(); // skip terminating zero from uid
-			}
-			stringPair[1] = readString();
+			skipString();
+			stringPair[0] = null;
+			stringPair[1] = null;
 			if (filePos - toReadStart <= MAX_STRING_PAIR_SIZE)
-				storeStringPair();
+				storeStringPair(toReadStart);
 		} else { 
-			setStringRefPair(stringRef);
+			getStringTableIndex(stringRef);
 		}
-		
-		//System.out.println(pair[0]+ "/" + pair[1]);
 	}
 	
 	/**
 	 * read object type ("0".."2") concatenated with role (single string).
+	 * @param wanted false if the role is not needed
 	 * @return 0..3 for type (3 means unknown)
 	 */
-	private int readRelRef() throws IOException {
+	private int readRelRef(boolean wanted) throws IOException {
 		int refType = -1;
 		long toReadStart = filePos;
 		int stringRef = readUnsignedNum32();
 		if (stringRef == 0) {
+			long strPos = filePos;
 			refType = get() - '0';
 
 			if (refType < 0 || refType > 2)
 				refType = 3;
-			stringPair[0] = REL_REF_TYPES[refType];
-			stringPair[1] = readString();
+			stringPair[0] = null;
+			if (wanted) {
+				stringPair[1] = readString();
+			} else {
+				skipString();
+				stringPair[1] = null;
+			}
 			if (filePos - toReadStart <= MAX_STRING_PAIR_SIZE)
-				storeStringPair();
+				storeStringPair(strPos);
 		} else {
-			setStringRefPair(stringRef);
-			char c = stringPair[0].charAt(0);
-			switch (c) {
-			case 'n': refType = 0; break;
-			case 'w': refType = 1; break;
-			case 'r': refType = 2; break;
-			default: refType = 3;
-			}
+			int idx = getStringTableIndex(stringRef);
+			long strPos = stringTablePos[idx];
+			refType = getAt(strPos) - '0';
+			if (refType < 0 || refType > 2)
+				refType = 3;
+			if (wanted && stringTable[1][idx] == null)
+				stringTable[1][idx] = readStringAt(strPos + 1);
+			stringPair[1] = stringTable[1][idx];
 		}
 		return refType;
 	}
 	
 	/**
 	 * read a string pair (see o5m definition).
+	 * @param wanted if false, the strings are not created and stringPair contains nulls
 	 * @throws IOException
 	 */
-	private void readStringPair() throws IOException{
+	private void readStringPair(boolean wanted) throws IOException{
 		int stringRef = readUnsignedNum32();
 		if (stringRef == 0) {
 			long toReadStart = filePos;
-			int cnt = 0;
-			while (cnt < 2) {
-				stringPair[cnt++] = readString();
+			if (wanted && keyFilter != null) {
+				// check the key before a string is created
+				int length = readToBuffer();
+				if (keyFilter.isWanted(cnvBuffer, 0, length)) {
+					stringPair[0] = new String(cnvBuffer, 0, length, StandardCharsets.UTF_8);
+					stringPair[1] = readString();
+				} else {
+					skipString();
+					stringPair[0] = null;
+					stringPair[1] = null;
+				}
+			} else if (wanted) {
+				stringPair[0] = readString();
+				stringPair[1] = readString();
+			} else {
+				skipString();
+				skipString();
+				stringPair[0] = null;
+				stringPair[1] = null;
 			}
 			if (filePos - toReadStart <= MAX_STRING_PAIR_SIZE)
-				storeStringPair();
+				storeStringPair(toReadStart);
 		} else { 
-			setStringRefPair(stringRef);
+			int idx = getStringTableIndex(stringRef);
+			if (wanted) {
+				if (stringTable[0][idx] == null) {
+					long strPos = stringTablePos[idx];
+					String key = readStringAt(strPos);
+					stringTable[0][idx] = key;
+					// the value of an unwanted key is not decoded
+					if (keyFilter == null || keyFilter.isWanted(key))
+						stringTable[1][idx] = readStringAt(strPos + cnvLength + 1);
+				}
+				// a key without value is not wanted
+				stringPair[0] = stringTable[1][idx] != null ? stringTable[0][idx] : null;
+				stringPair[1] = stringTable[1][idx];
+			} else {
+				stringPair[0] = null;
+				stringPair[1] = null;
+			}
 		}
 	}
 	
@@ -452,14 +745,51 @@ public class O5mMapParser {
 	 * @throws IOException
 	 */
 	String readString() throws IOException {
+		int length = readToBuffer();
+		return new String(cnvBuffer, 0, length, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Read the bytes of a zero-terminated string into cnvBuffer.
+	 * @return the number of bytes
+	 * @throws IOException
+	 */
+	private int readToBuffer() throws IOException {
 		int length = 0; 
 		while (true) {
 			final int b = get();
 			if (b == 0)
-				return new String(cnvBuffer, 0, length, "UTF-8");
+				return length;
+			cnvBuffer[length++] = (byte) b;
+		}
+	}
+
+	/**
+	 * Skip a zero-terminated string.
+	 * @throws IOException
+	 */
+	private void skipString() throws IOException {
+		while (get() != 0) {
+			// nothing to do
+		}
+	}
+
+	/**
+	 * Read a zero-terminated string at the given position without changing the 
+	 * current position. Sets cnvLength to the number of bytes in the string.  
+	 * @param pos the file position
+	 * @throws IOException
+	 */
+	private String readStringAt(long pos) throws IOException {
+		int length = 0; 
+		while (true) {
+			final int b = getAt(pos + length);
+			if (b == 0) {
+				cnvLength = length;
+				return new String(cnvBuffer, 0, length, StandardCharsets.UTF_8);
+			}
 			cnvBuffer[length++] = (byte) b;
 		}
-		
 	}
 	/** reset the delta values and string table. */
 	private void reset() {
@@ -473,8 +803,10 @@ public class O5mMapParser {
 		lastChangeSet = 0;
 		lastLon = 0;
 		lastLat = 0;
-		stringTable = new String[2][STRING_TABLE_SIZE];
+		Arrays.fill(stringTable[0], null);
+		Arrays.fill(stringTable[1], null);
 		currStringTablePos = 0;
+		numStoredPairs = 0;
 	}
 
 	/**
@@ -590,10 +922,6 @@ public class O5mMapParser {
 		return result;
 	}
 
-	public long[] getSkipArray() {
-		return firstPosInFile;
-	}
-	
 	/**
 	 * Read in a single byte from the current position.
 	 *
@@ -601,33 +929,67 @@ public class O5mMapParser {
 	 * @throws IOException if buffer contains no data
 	 */
 	private byte get() throws IOException {
-		fillBuffer();
-
-		int pos = (int) (filePos - bufStart);
+		long pos = filePos - bufStart;
 		if (pos < 0 || pos >= bufSize) {
-			throw new IOException("no data in file buffer, pos="+pos);
+			fillBuffer();
+			pos = filePos - bufStart;
+			if (pos < 0 || pos >= bufSize) {
+				throw new IOException("no data in file buffer, pos=" + pos);
+			}
 		}
 		filePos++;
-		return fileBuffer.get(pos);
-		
-		
+		return fileBuffer.get((int) pos);
+	}
+
+	/**
+	 * Read a single byte from the given position without changing the current position.
+	 * @param pos the file position 
+	 * @return The byte that was read.
+	 * @throws IOException if the position is not in the file
+	 */
+	private byte getAt(long pos) throws IOException {
+		long bufPos = pos - bufStart;
+		if (bufPos >= 0 && bufPos < bufSize)
+			return fileBuffer.get((int) bufPos);
+		bufPos = pos - stringBufStart;
+		if (stringBufStart < 0 || bufPos < 0 || bufPos >= stringBufSize) {
+			stringBuffer.clear();
+			stringBufStart = pos;
+			stringBufSize = Math.max(0, fileChannel.read(stringBuffer, pos));
+			bufPos = 0;
+			if (stringBufSize == 0)
+				throw new IOException("no data in file at pos=" + pos);
+		}
+		return stringBuffer.get((int) bufPos);
 	}
 	
 	/**
-	 * Check to see if the buffer contains the byte at the current position.
-	 * If not then it is re-read so that it does.
+	 * Make sure that the buffer contains the byte at the current position.
+	 * The file is mapped in windows of MAP_SIZE bytes. If that fails, a 
+	 * small heap buffer is used. 
 	 * @throws IOException in case of I/O error
 	 */
 	private void fillBuffer() throws IOException {
-		// If we are no longer inside the buffer, then re-read it.
-		if (filePos >= bufStart + bufSize) {
-
-			// Get channel position on a block boundary.
-			bufStart = filePos & ~(BUF_SIZE - 1);
-			fileChannel.position(bufStart);
-			// Fill buffer
-			fileBuffer.clear();
-			bufSize = fileChannel.read(fileBuffer);
+		if (useMapping) {
+			try {
+				bufStart = filePos;
+				bufSize = (int) Math.max(0, Math.min(MAP_SIZE, fileSize - filePos));
+				fileBuffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, bufStart, bufSize);
+				if (prefetch) {
+					long next = bufStart + bufSize;
+					ReadAhead.prefetch(fileChannel, next, Math.min(MAP_SIZE, endPos - next));
+				}
+				return;
+			} catch (IOException e) {
+				System.out.println("Cannot map o5m file, using buffered reads: " + e.getMessage());
+				useMapping = false;
+				fileBuffer = ByteBuffer.allocate(BUF_SIZE);
+			}
 		}
+		// Get channel position on a block boundary.
+		bufStart = filePos & ~(BUF_SIZE - 1);
+		// Fill buffer
+		fileBuffer.clear();
+		bufSize = Math.max(0, fileChannel.read(fileBuffer, bufStart));
 	}
 }
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter.parser;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import uk.me.parabola.splitter.Element;
+import uk.me.parabola.splitter.MapProcessor;
+import uk.me.parabola.splitter.Node;
+import uk.me.parabola.splitter.NodeBatch;
+import uk.me.parabola.splitter.OSMMessage;
+import uk.me.parabola.splitter.QueueProcessor;
+import uk.me.parabola.splitter.ReadAhead;
+import uk.me.parabola.splitter.Relation;
+import uk.me.parabola.splitter.ShardableProcessor;
+import uk.me.parabola.splitter.SplitFailedException;
+import uk.me.parabola.splitter.Way;
+import uk.me.parabola.splitter.WayBatch;
+
+/**
+ * Reads an o5m file with a known {@link O5mIndex}. The segments are decoded
+ * by a pool of threads, the elements are passed to the processor in file order.
+ * If the processor can be sharded and wants only nodes, each thread passes
+ * the nodes to its own shard instead and the shards are merged at the end.
+ *
+ * @author agent
+ */
+public class O5mParallelReader {
+	/** number of element lists that a segment decoder may produce in advance */
+	private static final int QUEUE_SIZE = 4;
+	/** the maximum number of bytes that are prefetched for a segment */
+	private static final int PREFETCH_SIZE = 1 << 26;
+
+	private final MapProcessor processor;
+	private final FileChannel fileChannel;
+	private final O5mIndex index;
+	private final int numThreads;
+	// for status messages
+	private final ElementCounter elemCounter = new ElementCounter();
+	private boolean prefetch;
+	/** shards of the processor that are not used by a thread, null if the processor is not sharded */
+	private ConcurrentLinkedQueue<ShardableProcessor> idleShards;
+	private final List<ShardableProcessor> shards = new ArrayList<>();
+
+	public O5mParallelReader(MapProcessor processor, FileChannel fc, O5mIndex index, int numThreads) {
+		this.processor = processor;
+		this.fileChannel = fc;
+		this.index = index;
+		this.numThreads = numThreads;
+	}
+
+	/**
+	 * @param prefetch if true, the segments are loaded in the background before a decoder starts with them
+	 */
+	public void setPrefetch(boolean prefetch) {
+		this.prefetch = prefetch;
+	}
+
+	/**
+	 * Decode the wanted segments and pass the elements to the processor.
+	 * @throws IOException
+	 */
+	public void process() throws IOException {
+		int wantedMask = O5mMapParser.calcWantedMask(processor);
+		if (wantedMask == O5mIndex.TYPE_NODES && processor instanceof ShardableProcessor) {
+			shards.add(((ShardableProcessor) processor).createShard());
+			idleShards = new ConcurrentLinkedQueue<>(shards);
+		}
+		List<SegmentDecoder> decoders = new ArrayList<>();
+		for (int i = 0; i < index.size(); i++) {
+			if (O5mMapParser.isWanted(processor, index, i, wantedMask))
+				decoders.add(new SegmentDecoder(i));
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads, r -> {
+			Thread t = new Thread(r, "o5m decoder");
+			t.setDaemon(true);
+			return t;
+		});
+		try {
+			// the pool starts the decoders in this order, so a decoder never waits for a later one
+			for (SegmentDecoder decoder : decoders)
+				pool.execute(decoder);
+			for (int i = 0; i < decoders.size(); i++) {
+				// the decoder that is started when a thread becomes free
+				if (prefetch && i + numThreads < decoders.size()) {
+					int seg = decoders.get(i + numThreads).segment;
+					long start = index.getStart(seg);
+					ReadAhead.prefetch(fileChannel, start, Math.min(PREFETCH_SIZE, index.getEnd(seg) - start));
+				}
+				forward(decoders.get(i));
+			}
+			// all decoders are done
+			for (ShardableProcessor shard : shards)
+				((ShardableProcessor) processor).mergeShard(shard);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Pass the results of one segment decoder to the processor.
+	 * @param decoder the decoder
+	 * @throws IOException
+	 */
+	private void forward(SegmentDecoder decoder) throws IOException {
+		while (true) {
+			OSMMessage msg;
+			try {
+				msg = decoder.queue.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SplitFailedException("interrupted while decoding o5m segments");
+			}
+			switch (msg.getType()) {
+			case ELEMENTS:
+				for (Element el : msg.getElements()) {
+					if (el instanceof Node) {
+						elemCounter.countNode(el.getId());
+						processor.processNode((Node) el);
+					} else if (el instanceof Way) {
+						elemCounter.countWay(el.getId());
+						processor.processWay((Way) el);
+					} else if (el instanceof Relation) {
+						elemCounter.countRelation(el.getId());
+						processor.processRelation((Relation) el);
+					}
+				}
+				break;
+			case NODES:
+				NodeBatch nodes = msg.getNodes();
+				for (int i = 0; i < nodes.size(); i++)
+					elemCounter.countNode(nodes.getId(i));
+				processor.processNodes(nodes);
+				nodes.recycle();
+				break;
+			case WAYS:
+				WayBatch ways = msg.getWays();
+				for (int i = 0; i < ways.size(); i++)
+					elemCounter.countWay(ways.getId(i));
+				processor.processWays(ways);
+				ways.recycle();
+				break;
+			case BOUNDS:
+				processor.boundTag(msg.getBounds());
+				break;
+			case END_MAP:
+				return;
+			case EXIT:
+				if (decoder.exception instanceof IOException)
+					throw (IOException) decoder.exception;
+				if (decoder.exception instanceof RuntimeException)
+					throw (RuntimeException) decoder.exception;
+				if (decoder.exception instanceof Error)
+					throw (Error) decoder.exception;
+				throw new SplitFailedException("decoding of o5m segment failed: " + decoder.exception);
+			default:
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Decodes one segment into a queue.
+	 */
+	private class SegmentDecoder implements Runnable {
+		final int segment;
+		final BlockingQueue<OSMMessage> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+		volatile Throwable exception;
+
+		SegmentDecoder(int segment) {
+			this.segment = segment;
+		}
+
+		@Override
+		public void run() {
+			// the queue always ends with END_MAP or EXIT, else the reading thread would wait forever
+			boolean done = false;
+			try {
+				if (idleShards != null) {
+					parseIntoShard();
+					queue.put(new OSMMessage(OSMMessage.Type.END_MAP));
+				} else {
+					QueueProcessor queueProcessor = new QueueProcessor(queue, processor);
+					O5mMapParser parser = new O5mMapParser(queueProcessor, fileChannel, index, null);
+					parser.setPrefetch(prefetch);
+					parser.parseSegment(segment);
+					queueProcessor.endMap();
+				}
+				done = true;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				exception = e;
+			} catch (Throwable e) {
+				exception = e;
+			} finally {
+				if (!done) {
+					try {
+						queue.put(new OSMMessage(OSMMessage.Type.EXIT));
+					} catch (InterruptedException e1) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+		}
+
+		/**
+		 * Pass the elements to a shard which is not used by other threads at the same time.
+		 */
+		private void parseIntoShard() throws IOException {
+			ShardableProcessor shard = idleShards.poll();
+			if (shard == null) {
+				shard = ((ShardableProcessor) processor).createShard();
+				synchronized (shards) {
+					shards.add(shard);
+				}
+			}
+			try {
+				O5mMapParser parser = new O5mMapParser(shard, fileChannel, index, null);
+				parser.setPrefetch(prefetch);
+				parser.parseSegment(segment);
+			} finally {
+				idleShards.offer(shard);
+			}
+		}
+	}
+}
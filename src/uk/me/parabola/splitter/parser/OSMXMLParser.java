@@ -12,31 +12,78 @@
  */
 package uk.me.parabola.splitter.parser;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
 import org.xmlpull.v1.XmlPullParserException;
 
 import uk.me.parabola.splitter.Area;
 import uk.me.parabola.splitter.Convert;
+import uk.me.parabola.splitter.Element;
 import uk.me.parabola.splitter.MapProcessor;
 import uk.me.parabola.splitter.Node;
 import uk.me.parabola.splitter.Relation;
 import uk.me.parabola.splitter.Utils;
 import uk.me.parabola.splitter.Way;
-import uk.me.parabola.splitter.xml.parser.AbstractXppParser;
 
 /**
  * Parses an OSM file, calling the appropriate methods on a
  * {@code MapProcessor} as it progresses.
+ * The UTF-8 encoded input is scanned byte by byte. Only the elements and
+ * attributes used in OSM files are recognised, numbers are parsed directly
+ * from the bytes and Strings are only created for tags and roles.
  */
-public class OSMXMLParser extends AbstractXppParser {
-
+public class OSMXMLParser {
+	private static final int BUF_SIZE = 64 * 1024;
 
 	private enum State {
 		Node, Way, Relation, None
 	}
 
-	private Node currentNode = new Node();	
-	private Way currentWay = new Way();	
-	private Relation currentRelation = new Relation();	
+	// the known element names
+	private static final int EL_OTHER = 0;
+	private static final int EL_NODE = 1;
+	private static final int EL_WAY = 2;
+	private static final int EL_RELATION = 3;
+	private static final int EL_TAG = 4;
+	private static final int EL_ND = 5;
+	private static final int EL_MEMBER = 6;
+	private static final int EL_BOUNDS = 7;
+	private static final int EL_BOUND = 8;
+	private static final byte[][] ELEMENT_NAMES = { null, bytes("node"), bytes("way"), bytes("relation"),
+			bytes("tag"), bytes("nd"), bytes("member"), bytes("bounds"), bytes("bound") };
+
+	// the known attribute names, the value is the slot
+	private static final int ATTR_ID = 0;
+	private static final int ATTR_LAT = 1;
+	private static final int ATTR_LON = 2;
+	private static final int ATTR_VERSION = 3;
+	private static final int ATTR_ACTION = 4;
+	private static final int ATTR_K = 5;
+	private static final int ATTR_V = 6;
+	private static final int ATTR_REF = 7;
+	private static final int ATTR_TYPE = 8;
+	private static final int ATTR_ROLE = 9;
+	private static final int ATTR_BOX = 10;
+	private static final int ATTR_MINLAT = 11;
+	private static final int ATTR_MINLON = 12;
+	private static final int ATTR_MAXLAT = 13;
+	private static final int ATTR_MAXLON = 14;
+	private static final byte[][] ATTR_NAMES = { bytes("id"), bytes("lat"), bytes("lon"), bytes("version"),
+			bytes("action"), bytes("k"), bytes("v"), bytes("ref"), bytes("type"), bytes("role"), bytes("box"),
+			bytes("minlat"), bytes("minlon"), bytes("maxlat"), bytes("maxlon") };
+
+	private static final byte[] DELETE = bytes("delete");
+	private static final byte[] NODE = bytes("node");
+	private static final byte[] WAY = bytes("way");
+	private static final byte[] RELATION = bytes("relation");
+
+	private Node currentNode = new Node();
+	private long currentNodeId;
+	private Way currentWay = new Way();
+	private Relation currentRelation = new Relation();
 
 	private final MapProcessor processor;
 	// for status messages
@@ -48,150 +95,226 @@ public class OSMXMLParser extends AbstractXppParser {
 	private boolean skipNodes;
 	private boolean skipWays;
 	private boolean skipRels;
+	// null if all tags are wanted
+	private final KeyFilter keyFilter;
 
 	private State state = State.None;
 
-	public OSMXMLParser(MapProcessor processor, boolean mixed) throws XmlPullParserException {
+	// the input
+	private InputStream in;
+	private final byte[] buf = new byte[BUF_SIZE];
+	private int bufPos;
+	private int bufLen;
+	private long bufStart;
+
+	// the decoded attribute values of the current element
+	private byte[] values = new byte[1024];
+	private int valuesLen;
+	private final int[] attrStart = new int[ATTR_NAMES.length];
+	private final int[] attrLen = new int[ATTR_NAMES.length];
+	// buffer for names
+	private byte[] nameBuf = new byte[64];
+	private int nameLen;
+
+	public OSMXMLParser(MapProcessor processor, boolean mixed) {
 		this.processor = processor;
 		this.mixed = mixed;
-		
+
 		skipTags = processor.skipTags();
 		skipNodes = processor.skipNodes();
 		skipWays = processor.skipWays();
 		skipRels = processor.skipRels();
+		keyFilter = KeyFilter.create(processor);
+	}
+
+	/**
+	 * @param is the stream with the UTF-8 encoded XML data. It is not closed by the parser.
+	 */
+	public void setInputStream(InputStream is) {
+		this.in = is;
+		bufPos = bufLen = 0;
+		bufStart = 0;
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Read the XML data and pass the elements to the processor.
+	 * @throws IOException
+	 * @throws XmlPullParserException if the data is not well formed
+	 */
+	public void parse() throws IOException, XmlPullParserException {
+		skipByteOrderMark();
+		int c;
+		while ((c = read()) >= 0) {
+			if (c != '<')
+				continue; // ignore text
+			c = read();
+			if (c == '?') {
+				skipUntil("?>");
+			} else if (c == '!') {
+				skipMarkupDeclaration();
+			} else if (c == '/') {
+				int element = readName(read());
+				c = skipWhiteSpace(read());
+				if (c != '>')
+					throw createException("unexpected character in end tag");
+				endElement(element);
+			} else {
+				int element = readName(c);
+				boolean empty = readAttributes();
+				if (startElement(element))
+					return;
+				if (empty)
+					endElement(element);
+			}
+		}
 	}
 
 	/**
 	 * Receive notification of the start of an element.
+	 * @return true if the rest of the file is not needed
 	 */
-	@Override
-	public boolean startElement(String name) {
+	private boolean startElement(int element) {
 		switch (state) {
 		case None:
-			CharSequence action = getAttr("action");
-			if (action != null && action.equals("delete"))
+			if (attrEquals(ATTR_ACTION, DELETE))
 				return false;
-			if (name.equals("node")) {
+			if (element == EL_NODE) {
 				startNode();
-			} else if (name.equals("way")) {
+			} else if (element == EL_WAY) {
 				if (!skipWays)
 					startWay();
 				else if (!mixed && skipRels)
 					return true;
-			} else if (name.equals("relation")) {
+			} else if (element == EL_RELATION) {
 				if (!skipRels)
 					startRelation();
 				else if (!mixed)
 					return true;
-			} else if (name.equals("bounds") || name.equals("bound")) {
+			} else if (element == EL_BOUNDS || element == EL_BOUND) {
 				processBounds();
 			}
 			break;
 		case Node:
 			if (!skipNodes)
-				processNode(name);
+				processNode(element);
 			break;
 		case Way:
 			if (!skipWays)
-				processWay(name);
+				processWay(element);
 			break;
 		case Relation:
 			if (!skipRels)
-				processRelation(name);
+				processRelation(element);
 			break;
 		}
 		return false;
 	}
 
 	private void startNode() {
-		String idStr = getAttr("id");
-		String latStr = getAttr("lat");
-		String lonStr = getAttr("lon");
-
-		if (idStr == null || latStr == null || lonStr == null) {
+		if (attrLen[ATTR_ID] < 0 || attrLen[ATTR_LAT] < 0 || attrLen[ATTR_LON] < 0) {
 			// This should never happen - bad/corrupt .osm file?
-			System.err.println("Node encountered with missing data. Bad/corrupt osm file? id=" + idStr + ", lat=" + latStr + ", lon=" + lonStr + ". Ignoring this node");
+			System.err.println("Node encountered with missing data. Bad/corrupt osm file? id=" + getAttr(ATTR_ID)
+					+ ", lat=" + getAttr(ATTR_LAT) + ", lon=" + getAttr(ATTR_LON) + ". Ignoring this node");
 			return;
 		}
-		long id = Long.parseLong(idStr);
-		double lat = Convert.parseDouble(latStr);
-		double lon = Convert.parseDouble(lonStr);
+		long id = getLongAttr(ATTR_ID);
+		currentNodeId = id;
+		state = State.Node;
+		// the node is only counted
+		if (skipNodes)
+			return;
+		double lat = Convert.parseDouble(values, attrStart[ATTR_LAT], attrLen[ATTR_LAT]);
+		double lon = Convert.parseDouble(values, attrStart[ATTR_LON], attrLen[ATTR_LON]);
 
 		currentNode = new Node();
 		currentNode.set(id, lat, lon);
 		currentNode.setVersion(parseVersion());
-
-		state = State.Node;
 	}
 
 	private void startWay() {
 		currentWay = new Way();
-		currentWay.setId(getLongAttr("id"));
+		currentWay.setId(getLongAttr(ATTR_ID));
 		currentWay.setVersion(parseVersion());
 		state = State.Way;
 	}
 
 	private void startRelation() {
 		currentRelation = new Relation();
-		currentRelation.setId(getLongAttr("id"));
+		currentRelation.setId(getLongAttr(ATTR_ID));
 		currentRelation.setVersion(parseVersion());
 		state = State.Relation;
 	}
 
-	private int parseVersion () {
-		String versionStr = getAttr("version");
-		if (versionStr == null)
+	private int parseVersion() {
+		if (attrLen[ATTR_VERSION] < 0)
 			return 0;
-		return Integer.parseInt(versionStr);
-		
+		long version = getLongAttr(ATTR_VERSION);
+		if (version != (int) version)
+			throw new NumberFormatException("For input string: \"" + getAttr(ATTR_VERSION) + "\"");
+		return (int) version;
 	}
-	private void processNode(CharSequence name) {
-		if (name.equals("tag")) {
-			if (!skipTags)
-				currentNode.addTag(getAttr("k"), getAttr("v"));
+
+	private void addTag(Element el) {
+		if (skipTags)
+			return;
+		// the key is checked before a string is created
+		if (keyFilter != null && !keyFilter.isWanted(values, attrStart[ATTR_K], attrLen[ATTR_K]))
+			return;
+		el.addTag(getAttr(ATTR_K), getAttr(ATTR_V));
+	}
+
+	private void processNode(int element) {
+		if (element == EL_TAG) {
+			addTag(currentNode);
 		}
 	}
 
-	private void processWay(CharSequence name) {
-		if (name.equals("nd")) {
-			currentWay.addRef(getLongAttr("ref"));
-		} else if (name.equals("tag")) {
-			if (!skipTags)
-				currentWay.addTag(getAttr("k"), getAttr("v"));
+	private void processWay(int element) {
+		if (element == EL_ND) {
+			currentWay.addRef(getLongAttr(ATTR_REF));
+		} else if (element == EL_TAG) {
+			addTag(currentWay);
 		}
 	}
 
-	private void processRelation(CharSequence name) {
-		if (name.equals("tag")) {
-			if (!skipTags)
-				currentRelation.addTag(getAttr("k"), getAttr("v"));
-		} else if (name.equals("member")) {
-			String type = getAttr("type");
-			long id = getLongAttr("ref");
-			String role = getAttr("role");
+	private void processRelation(int element) {
+		if (element == EL_TAG) {
+			addTag(currentRelation);
+		} else if (element == EL_MEMBER) {
+			long id = getLongAttr(ATTR_REF);
+			byte type;
+			if (attrEquals(ATTR_TYPE, NODE))
+				type = Relation.MEM_NODE;
+			else if (attrEquals(ATTR_TYPE, WAY))
+				type = Relation.MEM_WAY;
+			else if (attrEquals(ATTR_TYPE, RELATION))
+				type = Relation.MEM_RELATION;
+			else
+				return;
+			String role = getAttr(ATTR_ROLE);
 			if (role == null)
 				role = "";
-			if ("node".equals(type))
-				currentRelation.addMember("node", id, role);
-			else if ("way".equals(type))
-				currentRelation.addMember("way", id, role);
-			else if ("relation".equals(type)) {
-				currentRelation.addMember("relation", id, role);
-			}
+			currentRelation.addMember(type, id, role);
 		}
 	}
 
-	private static final String[] BOUND_ATTRS = {"minlat", "minlon", "maxlat", "maxlon"};
+	private static final int[] BOUND_ATTRS = { ATTR_MINLAT, ATTR_MINLON, ATTR_MAXLAT, ATTR_MAXLON };
 
 	private void processBounds() {
 		String[] split;
-		String boxStr = getAttr("box");
+		String boxStr = getAttr(ATTR_BOX);
 		if (boxStr == null) {
 			split = new String[4];
 			for (int i = 0; i < BOUND_ATTRS.length; i++) {
 				split[i] = getAttr(BOUND_ATTRS[i]);
 				if (split[i] == null) {
-					System.err.println("A <bounds/> tag was found but it has no 'box' attribute and no '" + BOUND_ATTRS[i] + "' attribute. Ignoring bounds");
+					System.err.println("A <bounds/> tag was found but it has no 'box' attribute and no '"
+							+ new String(ATTR_NAMES[BOUND_ATTRS[i]], StandardCharsets.US_ASCII)
+							+ "' attribute. Ignoring bounds");
 					return;
 				}
 			}
@@ -232,24 +355,23 @@ public class OSMXMLParser extends AbstractXppParser {
 	/**
 	 * Receive notification of the end of an element.
 	 */
-	@Override
-	public void endElement(String name) {
+	private void endElement(int element) {
 		if (state == State.Node) {
-			if (name.equals("node")) {
+			if (element == EL_NODE) {
 				if (!skipNodes)
 					processor.processNode(currentNode);
 				state = State.None;
-				elemCounter.countNode(currentNode.getId());
+				elemCounter.countNode(currentNodeId);
 			}
 		} else if (state == State.Way) {
-			if (name.equals("way")) {
+			if (element == EL_WAY) {
 				if (!skipWays)
 					processor.processWay(currentWay);
 				state = State.None;
 				elemCounter.countWay(currentWay.getId());
 			}
 		} else if (state == State.Relation) {
-			if (name.equals("relation")) {
+			if (element == EL_RELATION) {
 				if (!skipRels)
 					processor.processRelation(currentRelation);
 				state = State.None;
@@ -257,4 +379,323 @@ public class OSMXMLParser extends AbstractXppParser {
 			}
 		}
 	}
+
+	/**
+	 * @return the value of the attribute or null if the current element doesn't have it
+	 */
+	private String getAttr(int slot) {
+		if (attrLen[slot] < 0)
+			return null;
+		return new String(values, attrStart[slot], attrLen[slot], StandardCharsets.UTF_8);
+	}
+
+	private boolean attrEquals(int slot, byte[] expected) {
+		int len = attrLen[slot];
+		if (len != expected.length)
+			return false;
+		int start = attrStart[slot];
+		for (int i = 0; i < len; i++) {
+			if (values[start + i] != expected[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Parse the value of an attribute as long. Throws the same exceptions as
+	 * Long.parseLong() for missing or invalid values.
+	 */
+	private long getLongAttr(int slot) {
+		int len = attrLen[slot];
+		if (len <= 0 || len > 18)
+			return Long.parseLong(getAttr(slot));
+		int pos = attrStart[slot];
+		int end = pos + len;
+		boolean negative = values[pos] == '-';
+		if (negative && len > 1)
+			pos++;
+		long res = 0;
+		for (; pos < end; pos++) {
+			int digit = values[pos] - '0';
+			if (digit < 0 || digit > 9)
+				return Long.parseLong(getAttr(slot));
+			res = res * 10 + digit;
+		}
+		return negative ? -res : res;
+	}
+
+	private int read() throws IOException {
+		if (bufPos >= bufLen) {
+			bufStart += bufLen;
+			bufPos = 0;
+			bufLen = 0;
+			int n;
+			do {
+				n = in.read(buf, 0, buf.length);
+			} while (n == 0);
+			if (n < 0)
+				return -1;
+			bufLen = n;
+		}
+		return buf[bufPos++] & 0xff;
+	}
+
+	private int readRequired() throws IOException, XmlPullParserException {
+		int c = read();
+		if (c < 0)
+			throw createException("unexpected end of file");
+		return c;
+	}
+
+	/**
+	 * Skip the UTF-8 byte order mark at the start of the stream.
+	 * @throws IOException
+	 */
+	private void skipByteOrderMark() throws IOException {
+		if (bufStart != 0 || bufPos != 0)
+			return;
+		// the first read may return less than the three bytes
+		while (bufLen < 3) {
+			int n = in.read(buf, bufLen, buf.length - bufLen);
+			if (n < 0)
+				return;
+			bufLen += n;
+		}
+		if ((buf[0] & 0xff) == 0xef && (buf[1] & 0xff) == 0xbb && (buf[2] & 0xff) == 0xbf)
+			bufPos = 3;
+	}
+
+	private static boolean isWhiteSpace(int c) {
+		return c == ' ' || c == '\n' || c == '\t' || c == '\r';
+	}
+
+	private int skipWhiteSpace(int c) throws IOException {
+		while (isWhiteSpace(c))
+			c = read();
+		return c;
+	}
+
+	private static boolean isNameEnd(int c) {
+		return isWhiteSpace(c) || c == '>' || c == '/' || c == '=' || c < 0;
+	}
+
+	/**
+	 * Read a name into nameBuf. The first character is already read,
+	 * the character after the name is unread.
+	 */
+	private void readNameBytes(int c) throws IOException, XmlPullParserException {
+		nameLen = 0;
+		while (!isNameEnd(c)) {
+			if (nameLen == nameBuf.length)
+				nameBuf = Arrays.copyOf(nameBuf, nameBuf.length * 2);
+			nameBuf[nameLen++] = (byte) c;
+			c = read();
+		}
+		if (nameLen == 0)
+			throw createException("missing name");
+		if (c >= 0)
+			bufPos--;
+	}
+
+	private boolean nameEquals(byte[] name) {
+		if (nameLen != name.length)
+			return false;
+		for (int i = 0; i < nameLen; i++) {
+			if (nameBuf[i] != name[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Read an element name.
+	 * @param c the first character
+	 * @return one of the EL_ values
+	 */
+	private int readName(int c) throws IOException, XmlPullParserException {
+		readNameBytes(c);
+		for (int i = 1; i < ELEMENT_NAMES.length; i++) {
+			if (nameEquals(ELEMENT_NAMES[i]))
+				return i;
+		}
+		return EL_OTHER;
+	}
+
+	/**
+	 * Read the attributes of a start tag and the closing '>'.
+	 * @return true if this is an empty element
+	 */
+	private boolean readAttributes() throws IOException, XmlPullParserException {
+		Arrays.fill(attrLen, -1);
+		valuesLen = 0;
+		while (true) {
+			int c = skipWhiteSpace(readRequired());
+			if (c == '>')
+				return false;
+			if (c == '/') {
+				if (readRequired() != '>')
+					throw createException("expected '>' after '/'");
+				return true;
+			}
+			readNameBytes(c);
+			int slot = -1;
+			for (int i = 0; i < ATTR_NAMES.length; i++) {
+				if (nameEquals(ATTR_NAMES[i])) {
+					slot = i;
+					break;
+				}
+			}
+			if (skipWhiteSpace(readRequired()) != '=')
+				throw createException("expected '=' after attribute name");
+			int quote = skipWhiteSpace(readRequired());
+			if (quote != '"' && quote != '\'')
+				throw createException("attribute value must be quoted");
+			int start = valuesLen;
+			readValue(quote);
+			if (slot >= 0) {
+				attrStart[slot] = start;
+				attrLen[slot] = valuesLen - start;
+			} else {
+				valuesLen = start;
+			}
+		}
+	}
+
+	/**
+	 * Read an attribute value up to the closing quote, normalise white space
+	 * and resolve character references.
+	 */
+	private void readValue(int quote) throws IOException, XmlPullParserException {
+		while (true) {
+			// fast path: copy plain characters from the buffer
+			int start = bufPos;
+			int end = bufLen;
+			int i = start;
+			while (i < end) {
+				byte b = buf[i];
+				if (b == quote || b == '&' || b == '<' || b == '\n' || b == '\r' || b == '\t')
+					break;
+				i++;
+			}
+			append(buf, start, i - start);
+			bufPos = i;
+			int c = readRequired();
+			if (c == quote)
+				return;
+			if (c == '&') {
+				readReference();
+			} else if (c == '<') {
+				throw createException("'<' in attribute value");
+			} else if (c == '\r' || c == '\n' || c == '\t') {
+				if (c == '\r') {
+					// \r\n is one line break
+					if (read() != '\n' && bufPos > 0)
+						bufPos--;
+				}
+				appendByte(' ');
+			} else {
+				appendByte(c);
+			}
+		}
+	}
+
+	private void readReference() throws IOException, XmlPullParserException {
+		nameLen = 0;
+		int c;
+		while ((c = readRequired()) != ';') {
+			if (nameLen >= 10)
+				throw createException("invalid entity reference");
+			nameBuf[nameLen++] = (byte) c;
+		}
+		String ref = new String(nameBuf, 0, nameLen, StandardCharsets.US_ASCII);
+		switch (ref) {
+		case "lt": appendByte('<'); return;
+		case "gt": appendByte('>'); return;
+		case "amp": appendByte('&'); return;
+		case "quot": appendByte('"'); return;
+		case "apos": appendByte('\''); return;
+		default:
+			break;
+		}
+		if (!ref.startsWith("#"))
+			throw createException("unknown entity reference &" + ref + ";");
+		int cp;
+		try {
+			if (ref.startsWith("#x"))
+				cp = Integer.parseInt(ref.substring(2), 16);
+			else
+				cp = Integer.parseInt(ref.substring(1));
+		} catch (NumberFormatException e) {
+			throw createException("invalid character reference &" + ref + ";");
+		}
+		if (!Character.isValidCodePoint(cp))
+			throw createException("invalid character reference &" + ref + ";");
+		byte[] utf8 = new String(Character.toChars(cp)).getBytes(StandardCharsets.UTF_8);
+		append(utf8, 0, utf8.length);
+	}
+
+	private void append(byte[] src, int off, int len) {
+		if (valuesLen + len > values.length)
+			values = Arrays.copyOf(values, Math.max(values.length * 2, valuesLen + len));
+		System.arraycopy(src, off, values, valuesLen, len);
+		valuesLen += len;
+	}
+
+	private void appendByte(int c) {
+		if (valuesLen == values.length)
+			values = Arrays.copyOf(values, values.length * 2);
+		values[valuesLen++] = (byte) c;
+	}
+
+	/**
+	 * Skip comments, CDATA sections, and DOCTYPE declarations.
+	 */
+	private void skipMarkupDeclaration() throws IOException, XmlPullParserException {
+		int c = readRequired();
+		if (c == '-') {
+			if (readRequired() != '-')
+				throw createException("invalid comment");
+			skipUntil("-->");
+		} else if (c == '[') {
+			skipUntil("]]>");
+		} else {
+			// DOCTYPE, may contain an internal subset in brackets
+			int depth = 0;
+			int quote = 0;
+			while (true) {
+				if (quote != 0) {
+					if (c == quote)
+						quote = 0;
+				} else if (c == '"' || c == '\'') {
+					quote = c;
+				} else if (c == '[') {
+					depth++;
+				} else if (c == ']') {
+					depth--;
+				} else if (c == '>' && depth <= 0) {
+					return;
+				}
+				c = readRequired();
+			}
+		}
+	}
+
+	private void skipUntil(String end) throws IOException, XmlPullParserException {
+		int matched = 0;
+		int len = end.length();
+		while (matched < len) {
+			int c = readRequired();
+			if (c == end.charAt(matched))
+				matched++;
+			else if (c != end.charAt(0))
+				matched = 0;
+			else if (matched < 2 || end.charAt(1) != c)
+				matched = 1;
+			// else: e.g. "]]]>", the last two characters still match the start of "]]>"
+		}
+	}
+
+	private XmlPullParserException createException(String message) {
+		return new XmlPullParserException(message + " at byte position " + (bufStart + bufPos));
+	}
 }
@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter.parser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.shorts.ShortArrayList;
+import uk.me.parabola.splitter.Area;
+import uk.me.parabola.splitter.Utils;
+
+/**
+ * Index of the OSMHeader and OSMData blocks in a pbf file. For each block
+ * it stores the file position, the size, the contained element types,
+ * the range of ids and the bounding box of the nodes. The bounding box is
+ * only known for blocks whose nodes were decoded at least once.
+ * The index is saved in a file next to the pbf file so that it can be
+ * reused in later runs. It is only used when the size, the modification
+ * time and the content of the first block didn't change.
+ *
+ * @author agent
+ */
+public class PbfBlockIndex {
+	public static final String SUFFIX = ".idx";
+	private static final int MAGIC = 0x53504249; // SPBI
+	private static final int VERSION = 2;
+	/** the number of bytes of the header and of each block in the index file */
+	private static final int HEADER_BYTES = 36;
+	private static final int ENTRY_BYTES = 46;
+
+	private final LongArrayList offsets = new LongArrayList();
+	private final IntArrayList sizes = new IntArrayList();
+	private final ShortArrayList types = new ShortArrayList();
+	private final LongArrayList minIds = new LongArrayList();
+	private final LongArrayList maxIds = new LongArrayList();
+	// bounding box of the nodes in units of 1e-7 degrees, empty if unknown
+	private final IntArrayList minLats = new IntArrayList();
+	private final IntArrayList minLons = new IntArrayList();
+	private final IntArrayList maxLats = new IntArrayList();
+	private final IntArrayList maxLons = new IntArrayList();
+	private boolean changed;
+
+	private long fileSize;
+	private long lastModified;
+	private long headerCrc;
+
+	/**
+	 * Add a block. Blocks must be added in file order.
+	 * @param offset position of the block (the length of the blob header) in the file
+	 * @param size total size of the block in bytes
+	 * @param blockType the element types, see {@link BinaryMapParser}
+	 * @param minId the lowest id in the block
+	 * @param maxId the highest id in the block
+	 * @param minLat the lowest latitude of the nodes in units of 1e-7 degrees
+	 * @param minLon the lowest longitude of the nodes
+	 * @param maxLat the highest latitude of the nodes, lower than minLat if unknown
+	 * @param maxLon the highest longitude of the nodes
+	 */
+	public void add(long offset, int size, short blockType, long minId, long maxId, int minLat, int minLon,
+			int maxLat, int maxLon) {
+		offsets.add(offset);
+		sizes.add(size);
+		types.add(blockType);
+		minIds.add(minId);
+		maxIds.add(maxId);
+		minLats.add(minLat);
+		minLons.add(minLon);
+		maxLats.add(maxLat);
+		maxLons.add(maxLon);
+	}
+
+	/**
+	 * Set the bounding box of the nodes of a block which was read before without decoding the nodes.
+	 * @param i the block number
+	 */
+	public void setNodeBounds(int i, int minLat, int minLon, int maxLat, int maxLon) {
+		minLats.set(i, minLat);
+		minLons.set(i, minLon);
+		maxLats.set(i, maxLat);
+		maxLons.set(i, maxLon);
+		changed = true;
+	}
+
+	/**
+	 * @param i the block number
+	 * @return true if the bounding box of the nodes in the block is known
+	 */
+	public boolean hasNodeBounds(int i) {
+		return minLats.getInt(i) <= maxLats.getInt(i);
+	}
+
+	/**
+	 * @param i the block number
+	 * @return the bounding box of the nodes in map units or null if it is not known
+	 */
+	public Area getNodeBounds(int i) {
+		if (!hasNodeBounds(i))
+			return null;
+		return new Area(Utils.fixedToMapUnit(minLats.getInt(i)), Utils.fixedToMapUnit(minLons.getInt(i)),
+				Utils.fixedToMapUnit(maxLats.getInt(i)), Utils.fixedToMapUnit(maxLons.getInt(i)));
+	}
+
+	/**
+	 * @return true if bounding boxes were added since the index was loaded or saved
+	 */
+	public boolean isChanged() {
+		return changed;
+	}
+
+	public int size() {
+		return offsets.size();
+	}
+
+	public long getOffset(int i) {
+		return offsets.getLong(i);
+	}
+
+	public int getSize(int i) {
+		return sizes.getInt(i);
+	}
+
+	public short getType(int i) {
+		return types.getShort(i);
+	}
+
+	public long getMinId(int i) {
+		return minIds.getLong(i);
+	}
+
+	public long getMaxId(int i) {
+		return maxIds.getLong(i);
+	}
+
+	/**
+	 * Load the index for a pbf file.
+	 * @param pbfFile the pbf file
+	 * @param channel channel of the opened pbf file, used to check the first block
+	 * @return the index or null if no valid index was found. A damaged index is ignored.
+	 */
+	public static PbfBlockIndex load(File pbfFile, FileChannel channel) {
+		File indexFile = new File(pbfFile.getPath() + SUFFIX);
+		if (!indexFile.exists())
+			return null;
+		PbfBlockIndex index = new PbfBlockIndex();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				return null;
+			index.fileSize = in.readLong();
+			index.lastModified = in.readLong();
+			index.headerCrc = in.readLong();
+			if (index.fileSize != pbfFile.length() || index.lastModified != pbfFile.lastModified())
+				return null;
+			int n = in.readInt();
+			if (n <= 0 || indexFile.length() != HEADER_BYTES + (long) n * ENTRY_BYTES)
+				throw new IOException("invalid number of blocks " + n);
+			long end = 0;
+			for (int i = 0; i < n; i++) {
+				long offset = in.readLong();
+				int size = in.readInt();
+				if (offset < end || size < 0 || offset + size > index.fileSize)
+					throw new IOException("invalid position of block " + i);
+				end = offset + size;
+				index.add(offset, size, in.readShort(), in.readLong(), in.readLong(), in.readInt(),
+						in.readInt(), in.readInt(), in.readInt());
+			}
+			if (index.headerCrc != calcCrc(channel, index.getOffset(0), index.getSize(0)))
+				return null;
+		} catch (IOException | RuntimeException e) {
+			System.out.println("Ignoring invalid index file " + indexFile + ": " + e.getMessage());
+			return null;
+		}
+		return index;
+	}
+
+	/**
+	 * Save the index next to the pbf file. Failures are reported but
+	 * otherwise ignored, the index is only an optimisation. The index is
+	 * written to a temporary file which is renamed when it is complete, so
+	 * other processes reading the same pbf file never see a partial index.
+	 * @param pbfFile the pbf file
+	 * @param channel channel of the opened pbf file, used to calculate the checksum of the first block
+	 * @param modified the modification time of the pbf file when it was opened
+	 */
+	public void save(File pbfFile, FileChannel channel, long modified) {
+		if (size() == 0 || modified != pbfFile.lastModified())
+			return;
+		File indexFile = new File(pbfFile.getPath() + SUFFIX);
+		File tmpFile = null;
+		try {
+			fileSize = pbfFile.length();
+			lastModified = modified;
+			headerCrc = calcCrc(channel, getOffset(0), getSize(0));
+			tmpFile = File.createTempFile(indexFile.getName(), ".tmp", indexFile.getAbsoluteFile().getParentFile());
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(fileSize);
+				out.writeLong(lastModified);
+				out.writeLong(headerCrc);
+				out.writeInt(size());
+				for (int i = 0; i < size(); i++) {
+					out.writeLong(getOffset(i));
+					out.writeInt(getSize(i));
+					out.writeShort(getType(i));
+					out.writeLong(getMinId(i));
+					out.writeLong(getMaxId(i));
+					out.writeInt(minLats.getInt(i));
+					out.writeInt(minLons.getInt(i));
+					out.writeInt(maxLats.getInt(i));
+					out.writeInt(maxLons.getInt(i));
+				}
+			}
+			Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			changed = false;
+		} catch (IOException e) {
+			System.out.println("Cannot write index file " + indexFile + ": " + e.getMessage());
+			if (tmpFile != null)
+				tmpFile.delete();
+		}
+	}
+
+	private static long calcCrc(FileChannel channel, long pos, int len) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(len);
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, pos + buf.position()) < 0)
+				throw new IOException("unexpected end of file");
+		}
+		CRC32 crc = new CRC32();
+		crc.update(buf.array(), 0, len);
+		return crc.getValue();
+	}
+}
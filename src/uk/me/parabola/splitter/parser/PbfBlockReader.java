@@ -0,0 +1,497 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter.parser;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+
+import crosby.binary.Fileformat;
+import crosby.binary.Osmformat;
+import uk.me.parabola.splitter.Area;
+import uk.me.parabola.splitter.NodeBlock;
+import uk.me.parabola.splitter.ReadAhead;
+import uk.me.parabola.splitter.SplitFailedException;
+
+/**
+ * Reads the blocks of a pbf file and passes them to a {@link BinaryMapParser}.
+ * The expensive part (inflating the blob and decoding the protobuf message)
+ * can be done by a pool of worker threads while the results are handed to
+ * the parser in strict file order.
+ * When a {@link PbfBlockIndex} is available, blocks which don't contain
+ * the wanted element types are not read at all, nor are blocks of nodes
+ * which the processor doesn't need, e.g. because they lie outside of
+ * the areas of a pass.
+ * With {@link #setReadAhead(int)} the wanted parts of the file are read
+ * by a background thread.
+ * If the processor can be sharded, the worker threads also parse the
+ * blocks, each into its own shard of the processor.
+ *
+ * @author agent
+ */
+public class PbfBlockReader {
+	/** limits given in the pbf specification */
+	private static final int MAX_HEADER_SIZE = 64 * 1024;
+	private static final int MAX_BLOB_SIZE = 32 * 1024 * 1024;
+
+	private static final int BLOB_RAW = 1;
+	private static final int BLOB_RAW_SIZE = 2;
+	private static final int BLOB_ZLIB_DATA = 3;
+
+	private final FileChannel channel;
+	private final BinaryMapParser parser;
+	private final int numThreads;
+	/** the known index or null */
+	private final PbfBlockIndex knownIndex;
+	/** the index that is created while reading the file without a known index */
+	private PbfBlockIndex newIndex;
+	/** the blocks of the known index which are read */
+	private boolean[] wantedBlocks;
+
+	/** blob buffers that can be reused by the reader */
+	private final BlockingQueue<byte[]> freeBuffers;
+	private final ByteBuffer lenBuf = ByteBuffer.allocate(4);
+	private int readAheadDepth;
+	private ReadAhead readAhead;
+	private long fileSize;
+
+	// the position of the next block if the file is read sequentially
+	private long filePos;
+	// the next block if the index is used
+	private int indexPos;
+
+	/** per thread state for inflating */
+	private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+	private static final ThreadLocal<byte[][]> inflateBuffers = ThreadLocal.withInitial(() -> new byte[1][]);
+
+	/** parsers for the worker threads if the processor can be sharded */
+	private final List<BinaryMapParser> shardParsers = new ArrayList<>();
+	private final ConcurrentLinkedQueue<BinaryMapParser> idleShardParsers = new ConcurrentLinkedQueue<>();
+	private boolean sharded;
+	private final boolean useNodeBlocks;
+
+	/**
+	 * @param channel the pbf file
+	 * @param parser the parser that receives the decoded blocks
+	 * @param numThreads number of threads used to decode blocks, 1 means decode in the calling thread
+	 * @param index a block index for this file or null. If given, unwanted blocks are not read.
+	 */
+	public PbfBlockReader(FileChannel channel, BinaryMapParser parser, int numThreads, PbfBlockIndex index) {
+		this.channel = channel;
+		this.parser = parser;
+		this.numThreads = Math.max(1, numThreads);
+		this.knownIndex = index;
+		if (index == null)
+			newIndex = new PbfBlockIndex();
+		freeBuffers = new ArrayBlockingQueue<>(2 * this.numThreads + 1);
+		useNodeBlocks = index != null && parser.useNodeBlocks();
+	}
+
+	/**
+	 * @return the index that was used or created while reading the file
+	 */
+	public PbfBlockIndex getIndex() {
+		return knownIndex != null ? knownIndex : newIndex;
+	}
+
+	/**
+	 * @param queueDepth the number of chunks that are read ahead, 0 means read in the calling thread
+	 */
+	public void setReadAhead(int queueDepth) {
+		this.readAheadDepth = queueDepth;
+	}
+
+	/**
+	 * Read all wanted blocks and pass them to the parser.
+	 * @throws IOException
+	 */
+	public void process() throws IOException {
+		if (knownIndex != null)
+			calcWantedBlocks();
+		if (readAheadDepth <= 0) {
+			processBlocks();
+			return;
+		}
+		fileSize = channel.size();
+		try (ReadAhead ra = new ReadAhead(channel, readAheadDepth)) {
+			if (knownIndex != null) {
+				for (int i = 0; i < knownIndex.size(); i++) {
+					if (wantedBlocks[i])
+						ra.addRange(knownIndex.getOffset(i), knownIndex.getOffset(i) + knownIndex.getSize(i));
+				}
+			} else {
+				ra.addRange(0, fileSize);
+			}
+			readAhead = ra;
+			processBlocks();
+		} finally {
+			readAhead = null;
+		}
+	}
+
+	/**
+	 * Decide which blocks of the known index have to be read.
+	 */
+	private void calcWantedBlocks() {
+		wantedBlocks = new boolean[knownIndex.size()];
+		for (int i = 0; i < wantedBlocks.length; i++) {
+			short type = knownIndex.getType(i);
+			wantedBlocks[i] = parser.isWanted(type);
+			if (wantedBlocks[i] && BinaryMapParser.isNodeBlock(type) && knownIndex.hasNodeBounds(i)
+					&& parser.skipNodeBlock(knownIndex.getNodeBounds(i), knownIndex.getMinId(i), knownIndex.getMaxId(i)))
+				wantedBlocks[i] = false;
+		}
+	}
+
+	private void processBlocks() throws IOException {
+		if (numThreads <= 1) {
+			Block block;
+			while ((block = readBlock()) != null) {
+				handle(block, decode(block));
+			}
+			return;
+		}
+		// allow a few blocks more than threads so that the workers don't have to wait for the reader
+		final int maxPending = 2 * numThreads;
+		ArrayDeque<Block> pendingBlocks = new ArrayDeque<>();
+		ArrayDeque<Future<DecodedBlock>> pending = new ArrayDeque<>();
+		BinaryMapParser shardParser = parser.createShardParser();
+		if (shardParser != null) {
+			sharded = true;
+			shardParsers.add(shardParser);
+			idleShardParsers.add(shardParser);
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads, r -> {
+			Thread t = new Thread(r, "pbf decoder");
+			t.setDaemon(true);
+			return t;
+		});
+		try {
+			Block block;
+			while ((block = readBlock()) != null) {
+				if (pending.size() >= maxPending)
+					handle(pendingBlocks.removeFirst(), waitFor(pending.removeFirst()));
+				final Block toDecode = block;
+				pendingBlocks.addLast(toDecode);
+				pending.addLast(pool.submit(() -> decode(toDecode)));
+			}
+			while (!pending.isEmpty())
+				handle(pendingBlocks.removeFirst(), waitFor(pending.removeFirst()));
+			// all workers are done
+			for (BinaryMapParser p : shardParsers)
+				parser.mergeShard(p);
+		} finally {
+			for (Future<DecodedBlock> f : pending)
+				f.cancel(true);
+			pool.shutdownNow();
+		}
+	}
+
+	private void handle(Block block, DecodedBlock decoded) {
+		if (decoded.nodeBlock != null) {
+			parser.processNodeBlock(decoded.nodeBlock);
+			return;
+		}
+		if (decoded.parsed) {
+			// done by a worker thread
+			addToIndex(block, decoded.blockType, decoded.minId, decoded.maxId, decoded.bounds);
+			return;
+		}
+		parser.beginBlock();
+		if (decoded.header != null)
+			parser.parse(decoded.header);
+		else
+			parser.parse(decoded.data, decoded.offset, decoded.len);
+		addToIndex(block, parser.getBlockType(), parser.getMinId(), parser.getMaxId(), getNodeBounds(parser));
+	}
+
+	private static int[] getNodeBounds(BinaryMapParser p) {
+		return new int[] { p.getMinLat(), p.getMinLon(), p.getMaxLat(), p.getMaxLon() };
+	}
+
+	/**
+	 * Add a parsed block to the new index or complete the bounding box in the known index.
+	 * @param bounds minLat, minLon, maxLat, maxLon of the decoded nodes
+	 */
+	private void addToIndex(Block block, short blockType, long minId, long maxId, int[] bounds) {
+		if (newIndex != null) {
+			newIndex.add(block.offset, block.size, blockType, minId, maxId, bounds[0], bounds[1], bounds[2], bounds[3]);
+		} else if (block.indexPos >= 0 && !knownIndex.hasNodeBounds(block.indexPos) && bounds[0] <= bounds[2]
+				&& BinaryMapParser.isNodeBlock(knownIndex.getType(block.indexPos))) {
+			knownIndex.setNodeBounds(block.indexPos, bounds[0], bounds[1], bounds[2], bounds[3]);
+		}
+	}
+
+	private static DecodedBlock waitFor(Future<DecodedBlock> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SplitFailedException("interrupted while decoding pbf blocks");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new SplitFailedException(cause.toString());
+		}
+	}
+
+	/**
+	 * Read the next block that is wanted by the parser.
+	 * @return the block or null at end of file
+	 * @throws IOException
+	 */
+	private Block readBlock() throws IOException {
+		if (knownIndex != null) {
+			while (indexPos < knownIndex.size()) {
+				int i = indexPos++;
+				if (wantedBlocks[i]) {
+					Block block = readBlock(knownIndex.getOffset(i), knownIndex.getSize(i));
+					block.indexPos = i;
+					if (useNodeBlocks && BinaryMapParser.isNodeBlock(knownIndex.getType(i)))
+						block.nodeBounds = knownIndex.getNodeBounds(i);
+					return block;
+				}
+			}
+			return null;
+		}
+		while (true) {
+			lenBuf.clear();
+			if (readFully(lenBuf, filePos, true) < 0)
+				return null;
+			int headerSize = lenBuf.getInt(0);
+			if (headerSize < 0 || headerSize > MAX_HEADER_SIZE)
+				throw new IOException("invalid pbf block header size " + headerSize);
+			ByteBuffer headerBuf = ByteBuffer.allocate(headerSize);
+			readFully(headerBuf, filePos + 4, false);
+			Fileformat.BlobHeader header = Fileformat.BlobHeader.parseFrom(headerBuf.array());
+			int dataSize = header.getDatasize();
+			if (dataSize < 0 || dataSize > MAX_BLOB_SIZE)
+				throw new IOException("invalid pbf blob size " + dataSize);
+			long offset = filePos;
+			int size = 4 + headerSize + dataSize;
+			filePos += size;
+			if (!parser.skipBlock(header.getType()))
+				return readBlock(offset, size);
+		}
+	}
+
+	/**
+	 * Read a complete block (header length, header, and blob) from the given position.
+	 */
+	private Block readBlock(long offset, int size) throws IOException {
+		byte[] buf = freeBuffers.poll();
+		if (buf == null || buf.length < size)
+			buf = new byte[size];
+		readFully(ByteBuffer.wrap(buf, 0, size), offset, false);
+		int headerSize = ByteBuffer.wrap(buf).getInt(0);
+		Block block = new Block();
+		block.offset = offset;
+		block.size = size;
+		block.data = buf;
+		block.type = Fileformat.BlobHeader.parseFrom(CodedInputStream.newInstance(buf, 4, headerSize)).getType();
+		block.dataOffset = 4 + headerSize;
+		block.dataSize = size - block.dataOffset;
+		return block;
+	}
+
+	/**
+	 * Fill the buffer with data from the given file position.
+	 * @param allowEOF if true, return -1 if the position is at the end of the file
+	 */
+	private int readFully(ByteBuffer buf, long pos, boolean allowEOF) throws IOException {
+		int start = buf.position();
+		if (readAhead != null) {
+			if (allowEOF && pos >= fileSize)
+				return -1;
+			readAhead.read(pos, buf);
+			return buf.position() - start;
+		}
+		while (buf.hasRemaining()) {
+			int n = channel.read(buf, pos + buf.position() - start);
+			if (n < 0) {
+				if (allowEOF && buf.position() == start)
+					return -1;
+				throw new EOFException("unexpected end of pbf file");
+			}
+		}
+		return buf.position() - start;
+	}
+
+	/**
+	 * Inflate and decode a blob. Called by the worker threads.
+	 */
+	private DecodedBlock decode(Block block) throws IOException {
+		CodedInputStream cis = CodedInputStream.newInstance(block.data, block.dataOffset, block.dataSize);
+		int rawSize = -1;
+		int rawOffset = -1, rawLen = 0;
+		int zlibOffset = -1, zlibLen = 0;
+		while (true) {
+			int tag = cis.readTag();
+			if (tag == 0)
+				break;
+			switch (WireFormat.getTagFieldNumber(tag)) {
+			case BLOB_RAW:
+				rawLen = cis.readRawVarint32();
+				rawOffset = block.dataOffset + cis.getTotalBytesRead();
+				cis.skipRawBytes(rawLen);
+				break;
+			case BLOB_RAW_SIZE:
+				rawSize = cis.readInt32();
+				break;
+			case BLOB_ZLIB_DATA:
+				zlibLen = cis.readRawVarint32();
+				zlibOffset = block.dataOffset + cis.getTotalBytesRead();
+				cis.skipRawBytes(zlibLen);
+				break;
+			default:
+				throw new IOException("unsupported compression in pbf blob of type " + block.type);
+			}
+		}
+		boolean isHeader = "OSMHeader".equals(block.type);
+		// a data block that is parsed by the reader thread needs its own buffer,
+		// the others are parsed before the buffers are used again
+		boolean keepData = !isHeader && (numThreads > 1 && !sharded || block.nodeBounds != null);
+		byte[] data;
+		int offset, len;
+		if (rawOffset >= 0) {
+			data = keepData ? Arrays.copyOfRange(block.data, rawOffset, rawOffset + rawLen) : block.data;
+			offset = keepData ? 0 : rawOffset;
+			len = rawLen;
+		} else if (zlibOffset >= 0) {
+			if (rawSize < 0 || rawSize > MAX_BLOB_SIZE)
+				throw new IOException("invalid raw size " + rawSize + " in pbf blob");
+			if (keepData)
+				data = new byte[rawSize];
+			else {
+				byte[][] holder = inflateBuffers.get();
+				if (holder[0] == null || holder[0].length < rawSize)
+					holder[0] = new byte[rawSize];
+				data = holder[0];
+			}
+			offset = 0;
+			len = inflate(block.data, zlibOffset, zlibLen, data, rawSize);
+		} else {
+			throw new IOException("pbf blob of type " + block.type + " contains no data");
+		}
+		DecodedBlock decoded = new DecodedBlock();
+		if (isHeader) {
+			decoded.header = Osmformat.HeaderBlock.parseFrom(CodedInputStream.newInstance(data, offset, len));
+		} else {
+			decoded.data = data;
+			decoded.offset = offset;
+			decoded.len = len;
+			if (block.nodeBounds != null) {
+				long[] ids = BinaryMapParser.decodeNodeIds(data, offset, len);
+				byte[] rawBlock = Arrays.copyOf(block.data, block.size);
+				decoded.nodeBlock = new NodeBlock(block.nodeBounds, ids, rawBlock, data, offset, len);
+			} else if (sharded)
+				parseInShard(decoded);
+		}
+		if (data != block.data)
+			freeBuffers.offer(block.data);
+		return decoded;
+	}
+
+	/**
+	 * Parse a decoded block with a parser that is not used by other threads at the same time.
+	 */
+	private void parseInShard(DecodedBlock decoded) {
+		BinaryMapParser p = idleShardParsers.poll();
+		if (p == null) {
+			p = parser.createShardParser();
+			synchronized (shardParsers) {
+				shardParsers.add(p);
+			}
+		}
+		p.beginBlock();
+		p.parse(decoded.data, decoded.offset, decoded.len);
+		decoded.parsed = true;
+		decoded.blockType = p.getBlockType();
+		decoded.minId = p.getMinId();
+		decoded.maxId = p.getMaxId();
+		decoded.bounds = getNodeBounds(p);
+		decoded.data = null;
+		idleShardParsers.offer(p);
+	}
+
+	private static int inflate(byte[] in, int offset, int len, byte[] out, int rawSize) throws IOException {
+		Inflater inflater = inflaters.get();
+		inflater.reset();
+		inflater.setInput(in, offset, len);
+		try {
+			int n = 0;
+			while (n < rawSize) {
+				int count = inflater.inflate(out, n, rawSize - n);
+				if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+					break;
+				n += count;
+			}
+			if (n != rawSize)
+				throw new InvalidProtocolBufferException("inflated size " + n + " doesn't match expected size " + rawSize);
+			return n;
+		} catch (DataFormatException e) {
+			throw new IOException("invalid compressed data in pbf blob: " + e.getMessage());
+		}
+	}
+
+	private static class Block {
+		long offset;
+		int size;
+		String type;
+		byte[] data;
+		int dataOffset;
+		int dataSize;
+		/** position in the known index or -1 */
+		int indexPos = -1;
+		/** the bounding box of the nodes if the block is passed as {@link NodeBlock} */
+		Area nodeBounds;
+	}
+
+	private static class DecodedBlock {
+		Osmformat.HeaderBlock header;
+		/** the uncompressed PrimitiveBlock */
+		byte[] data;
+		int offset;
+		int len;
+		/** true if the block was parsed by a worker thread */
+		boolean parsed;
+		short blockType;
+		long minId;
+		long maxId;
+		int[] bounds;
+		NodeBlock nodeBlock;
+	}
+}
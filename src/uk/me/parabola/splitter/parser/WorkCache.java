@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter.parser;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A splitter specific copy of an input file which is faster to read than
+ * the original. It is written by {@link WorkCacheWriter} while the input
+ * file is read for the first time and read by {@link WorkCacheReader} in
+ * the following passes.
+ * <p>
+ * The file contains segments of delta and varint encoded elements of one
+ * type, each compressed with deflate. The segment index is written at
+ * the end of the file, followed by its position and the magic number,
+ * so incomplete files are detected. The header contains the size, the
+ * modification time and a checksum of the start of the input file, the
+ * cache is only used when they match.
+ *
+ * @author agent
+ */
+public class WorkCache {
+	public static final String SUFFIX = ".cache";
+	static final int MAGIC = 0x53504c43; // SPLC
+	static final int VERSION = 1;
+	private static final int CRC_LEN = 4096;
+	/** size of the header with magic, version and fingerprint of the input file */
+	static final int HEADER_SIZE = 32;
+	/** size of the trailer with index position and magic */
+	static final int TRAILER_SIZE = 12;
+
+	/** segment types */
+	static final byte TYPE_NODES = 1;
+	static final byte TYPE_WAYS = 2;
+	static final byte TYPE_RELS = 3;
+	static final byte TYPE_BOUNDS = 4;
+
+	private final File file;
+	final List<Segment> segments = new ArrayList<>();
+
+	WorkCache(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * A segment of the cache file.
+	 */
+	static class Segment {
+		final byte type;
+		final long offset;
+		final int compressedSize;
+		final int rawSize;
+		final int count;
+		final long firstId;
+		final long lastId;
+
+		Segment(byte type, long offset, int compressedSize, int rawSize, int count, long firstId, long lastId) {
+			this.type = type;
+			this.offset = offset;
+			this.compressedSize = compressedSize;
+			this.rawSize = rawSize;
+			this.count = count;
+			this.firstId = firstId;
+			this.lastId = lastId;
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public int size() {
+		return segments.size();
+	}
+
+	/**
+	 * @param dir the cache directory
+	 * @param input the input file
+	 * @return the name of the cache file for the input file
+	 */
+	static File getCacheFile(File dir, File input) throws IOException {
+		// the hash avoids clashes for input files with equal names in different directories
+		String path = input.getCanonicalPath();
+		return new File(dir, input.getName() + "-" + Integer.toHexString(path.hashCode()) + SUFFIX);
+	}
+
+	/**
+	 * Load the index of the cache for an input file.
+	 * @param dir the cache directory
+	 * @param input the input file
+	 * @return the cache or null if no valid cache was found
+	 */
+	public static WorkCache load(File dir, File input) {
+		File cacheFile;
+		try {
+			cacheFile = getCacheFile(dir, input);
+		} catch (IOException e) {
+			return null;
+		}
+		if (!cacheFile.exists())
+			return null;
+		WorkCache cache = new WorkCache(cacheFile);
+		try (RandomAccessFile raf = new RandomAccessFile(cacheFile, "r")) {
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+			if (size < HEADER_SIZE + TRAILER_SIZE || in.readInt() != MAGIC || in.readInt() != VERSION)
+				return null;
+			long[] fingerprint = { in.readLong(), in.readLong(), in.readLong() };
+			if (!matches(fingerprint, input)) {
+				System.out.println("Input file " + input + " was changed, ignoring work cache " + cacheFile);
+				return null;
+			}
+			channel.position(size - TRAILER_SIZE);
+			long indexPos = in.readLong();
+			if (in.readInt() != MAGIC || indexPos < HEADER_SIZE || indexPos >= size)
+				return null;
+			channel.position(indexPos);
+			int n = in.readInt();
+			for (int i = 0; i < n; i++) {
+				cache.segments.add(new Segment(in.readByte(), in.readLong(), in.readInt(), in.readInt(), in.readInt(),
+						in.readLong(), in.readLong()));
+			}
+		} catch (IOException e) {
+			System.out.println("Ignoring invalid work cache " + cacheFile + ": " + e.getMessage());
+			return null;
+		}
+		return cache;
+	}
+
+	/**
+	 * @param input the input file
+	 * @return the size, the modification time and the checksum of the file start
+	 * @throws IOException
+	 */
+	static long[] calcFingerprint(File input) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(input, "r")) {
+			FileChannel channel = raf.getChannel();
+			int len = (int) Math.min(CRC_LEN, channel.size());
+			ByteBuffer buf = ByteBuffer.allocate(len);
+			while (buf.hasRemaining()) {
+				if (channel.read(buf, buf.position()) < 0)
+					throw new IOException("unexpected end of file");
+			}
+			CRC32 crc = new CRC32();
+			crc.update(buf.array(), 0, len);
+			return new long[] { channel.size(), input.lastModified(), crc.getValue() };
+		}
+	}
+
+	private static boolean matches(long[] fingerprint, File input) throws IOException {
+		if (fingerprint[0] != input.length() || fingerprint[1] != input.lastModified())
+			return false;
+		return fingerprint[2] == calcFingerprint(input)[2];
+	}
+}
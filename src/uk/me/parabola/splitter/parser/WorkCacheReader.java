@@ -0,0 +1,300 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter.parser;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import uk.me.parabola.splitter.Area;
+import uk.me.parabola.splitter.Element;
+import uk.me.parabola.splitter.MapProcessor;
+import uk.me.parabola.splitter.Node;
+import uk.me.parabola.splitter.NodeBatch;
+import uk.me.parabola.splitter.ReadAhead;
+import uk.me.parabola.splitter.Relation;
+import uk.me.parabola.splitter.Way;
+import uk.me.parabola.splitter.WayBatch;
+
+/**
+ * Reads the elements of a {@link WorkCache} and passes them to a processor.
+ * Segments with element types that are skipped by the processor are not read.
+ *
+ * @author agent
+ */
+public class WorkCacheReader {
+	private static final int BATCH_SIZE = 1000;
+
+	private final MapProcessor processor;
+	private final WorkCache cache;
+	private final int readAhead;
+	private final boolean skipTags;
+	// null if all tags are wanted
+	private final KeyFilter keyFilter;
+	private final boolean useBatches;
+	private final ElementCounter elemCounter = new ElementCounter();
+	private final Inflater inflater = new Inflater();
+	private NodeBatch nodeBatch;
+	private WayBatch wayBatch;
+
+	// the current segment
+	private byte[] compressed = new byte[0];
+	private byte[] buf = new byte[0];
+	private int pos;
+	private final ArrayList<String> strings = new ArrayList<>();
+	// delta values
+	private long lastId;
+	private int lastLat, lastLon;
+	private long lastRef;
+	private final long[] lastMemRefs = new long[3];
+
+	/**
+	 * @param processor the processor
+	 * @param cache the cache
+	 * @param readAhead the number of chunks that are read ahead, 0 means no read-ahead
+	 */
+	public WorkCacheReader(MapProcessor processor, WorkCache cache, int readAhead) {
+		this.processor = processor;
+		this.cache = cache;
+		this.readAhead = readAhead;
+		this.skipTags = processor.skipTags();
+		this.keyFilter = KeyFilter.create(processor);
+		this.useBatches = skipTags && processor.useBatches();
+		if (useBatches) {
+			nodeBatch = new NodeBatch();
+			wayBatch = new WayBatch();
+		}
+	}
+
+	/**
+	 * Read the wanted segments and pass the elements to the processor.
+	 * @throws IOException
+	 */
+	public void process() throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(cache.getFile(), "r");
+				ReadAhead ra = readAhead > 0 ? new ReadAhead(raf.getChannel(), readAhead) : null) {
+			FileChannel channel = raf.getChannel();
+			ArrayList<WorkCache.Segment> wanted = new ArrayList<>();
+			for (WorkCache.Segment seg : cache.segments) {
+				if (isWanted(seg.type))
+					wanted.add(seg);
+			}
+			if (ra != null) {
+				for (WorkCache.Segment seg : wanted)
+					ra.addRange(seg.offset, seg.offset + seg.compressedSize);
+			}
+			for (WorkCache.Segment seg : wanted) {
+				if (compressed.length < seg.compressedSize)
+					compressed = new byte[seg.compressedSize];
+				ByteBuffer bb = ByteBuffer.wrap(compressed, 0, seg.compressedSize);
+				if (ra != null)
+					ra.read(seg.offset, bb);
+				else {
+					while (bb.hasRemaining()) {
+						if (channel.read(bb, seg.offset + bb.position()) < 0)
+							throw new IOException("unexpected end of work cache file");
+					}
+				}
+				inflate(seg);
+				decode(seg);
+			}
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private boolean isWanted(byte type) {
+		switch (type) {
+		case WorkCache.TYPE_NODES:
+			return !processor.skipNodes();
+		case WorkCache.TYPE_WAYS:
+			return !processor.skipWays();
+		case WorkCache.TYPE_RELS:
+			return !processor.skipRels();
+		default:
+			return true;
+		}
+	}
+
+	private void inflate(WorkCache.Segment seg) throws IOException {
+		if (buf.length < seg.rawSize)
+			buf = new byte[seg.rawSize];
+		inflater.reset();
+		inflater.setInput(compressed, 0, seg.compressedSize);
+		try {
+			int n = 0;
+			while (n < seg.rawSize) {
+				int count = inflater.inflate(buf, n, seg.rawSize - n);
+				if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+					break;
+				n += count;
+			}
+			if (n != seg.rawSize)
+				throw new IOException("inflated size " + n + " doesn't match expected size " + seg.rawSize);
+		} catch (DataFormatException e) {
+			throw new IOException("invalid compressed data in work cache: " + e.getMessage());
+		}
+	}
+
+	private void decode(WorkCache.Segment seg) {
+		pos = 0;
+		strings.clear();
+		lastId = 0;
+		lastLat = lastLon = 0;
+		lastRef = 0;
+		Arrays.fill(lastMemRefs, 0);
+		for (int i = 0; i < seg.count; i++) {
+			lastId += readSigned();
+			switch (seg.type) {
+			case WorkCache.TYPE_NODES:
+				readNode();
+				break;
+			case WorkCache.TYPE_WAYS:
+				readWay();
+				break;
+			case WorkCache.TYPE_RELS:
+				readRelation();
+				break;
+			case WorkCache.TYPE_BOUNDS:
+				processor.boundTag(new Area((int) readSigned(), (int) readSigned(), (int) readSigned(), (int) readSigned()));
+				break;
+			default:
+				throw new IllegalArgumentException("unknown segment type " + seg.type + " in work cache");
+			}
+		}
+		flushBatches();
+	}
+
+	private void readNode() {
+		int version = (int) readVarint();
+		lastLat += (int) readSigned();
+		lastLon += (int) readSigned();
+		elemCounter.countNode(lastId);
+		if (useBatches) {
+			skipTags();
+			nodeBatch.add(lastId, version, lastLat, lastLon);
+			if (nodeBatch.size() >= BATCH_SIZE)
+				flushBatches();
+			return;
+		}
+		Node node = new Node();
+		node.setFixed(lastId, lastLat, lastLon);
+		node.setVersion(version);
+		readTags(node);
+		processor.processNode(node);
+	}
+
+	private void readWay() {
+		int version = (int) readVarint();
+		int numRefs = (int) readVarint();
+		elemCounter.countWay(lastId);
+		if (useBatches) {
+			for (int i = 0; i < numRefs; i++) {
+				lastRef += readSigned();
+				wayBatch.addRef(lastRef);
+			}
+			skipTags();
+			wayBatch.addWay(lastId, version);
+			if (wayBatch.size() >= BATCH_SIZE)
+				flushBatches();
+			return;
+		}
+		Way way = new Way();
+		way.setId(lastId);
+		way.setVersion(version);
+		for (int i = 0; i < numRefs; i++) {
+			lastRef += readSigned();
+			way.addRef(lastRef);
+		}
+		readTags(way);
+		processor.processWay(way);
+	}
+
+	private void readRelation() {
+		Relation rel = new Relation();
+		rel.setId(lastId);
+		rel.setVersion((int) readVarint());
+		int numMembers = (int) readVarint();
+		for (int i = 0; i < numMembers; i++) {
+			byte type = buf[pos++];
+			lastMemRefs[type] += readSigned();
+			rel.addMember(type, lastMemRefs[type], readString());
+		}
+		readTags(rel);
+		elemCounter.countRelation(lastId);
+		processor.processRelation(rel);
+	}
+
+	private void flushBatches() {
+		if (useBatches) {
+			if (!nodeBatch.isEmpty()) {
+				processor.processNodes(nodeBatch);
+				nodeBatch.clear();
+			}
+			if (!wayBatch.isEmpty()) {
+				processor.processWays(wayBatch);
+				wayBatch.clear();
+			}
+		}
+	}
+
+	private void readTags(Element el) {
+		int numTags = (int) readVarint();
+		for (int i = 0; i < numTags; i++) {
+			String key = readString();
+			String value = readString();
+			if (!skipTags && (keyFilter == null || keyFilter.isWanted(key)))
+				el.addTag(key, value);
+		}
+	}
+
+	private void skipTags() {
+		int numTags = (int) readVarint();
+		for (int i = 0; i < 2 * numTags; i++)
+			readString();
+	}
+
+	private String readString() {
+		int idx = (int) readVarint();
+		if (idx > 0)
+			return strings.get(idx - 1);
+		int len = (int) readVarint();
+		String s = new String(buf, pos, len, StandardCharsets.UTF_8);
+		pos += len;
+		strings.add(s);
+		return s;
+	}
+
+	private long readSigned() {
+		long v = readVarint();
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	private long readVarint() {
+		long v = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buf[pos++];
+			v |= (long) (b & 0x7f) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return v;
+	}
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter.parser;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.zip.Deflater;
+
+import uk.me.parabola.splitter.AbstractMapProcessor;
+import uk.me.parabola.splitter.Area;
+import uk.me.parabola.splitter.Element;
+import uk.me.parabola.splitter.MapProcessor;
+import uk.me.parabola.splitter.Node;
+import uk.me.parabola.splitter.Relation;
+import uk.me.parabola.splitter.Way;
+
+/**
+ * Writes all elements that are read from an input file to a {@link WorkCache}
+ * and passes those that are wanted to the real processor. The parser must
+ * read the complete file, so this processor doesn't skip anything.
+ * Errors while writing are reported and disable the cache, they don't stop
+ * the processing.
+ *
+ * @author agent
+ */
+public class WorkCacheWriter extends AbstractMapProcessor {
+	/** a segment is written when its raw size exceeds this value */
+	private static final int SEGMENT_SIZE = 1 << 20;
+
+	private final MapProcessor processor;
+	private final File input;
+	private final File tmpFile;
+	private final WorkCache cache;
+	private DataOutputStream out;
+	private long filePos;
+	private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+	private byte[] compressed = new byte[SEGMENT_SIZE];
+
+	// the current segment
+	private byte segType;
+	private byte[] buf = new byte[SEGMENT_SIZE + 0x10000];
+	private int len;
+	private int count;
+	private long firstId;
+	private final HashMap<String, Integer> strings = new HashMap<>();
+	// delta values
+	private long lastId;
+	private int lastLat, lastLon;
+	private long lastRef;
+	private final long[] lastMemRefs = new long[3];
+
+	/**
+	 * @param processor the real processor
+	 * @param dir the cache directory
+	 * @param input the input file
+	 * @throws IOException if the cache file cannot be created
+	 */
+	public WorkCacheWriter(MapProcessor processor, File dir, File input) throws IOException {
+		this.processor = processor;
+		this.input = input;
+		File cacheFile = WorkCache.getCacheFile(dir, input);
+		this.cache = new WorkCache(cacheFile);
+		this.tmpFile = new File(cacheFile.getPath() + ".tmp");
+		long[] fingerprint = WorkCache.calcFingerprint(input);
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16));
+		out.writeInt(WorkCache.MAGIC);
+		out.writeInt(WorkCache.VERSION);
+		for (long v : fingerprint)
+			out.writeLong(v);
+		filePos = WorkCache.HEADER_SIZE;
+	}
+
+	@Override
+	public int getPhase() {
+		return processor.getPhase();
+	}
+
+	@Override
+	public void boundTag(Area bounds) {
+		if (out != null) {
+			startElement(WorkCache.TYPE_BOUNDS, 0);
+			writeSigned(bounds.getMinLat());
+			writeSigned(bounds.getMinLong());
+			writeSigned(bounds.getMaxLat());
+			writeSigned(bounds.getMaxLong());
+			endElement();
+		}
+		processor.boundTag(bounds);
+	}
+
+	@Override
+	public void processNode(Node n) {
+		if (out != null) {
+			startElement(WorkCache.TYPE_NODES, n.getId());
+			writeVarint(n.getVersion());
+			writeSigned(n.getFixedLat() - lastLat);
+			writeSigned(n.getFixedLon() - lastLon);
+			lastLat = n.getFixedLat();
+			lastLon = n.getFixedLon();
+			writeTags(n);
+			endElement();
+		}
+		if (!processor.skipNodes())
+			processor.processNode(n);
+	}
+
+	@Override
+	public void processWay(Way w) {
+		if (out != null) {
+			startElement(WorkCache.TYPE_WAYS, w.getId());
+			writeVarint(w.getVersion());
+			long[] refs = w.getRefs().elements();
+			int numRefs = w.getRefs().size();
+			writeVarint(numRefs);
+			for (int i = 0; i < numRefs; i++) {
+				writeSigned(refs[i] - lastRef);
+				lastRef = refs[i];
+			}
+			writeTags(w);
+			endElement();
+		}
+		if (!processor.skipWays())
+			processor.processWay(w);
+	}
+
+	@Override
+	public void processRelation(Relation r) {
+		if (out != null) {
+			startElement(WorkCache.TYPE_RELS, r.getId());
+			writeVarint(r.getVersion());
+			int numMembers = r.getMemberCount();
+			writeVarint(numMembers);
+			for (int i = 0; i < numMembers; i++) {
+				byte type = r.getMemberType(i);
+				ensureCapacity(1);
+				buf[len++] = type;
+				writeSigned(r.getMemberRef(i) - lastMemRefs[type]);
+				lastMemRefs[type] = r.getMemberRef(i);
+				writeString(r.getMemberRole(i));
+			}
+			writeTags(r);
+			endElement();
+		}
+		if (!processor.skipRels())
+			processor.processRelation(r);
+	}
+
+	/**
+	 * Write the last segment and the index.
+	 * @return the cache or null if it could not be written
+	 */
+	public WorkCache finish() {
+		if (out == null)
+			return null;
+		try {
+			flushSegment();
+			long indexPos = filePos;
+			out.writeInt(cache.segments.size());
+			for (WorkCache.Segment seg : cache.segments) {
+				out.writeByte(seg.type);
+				out.writeLong(seg.offset);
+				out.writeInt(seg.compressedSize);
+				out.writeInt(seg.rawSize);
+				out.writeInt(seg.count);
+				out.writeLong(seg.firstId);
+				out.writeLong(seg.lastId);
+			}
+			out.writeLong(indexPos);
+			out.writeInt(WorkCache.MAGIC);
+			out.close();
+			out = null;
+			File cacheFile = cache.getFile();
+			cacheFile.delete();
+			if (!tmpFile.renameTo(cacheFile))
+				throw new IOException("cannot rename " + tmpFile);
+			return cache;
+		} catch (IOException e) {
+			fail(e);
+			return null;
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Remove the incomplete cache file.
+	 */
+	public void abort() {
+		if (out != null) {
+			try {
+				out.close();
+			} catch (IOException e) {
+				// ignore
+			}
+			out = null;
+		}
+		deflater.end();
+		tmpFile.delete();
+	}
+
+	private void fail(IOException e) {
+		System.out.println("Cannot write work cache for " + input + ": " + e.getMessage());
+		abort();
+	}
+
+	private void startElement(byte type, long id) {
+		if (type != segType || len >= SEGMENT_SIZE) {
+			flushSegment();
+			if (out == null)
+				return;
+			segType = type;
+			firstId = id;
+		}
+		writeSigned(id - lastId);
+		lastId = id;
+	}
+
+	private void endElement() {
+		count++;
+	}
+
+	private void flushSegment() {
+		if (count > 0) {
+			try {
+				deflater.reset();
+				deflater.setInput(buf, 0, len);
+				deflater.finish();
+				int n = 0;
+				while (!deflater.finished()) {
+					if (n == compressed.length)
+						compressed = Arrays.copyOf(compressed, compressed.length * 2);
+					n += deflater.deflate(compressed, n, compressed.length - n);
+				}
+				out.write(compressed, 0, n);
+				cache.segments.add(new WorkCache.Segment(segType, filePos, n, len, count, firstId, lastId));
+				filePos += n;
+			} catch (IOException e) {
+				fail(e);
+			}
+		}
+		// each segment can be decoded without the previous ones
+		len = 0;
+		count = 0;
+		strings.clear();
+		lastId = 0;
+		lastLat = lastLon = 0;
+		lastRef = 0;
+		Arrays.fill(lastMemRefs, 0);
+	}
+
+	private void writeTags(Element el) {
+		writeVarint(el.getTagCount());
+		Iterator<Element.Tag> iter = el.tagsIterator();
+		while (iter.hasNext()) {
+			Element.Tag tag = iter.next();
+			writeString(tag.key);
+			writeString(tag.value);
+		}
+	}
+
+	/**
+	 * Write a string. Strings which were already written in this segment are
+	 * stored as index + 1 into the string table, new strings as 0 followed by the
+	 * UTF-8 bytes.
+	 */
+	private void writeString(String s) {
+		Integer pos = strings.get(s);
+		if (pos != null) {
+			writeVarint(pos + 1);
+			return;
+		}
+		strings.put(s, strings.size());
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		writeVarint(0);
+		writeVarint(bytes.length);
+		ensureCapacity(bytes.length);
+		System.arraycopy(bytes, 0, buf, len, bytes.length);
+		len += bytes.length;
+	}
+
+	private void writeSigned(long v) {
+		writeVarint((v << 1) ^ (v >> 63));
+	}
+
+	private void writeVarint(long v) {
+		ensureCapacity(10);
+		while ((v & ~0x7fL) != 0) {
+			buf[len++] = (byte) ((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		buf[len++] = (byte) v;
+	}
+
+	private void ensureCapacity(int n) {
+		if (len + n > buf.length)
+			buf = Arrays.copyOf(buf, Math.max(len + n, buf.length * 2));
+	}
+}
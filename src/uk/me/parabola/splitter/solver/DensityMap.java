@@ -139,6 +139,27 @@ public class DensityMap {
 		return ++nodeMap[x][y];
 	}
 
+	/**
+	 * Add the node counts of another density map with the same bounds and resolution.
+	 * The other map must not be used afterwards, its columns may be reused.
+	 * @param other the other map
+	 */
+	public void merge(DensityMap other) {
+		assert width == other.width && height == other.height && shift == other.shift;
+		for (int x = 0; x < width; x++) {
+			int[] col = other.nodeMap[x];
+			if (col == null)
+				continue;
+			if (nodeMap[x] == null)
+				nodeMap[x] = col;
+			else {
+				for (int y = 0; y < height; y++)
+					nodeMap[x][y] += col[y];
+			}
+		}
+		totalNodeCount += other.totalNodeCount;
+	}
+
 	public long getNodeCount() {
 		return totalNodeCount;
 	}
@@ -17,24 +17,32 @@ import uk.me.parabola.splitter.AbstractMapProcessor;
 import uk.me.parabola.splitter.Area;
 import uk.me.parabola.splitter.MapDetails;
 import uk.me.parabola.splitter.Node;
+import uk.me.parabola.splitter.NodeBatch;
 import uk.me.parabola.splitter.RoundingUtils;
+import uk.me.parabola.splitter.ShardableProcessor;
 import uk.me.parabola.splitter.args.SplitterParams;
 
 /**
  * Builds up a density map.
  */
-class DensityMapCollector extends AbstractMapProcessor{
+class DensityMapCollector extends AbstractMapProcessor implements ShardableProcessor {
 	private final DensityMap densityMap;
 	private final MapDetails details = new MapDetails();
 	private Area bounds;
 	private final boolean ignoreBoundsTags;
+	private final int resolution;
 	private int files;
 	
 
 	public DensityMapCollector(SplitterParams mainOptions) {
+		this(mainOptions.getResolution(), mainOptions.getIgnoreOsmBounds());
+	}
+
+	private DensityMapCollector(int resolution, boolean ignoreBoundsTags) {
 		Area densityBounds = new Area(-0x400000, -0x800000, 0x400000, 0x800000);
-		densityMap = new DensityMap(densityBounds, mainOptions.getResolution());
-		this.ignoreBoundsTags = mainOptions.getIgnoreOsmBounds();
+		densityMap = new DensityMap(densityBounds, resolution);
+		this.resolution = resolution;
+		this.ignoreBoundsTags = ignoreBoundsTags;
 	}
 
 	@Override
@@ -49,6 +57,24 @@ class DensityMapCollector extends AbstractMapProcessor{
 	public boolean skipRels() {
 		return true;
 	}
+	@Override
+	public boolean useBatches() {
+		return true;
+	}
+
+	@Override
+	public ShardableProcessor createShard() {
+		return new DensityMapCollector(resolution, ignoreBoundsTags);
+	}
+
+	@Override
+	public void mergeShard(ShardableProcessor shard) {
+		DensityMapCollector other = (DensityMapCollector) shard;
+		densityMap.merge(other.densityMap);
+		details.addToBounds(other.details);
+		if (other.bounds != null)
+			boundTag(other.bounds);
+	}
 
 	@Override 
 	public void startFile() {
@@ -75,6 +101,16 @@ class DensityMapCollector extends AbstractMapProcessor{
 		details.addToBounds(glat, glon);
 	}
 
+	@Override
+	public void processNodes(NodeBatch nodes) {
+		for (int i = 0; i < nodes.size(); i++) {
+			int glat = nodes.getMapLat(i);
+			int glon = nodes.getMapLon(i);
+			densityMap.addNode(glat, glon);
+			details.addToBounds(glat, glon);
+		}
+	}
+
 	
 	/**
 	 * Check if a bounds tag was found. If not,
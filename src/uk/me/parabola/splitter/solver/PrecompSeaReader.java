@@ -18,8 +18,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.LineNumberReader;
-import java.io.Reader;
-import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.regex.Pattern;
@@ -86,15 +84,15 @@ public class PrecompSeaReader {
 			if (is != null) {
 				try {
 					if (tileName.endsWith(".pbf")) {
-						BinaryMapParser binParser = new BinaryMapParser(processor, null, 0);
+						BinaryMapParser binParser = new BinaryMapParser(processor, 0);
 						BlockInputStream blockinput = (new BlockInputStream(is, binParser));
 						blockinput.process();
 						blockinput.close();
 					} else {
 						// No, try XML.
-						try (Reader reader = new InputStreamReader(is, Charset.forName("UTF-8"));) {
+						try (InputStream xmlStream = is) {
 							OSMXMLParser parser = new OSMXMLParser(processor, true);
-							parser.setReader(reader);
+							parser.setInputStream(xmlStream);
 							parser.parse();
 						}
 					}
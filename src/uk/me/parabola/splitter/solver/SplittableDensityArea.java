@@ -921,6 +921,7 @@ public class SplittableDensityArea {
 				}
 			}
 			Area area = new Area(r.y,r.x,(int)r.getMaxY(),(int)r.getMaxX());
+			area.setEstimatedNodes(tile.getCount());
 			if (!beQuiet){
 				String note;
 				if (tile.getCount() > maxNodes)
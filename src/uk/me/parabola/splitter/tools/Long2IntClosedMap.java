@@ -41,6 +41,8 @@ public class Long2IntClosedMap implements Long2IntClosedMapFunction{
 	private static final int TOP_ID_SHIFT = Long.numberOfTrailingZeros(TOP_ID_MASK);  
 	
 	private File tmpFile;
+	/** true if the file was written for other processes and must not be deleted */
+	private boolean keepFile;
 	private final String name;
 	private LongArrayList index;	// stores the higher 34 bits of the key which doesn't change frequently
 	private IntArrayList bounds;
@@ -65,6 +67,26 @@ public class Long2IntClosedMap implements Long2IntClosedMapFunction{
 		this.unassigned = unassigned;
 	}
 
+	/**
+	 * Create a read-only map from a file that was written with {@link #saveForSeqAccess(File)}.
+	 * The map allows only sequential access, the file is not deleted. 
+	 * @param name the name of the map
+	 * @param file the file
+	 * @param unassigned the value for keys which are not in the map
+	 * @return the map
+	 */
+	public static Long2IntClosedMap loadForSeqAccess(String name, File file, int unassigned) {
+		Long2IntClosedMap map = new Long2IntClosedMap(name, 0, unassigned);
+		map.keys = null;
+		map.index = null;
+		map.bounds = null;
+		map.tmpFile = file;
+		map.keepFile = true;
+		// each pair has 12 bytes, the last one is the sentinel
+		map.size = (int) (file.length() / 12 - 1);
+		return map;
+	}
+
 	@Override
 	public int add(long key, int val) {
 		if (key == 0 || key == Long.MAX_VALUE){
@@ -97,9 +119,27 @@ public class Long2IntClosedMap implements Long2IntClosedMapFunction{
 
 	@Override
 	public void switchToSeqAccess(File directory) throws IOException {
+		if (keys == null)
+			return; // already read-only
 		tmpFile = File.createTempFile(name,null,directory);
 		tmpFile.deleteOnExit();
-		try (FileOutputStream fos = new FileOutputStream(tmpFile);
+		writeSeq(tmpFile);
+		keys = null;
+		vals = null;
+		index = null;
+		bounds = null;
+		currentKey = Long.MIN_VALUE;
+		System.out.println("Wrote " + size + " " + name + " pairs to " + tmpFile.getAbsolutePath());
+	}
+
+	@Override
+	public void saveForSeqAccess(File file) throws IOException {
+		writeSeq(file);
+		System.out.println("Wrote " + size + " " + name + " pairs to " + file.getAbsolutePath());
+	}
+
+	private void writeSeq(File file) throws IOException {
+		try (FileOutputStream fos = new FileOutputStream(file);
 				BufferedOutputStream stream = new BufferedOutputStream(fos);
 				DataOutputStream dos = new DataOutputStream(stream)) {
 			long lastKey = Long.MIN_VALUE;
@@ -127,12 +167,6 @@ public class Long2IntClosedMap implements Long2IntClosedMapFunction{
 			// write sentinel
 			dos.writeLong(Long.MAX_VALUE);
 			dos.writeInt(Integer.MAX_VALUE);
-			keys = null;
-			vals = null;
-			index = null;
-			bounds = null;
-			currentKey = Long.MIN_VALUE;
-			System.out.println("Wrote " + size + " " + name + " pairs to " + tmpFile.getAbsolutePath());
 		}
 	}
 
@@ -189,6 +223,17 @@ public class Long2IntClosedMap implements Long2IntClosedMapFunction{
 
 	}
 
+	@Override
+	public long nextKeySeq() {
+		if (currentKey == Long.MIN_VALUE) {
+			dis = null;
+			readPair();
+		} else if (currentKey != Long.MAX_VALUE) {
+			readPair();
+		}
+		return currentKey;
+	}
+
 	private void readPair() {
 		try {
 			if (dis == null)
@@ -209,6 +254,10 @@ public class Long2IntClosedMap implements Long2IntClosedMapFunction{
 
 	@Override
 	public void finish() {
+		if (keepFile) {
+			close();
+			return;
+		}
 		if (tmpFile != null && tmpFile.exists()){
 			close();
 			tmpFile.delete();
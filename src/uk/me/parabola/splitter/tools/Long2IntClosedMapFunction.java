@@ -40,6 +40,14 @@ public interface Long2IntClosedMapFunction {
 	 * @return unassigned if the current key is higher, the value if the key matches  
 	 */
 	public int getSeq(long key);
+
+	/**
+	 * Move to the next pair of a map that was written to a temp file. The value
+	 * is returned by {@link #getSeq(long)} with the returned key.
+	 * Use {@link #close()} to start from the beginning.
+	 * @return the key of the next pair or Long.MAX_VALUE at the end of the map
+	 */
+	public long nextKeySeq();
 	
 	public long size();
 	public int defaultReturnValue();
@@ -62,6 +70,13 @@ public interface Long2IntClosedMapFunction {
 	 * @throws IOException
 	 */
 	void switchToSeqAccess(File directory) throws IOException;
+	/**
+	 * Write the data stored in the map to a file that is kept, so that it can
+	 * be read by other processes, see {@link Long2IntClosedMap#loadForSeqAccess(String, File, int)}.
+	 * @param file the file
+	 * @throws IOException
+	 */
+	void saveForSeqAccess(File file) throws IOException;
 	/**
 	 * Return the position of the key if found in the map 
 	 * @param key 
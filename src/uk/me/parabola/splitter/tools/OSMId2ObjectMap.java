@@ -13,7 +13,11 @@
 package uk.me.parabola.splitter.tools;
 
 
+import java.util.Arrays;
+
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 
 /**
@@ -89,5 +93,21 @@ public class OSMId2ObjectMap<V>{
 	public boolean containsKey(long key) {
 		return get(key) != null; 
 	}
+
+	/**
+	 * @return the keys in ascending order
+	 */
+	public long[] keys() {
+		long[] keys = new long[size];
+		int n = 0;
+		for (Long2ObjectMap.Entry<Int2ObjectOpenHashMap<V>> e : topMap.long2ObjectEntrySet()) {
+			long topVal = e.getLongKey() << TOP_ID_SHIFT;
+			IntIterator iter = e.getValue().keySet().iterator();
+			while (iter.hasNext())
+				keys[n++] = topVal | iter.nextInt();
+		}
+		Arrays.sort(keys);
+		return keys;
+	}
 }
 
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter.tools;
+
+/**
+ * A bounded ring buffer for exactly one producer thread and one consumer
+ * thread. No locks are used: the producer only writes the tail, the consumer
+ * only writes the head. The methods never block, the caller has to decide
+ * how to wait.
+ *
+ * @author agent
+ * @param <E> the type of the elements
+ */
+public class SpscQueue<E> {
+	private final Object[] buffer;
+	/** position of the next element to poll, only written by the consumer */
+	private volatile long head;
+	/** position of the next element to offer, only written by the producer */
+	private volatile long tail;
+
+	/**
+	 * @param capacity the maximum number of elements in the queue
+	 */
+	public SpscQueue(int capacity) {
+		buffer = new Object[capacity];
+	}
+
+	/**
+	 * Add an element, may only be called by the producer thread.
+	 * @param e the element, not null
+	 * @return false if the queue is full
+	 */
+	public boolean offer(E e) {
+		long t = tail;
+		if (t - head >= buffer.length)
+			return false;
+		buffer[(int) (t % buffer.length)] = e;
+		// the volatile write publishes the element
+		tail = t + 1;
+		return true;
+	}
+
+	/**
+	 * Remove an element, may only be called by the consumer thread.
+	 * @return the oldest element or null if the queue is empty
+	 */
+	@SuppressWarnings("unchecked")
+	public E poll() {
+		long h = head;
+		if (h == tail)
+			return null;
+		int pos = (int) (h % buffer.length);
+		E e = (E) buffer[pos];
+		buffer[pos] = null;
+		head = h + 1;
+		return e;
+	}
+
+	/**
+	 * @return the number of elements, may be outdated when it is returned
+	 */
+	public int size() {
+		return (int) (tail - head);
+	}
+
+	public boolean isEmpty() {
+		return head == tail;
+	}
+
+	public int capacity() {
+		return buffer.length;
+	}
+}
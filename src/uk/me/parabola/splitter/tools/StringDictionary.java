@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter.tools;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A thread safe dictionary which maps strings to int ids. The ids are
+ * assigned in ascending order and are never removed. The UTF-8 encoding
+ * of each string is stored together with the string so that writers don't
+ * have to encode it again.
+ *
+ * @author agent
+ */
+public class StringDictionary {
+	/** returned by {@link #getId(String)} when the dictionary is full */
+	public static final int NOT_INTERNED = -1;
+
+	private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+	private final int maxSize;
+	private volatile String[] strings = new String[256];
+	private volatile byte[][] bytes = new byte[256][];
+	private int size;
+
+	/**
+	 * @param maxSize the maximum number of strings, further strings are not added
+	 */
+	public StringDictionary(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Get the id of a string, the string is added if it is not yet known.
+	 * @param s the string
+	 * @return the id or {@link #NOT_INTERNED} if the dictionary is full
+	 */
+	public int getId(String s) {
+		Integer id = ids.get(s);
+		return id != null ? id : add(s);
+	}
+
+	private synchronized int add(String s) {
+		Integer id = ids.get(s);
+		if (id != null)
+			return id;
+		if (size >= maxSize)
+			return NOT_INTERNED;
+		if (size == strings.length) {
+			bytes = Arrays.copyOf(bytes, size * 2);
+			strings = Arrays.copyOf(strings, size * 2);
+		}
+		// the string must be stored before the id is published
+		bytes[size] = s.getBytes(StandardCharsets.UTF_8);
+		strings[size] = s;
+		ids.put(s, size);
+		return size++;
+	}
+
+	/**
+	 * @param id an id returned by {@link #getId(String)}
+	 * @return the string
+	 */
+	public String getString(int id) {
+		return strings[id];
+	}
+
+	/**
+	 * @param id an id returned by {@link #getId(String)}
+	 * @return the UTF-8 encoded string, the array must not be modified
+	 */
+	public byte[] getBytes(int id) {
+		return bytes[id];
+	}
+
+	/**
+	 * @return the number of strings in the dictionary
+	 */
+	public synchronized int size() {
+		return size;
+	}
+}
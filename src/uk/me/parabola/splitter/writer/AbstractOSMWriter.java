@@ -34,7 +34,12 @@ public abstract class AbstractOSMWriter implements OSMWriter{
 	protected final int mapId;
 	protected final Rectangle bbox;
 	protected int versionMethod; 
-	
+	/** true after the output file was created */
+	private boolean created;
+	/** true while the output file is open */
+	private boolean open;
+	/** used by the {@link WriterPool} to find the least recently used writer */
+	long lastUse;
 
 	public AbstractOSMWriter(Area bounds, File outputDir, int mapId, int extra) {
 		this.mapId = mapId;
@@ -61,6 +66,78 @@ public abstract class AbstractOSMWriter implements OSMWriter{
 
 	}
 	
+	/**
+	 * Create or reopen the output file and allocate the buffers.
+	 * @param append true if the file was already created and suspended
+	 * @throws IOException
+	 */
+	protected abstract void openFile(boolean append) throws IOException;
+
+	/**
+	 * Write the pending data, close the output file and free the buffers.
+	 * @param last true if the file is complete
+	 * @throws IOException
+	 */
+	protected abstract void closeFile(boolean last) throws IOException;
+
+	/**
+	 * The output file is not opened here, see {@link #open()}.
+	 */
+	@Override
+	public void initForWrite() {
+		created = false;
+		open = false;
+	}
+
+	/**
+	 * Open the output file if it is not open. A suspended file is reopened in
+	 * append mode.
+	 */
+	public void open() {
+		if (open)
+			return;
+		try {
+			openFile(created);
+		} catch (IOException e) {
+			System.out.println("Could not open or write file header. Reason: " + e.getMessage());
+			throw new RuntimeException(e);
+		}
+		created = true;
+		open = true;
+	}
+
+	public boolean isOpen() {
+		return open;
+	}
+
+	/**
+	 * Close the output file until the next call of {@link #open()}.
+	 */
+	public void suspend() {
+		if (!open)
+			return;
+		open = false;
+		try {
+			closeFile(false);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not suspend writing of file for area " + mapId, e);
+		}
+	}
+
+	/**
+	 * Complete the output file, it is created if no element was written.
+	 */
+	@Override
+	public void finishWrite() {
+		open();
+		open = false;
+		try {
+			closeFile(true);
+		} catch (IOException e) {
+			System.out.println("Could not write end of file: " + e);
+		}
+	}
+
 	public Area getBounds() {
 		return bounds;
 	}
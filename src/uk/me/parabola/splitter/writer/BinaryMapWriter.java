@@ -17,37 +17,42 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 
 import uk.me.parabola.splitter.Area;
 import uk.me.parabola.splitter.Element;
 import uk.me.parabola.splitter.Node;
+import uk.me.parabola.splitter.NodeBlock;
 import uk.me.parabola.splitter.Relation;
 import uk.me.parabola.splitter.Utils;
 import uk.me.parabola.splitter.Version;
 import uk.me.parabola.splitter.Way;
-import uk.me.parabola.splitter.Relation.Member;
 import crosby.binary.BinarySerializer;
 import crosby.binary.Osmformat;
-import crosby.binary.StringTable;
 import crosby.binary.Osmformat.DenseInfo;
 import crosby.binary.Osmformat.Relation.MemberType;
 import crosby.binary.file.BlockOutputStream;
 import crosby.binary.file.FileBlock;
 
 public class BinaryMapWriter extends AbstractOSMWriter {
+	/** pbf member types indexed by the member types of {@link Relation} */
+	private static final MemberType[] MEMBER_TYPES = { MemberType.NODE, MemberType.WAY, MemberType.RELATION };
 
 	protected PBFSerializer serializer;
 
 	private BlockOutputStream output;
 
+	/** the file, blocks of the input file are written directly */
+	private FileOutputStream fileStream;
+
 	protected boolean useDense = true;
 
 	protected boolean headerWritten = false;
 
 	private class PBFSerializer extends BinarySerializer {
+		/** used instead of the string table of the super class, see {@link #processBatch()} */
+		private final PbfStringTable stringTable = new PbfStringTable();
 
 		public PBFSerializer(BlockOutputStream output) {
 			super(output);
@@ -78,14 +83,8 @@ public class BinaryMapWriter extends AbstractOSMWriter {
 			 * table.
 			 */
 			public void addStringsToStringtable() {
-				StringTable stable = getStringTable();
 				for (T i : contents) {
-					Iterator<Element.Tag> tags = i.tagsIterator();
-					while (tags.hasNext()) {
-						Element.Tag tag = tags.next();
-						stable.incr(tag.getKey());
-						stable.incr(tag.getValue());
-					}
+					stringTable.incrTags(i);
 					if (!omit_metadata) {
 						// stable.incr(i.getUser().getName());
 					}
@@ -190,14 +189,13 @@ public class BinaryMapWriter extends AbstractOSMWriter {
 				}
 				// System.out.format("%d Dense ",nodes.size());
 				Osmformat.PrimitiveGroup.Builder builder = Osmformat.PrimitiveGroup.newBuilder();
-				StringTable stable = serializer.getStringTable();
 
 				long lastlat = 0, lastlon = 0, lastid = 0;
 				Osmformat.DenseNodes.Builder bi = Osmformat.DenseNodes.newBuilder();
 				boolean doesBlockHaveTags = false;
 				// Does anything in this block have tags?
 				for (Node i : contents) {
-					doesBlockHaveTags = doesBlockHaveTags || (i.tagsIterator().hasNext());
+					doesBlockHaveTags = doesBlockHaveTags || i.hasTags();
 				}
 				if (!omit_metadata) {
 					Osmformat.DenseInfo.Builder bdi = Osmformat.DenseInfo.newBuilder();
@@ -207,8 +205,9 @@ public class BinaryMapWriter extends AbstractOSMWriter {
 
 				for (Node i : contents) {
 					long id = i.getId();
-					int lat = mapDegrees(i.getLat());
-					int lon = mapDegrees(i.getLon());
+					// the serializer uses the default granularity of 100 nanodegrees
+					int lat = i.getFixedLat();
+					int lon = i.getFixedLon();
 					bi.addId(id - lastid);
 					lastid = id;
 					bi.addLon(lon - lastlon);
@@ -218,11 +217,9 @@ public class BinaryMapWriter extends AbstractOSMWriter {
 
 					// Then we must include tag information.
 					if (doesBlockHaveTags) {
-						Iterator<Element.Tag> tags = i.tagsIterator();
-						while (tags.hasNext()) {
-							Element.Tag t = tags.next();
-							bi.addKeysVals(stable.getIndex(t.getKey()));
-							bi.addKeysVals(stable.getIndex(t.getValue()));
+						for (int j = 0; j < i.getTagCount(); j++) {
+							bi.addKeysVals(stringTable.getKeyIndex(i, j));
+							bi.addKeysVals(stringTable.getValueIndex(i, j));
 						}
 						bi.addKeysVals(0); // Add delimiter.
 					}
@@ -242,21 +239,19 @@ public class BinaryMapWriter extends AbstractOSMWriter {
 					return null;
 				}
 				// System.out.format("%d Nodes ",nodes.size());
-				StringTable stable = serializer.getStringTable();
 				Osmformat.PrimitiveGroup.Builder builder = Osmformat.PrimitiveGroup.newBuilder();
 				for (Node i : contents) {
 					long id = i.getId();
-					int lat = mapDegrees(i.getLat());
-					int lon = mapDegrees(i.getLon());
+					// the serializer uses the default granularity of 100 nanodegrees
+					int lat = i.getFixedLat();
+					int lon = i.getFixedLon();
 					Osmformat.Node.Builder bi = Osmformat.Node.newBuilder();
 					bi.setId(id);
 					bi.setLon(lon);
 					bi.setLat(lat);
-					Iterator<Element.Tag> tags = i.tagsIterator();
-					while (tags.hasNext()) {
-						Element.Tag t = tags.next();
-						bi.addKeys(stable.getIndex(t.getKey()));
-						bi.addVals(stable.getIndex(t.getValue()));
+					for (int j = 0; j < i.getTagCount(); j++) {
+						bi.addKeys(stringTable.getKeyIndex(i, j));
+						bi.addVals(stringTable.getValueIndex(i, j));
 					}
 					if (!omit_metadata) {
 						bi.setInfo(serializeMetadata(i));
@@ -275,7 +270,6 @@ public class BinaryMapWriter extends AbstractOSMWriter {
 				}
 
 				// System.out.format("%d Ways ",contents.size());
-				StringTable stable = serializer.getStringTable();
 				Osmformat.PrimitiveGroup.Builder builder = Osmformat.PrimitiveGroup.newBuilder();
 				for (Way i : contents) {
 					Osmformat.Way.Builder bi = Osmformat.Way.newBuilder();
@@ -286,11 +280,9 @@ public class BinaryMapWriter extends AbstractOSMWriter {
 						bi.addRefs(id - lastid);
 						lastid = id;
 					}
-					Iterator<Element.Tag> tags = i.tagsIterator();
-					while (tags.hasNext()) {
-						Element.Tag t = tags.next();
-						bi.addKeys(stable.getIndex(t.getKey()));
-						bi.addVals(stable.getIndex(t.getValue()));
+					for (int j = 0; j < i.getTagCount(); j++) {
+						bi.addKeys(stringTable.getKeyIndex(i, j));
+						bi.addVals(stringTable.getValueIndex(i, j));
 					}
 					if (!omit_metadata) {
 						bi.setInfo(serializeMetadata(i));
@@ -303,11 +295,10 @@ public class BinaryMapWriter extends AbstractOSMWriter {
 
 		private class RelationGroup extends Prim<Relation> implements PrimGroupWriterInterface {
 			public void addStringsToStringtable() {
-				StringTable stable = serializer.getStringTable();
 				super.addStringsToStringtable();
 				for (Relation i : contents) {
-					for (Member j : i.getMembers()) {
-						stable.incr(j.getRole());
+					for (int j = 0; j < i.getMemberCount(); j++) {
+						stringTable.incr(i.getMemberRole(j));
 					}
 				}
 			}
@@ -318,35 +309,22 @@ public class BinaryMapWriter extends AbstractOSMWriter {
 				}
 
 				// System.out.format("%d Relations ",contents.size());
-				StringTable stable = serializer.getStringTable();
 				Osmformat.PrimitiveGroup.Builder builder = Osmformat.PrimitiveGroup.newBuilder();
 				for (Relation i : contents) {
 					Osmformat.Relation.Builder bi = Osmformat.Relation.newBuilder();
 					bi.setId(i.getId());
-					Member[] arr = new Member[i.getMembers().size()];
-					i.getMembers().toArray(arr);
 					long lastid = 0;
-					for (Member j : i.getMembers()) {
-						long id = j.getRef();
+					for (int j = 0; j < i.getMemberCount(); j++) {
+						long id = i.getMemberRef(j);
 						bi.addMemids(id - lastid);
 						lastid = id;
-						if (j.getType().equals("node")) {
-							bi.addTypes(MemberType.NODE);
-						} else if (j.getType().equals("way")) {
-							bi.addTypes(MemberType.WAY);
-						} else if (j.getType().equals("relation")) {
-							bi.addTypes(MemberType.RELATION);
-						} else {
-							assert (false); // Software bug: Unknown entity.
-						}
-						bi.addRolesSid(stable.getIndex(j.getRole()));
+						bi.addTypes(MEMBER_TYPES[i.getMemberType(j)]);
+						bi.addRolesSid(stringTable.getIndex(i.getMemberRole(j)));
 					}
 
-					Iterator<Element.Tag> tags = i.tagsIterator();
-					while (tags.hasNext()) {
-						Element.Tag t = tags.next();
-						bi.addKeys(stable.getIndex(t.getKey()));
-						bi.addVals(stable.getIndex(t.getValue()));
+					for (int j = 0; j < i.getTagCount(); j++) {
+						bi.addKeys(stringTable.getKeyIndex(i, j));
+						bi.addVals(stringTable.getValueIndex(i, j));
 					}
 					if (!omit_metadata) {
 						bi.setInfo(serializeMetadata(i));
@@ -436,6 +414,37 @@ public class BinaryMapWriter extends AbstractOSMWriter {
 			}
 		}
 
+		/**
+		 * Same as in the super class, but with a string table that uses the
+		 * ids of the tag dictionary.
+		 */
+		@Override
+		public void processBatch() {
+			if (groups.isEmpty())
+				return;
+			Osmformat.PrimitiveBlock.Builder primblock = Osmformat.PrimitiveBlock.newBuilder();
+			stringTable.clear();
+			for (PrimGroupWriterInterface i : groups)
+				i.addStringsToStringtable();
+			stringTable.finish();
+			for (PrimGroupWriterInterface i : groups) {
+				Osmformat.PrimitiveGroup g = i.serialize();
+				if (g != null)
+					primblock.addPrimitivegroup(g);
+			}
+			primblock.setStringtable(stringTable.serialize());
+			primblock.setGranularity(granularity);
+			primblock.setDateGranularity(date_granularity);
+			try {
+				output.write(FileBlock.newInstance("OSMData", primblock.build().toByteString(), null));
+			} catch (IOException e) {
+				throw new RuntimeException("Unable to write OSM data.", e);
+			} finally {
+				batch_size = 0;
+				groups.clear();
+			}
+		}
+
 		/** Write empty header block when there's no bounds entity. */
 		public void writeEmptyHeaderIfNeeded() {
 			if (headerWritten) {
@@ -450,16 +459,15 @@ public class BinaryMapWriter extends AbstractOSMWriter {
 		super(bounds, outputDir, mapId, extra);
 	}
 
-	public void initForWrite() {
+	@Override
+	protected void openFile(boolean append) throws IOException {
 		String filename = String.format(Locale.ROOT, "%08d.osm.pbf", mapId);
-		try {
-			output = new BlockOutputStream(new FileOutputStream(new File(outputDir, filename)));
-			serializer = new PBFSerializer(output);
+		fileStream = new FileOutputStream(new File(outputDir, filename), append);
+		output = new BlockOutputStream(fileStream);
+		serializer = new PBFSerializer(output);
+		// a pbf file is a sequence of blocks, so more blocks can simply be appended
+		if (!append)
 			writeHeader();
-		} catch (IOException e) {
-			System.out.println("Could not open or write file header. Reason: " + e.getMessage());
-			throw new RuntimeException(e);
-		}
 	}
 
 	private void writeHeader() {
@@ -496,15 +504,14 @@ public class BinaryMapWriter extends AbstractOSMWriter {
 		headerWritten = true;
 	}
 
-	public void finishWrite() {
-		try {
-			serializer.switchTypes();
-			serializer.processBatch();
-			serializer.close();
-			serializer = null;
-		} catch (IOException e) {
-			System.out.println("Could not write end of file: " + e);
-		}
+	@Override
+	protected void closeFile(boolean last) throws IOException {
+		serializer.switchTypes();
+		serializer.processBatch();
+		serializer.close();
+		serializer = null;
+		output = null;
+		fileStream = null;
 	}
 
 	public void write(Node node) {
@@ -518,4 +525,16 @@ public class BinaryMapWriter extends AbstractOSMWriter {
 	public void write(Relation relation) {
 		serializer.processor.process(relation);
 	}
+
+	/**
+	 * Copy a block of nodes from a pbf input file unchanged to the output file.
+	 * @param block the block
+	 * @throws IOException
+	 */
+	public void write(NodeBlock block) throws IOException {
+		// write the pending elements first to keep the order
+		serializer.switchTypes();
+		serializer.processBatch();
+		fileStream.write(block.getRawBlock());
+	}
 }
@@ -20,18 +20,18 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Locale;
 import java.util.Map;
 
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
 import uk.me.parabola.splitter.Area;
 import uk.me.parabola.splitter.Element;
 import uk.me.parabola.splitter.Node;
 import uk.me.parabola.splitter.Relation;
-import uk.me.parabola.splitter.Relation.Member;
 import uk.me.parabola.splitter.Utils;
 import uk.me.parabola.splitter.Way;
+import uk.me.parabola.splitter.tools.StringDictionary;
 
 /**
  * Implements the needed methods to write the result in the o5m format. 
@@ -88,6 +88,12 @@ public class O5mMapWriter extends AbstractOSMWriter{
 	  // has value of this element as a link back to the hash table;
 	  // a -1 element indicates that the string table entry is not used; 	
 	private short[] stw__tabhash;
+	  // string pairs of the tag dictionary are found by their ids, the key is
+	  // the pair of ids, the value the index in stw__tab[];
+	private Long2IntOpenHashMap stw__pairs;
+	  // the pair of ids of this element or NO_PAIR if it is not in stw__pairs
+	private long[] stw__tabpair;
+	private static final long NO_PAIR = -1;
 	
 	private byte[] numberConversionBuf;
 
@@ -150,7 +156,8 @@ public class O5mMapWriter extends AbstractOSMWriter{
 		stw_reset();
 	}
 	
-	public void initForWrite() {
+	@Override
+	protected void openFile(boolean append) throws IOException {
 		  // has table; elements point to matching strings in stw__tab[];
 		  // -1: no matching element;
 		stw__hashtab = new short[STW_HASH_TAB_MAX];
@@ -162,20 +169,23 @@ public class O5mMapWriter extends AbstractOSMWriter{
 		  // has value of this element as a link back to the hash table;
 		  // a -1 element indicates that the string table entry is not used; 	
 		stw__tabhash = new short[STW__TAB_MAX];
+		stw__pairs = new Long2IntOpenHashMap(STW__TAB_MAX);
+		stw__pairs.defaultReturnValue(-1);
+		stw__tabpair = new long[STW__TAB_MAX];
 		lastRef = new long[3];
 		numberConversionBuf = new byte[60];
 		resetVars();
 
 		String filename = String.format(Locale.ROOT, "%08d.o5m", mapId);
-		try {
-			os = new BufferedOutputStream(new FileOutputStream(new File(outputDir, filename)));
-			os.write(RESET_FLAG);
-			writeHeader();
-			writeBBox();
-		} catch (IOException e) {
-			System.out.println("Could not open or write file header. Reason: " + e.getMessage());
-			throw new RuntimeException(e);
+		os = new BufferedOutputStream(new FileOutputStream(new File(outputDir, filename), append));
+		if (append) {
+			// the next element starts with a reset of the delta values and the string table
+			lastWrittenDatasetType = 0;
+			return;
 		}
+		os.write(RESET_FLAG);
+		writeHeader();
+		writeBBox();
 	}
 
 	private void writeHeader() throws IOException {
@@ -202,21 +212,22 @@ public class O5mMapWriter extends AbstractOSMWriter{
 		lastWrittenDatasetType = fileType;
 	}
 
-	public void finishWrite() {
-		try {
+	@Override
+	protected void closeFile(boolean last) throws IOException {
+		if (last)
 			os.write(EOD_FLAG);
-			os.close();
-			stw__hashtab = null;
-			stw__tabprev = null;
-			stw__tabnext = null;
-			stw__tabhash = null;
-			lastRef = null;
-			numberConversionBuf = null;
-			stw__tab = null;
-			//System.out.println(mapId + " collisions=" + Utils.format(countCollisions));
-		} catch (IOException e) {
-			System.out.println("Could not write end of file: " + e);
-		}
+		os.close();
+		os = null;
+		stw__hashtab = null;
+		stw__tabprev = null;
+		stw__tabnext = null;
+		stw__tabhash = null;
+		stw__pairs = null;
+		stw__tabpair = null;
+		lastRef = null;
+		numberConversionBuf = null;
+		stw__tab = null;
+		//System.out.println(mapId + " collisions=" + Utils.format(countCollisions));
 	}
 
 	@Override
@@ -228,8 +239,8 @@ public class O5mMapWriter extends AbstractOSMWriter{
 		long delta = node.getId() - lastNodeId; lastNodeId = node.getId(); 
 		writeSignedNum(delta, stream);
 		writeVersion(node, stream);
-		int o5Lon = (int)(node.getLon() * FACTOR);
-		int o5Lat = (int)(node.getLat() * FACTOR);
+		int o5Lon = node.getFixedLon();
+		int o5Lat = node.getFixedLat();
 		int deltaLon = o5Lon - lastLon; lastLon = o5Lon;
 		int deltaLat = o5Lat - lastLat; lastLat = o5Lat;
 		writeSignedNum(deltaLon, stream);
@@ -269,8 +280,8 @@ public class O5mMapWriter extends AbstractOSMWriter{
 		writeSignedNum(delta, stream);
 		writeVersion(rel, stream);
 		ByteArrayOutputStream memStream = new ByteArrayOutputStream(256);
-		for (Member mem: rel.getMembers()){
-			writeRelRef(mem, memStream);
+		for (int i = 0; i < rel.getMemberCount(); i++){
+			writeRelRef(rel, i, memStream);
 		}
 		writeUnsignedNum(memStream.size(),stream);
 		memStream.writeTo(stream);
@@ -278,21 +289,13 @@ public class O5mMapWriter extends AbstractOSMWriter{
 		writeDataset(REL_DATASET,stream);
 	}
 
-	private void writeRelRef(Member mem, ByteArrayOutputStream memStream) throws IOException {
-		int refType = 0;
-		String type = mem.getType(); 
-		if ("node".equals(type)) 
-			refType = 0;
-		else if ("way".equals(type)) 
-			refType = 1;
-		else if ("relation".equals(type)) 
-			refType = 2;
-		else {
-			assert (false); // Software bug: Unknown entity.
-		}
-		long delta = mem.getRef() - lastRef[refType]; lastRef[refType] = mem.getRef(); 
+	private void writeRelRef(Relation rel, int i, ByteArrayOutputStream memStream) throws IOException {
+		// the member types of Relation use the o5m numbering
+		int refType = rel.getMemberType(i);
+		long ref = rel.getMemberRef(i);
+		long delta = ref - lastRef[refType]; lastRef[refType] = ref; 
 		writeSignedNum(delta, memStream);
-		stw_write(REL_REF_TYPES[refType] + mem.getRole(), null, memStream); 
+		stw_write(REL_REF_TYPES[refType] + rel.getMemberRole(i), null, memStream); 
 	}
 
 	private void writeVersion (Element element, OutputStream stream) throws IOException {
@@ -310,12 +313,46 @@ public class O5mMapWriter extends AbstractOSMWriter{
 	}
 	
 	private void writeTags(Element element, OutputStream stream) throws IOException {
-		if (!element.hasTags())
+		for (int i = 0; i < element.getTagCount(); i++) {
+			int keyId = element.getTagKeyId(i);
+			int valueId = element.getTagValueId(i);
+			if (keyId != StringDictionary.NOT_INTERNED && valueId != StringDictionary.NOT_INTERNED)
+				stw_write(keyId, valueId, stream);
+			else
+				stw_write(element.getTagKey(i), element.getTagValue(i), stream);
+		}
+	}
+
+	/**
+	 * Write a string pair of the tag dictionary. Same as {@link #stw_write(String, String, OutputStream)},
+	 * but the UTF-8 bytes are taken from the dictionary and the pair is found by its ids.
+	 */
+	private void stw_write(int keyId, int valueId, OutputStream stream) throws IOException {
+		s1Bytes = Element.TAGS.getBytes(keyId);
+		s2Bytes = Element.TAGS.getBytes(valueId);
+		long pair = (long) keyId << 32 | valueId;
+		int i = stw__pairs.get(pair);
+		if (i >= 0) {
+			int ref = stw__tabi - i;
+			if (ref <= 0)
+				ref += STW__TAB_MAX;
+			writeUnsignedNum(ref, stream);
+			return;
+		}
+		stream.write(0x00);
+		stream.write(s1Bytes);
+		stream.write(0x00);
+		stream.write(s2Bytes);
+		stream.write(0x00);
+		if (s1Bytes.length + s2Bytes.length > STW_TAB_STR_MAX)
 			return;
-		Iterator<Element.Tag> it = element.tagsIterator();
-		while (it.hasNext()) {
-			Element.Tag entry = it.next();
-			stw_write(entry.key, entry.value, stream);
+		stw__free();
+		stw__tab[0][stw__tabi] = s1Bytes;
+		stw__tab[1][stw__tabi] = s2Bytes;
+		stw__tabpair[stw__tabi] = pair;
+		stw__pairs.put(pair, stw__tabi);
+		if (++stw__tabi >= STW__TAB_MAX) { // index overflow
+			stw__tabi= 0;  // restart index
 		}
 	}
 
@@ -367,25 +404,7 @@ public class O5mMapWriter extends AbstractOSMWriter{
 		}  // end   try to find a matching string (pair) in string table
 		// here: there is no matching string (pair) in the table
 
-		// free new element - if still being used 
-		{
-			int h0;  // hash value of old element
-
-			h0 = stw__tabhash[stw__tabi];
-			if(h0 >= 0) {  // new element in string table is still being used
-				// delete old element
-				if(stw__tabnext[stw__tabi] == stw__tabi)
-					// self-chain, i.e., only this element
-					stw__hashtab[h0]= -1;  // invalidate link in hash table
-				else {  // one or more other elements in chain
-					stw__hashtab[h0] = stw__tabnext[stw__tabi];  // just to ensure
-					// that hash entry does not point to deleted element
-					// now unchain deleted element
-					stw__tabprev[stw__tabnext[stw__tabi]]= stw__tabprev[stw__tabi];
-					stw__tabnext[stw__tabprev[stw__tabi]]= stw__tabnext[stw__tabi];
-				}  // end   one or more other elements in chain
-			}  // end   next element in string table is still being used
-		}  // end   free new element - if still being used
+		stw__free();
 
 		// enter new string table element data  
 		{
@@ -415,6 +434,33 @@ public class O5mMapWriter extends AbstractOSMWriter{
 		}  // end   enter new string table element data
 	}
 
+	/**
+	 * Free the element stw__tabi of the string table if it is still being used.
+	 */
+	private void stw__free() {
+		int h0;  // hash value of old element
+
+		h0 = stw__tabhash[stw__tabi];
+		if(h0 >= 0) {  // new element in string table is still being used
+			// delete old element
+			if(stw__tabnext[stw__tabi] == stw__tabi)
+				// self-chain, i.e., only this element
+				stw__hashtab[h0]= -1;  // invalidate link in hash table
+			else {  // one or more other elements in chain
+				stw__hashtab[h0] = stw__tabnext[stw__tabi];  // just to ensure
+				// that hash entry does not point to deleted element
+				// now unchain deleted element
+				stw__tabprev[stw__tabnext[stw__tabi]]= stw__tabprev[stw__tabi];
+				stw__tabnext[stw__tabprev[stw__tabi]]= stw__tabnext[stw__tabi];
+			}  // end   one or more other elements in chain
+			stw__tabhash[stw__tabi] = -1;
+		}  // end   next element in string table is still being used
+		if (stw__tabpair[stw__tabi] != NO_PAIR) {
+			stw__pairs.remove(stw__tabpair[stw__tabi]);
+			stw__tabpair[stw__tabi] = NO_PAIR;
+		}
+	}
+
 	int stw__getref(final int stri) {
 		int strie;  // index of last occurrence 
 		int ref; 
@@ -449,6 +495,8 @@ public class O5mMapWriter extends AbstractOSMWriter{
 		stw__tabi = 0;
 		Arrays.fill(stw__tabhash, (short)-1);
 		Arrays.fill(stw__hashtab, (short)-1);
+		Arrays.fill(stw__tabpair, NO_PAIR);
+		stw__pairs.clear();
 	}  
 		 	
 	/**
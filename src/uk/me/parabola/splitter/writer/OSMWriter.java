@@ -38,7 +38,7 @@ public interface OSMWriter {
 	public int getMapId();
 	
 	/**
-	 * open output file, allocate buffers etc.
+	 * prepare writing, the output file may be opened with the first element
 	 */
 	public abstract void initForWrite();
 
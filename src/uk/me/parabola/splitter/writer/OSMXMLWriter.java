@@ -29,7 +29,6 @@ import java.io.Writer;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.util.Iterator;
-import java.util.List;
 import java.util.Locale;
 import java.util.zip.GZIPOutputStream;
 
@@ -45,18 +44,15 @@ public class OSMXMLWriter extends AbstractOSMWriter{
 		super(bounds, outputDir, mapId, extra);
 	}
 
-	public void initForWrite() {
-
+	@Override
+	protected void openFile(boolean append) throws IOException {
 		String filename = String.format(Locale.ROOT, "%08d.osm.gz", mapId);
-		try {
-			FileOutputStream fos = new FileOutputStream(new File(outputDir, filename));
-			OutputStream zos = new GZIPOutputStream(fos);
-			writer = new OutputStreamWriter(zos, "utf-8");
+		FileOutputStream fos = new FileOutputStream(new File(outputDir, filename), append);
+		// a gzip file may consist of several members, they are read as one stream
+		OutputStream zos = new GZIPOutputStream(fos);
+		writer = new OutputStreamWriter(zos, "utf-8");
+		if (!append)
 			writeHeader();
-		} catch (IOException e) {
-			System.out.println("Could not open or write file header. Reason: " + e.getMessage());
-			throw new RuntimeException(e);
-		}
 	}
 
 	private void writeHeader() throws IOException {
@@ -76,15 +72,13 @@ public class OSMXMLWriter extends AbstractOSMWriter{
 		writeString("'/>\n");
 	}
 
-	public void finishWrite() {
-		try {
+	@Override
+	protected void closeFile(boolean last) throws IOException {
+		if (last)
 			writeString("</osm>\n");
-			flush();
-			writer.close();
-			writer = null;
-		} catch (IOException e) {
-			System.out.println("Could not write end of file: " + e);
-		}
+		flush();
+		writer.close();
+		writer = null;
 	}
 
 	public void write(Node node) throws IOException {
@@ -129,20 +123,22 @@ public class OSMXMLWriter extends AbstractOSMWriter{
 		if (versionMethod != REMOVE_VERSION)
 			writeString("' version='" + getWriteVersion(rel));
 		writeString("'>\n");
-		List<Relation.Member> memlist = rel.getMembers();
-		for (Relation.Member m : memlist) {
-			if (m.getType() == null || m.getRef() == 0) {
+		for (int i = 0; i < rel.getMemberCount(); i++) {
+			long ref = rel.getMemberRef(i);
+			if (ref == 0) {
 				System.err.println("Invalid relation member found in relation " + rel.getId() + ": member type="
-						+ m.getType() + ", ref=" + m.getRef() + ", role=" + m.getRole() + ". Ignoring this member");
+						+ rel.getMemberTypeName(i) + ", ref=" + ref + ", role=" + rel.getMemberRole(i)
+						+ ". Ignoring this member");
 				continue;
 			}
 			writeString("<member type='");
-			writeAttribute(m.getType());
+			writeAttribute(rel.getMemberTypeName(i));
 			writeString("' ref='");
-			writeLong(m.getRef());
+			writeLong(ref);
 			writeString("' role='");
-			if (m.getRole() != null) {
-				writeAttribute(m.getRole());
+			String role = rel.getMemberRole(i);
+			if (role != null) {
+				writeAttribute(role);
 			}
 			writeString("'/>\n");
 		}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter.writer;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import com.google.protobuf.ByteString;
+
+import crosby.binary.Osmformat;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import uk.me.parabola.splitter.Element;
+import uk.me.parabola.splitter.tools.StringDictionary;
+
+/**
+ * The string table of a pbf block. Strings of the tag dictionary are
+ * counted and looked up by their id, so they are not hashed again for
+ * each output file. Other strings (roles, long values) are handled like
+ * in the osmosis StringTable. The order of the strings is similar: the
+ * most frequent strings get the smallest indexes.
+ *
+ * @author agent
+ */
+class PbfStringTable {
+	/**
+	 * The dictionary ids depend on the order in which the strings were read by
+	 * the threads, so strings with equal counts are sorted by their content to
+	 * produce the same output in each run.
+	 */
+	private static final Comparator<Entry> BY_COUNT = new Comparator<Entry>() {
+		@Override
+		public int compare(Entry e1, Entry e2) {
+			int d = Integer.compare(e2.count, e1.count);
+			return d != 0 ? d : e1.getString().compareTo(e2.getString());
+		}
+	};
+	private static final Comparator<Entry> BY_STRING = new Comparator<Entry>() {
+		@Override
+		public int compare(Entry e1, Entry e2) {
+			return e1.getString().compareTo(e2.getString());
+		}
+	};
+
+	/** counts of the dictionary strings, after {@link #finish()} their index */
+	private final Int2IntOpenHashMap idMap = new Int2IntOpenHashMap();
+	/** counts of other strings, after {@link #finish()} their index */
+	private final Object2IntOpenHashMap<String> stringMap = new Object2IntOpenHashMap<>();
+	private Entry[] entries;
+
+	private static class Entry {
+		final int id;
+		final String s;
+		final int count;
+
+		Entry(int id, String s, int count) {
+			this.id = id;
+			this.s = s;
+			this.count = count;
+		}
+
+		String getString() {
+			return s != null ? s : Element.TAGS.getString(id);
+		}
+	}
+
+	/**
+	 * Count a string.
+	 * @param id the id of the string in the tag dictionary or {@link StringDictionary#NOT_INTERNED}
+	 * @param s the string, only used if id is {@link StringDictionary#NOT_INTERNED}
+	 */
+	public void incr(int id, String s) {
+		if (id != StringDictionary.NOT_INTERNED)
+			idMap.addTo(id, 1);
+		else
+			stringMap.addTo(s, 1);
+	}
+
+	/**
+	 * Count a string which is not in the tag dictionary.
+	 * @param s the string
+	 */
+	public void incr(String s) {
+		stringMap.addTo(s, 1);
+	}
+
+	/**
+	 * Count the keys and values of an element.
+	 * @param el the element
+	 */
+	public void incrTags(Element el) {
+		for (int i = 0; i < el.getTagCount(); i++) {
+			int keyId = el.getTagKeyId(i);
+			incr(keyId, keyId == StringDictionary.NOT_INTERNED ? el.getTagKey(i) : null);
+			int valueId = el.getTagValueId(i);
+			incr(valueId, valueId == StringDictionary.NOT_INTERNED ? el.getTagValue(i) : null);
+		}
+	}
+
+	/**
+	 * Sort the strings and assign the indexes.
+	 */
+	public void finish() {
+		entries = new Entry[idMap.size() + stringMap.size()];
+		int n = 0;
+		for (Int2IntMap.Entry e : idMap.int2IntEntrySet())
+			entries[n++] = new Entry(e.getIntKey(), null, e.getIntValue());
+		for (Object2IntMap.Entry<String> e : stringMap.object2IntEntrySet())
+			entries[n++] = new Entry(StringDictionary.NOT_INTERNED, e.getKey(), e.getIntValue());
+		if (n > 0) {
+			// like osmosis: sort by frequency, the strings which need a two byte
+			// index are sorted lexicographically to improve the compression
+			Arrays.sort(entries, BY_COUNT);
+			Arrays.sort(entries, Math.min(1 << 7, n - 1), Math.min(1 << 14, n - 1), BY_STRING);
+			Arrays.sort(entries, Math.min(1 << 14, n - 1), Math.min(1 << 21, n - 1), BY_COUNT);
+		}
+		// index 0 is reserved for use as a delimiter
+		for (int i = 0; i < n; i++) {
+			Entry e = entries[i];
+			if (e.s == null)
+				idMap.put(e.id, i + 1);
+			else
+				stringMap.put(e.s, i + 1);
+		}
+	}
+
+	/**
+	 * @param id the id of the string in the tag dictionary or {@link StringDictionary#NOT_INTERNED}
+	 * @param s the string, only used if id is {@link StringDictionary#NOT_INTERNED}
+	 * @return the index of the string in the table
+	 */
+	public int getIndex(int id, String s) {
+		return id != StringDictionary.NOT_INTERNED ? idMap.get(id) : stringMap.getInt(s);
+	}
+
+	/**
+	 * @param s a string which is not in the tag dictionary
+	 * @return the index of the string in the table
+	 */
+	public int getIndex(String s) {
+		return stringMap.getInt(s);
+	}
+
+	/**
+	 * @return the index of the key of the i-th tag of the element
+	 */
+	public int getKeyIndex(Element el, int i) {
+		int keyId = el.getTagKeyId(i);
+		return getIndex(keyId, keyId == StringDictionary.NOT_INTERNED ? el.getTagKey(i) : null);
+	}
+
+	/**
+	 * @return the index of the value of the i-th tag of the element
+	 */
+	public int getValueIndex(Element el, int i) {
+		int valueId = el.getTagValueId(i);
+		return getIndex(valueId, valueId == StringDictionary.NOT_INTERNED ? el.getTagValue(i) : null);
+	}
+
+	public Osmformat.StringTable.Builder serialize() {
+		Osmformat.StringTable.Builder builder = Osmformat.StringTable.newBuilder();
+		builder.addS(ByteString.EMPTY);
+		for (Entry e : entries) {
+			if (e.s == null)
+				builder.addS(ByteString.copyFrom(Element.TAGS.getBytes(e.id)));
+			else
+				builder.addS(ByteString.copyFromUtf8(e.s));
+		}
+		return builder;
+	}
+
+	public void clear() {
+		idMap.clear();
+		stringMap.clear();
+		entries = null;
+	}
+}
@@ -40,8 +40,8 @@ public class PseudoOSMWriter extends AbstractOSMWriter{
 	public void write(Node node) {}
 	
 	@Override
-	public void initForWrite() {}
+	protected void openFile(boolean append) {}
 	
 	@Override
-	public void finishWrite() {}
+	protected void closeFile(boolean last) {}
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+package uk.me.parabola.splitter.writer;
+
+import java.util.ArrayList;
+
+/**
+ * Limits the number of open output files of a set of writers. A writer is
+ * opened when it is used, and when too many writers are open the least
+ * recently used one is suspended, it is reopened in append mode when it is
+ * used again. So the memory needed for the buffers and the number of open
+ * files doesn't depend on the number of areas.
+ * A pool must only be used by one thread.
+ *
+ * @author agent
+ */
+public class WriterPool {
+	private final int maxOpen;
+	private final ArrayList<AbstractOSMWriter> openWriters = new ArrayList<>();
+	private long clock;
+	private AbstractOSMWriter lastUsed;
+	// for statistics
+	private long countSuspended;
+
+	/**
+	 * @param maxOpen the maximum number of open writers
+	 */
+	public WriterPool(int maxOpen) {
+		this.maxOpen = Math.max(1, maxOpen);
+	}
+
+	/**
+	 * Make sure that the writer is open before something is written.
+	 * @param writer the writer
+	 */
+	public void use(OSMWriter writer) {
+		if (writer == lastUsed || !(writer instanceof AbstractOSMWriter))
+			return;
+		AbstractOSMWriter w = (AbstractOSMWriter) writer;
+		w.lastUse = ++clock;
+		lastUsed = w;
+		if (w.isOpen())
+			return;
+		if (openWriters.size() >= maxOpen)
+			suspendLeastRecentlyUsed();
+		w.open();
+		openWriters.add(w);
+	}
+
+	private void suspendLeastRecentlyUsed() {
+		int lru = 0;
+		for (int i = 1; i < openWriters.size(); i++) {
+			if (openWriters.get(i).lastUse < openWriters.get(lru).lastUse)
+				lru = i;
+		}
+		AbstractOSMWriter w = openWriters.get(lru);
+		// the order of the list is not important
+		openWriters.set(lru, openWriters.get(openWriters.size() - 1));
+		openWriters.remove(openWriters.size() - 1);
+		w.suspend();
+		++countSuspended;
+	}
+
+	/**
+	 * @return the number of times a writer was suspended because too many writers were open
+	 */
+	public long getCountSuspended() {
+		return countSuspended;
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+package uk.me.parabola.splitter;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the lookup speed of the {@link AreaIndex} implementations. This is
+ * a standalone program, not a unit test. The points are either randomly
+ * distributed or follow a random walk, like the nodes of an OSM file.
+ * Usage: AreaIndexBenchmark [areas] [overlap] [skewed]
+ */
+public class AreaIndexBenchmark {
+	private static final int NUM_POINTS = 1 << 20;
+	private static final int ROUNDS = 10;
+
+	public static void main(String[] args) {
+		int numAreas = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+		int overlap = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+		boolean skewed = args.length > 2 && Boolean.parseBoolean(args[2]);
+		List<Area> areas = AreaIndexTest.createAreas(numAreas, 4711, skewed);
+		System.out.println("areas: " + areas.size() + ", overlap: " + overlap + ", skewed: " + skewed);
+		AreaDictionary dict = new AreaDictionary(areas, overlap);
+		Area[] extAreas = new Area[dict.getNumOfAreas()];
+		for (int i = 0; i < extAreas.length; i++)
+			extAreas[i] = dict.getExtendedArea(i);
+		int[][] randomPoints = new int[2][NUM_POINTS];
+		int[][] walkPoints = new int[2][NUM_POINTS];
+		Random random = new Random(42);
+		int lat = 0x280000, lon = 0xc0000;
+		for (int i = 0; i < NUM_POINTS; i++) {
+			randomPoints[0][i] = 0x200000 + random.nextInt(0x100000);
+			randomPoints[1][i] = random.nextInt(0x180000);
+			if (i % 1000 == 0) {
+				lat = randomPoints[0][i];
+				lon = randomPoints[1][i];
+			}
+			lat = Math.max(0x200000, Math.min(0x300000, lat + random.nextInt(201) - 100));
+			lon = Math.max(0, Math.min(0x180000, lon + random.nextInt(201) - 100));
+			walkPoints[0][i] = lat;
+			walkPoints[1][i] = lon;
+		}
+		for (String type : new String[] { AreaIndexFactory.GRID, AreaIndexFactory.FLAT_GRID, AreaIndexFactory.RTREE }) {
+			long t1 = System.currentTimeMillis();
+			AreaIndex index = AreaIndexFactory.create(type, dict);
+			long t2 = System.currentTimeMillis();
+			System.out.println(String.format("%-10s build %5d ms, lookup random %6.1f ns/point, walk %6.1f ns/point",
+					type, t2 - t1, measure(index, extAreas, randomPoints), measure(index, extAreas, walkPoints)));
+		}
+	}
+
+	/**
+	 * @return the best time for a lookup in nanoseconds
+	 */
+	private static double measure(AreaIndex index, Area[] extAreas, int[][] points) {
+		long best = Long.MAX_VALUE;
+		long found = 0;
+		for (int r = 0; r < ROUNDS; r++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < NUM_POINTS; i++) {
+				AreaGridResult res = index.get(points[0][i], points[1][i]);
+				if (res == null)
+					continue;
+				for (int n : res.set) {
+					if (!res.testNeeded || extAreas[n].contains(points[0][i], points[1][i]))
+						found++;
+				}
+			}
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		// use the result so that the loop is not removed
+		if (found < 0)
+			System.out.println(found);
+		return (double) best / NUM_POINTS;
+	}
+}
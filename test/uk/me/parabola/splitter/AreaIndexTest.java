@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+package uk.me.parabola.splitter;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Compares the results of the {@link AreaIndex} implementations with a simple search.
+ */
+public class AreaIndexTest {
+
+	/**
+	 * Split a box into areas of different sizes like the tiles calculated from
+	 * a density map.
+	 * @param num the number of areas
+	 * @param seed the seed for the random numbers
+	 * @param skewed if true, most areas are small areas around a few dense spots
+	 * @return the areas
+	 */
+	static List<Area> createAreas(int num, long seed, boolean skewed) {
+		Random random = new Random(seed);
+		int[][] hotSpots = { { 0x240000, 0x40000 }, { 0x2c0000, 0x100000 }, { 0x2a0000, 0x30000 } };
+		List<Area> areas = new ArrayList<>();
+		areas.add(new Area(0x200000, 0, 0x300000, 0x180000));
+		while (areas.size() < num) {
+			// split the largest area, or the largest area that contains a dense spot
+			int[] spot = skewed && random.nextInt(10) < 8 ? hotSpots[random.nextInt(hotSpots.length)] : null;
+			int largest = -1;
+			for (int i = 0; i < areas.size(); i++) {
+				Area a = areas.get(i);
+				if (spot != null && !a.contains(spot[0], spot[1]))
+					continue;
+				if (largest < 0 || (long) a.getWidth() * a.getHeight() > (long) areas.get(largest).getWidth() * areas.get(largest).getHeight())
+					largest = i;
+			}
+			Area a = areas.get(largest);
+			if (Math.min(a.getWidth(), a.getHeight()) < 0x1000)
+				continue;
+			areas.remove(largest);
+			double f = 0.2 + 0.6 * random.nextDouble();
+			if (a.getWidth() > a.getHeight()) {
+				int lon = a.getMinLong() + (int) (a.getWidth() * f);
+				areas.add(new Area(a.getMinLat(), a.getMinLong(), a.getMaxLat(), lon));
+				areas.add(new Area(a.getMinLat(), lon, a.getMaxLat(), a.getMaxLong()));
+			} else {
+				int lat = a.getMinLat() + (int) (a.getHeight() * f);
+				areas.add(new Area(a.getMinLat(), a.getMinLong(), lat, a.getMaxLong()));
+				areas.add(new Area(lat, a.getMinLong(), a.getMaxLat(), a.getMaxLong()));
+			}
+		}
+		// remove some areas to have holes
+		for (int i = areas.size() - 1; i >= 0; i -= 7)
+			areas.remove(i);
+		return areas;
+	}
+
+	private static String find(AreaIndex index, AreaDictionary dict, int lat, int lon) {
+		AreaGridResult res = index.get(lat, lon);
+		AreaSet found = new AreaSet();
+		if (res != null) {
+			for (int n : res.set) {
+				if (!res.testNeeded || dict.getExtendedArea(n).contains(lat, lon))
+					found.set(n);
+			}
+		}
+		return found.toString();
+	}
+
+	private static String search(AreaDictionary dict, int lat, int lon) {
+		AreaSet found = new AreaSet();
+		for (int n = 0; n < dict.getNumOfAreas(); n++) {
+			if (dict.getExtendedArea(n).contains(lat, lon))
+				found.set(n);
+		}
+		return found.toString();
+	}
+
+	@Test
+	public void testIndexes() {
+		for (int overlap : new int[] { 0, 2000 }) {
+			List<Area> areas = createAreas(300, 4711, overlap > 0);
+			AreaDictionary dict = new AreaDictionary(areas, overlap);
+			AreaIndex[] indexes = { AreaIndexFactory.create(AreaIndexFactory.GRID, dict),
+					AreaIndexFactory.create(AreaIndexFactory.FLAT_GRID, dict),
+					AreaIndexFactory.create(AreaIndexFactory.RTREE, dict) };
+			Random random = new Random(42);
+			for (int i = 0; i < 100_000; i++) {
+				int lat = 0x1f0000 + random.nextInt(0x120000);
+				int lon = -0x10000 + random.nextInt(0x1a0000);
+				if (i % 2 == 0) {
+					// a point on the boundary of an area
+					Area a = areas.get(random.nextInt(areas.size()));
+					lat = random.nextBoolean() ? a.getMinLat() - overlap : a.getMaxLat() + overlap;
+				}
+				String expected = search(dict, lat, lon);
+				for (AreaIndex index : indexes)
+					assertEquals(index.getClass().getSimpleName() + " " + lat + "," + lon, expected, find(index, dict, lat, lon));
+			}
+		}
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+package uk.me.parabola.splitter;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+
+import org.apache.tools.bzip2.CBZip2InputStream;
+
+/**
+ * Compares the throughput of the single threaded bzip2 decoder with
+ * {@link ParallelBZip2InputStream}. This is a standalone program, not a unit test.
+ * Usage: BZip2Benchmark file.bz2 [threads]
+ */
+public class BZip2Benchmark {
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: BZip2Benchmark file.bz2 [threads]");
+			System.exit(1);
+		}
+		String name = args[0];
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+		long t1 = System.currentTimeMillis();
+		CRC32 crcSeq = new CRC32();
+		long lenSeq;
+		try (InputStream is = new BufferedInputStream(new FileInputStream(name), 8192)) {
+			is.read();
+			is.read();
+			lenSeq = consume(new CBZip2InputStream(is, true), crcSeq);
+		}
+		long t2 = System.currentTimeMillis();
+		report("CBZip2InputStream", lenSeq, t2 - t1);
+
+		CRC32 crcPar = new CRC32();
+		long lenPar;
+		try (InputStream is = new ParallelBZip2InputStream(new FileInputStream(name), threads)) {
+			lenPar = consume(is, crcPar);
+		}
+		long t3 = System.currentTimeMillis();
+		report("ParallelBZip2InputStream (" + threads + " threads)", lenPar, t3 - t2);
+
+		if (lenSeq != lenPar || crcSeq.getValue() != crcPar.getValue())
+			System.out.println("ERROR: the decompressed data differs");
+	}
+
+	private static long consume(InputStream is, CRC32 crc) throws IOException {
+		byte[] buf = new byte[64 * 1024];
+		long len = 0;
+		int n;
+		while ((n = is.read(buf)) > 0) {
+			crc.update(buf, 0, n);
+			len += n;
+		}
+		return len;
+	}
+
+	private static void report(String decoder, long len, long millis) {
+		double mb = len / (1024.0 * 1024.0);
+		System.out.printf("%-45s %10.1f MB in %7.2f s, %8.1f MB/s%n", decoder, mb, millis / 1000.0,
+				mb / Math.max(1, millis) * 1000);
+	}
+}
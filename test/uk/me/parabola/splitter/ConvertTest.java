@@ -15,6 +15,8 @@ package uk.me.parabola.splitter;
 
 import static org.junit.Assert.assertEquals;
 
+import java.nio.charset.StandardCharsets;
+
 import org.junit.Test;
 
 /**
@@ -51,11 +53,17 @@ public class ConvertTest {
 		parse("120.12345678901234567892345678");
 		parse("120.123456789012345678923456789");
 		parse("120.1234567890123456789012345678");
+		parse("-47.1234567");
+		parse("+8.5");
+		parse("1e-3");
 	}
 
 	private static void parse(String dbl) {
 		final double epsilon = 3.0e-10; 
 		assertEquals("Double parsing failed when parsing " + dbl, Double.parseDouble(dbl), Convert.parseDouble(dbl),
 				epsilon);
+		byte[] bytes = (" " + dbl + " ").getBytes(StandardCharsets.UTF_8);
+		assertEquals("Byte parsing differs when parsing " + dbl, Convert.parseDouble(dbl),
+				Convert.parseDouble(bytes, 1, bytes.length - 2), 0);
 	}
 }
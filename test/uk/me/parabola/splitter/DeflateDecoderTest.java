@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+package uk.me.parabola.splitter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the {@link DeflateDecoder}. The results are compared with
+ * the data that was compressed and with the output of {@link GZIPInputStream}.
+ */
+public class DeflateDecoderTest {
+	/** the first bits of a deflate block that is not the last block */
+	static final int BLOCK_STORED = 0;
+	static final int BLOCK_FIXED = 1;
+	static final int BLOCK_DYNAMIC = 2;
+
+	/**
+	 * Compress the data with {@link GZIPOutputStream}.
+	 * @param data the data
+	 * @param level the compression level
+	 * @param flushEvery if &gt; 0, do a sync flush after each such number of bytes
+	 * @return the gzip member
+	 */
+	static byte[] gzip(byte[] data, final int level, int flushEvery) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try (GZIPOutputStream gz = new GZIPOutputStream(bos, 8192, flushEvery > 0) {
+			{
+				def.setLevel(level);
+			}
+		}) {
+			int step = flushEvery > 0 ? flushEvery : data.length;
+			for (int pos = 0; pos < data.length; pos += step) {
+				gz.write(data, pos, Math.min(step, data.length - pos));
+				if (flushEvery > 0)
+					gz.flush();
+			}
+		}
+		return bos.toByteArray();
+	}
+
+	static byte[] gunzip(byte[] gz) throws IOException {
+		try (InputStream in = new GZIPInputStream(new java.io.ByteArrayInputStream(gz))) {
+			return readAll(in);
+		}
+	}
+
+	static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		byte[] buf = new byte[10000];
+		int n;
+		while ((n = in.read(buf)) > 0)
+			bos.write(buf, 0, n);
+		return bos.toByteArray();
+	}
+
+	static byte[] concat(byte[]... parts) {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		for (byte[] p : parts)
+			bos.write(p, 0, p.length);
+		return bos.toByteArray();
+	}
+
+	/**
+	 * @return text like data which compresses with dynamic blocks
+	 */
+	static byte[] textData(int size, long seed) {
+		Random random = new Random(seed);
+		String[] words = { "node", "way", "relation", "tag", "k=\"highway\"", "v=\"residential\"", "<nd ref=\"",
+				"lat=\"", "lon=\"", "\"/>\n", "  " };
+		StringBuilder sb = new StringBuilder(size + 100);
+		while (sb.length() < size) {
+			if (random.nextInt(3) != 0)
+				sb.append(random.nextInt(100_000_000));
+			else
+				sb.append(words[random.nextInt(words.length)]);
+		}
+		sb.setLength(size);
+		return sb.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	static File writeTemp(byte[] data) throws IOException {
+		File f = File.createTempFile("deflate-test", ".gz");
+		f.deleteOnExit();
+		try (FileOutputStream out = new FileOutputStream(f)) {
+			out.write(data);
+		}
+		return f;
+	}
+
+	/**
+	 * @return the type of the first deflate block of a gzip member without optional header fields
+	 */
+	static int firstBlockType(byte[] gz) {
+		assertEquals("no optional header fields", 0, gz[3]);
+		return (gz[10] >>> 1) & 3;
+	}
+
+	/**
+	 * Decode a complete file with the decoder, starting at the first block with known (empty) data.
+	 */
+	private static byte[] decode(byte[] gz) throws IOException {
+		File f = writeTemp(gz);
+		try (FileInputStream in = new FileInputStream(f)) {
+			FileChannel channel = in.getChannel();
+			DeflateDecoder decoder = new DeflateDecoder(channel, channel.size());
+			decoder.seek(0);
+			assertTrue(decoder.readMemberHeader());
+			decoder.resetOutput(new byte[0], 0);
+			decoder.decode(decoder.position(), Long.MAX_VALUE);
+			assertTrue(decoder.eof);
+			byte[] res = new byte[decoder.outLen - DeflateDecoder.WINDOW_SIZE];
+			for (int i = 0; i < res.length; i++) {
+				char c = decoder.out[DeflateDecoder.WINDOW_SIZE + i];
+				assertTrue("unresolved marker", c < DeflateDecoder.MARKER_BASE);
+				res[i] = (byte) c;
+			}
+			return res;
+		} finally {
+			f.delete();
+		}
+	}
+
+	private static void check(byte[] data, byte[] gz) throws IOException {
+		byte[] expected = gunzip(gz);
+		assertArrayEquals(data, expected);
+		assertArrayEquals(expected, decode(gz));
+	}
+
+	@Test
+	public void testStored() throws IOException {
+		byte[] data = textData(200_000, 1);
+		byte[] gz = gzip(data, 0, 0);
+		assertEquals(BLOCK_STORED, firstBlockType(gz));
+		check(data, gz);
+	}
+
+	@Test
+	public void testFixed() throws IOException {
+		// short data with repetitions is compressed with a fixed block that contains matches
+		byte[] data = "<node id=\"1\"/><node id=\"2\"/><node id=\"3\"/>".getBytes(StandardCharsets.US_ASCII);
+		byte[] gz = gzip(data, 9, 0);
+		assertEquals(BLOCK_FIXED, firstBlockType(gz));
+		check(data, gz);
+	}
+
+	@Test
+	public void testFixedFarDistance() throws IOException {
+		// a match with a distance > 16384 uses the highest valid distance codes
+		byte[] data = new byte[20000];
+		byte[] word = "distance".getBytes(StandardCharsets.US_ASCII);
+		System.arraycopy(word, 0, data, 0, word.length);
+		System.arraycopy(word, 0, data, data.length - word.length, word.length);
+		byte[] gz = gzip(data, 9, 0);
+		check(data, gz);
+	}
+
+	@Test
+	public void testDynamic() throws IOException {
+		byte[] data = textData(1_000_000, 2);
+		byte[] gz = gzip(data, 6, 0);
+		assertEquals(BLOCK_DYNAMIC, firstBlockType(gz));
+		check(data, gz);
+	}
+
+	@Test
+	public void testSyncFlush() throws IOException {
+		byte[] data = textData(300_000, 3);
+		check(data, gzip(data, 6, 10_000));
+		// very small flushed parts use fixed and empty stored blocks
+		check(data, gzip(data, 6, 7));
+	}
+
+	@Test
+	public void testMultiMember() throws IOException {
+		byte[] data1 = textData(300_000, 4);
+		byte[] data2 = "<osm/>\n".getBytes(StandardCharsets.US_ASCII);
+		byte[] data3 = textData(50_000, 5);
+		byte[] gz = concat(gzip(data1, 6, 0), gzip(data2, 9, 0), gzip(data3, 0, 0));
+		check(concat(data1, data2, data3), gz);
+	}
+
+	@Test
+	public void testEmpty() throws IOException {
+		check(new byte[0], gzip(new byte[0], 6, 0));
+	}
+}
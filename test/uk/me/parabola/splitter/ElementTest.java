@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+package uk.me.parabola.splitter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Iterator;
+
+import org.junit.Test;
+
+import uk.me.parabola.splitter.tools.StringDictionary;
+
+/**
+ * Unit tests for the tags of elements and the roles of relation members.
+ */
+public class ElementTest {
+
+	@Test
+	public void testTags() {
+		String longValue = "a value which is too long for the dictionary";
+		Way w = new Way();
+		assertFalse(w.hasTags());
+		w.addTag("highway", "residential");
+		w.addTag("created_by", "JOSM");
+		w.addTag("name", longValue);
+		w.addTag("ref", "B 1");
+		w.addTag("maxspeed", "50");
+		assertEquals(4, w.getTagCount());
+		assertEquals("residential", w.getTag("highway"));
+		assertEquals(longValue, w.getTag("name"));
+		assertNull(w.getTag("created_by"));
+		assertNotEquals(StringDictionary.NOT_INTERNED, w.getTagKeyId(1));
+		assertEquals(StringDictionary.NOT_INTERNED, w.getTagValueId(1));
+		assertEquals(Element.TAGS.getId("highway"), w.getTagKeyId(0));
+		assertEquals("B 1", w.getTagValue(2));
+
+		Iterator<Element.Tag> iter = w.tagsIterator();
+		String[] expected = { "highway=residential", "name=" + longValue, "ref=B 1", "maxspeed=50" };
+		for (String s : expected)
+			assertEquals(s, iter.next().toString());
+		assertFalse(iter.hasNext());
+	}
+
+	@Test
+	public void testRoles() {
+		String longRole = "a role which is too long for the dictionary";
+		Relation r = new Relation();
+		r.addMember(Relation.MEM_WAY, 1, "outer");
+		r.addMember(Relation.MEM_NODE, 2, longRole);
+		r.addMember(Relation.MEM_WAY, 3, "inner");
+		r.addMember(Relation.MEM_WAY, 4, "");
+		for (int i = 0; i < 10; i++)
+			r.addMember(Relation.MEM_RELATION, 5 + i, i == 7 ? longRole + i : "subarea");
+		assertEquals(14, r.getMemberCount());
+		assertEquals("outer", r.getMemberRole(0));
+		assertEquals(longRole, r.getMemberRole(1));
+		assertEquals(StringDictionary.NOT_INTERNED, r.getMemberRoleId(1));
+		assertEquals(Relation.INNER_ROLE, r.getMemberRoleId(2));
+		assertEquals("", r.getMemberRole(3));
+		assertEquals(Relation.getRoleId("outer"), r.getMemberRoleId(0));
+		assertEquals("subarea", Relation.getRole(r.getMemberRoleId(13)));
+		assertEquals(longRole + 7, r.getMemberRole(11));
+		assertEquals(Relation.MEM_RELATION, r.getMemberType(11));
+		assertEquals(12, r.getMemberRef(11));
+	}
+}
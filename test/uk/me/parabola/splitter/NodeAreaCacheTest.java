@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+package uk.me.parabola.splitter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the {@link NodeAreaCache}.
+ */
+public class NodeAreaCacheTest {
+	private static final File TMP_DIR = new File(System.getProperty("java.io.tmpdir"));
+
+	@Test
+	public void testReadPasses() throws IOException {
+		Random random = new Random(42);
+		int num = 200_000;
+		long[] ids = new long[num];
+		int[] vals = new int[num];
+		long id = -1000;
+		for (int i = 0; i < num; i++) {
+			id += 1 + (random.nextInt(10) == 0 ? random.nextInt(1 << 20) : 0);
+			if (i == num - 1)
+				id = 1L << 40;
+			ids[i] = id;
+			vals[i] = random.nextInt(4) == 0 ? AreaDictionary.translate(random.nextInt(1000)) : random.nextInt(100_000);
+		}
+		NodeAreaCache cache = new NodeAreaCache(TMP_DIR, 0, 999);
+		for (int i = 0; i < num; i++)
+			cache.add(ids[i], vals[i]);
+		cache.finishWrite();
+		assertTrue(cache.isReadable());
+		for (int pass = 0; pass < 2; pass++) {
+			for (int i = pass; i < num; i += 2) {
+				// ids that are not in the cache
+				if (ids[i] - 1 != ids[Math.max(0, i - 1)])
+					assertEquals(AbstractMapProcessor.UNASSIGNED, cache.get(ids[i] - 1));
+				assertEquals(vals[i], cache.get(ids[i]));
+			}
+			assertEquals(AbstractMapProcessor.UNASSIGNED, cache.get(Long.MAX_VALUE - 1));
+			cache.close();
+		}
+		cache.finish();
+	}
+
+	@Test
+	public void testUnsorted() throws IOException {
+		NodeAreaCache cache = new NodeAreaCache(TMP_DIR, 0, 9);
+		cache.add(10, 1);
+		cache.add(20, 2);
+		cache.add(15, 3);
+		cache.finishWrite();
+		assertFalse(cache.isReadable());
+		cache.finish();
+	}
+}
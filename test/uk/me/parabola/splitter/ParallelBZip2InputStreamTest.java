@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+package uk.me.parabola.splitter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static uk.me.parabola.splitter.DeflateDecoderTest.concat;
+import static uk.me.parabola.splitter.DeflateDecoderTest.readAll;
+import static uk.me.parabola.splitter.DeflateDecoderTest.textData;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.tools.bzip2.CBZip2InputStream;
+import org.junit.Test;
+
+/**
+ * Unit tests for the {@link ParallelBZip2InputStream}. The results are
+ * compared with the data that was compressed and with the output of the
+ * sequential {@link CBZip2InputStream}.
+ */
+public class ParallelBZip2InputStreamTest {
+	private static final long BLOCK_MAGIC = 0x314159265359L;
+	private static final long EOS_MAGIC = 0x177245385090L;
+
+	/**
+	 * Compress the data.
+	 * @param data the data
+	 * @param level the block size, 1 means 100k
+	 * @return the bzip2 stream
+	 */
+	private static byte[] bzip2(byte[] data, int level) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try (BZip2CompressorOutputStream out = new BZip2CompressorOutputStream(bos, level)) {
+			out.write(data);
+		}
+		return bos.toByteArray();
+	}
+
+	private static byte[] decodeSequential(byte[] bz) throws IOException {
+		InputStream in = new ByteArrayInputStream(bz);
+		assertEquals('B', in.read());
+		assertEquals('Z', in.read());
+		try (InputStream bzIn = new CBZip2InputStream(in, true)) {
+			return readAll(bzIn);
+		}
+	}
+
+	private static void check(byte[] data, byte[] bz) throws IOException {
+		byte[] expected = decodeSequential(bz);
+		assertArrayEquals(data, expected);
+		for (int threads : new int[] { 1, 4 }) {
+			try (InputStream in = new ParallelBZip2InputStream(new ByteArrayInputStream(bz), threads)) {
+				assertArrayEquals("threads: " + threads, expected, readAll(in));
+				assertEquals(-1, in.read());
+			}
+		}
+	}
+
+	/**
+	 * @return the number of positions of the 48 bit marker in the data, they don't have to be byte aligned
+	 */
+	private static int countMarkers(byte[] bz, long magic) {
+		long mask = (1L << 48) - 1;
+		long window = 0;
+		int count = 0;
+		for (int i = 0; i < bz.length * 8; i++) {
+			window = ((window << 1) | ((bz[i >>> 3] >>> (7 - (i & 7))) & 1)) & mask;
+			if (i >= 47 && window == magic)
+				count++;
+		}
+		return count;
+	}
+
+	/**
+	 * The compressed block starts with a bit map of the used byte values,
+	 * 16 bits for the used groups of 16 values, followed by 16 bits for each
+	 * used group. Data which uses the values of the first groups in the given
+	 * bit maps and no runs of equal bytes contains the markers in the
+	 * compressed data of each block.
+	 * @param size the size of the data
+	 * @param markers the 48 bit markers, each uses three groups
+	 * @return random data which only contains the byte values in the bit maps
+	 */
+	private static byte[] dataWithMarkerInBitMap(int size, long... markers) {
+		byte[] values = new byte[48 * markers.length];
+		int numValues = 0;
+		for (int i = 0; i < 48 * markers.length; i++) {
+			if ((markers[i / 48] >>> (47 - i % 48) & 1) != 0)
+				values[numValues++] = (byte) i;
+		}
+		Random random = new Random(size);
+		byte[] data = new byte[size];
+		// make sure that all values are used
+		System.arraycopy(values, 0, data, 0, numValues);
+		for (int i = numValues; i < size; i++) {
+			// the lengths of runs of 4 or more equal bytes would add other values
+			do {
+				data[i] = values[random.nextInt(numValues)];
+			} while (data[i] == data[i - 1]);
+		}
+		return data;
+	}
+
+	@Test
+	public void testMultipleBlocks() throws IOException {
+		byte[] data = textData(350_000, 21);
+		byte[] bz = bzip2(data, 1);
+		assertEquals(4, countMarkers(bz, BLOCK_MAGIC));
+		check(data, bz);
+	}
+
+	@Test
+	public void testConcatenated() throws IOException {
+		// like the output of parallel compressors
+		byte[] data1 = textData(250_000, 22);
+		byte[] data2 = "<osm/>\n".getBytes(StandardCharsets.US_ASCII);
+		byte[] data3 = textData(120_000, 23);
+		byte[] bz = concat(bzip2(data1, 1), bzip2(data2, 9), bzip2(new byte[0], 9), bzip2(data3, 2));
+		assertEquals(4, countMarkers(bz, EOS_MAGIC));
+		check(concat(data1, data2, data3), bz);
+	}
+
+	@Test
+	public void testEmpty() throws IOException {
+		byte[] bz = bzip2(new byte[0], 9);
+		assertEquals(0, countMarkers(bz, BLOCK_MAGIC));
+		check(new byte[0], bz);
+	}
+
+	@Test
+	public void testSmallerThanOneBlock() throws IOException {
+		check("<osm/>\n".getBytes(StandardCharsets.US_ASCII), bzip2("<osm/>\n".getBytes(StandardCharsets.US_ASCII), 9));
+		byte[] data = textData(50_000, 24);
+		byte[] bz = bzip2(data, 9);
+		assertEquals(1, countMarkers(bz, BLOCK_MAGIC));
+		check(data, bz);
+	}
+
+	@Test
+	public void testBlockMagicInData() throws IOException {
+		byte[] data = dataWithMarkerInBitMap(250_000, BLOCK_MAGIC);
+		byte[] bz = bzip2(data, 1);
+		// each of the three blocks has its marker and the bit map
+		assertEquals(6, countMarkers(bz, BLOCK_MAGIC));
+		check(data, bz);
+		// the marker bytes in the uncompressed data
+		data = concat(textData(150_000, 25), new byte[] { 0x31, 0x41, 0x59, 0x26, 0x53, 0x59 }, textData(1000, 26));
+		check(data, bzip2(data, 1));
+	}
+
+	@Test
+	public void testEndOfStreamMagicInData() throws IOException {
+		byte[] data = dataWithMarkerInBitMap(250_000, EOS_MAGIC);
+		byte[] bz = bzip2(data, 1);
+		assertEquals(4, countMarkers(bz, EOS_MAGIC));
+		check(data, bz);
+		check(concat(data, data), concat(bz, bz));
+		// the block marker changes the combined CRC calculated from the stored CRCs
+		data = dataWithMarkerInBitMap(150_000, BLOCK_MAGIC, EOS_MAGIC);
+		bz = bzip2(data, 1);
+		assertEquals(4, countMarkers(bz, BLOCK_MAGIC));
+		assertEquals(3, countMarkers(bz, EOS_MAGIC));
+		check(data, bz);
+		check(concat(data, data), concat(bz, bz));
+	}
+
+	@Test(expected = IOException.class)
+	public void testNotBZip2() throws IOException {
+		new ParallelBZip2InputStream(new ByteArrayInputStream("<osm/>".getBytes(StandardCharsets.US_ASCII)), 2).close();
+	}
+}
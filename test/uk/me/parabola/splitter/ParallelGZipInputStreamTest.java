@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+package uk.me.parabola.splitter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static uk.me.parabola.splitter.DeflateDecoderTest.concat;
+import static uk.me.parabola.splitter.DeflateDecoderTest.firstBlockType;
+import static uk.me.parabola.splitter.DeflateDecoderTest.gunzip;
+import static uk.me.parabola.splitter.DeflateDecoderTest.gzip;
+import static uk.me.parabola.splitter.DeflateDecoderTest.readAll;
+import static uk.me.parabola.splitter.DeflateDecoderTest.textData;
+import static uk.me.parabola.splitter.DeflateDecoderTest.writeTemp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the {@link ParallelGZipInputStream}. The files are larger
+ * than a few chunks so that the chunks are decoded without knowing the
+ * preceding data. The results are compared with the output of
+ * {@link java.util.zip.GZIPInputStream}.
+ */
+public class ParallelGZipInputStreamTest {
+
+	private static void check(byte[] data, byte[] gz) throws IOException {
+		byte[] expected = gunzip(gz);
+		assertArrayEquals(data, expected);
+		File f = writeTemp(gz);
+		try {
+			for (int threads : new int[] { 1, 4 }) {
+				try (InputStream in = new ParallelGZipInputStream(f.getPath(), threads)) {
+					assertArrayEquals("threads: " + threads, expected, readAll(in));
+					assertEquals(-1, in.read());
+				}
+			}
+		} finally {
+			f.delete();
+		}
+	}
+
+	@Test
+	public void testStored() throws IOException {
+		byte[] data = textData(2_500_000, 11);
+		byte[] gz = gzip(data, 0, 0);
+		assertEquals(DeflateDecoderTest.BLOCK_STORED, firstBlockType(gz));
+		check(data, gz);
+	}
+
+	@Test
+	public void testFixed() throws IOException {
+		byte[] data = "<node id=\"1\"/><node id=\"2\"/><node id=\"3\"/>".getBytes(StandardCharsets.US_ASCII);
+		byte[] gz = gzip(data, 9, 0);
+		assertEquals(DeflateDecoderTest.BLOCK_FIXED, firstBlockType(gz));
+		check(data, gz);
+	}
+
+	@Test
+	public void testDynamic() throws IOException {
+		byte[] data = textData(6_000_000, 12);
+		byte[] gz = gzip(data, 6, 0);
+		// at least three chunks
+		assertTrue(gz.length > ParallelGZipInputStream.MIN_FILE_SIZE / 2);
+		check(data, gz);
+	}
+
+	@Test
+	public void testSyncFlush() throws IOException {
+		byte[] data = textData(6_000_000, 13);
+		check(data, gzip(data, 6, 100_000));
+	}
+
+	@Test
+	public void testMultiMember() throws IOException {
+		// like a file that was appended with gzip, the short members use fixed blocks
+		byte[] data1 = textData(6_000_000, 14);
+		byte[] data2 = "<node id=\"1\"/><node id=\"2\"/><node id=\"3\"/>".getBytes(StandardCharsets.US_ASCII);
+		byte[] data3 = textData(1_000_000, 15);
+		byte[] gz2 = gzip(data2, 9, 0);
+		assertEquals(DeflateDecoderTest.BLOCK_FIXED, firstBlockType(gz2));
+		check(concat(data1, data2), concat(gzip(data1, 6, 0), gz2));
+		check(concat(data1, data2, data3, data2), concat(gzip(data1, 6, 0), gz2, gzip(data3, 0, 0), gz2));
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+package uk.me.parabola.splitter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the {@link PassPlanner}.
+ */
+public class PassPlannerTest {
+
+	private static List<Area> grid(int dim, int size) {
+		List<Area> areas = new ArrayList<>();
+		// row by row
+		for (int y = 0; y < dim; y++) {
+			for (int x = 0; x < dim; x++) {
+				Area a = new Area(y * size, x * size, (y + 1) * size, (x + 1) * size);
+				a.setMapId(y * dim + x);
+				areas.add(a);
+			}
+		}
+		return areas;
+	}
+
+	@Test
+	public void testSortByLocation() {
+		List<Area> areas = grid(8, 1000);
+		List<Area> sorted = PassPlanner.sortByLocation(areas);
+		assertEquals(areas.size(), sorted.size());
+		// consecutive areas are neighbours
+		for (int i = 1; i < sorted.size(); i++) {
+			Area a = sorted.get(i - 1);
+			Area b = sorted.get(i);
+			int dist = Math.abs(a.getMinLat() - b.getMinLat()) + Math.abs(a.getMinLong() - b.getMinLong());
+			assertEquals(1000, dist);
+		}
+		// each quarter of the list is a quarter of the grid
+		for (int q = 0; q < 4; q++) {
+			Area bounds = null;
+			for (Area a : sorted.subList(q * 16, (q + 1) * 16))
+				bounds = bounds == null ? a : bounds.add(a);
+			assertEquals(4000, bounds.getWidth());
+			assertEquals(4000, bounds.getHeight());
+		}
+	}
+
+	@Test
+	public void testCalcPassStarts() {
+		List<Area> areas = grid(4, 1000);
+		for (int i = 0; i < areas.size(); i++)
+			areas.get(i).setEstimatedNodes(i < 4 ? 1000 : 100);
+		int[] starts = PassPlanner.calcPassStarts(areas, 0, areas.size(), 10);
+		assertArrayEquals(new int[] { 0, 6, 16 }, starts);
+		// the maximum number of areas is not exceeded
+		starts = PassPlanner.calcPassStarts(areas, 2, areas.size(), 5);
+		assertEquals(4, starts.length);
+		assertEquals(2, starts[0]);
+		assertEquals(16, starts[3]);
+		for (int i = 0; i + 1 < starts.length; i++)
+			assertTrue(starts[i + 1] - starts[i] >= 1 && starts[i + 1] - starts[i] <= 5);
+	}
+
+	@Test
+	public void testCalcMaxAreasPerPass() {
+		assertEquals(PassPlanner.MIN_AUTO_AREAS, PassPlanner.calcMaxAreasPerPass(64L << 20));
+		// a 6000 tile split is done in one pass with 2 GB heap
+		assertTrue(PassPlanner.calcMaxAreasPerPass(2L << 30) > 6000);
+		assertTrue(PassPlanner.calcMaxAreasPerPass(4L << 30) > PassPlanner.calcMaxAreasPerPass(2L << 30));
+		assertEquals(Integer.MAX_VALUE, PassPlanner.calcMaxAreasPerPass(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void testMoreRangesThanAreas() {
+		List<Area> areas = grid(1, 1000);
+		int[] starts = PassPlanner.calcRangeStarts(areas, 0, 1, 3, 1);
+		assertArrayEquals(new int[] { 0, 0, 0, 1 }, starts);
+	}
+}
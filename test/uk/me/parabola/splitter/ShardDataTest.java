@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+package uk.me.parabola.splitter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import uk.me.parabola.splitter.tools.Long2IntClosedMap;
+import uk.me.parabola.splitter.tools.Long2IntClosedMapFunction;
+
+/**
+ * Unit tests for saving and loading the data of a sharded split, see
+ * {@link ShardData}. The shards must see the same areas, dictionary,
+ * relations and writer maps as the coordinator.
+ */
+public class ShardDataTest {
+	private static final int OVERLAP = 2000;
+
+	/**
+	 * @return 2 x 2 areas
+	 */
+	private static List<Area> createAreas() {
+		List<Area> areas = new ArrayList<>();
+		int size = 0x10000;
+		for (int i = 0; i < 4; i++) {
+			int lat = (i / 2) * size;
+			int lon = (i % 2) * size;
+			Area area = new Area(lat, lon, lat + size, lon + size);
+			area.setMapId(63240001 + i);
+			area.setEstimatedNodes(1000 * (i + 1));
+			areas.add(area);
+		}
+		return areas;
+	}
+
+	private static AreaSet set(int... areas) {
+		AreaSet set = new AreaSet();
+		for (int i : areas)
+			set.set(i);
+		return set;
+	}
+
+	private static void checkArea(Area expected, Area area) {
+		assertEquals(expected.getMinLat(), area.getMinLat());
+		assertEquals(expected.getMinLong(), area.getMinLong());
+		assertEquals(expected.getMaxLat(), area.getMaxLat());
+		assertEquals(expected.getMaxLong(), area.getMaxLong());
+	}
+
+	private static void cleanup(File dir) {
+		for (File f : dir.listFiles())
+			f.delete();
+		dir.delete();
+	}
+
+	/**
+	 * The coordinator data with additional dictionary entries, relations
+	 * which are written to one tile only and writer maps for nodes and
+	 * relations.
+	 */
+	private static DataStorer createDataStorer(List<Area> areas) {
+		DataStorer dataStorer = new DataStorer(areas, OVERLAP, AreaIndexFactory.AUTO);
+		AreaDictionary dict = dataStorer.getAreaDictionary();
+		int set01 = dict.translate(set(0, 1));
+		int set123 = dict.translate(set(1, 2, 3));
+
+		DataStorer distinct = new DataStorer(areas, 0, AreaIndexFactory.AUTO);
+		distinct.storeRelationAreas(-5, set(2));
+		distinct.storeRelationAreas(7, set(0));
+		distinct.storeRelationAreas(Long.MIN_VALUE + 1, set(3));
+		dataStorer.translateDistinctToRealAreas(distinct);
+
+		Long2IntClosedMap nodes = new Long2IntClosedMap("node", 10, AbstractMapProcessor.UNASSIGNED);
+		nodes.add(-3, set01);
+		nodes.add(5, AbstractMapProcessor.UNASSIGNED);
+		nodes.add(6, set123);
+		nodes.add(1L << 40, set01);
+		dataStorer.setWriterMap(DataStorer.NODE_TYPE, nodes);
+		Long2IntClosedMap rels = new Long2IntClosedMap("rel", 10, AbstractMapProcessor.UNASSIGNED);
+		rels.add(-1, set123);
+		dataStorer.setWriterMap(DataStorer.REL_TYPE, rels);
+		return dataStorer;
+	}
+
+	@Test
+	public void testSaveAndLoad() throws IOException {
+		File dir = Files.createTempDirectory("shard-test").toFile();
+		try {
+			List<Area> areas = createAreas();
+			DataStorer saved = createDataStorer(areas);
+			ShardData.save(dir, saved, 2, OVERLAP);
+			assertTrue(new File(dir, ShardData.FILE_NAME).exists());
+
+			ShardData shardData = ShardData.load(dir, 2, AreaIndexFactory.AUTO);
+			assertEquals(OVERLAP, shardData.getOverlapAmount());
+			assertEquals(0, shardData.getFirstArea(1));
+			assertEquals(shardData.getEndArea(1), shardData.getFirstArea(2));
+			assertEquals(areas.size(), shardData.getEndArea(2));
+
+			DataStorer loaded = shardData.getDataStorer();
+			assertEquals(areas.size(), loaded.getNumOfAreas());
+			for (int i = 0; i < areas.size(); i++) {
+				checkArea(areas.get(i), loaded.getArea(i));
+				assertEquals(areas.get(i).getMapId(), loaded.getArea(i).getMapId());
+				assertEquals(areas.get(i).getEstimatedNodes(), loaded.getArea(i).getEstimatedNodes());
+				checkArea(saved.getExtendedArea(i), loaded.getExtendedArea(i));
+			}
+
+			AreaDictionary savedDict = saved.getAreaDictionary();
+			AreaDictionary loadedDict = loaded.getAreaDictionary();
+			assertEquals(savedDict.size(), loadedDict.size());
+			for (AreaSet set : new AreaSet[] { set(0, 1), set(1, 2, 3), set(3) })
+				assertEquals(savedDict.translate(set), loadedDict.translate(set));
+			assertEquals(savedDict.size(), loadedDict.size());
+
+			for (long id : new long[] { -5, 7, Long.MIN_VALUE + 1 })
+				assertEquals(saved.getOneTileOnlyRels(id), loaded.getOneTileOnlyRels(id));
+			assertEquals(savedDict.translate(set(2)), loaded.getOneTileOnlyRels(-5));
+			assertNull(loaded.getOneTileOnlyRels(5));
+
+			Long2IntClosedMapFunction nodes = loaded.getWriterMap(DataStorer.NODE_TYPE);
+			assertEquals(3, nodes.size());
+			assertEquals(-3, nodes.nextKeySeq());
+			assertEquals(6, nodes.nextKeySeq());
+			assertEquals(1L << 40, nodes.nextKeySeq());
+			assertEquals(Long.MAX_VALUE, nodes.nextKeySeq());
+			nodes.close();
+			assertEquals((int) savedDict.translate(set(0, 1)), nodes.getSeq(-3));
+			assertEquals(AbstractMapProcessor.UNASSIGNED, nodes.getSeq(5));
+			assertEquals((int) savedDict.translate(set(1, 2, 3)), nodes.getSeq(6));
+			assertEquals((int) savedDict.translate(set(0, 1)), nodes.getSeq(1L << 40));
+			assertNull(loaded.getWriterMap(DataStorer.WAY_TYPE));
+			Long2IntClosedMapFunction rels = loaded.getWriterMap(DataStorer.REL_TYPE);
+			assertEquals((int) savedDict.translate(set(1, 2, 3)), rels.getSeq(-1));
+
+			// the files are used by all shards and must not be deleted
+			loaded.finish();
+			assertEquals(3, dir.listFiles().length);
+			assertEquals(3, ShardData.load(dir, 2, AreaIndexFactory.AUTO).getDataStorer()
+					.getWriterMap(DataStorer.NODE_TYPE).size());
+		} finally {
+			cleanup(dir);
+		}
+	}
+
+	@Test
+	public void testWrongNumberOfShards() throws IOException {
+		File dir = Files.createTempDirectory("shard-test").toFile();
+		try {
+			ShardData.save(dir, createDataStorer(createAreas()), 2, OVERLAP);
+			try {
+				ShardData.load(dir, 3, AreaIndexFactory.AUTO);
+				fail("wrong number of shards was accepted");
+			} catch (SplitFailedException e) {
+				assertTrue(e.getMessage(), e.getMessage().contains("2 shards, not for 3"));
+			}
+			try (RandomAccessFile raf = new RandomAccessFile(new File(dir, ShardData.FILE_NAME), "rw")) {
+				raf.writeInt(0);
+			}
+			try {
+				ShardData.load(dir, 2, AreaIndexFactory.AUTO);
+				fail("unknown format was accepted");
+			} catch (SplitFailedException e) {
+				assertTrue(e.getMessage(), e.getMessage().contains("unknown format"));
+			}
+		} finally {
+			cleanup(dir);
+		}
+	}
+
+	@Test(expected = SplitFailedException.class)
+	public void testMissingFile() throws IOException {
+		File dir = Files.createTempDirectory("shard-test").toFile();
+		try {
+			ShardData.load(dir, 2, AreaIndexFactory.AUTO);
+		} finally {
+			cleanup(dir);
+		}
+	}
+
+	/**
+	 * The sets must get the same int values as in the saved dictionary.
+	 */
+	@Test
+	public void testDictionaryMismatch() throws IOException {
+		List<Area> areas = createAreas();
+		AreaDictionary saved = new AreaDictionary(areas, 0);
+		saved.translate(set(0, 1));
+		saved.translate(set(1, 2, 3));
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try (DataOutputStream dos = new DataOutputStream(bos)) {
+			saved.write(dos);
+		}
+
+		AreaDictionary loaded = new AreaDictionary(areas, 0);
+		loaded.read(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+		assertEquals(saved.size(), loaded.size());
+
+		AreaDictionary other = new AreaDictionary(areas, 0);
+		other.translate(set(1, 2, 3));
+		try {
+			other.read(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+			fail("dictionary with different order was accepted");
+		} catch (IOException e) {
+			assertEquals("area dictionary doesn't match the areas", e.getMessage());
+		}
+	}
+}
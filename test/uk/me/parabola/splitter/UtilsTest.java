@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+package uk.me.parabola.splitter;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the coordinate conversions in {@link Utils}.
+ */
+public class UtilsTest {
+	@Test
+	public void testFixedToMapUnit() {
+		int[] values = { 0, 1, -1, 10, -10, 900_000_000, -900_000_000, 1_800_000_000, -1_800_000_000, 515_123_456,
+				-1_234_567, 2_145_767, 2_145_768, -2_145_767, -2_145_768 };
+		for (int v : values)
+			check(v);
+		Random random = new Random(42);
+		for (int i = 0; i < 1_000_000; i++)
+			check((int) (random.nextDouble() * 3_600_000_000L - 1_800_000_000));
+		// values around the rounding boundaries
+		for (int mapUnit = -1000; mapUnit <= 1000; mapUnit++) {
+			int fixed = (int) Math.round((mapUnit + 0.5) * 3_600_000_000.0 / (1 << 24));
+			for (int d = -2; d <= 2; d++)
+				check(fixed + d);
+		}
+	}
+
+	private static void check(int fixed) {
+		double degrees = fixed * (1d / Utils.FIXED_POINT_UNITS);
+		assertEquals("value " + fixed, Utils.toMapUnit(degrees), Utils.fixedToMapUnit(fixed));
+		assertEquals(fixed, Utils.toFixed(Utils.fixedToDegrees(fixed)));
+	}
+}
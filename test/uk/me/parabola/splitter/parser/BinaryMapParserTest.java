@@ -0,0 +1,338 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+package uk.me.parabola.splitter.parser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.WireFormat;
+
+import crosby.binary.Osmformat;
+import uk.me.parabola.splitter.AbstractMapProcessor;
+import uk.me.parabola.splitter.Node;
+import uk.me.parabola.splitter.Relation;
+import uk.me.parabola.splitter.Way;
+
+/**
+ * Unit tests for the protobuf decoder of the {@link BinaryMapParser}. The
+ * blocks are created with the generated Osmformat classes. Fields which they
+ * don't write, e.g. unknown fields or repeated fields that are not packed,
+ * are appended in the wire format, protobuf merges concatenated messages.
+ */
+public class BinaryMapParserTest {
+	private static final String[] STRINGS = { "", "highway", "residential", "name", "Main Street", "outer", "type",
+			"multipolygon" };
+	private static final int GRANULARITY = 1000;
+	private static final long LAT_OFFSET = 10_000_000_000L;
+	private static final long LON_OFFSET = -20_000_000_000L;
+
+	/**
+	 * Collects the decoded elements.
+	 */
+	private static class Collector extends AbstractMapProcessor {
+		final List<Node> nodes = new ArrayList<>();
+		final List<Way> ways = new ArrayList<>();
+		final List<Relation> rels = new ArrayList<>();
+
+		@Override
+		public void processNode(Node n) {
+			nodes.add(n);
+		}
+
+		@Override
+		public void processWay(Way w) {
+			ways.add(w);
+		}
+
+		@Override
+		public void processRelation(Relation r) {
+			rels.add(r);
+		}
+	}
+
+	/**
+	 * Writes fields in the protobuf wire format.
+	 */
+	private static class Fields {
+		private final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		private final CodedOutputStream out = CodedOutputStream.newInstance(bos);
+
+		/** a repeated sint64 field that is not packed */
+		Fields sint64(int field, long... values) throws IOException {
+			for (long v : values)
+				out.writeSInt64(field, v);
+			return this;
+		}
+
+		/** a repeated int32 field that is not packed */
+		Fields int32(int field, int... values) throws IOException {
+			for (int v : values)
+				out.writeInt32(field, v);
+			return this;
+		}
+
+		Fields message(int field, byte[] data) throws IOException {
+			out.writeBytes(field, ByteString.copyFrom(data));
+			return this;
+		}
+
+		/** fields of all wire types with numbers that are not used in the pbf format */
+		Fields unknown() throws IOException {
+			out.writeUInt64(30, 1L << 40);
+			out.writeFixed64(31, -1);
+			out.writeBytes(32, ByteString.copyFromUtf8("unknown"));
+			out.writeFixed32(33, 12345);
+			out.writeTag(34, WireFormat.WIRETYPE_START_GROUP);
+			out.writeUInt32(1, 5);
+			out.writeBytes(2, ByteString.copyFromUtf8("nested"));
+			out.writeTag(34, WireFormat.WIRETYPE_END_GROUP);
+			return this;
+		}
+
+		byte[] toByteArray() throws IOException {
+			out.flush();
+			return bos.toByteArray();
+		}
+	}
+
+	private static byte[] concat(MessageLite message, Fields fields) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		message.writeTo(bos);
+		bos.write(fields.toByteArray());
+		return bos.toByteArray();
+	}
+
+	private static Osmformat.StringTable stringTable() {
+		Osmformat.StringTable.Builder st = Osmformat.StringTable.newBuilder();
+		for (String s : STRINGS)
+			st.addS(ByteString.copyFromUtf8(s));
+		return st.build();
+	}
+
+	/** the first two of the three dense nodes */
+	private static Osmformat.DenseNodes.Builder denseNodes() {
+		return Osmformat.DenseNodes.newBuilder().addId(100).addId(1).addLat(50_000).addLat(1).addLon(0).addLon(-3)
+				.addKeysVals(1).addKeysVals(2).addKeysVals(0).addKeysVals(0)
+				.setDenseinfo(Osmformat.DenseInfo.newBuilder().addVersion(3).addVersion(1).addTimestamp(10)
+						.addTimestamp(20));
+	}
+
+	/** a node with an Info without version */
+	private static Osmformat.Node node() {
+		return Osmformat.Node.newBuilder().setId(7).setLat(-12_345).setLon(99_999).addKeys(3).addVals(4)
+				.setInfo(Osmformat.Info.newBuilder().setTimestamp(1000)).build();
+	}
+
+	/** the way without its second node */
+	private static Osmformat.Way.Builder way() {
+		return Osmformat.Way.newBuilder().setId(5_000_000_000L).addKeys(1).addVals(2).addRefs(100)
+				.setInfo(Osmformat.Info.newBuilder().setVersion(2));
+	}
+
+	/** the relation without its second member and without Info */
+	private static Osmformat.Relation.Builder relation() {
+		return Osmformat.Relation.newBuilder().setId(30).addKeys(6).addVals(7).addRolesSid(5).addMemids(20)
+				.addTypes(Osmformat.Relation.MemberType.WAY);
+	}
+
+	private static Osmformat.PrimitiveBlock.Builder blockHeader() {
+		return Osmformat.PrimitiveBlock.newBuilder().setGranularity(GRANULARITY).setLatOffset(LAT_OFFSET)
+				.setLonOffset(LON_OFFSET);
+	}
+
+	/**
+	 * @return a block with the test elements that only uses the generated classes
+	 */
+	private static byte[] createBlock() {
+		Osmformat.DenseNodes.Builder dense = denseNodes().addId(4).addLat(-2).addLon(10).addKeysVals(3)
+				.addKeysVals(4).addKeysVals(0);
+		dense.setDenseinfo(dense.getDenseinfo().toBuilder().addVersion(7).addTimestamp(30));
+		return blockHeader().setStringtable(stringTable())
+				.addPrimitivegroup(Osmformat.PrimitiveGroup.newBuilder().setDense(dense))
+				.addPrimitivegroup(Osmformat.PrimitiveGroup.newBuilder().addNodes(node()))
+				.addPrimitivegroup(Osmformat.PrimitiveGroup.newBuilder().addWays(way().addRefs(-93)))
+				.addPrimitivegroup(Osmformat.PrimitiveGroup.newBuilder().addRelations(relation().addRolesSid(0)
+						.addMemids(-13).addTypes(Osmformat.Relation.MemberType.NODE)))
+				.build().toByteArray();
+	}
+
+	/**
+	 * @return a block with the same elements as {@link #createBlock()}, the
+	 * last value of each repeated field is not packed, all messages contain
+	 * unknown fields, and the groups are placed before the string table and
+	 * the granularity
+	 */
+	private static byte[] createRawBlock() throws IOException {
+		byte[] denseInfo = new Fields().int32(1, 7).sint64(2, 10).unknown().toByteArray();
+		byte[] dense = concat(denseNodes().build(), new Fields().sint64(1, 4).sint64(8, -2).sint64(9, 10)
+				.int32(10, 3, 4, 0).message(5, denseInfo).unknown());
+		byte[] node = concat(node(), new Fields().unknown());
+		byte[] way = concat(way().build(), new Fields().sint64(8, -93).unknown());
+		byte[] rel = concat(relation().build(), new Fields().int32(8, 0).sint64(9, -13).int32(10, 0).unknown());
+		byte[] stringTable = concat(stringTable(), new Fields().unknown());
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		bos.write(new Fields().unknown()
+				.message(2, new Fields().message(2, dense).unknown().toByteArray())
+				.message(2, new Fields().unknown().message(1, node).toByteArray())
+				.message(2, new Fields().message(3, way).unknown().toByteArray())
+				.message(2, new Fields().message(4, rel).unknown().toByteArray())
+				.message(1, stringTable).toByteArray());
+		bos.write(concat(blockHeader().buildPartial(), new Fields().unknown()));
+		return bos.toByteArray();
+	}
+
+	private static Collector parse(byte[] block, AbstractMapProcessor processor) {
+		// the block doesn't start at the beginning of the buffer
+		byte[] buf = new byte[block.length + 20];
+		System.arraycopy(block, 0, buf, 10, block.length);
+		new BinaryMapParser(processor, 0).parse(buf, 10, block.length);
+		return processor instanceof Collector ? (Collector) processor : null;
+	}
+
+	private static void checkElements(Collector c) {
+		assertEquals(4, c.nodes.size());
+		long[] ids = { 100, 101, 105, 7 };
+		int[] versions = { 3, 1, 7, -1 };
+		// the values in the block * granularity + offset, in units of 1e-7 degrees
+		int[] lats = { 100_500_000, 100_500_010, 100_499_990, 99_876_550 };
+		int[] lons = { -200_000_000, -200_000_030, -199_999_930, -199_000_010 };
+		for (int i = 0; i < ids.length; i++) {
+			Node n = c.nodes.get(i);
+			assertEquals(ids[i], n.getId());
+			assertEquals(versions[i], n.getVersion());
+			assertEquals(lats[i], n.getFixedLat());
+			assertEquals(lons[i], n.getFixedLon());
+		}
+		assertEquals("residential", c.nodes.get(0).getTag("highway"));
+		assertEquals(false, c.nodes.get(1).hasTags());
+		assertEquals("Main Street", c.nodes.get(2).getTag("name"));
+		assertEquals("Main Street", c.nodes.get(3).getTag("name"));
+
+		assertEquals(1, c.ways.size());
+		Way w = c.ways.get(0);
+		assertEquals(5_000_000_000L, w.getId());
+		assertEquals(2, w.getVersion());
+		assertArrayEquals(new long[] { 100, 7 }, w.getRefs().toLongArray());
+		assertEquals("residential", w.getTag("highway"));
+
+		assertEquals(1, c.rels.size());
+		Relation r = c.rels.get(0);
+		assertEquals(30, r.getId());
+		assertEquals(-1, r.getVersion());
+		assertEquals("multipolygon", r.getTag("type"));
+		assertEquals(2, r.getMemberCount());
+		assertEquals(Relation.MEM_WAY, r.getMemberType(0));
+		assertEquals(20, r.getMemberRef(0));
+		assertEquals("outer", r.getMemberRole(0));
+		assertEquals(Relation.MEM_NODE, r.getMemberType(1));
+		assertEquals(7, r.getMemberRef(1));
+		assertEquals("", r.getMemberRole(1));
+	}
+
+	@Test
+	public void testBlock() {
+		checkElements(parse(createBlock(), new Collector()));
+	}
+
+	@Test
+	public void testNonPackedAndUnknownFields() throws IOException {
+		checkElements(parse(createRawBlock(), new Collector()));
+	}
+
+	@Test
+	public void testDecodeNodeIds() throws IOException {
+		long[] expected = { 100, 101, 105, 7 };
+		assertArrayEquals(expected, BinaryMapParser.decodeNodeIds(createBlock(), 0, createBlock().length));
+		byte[] raw = createRawBlock();
+		assertArrayEquals(expected, BinaryMapParser.decodeNodeIds(raw, 0, raw.length));
+	}
+
+	@Test
+	public void testWantedKeys() throws IOException {
+		final List<Node> nodes = new ArrayList<>();
+		parse(createRawBlock(), new AbstractMapProcessor() {
+			@Override
+			public Set<String> getWantedKeys() {
+				return Collections.singleton("name");
+			}
+
+			@Override
+			public void processNode(Node n) {
+				nodes.add(n);
+			}
+		});
+		assertEquals(4, nodes.size());
+		assertEquals(false, nodes.get(0).hasTags());
+		assertNull(nodes.get(0).getTag("highway"));
+		assertEquals("Main Street", nodes.get(3).getTag("name"));
+	}
+
+	@Test
+	public void testRounding() {
+		// with a granularity of 1 nanodegree the values are rounded to 1e-7 degrees
+		Osmformat.DenseNodes.Builder dense = Osmformat.DenseNodes.newBuilder();
+		long[] raw = { 1_234_567_849, 1_234_567_850, -150, -151, 0 };
+		int[] expected = { 12_345_678, 12_345_679, -1, -2, 0 };
+		long last = 0;
+		for (int i = 0; i < raw.length; i++) {
+			dense.addId(1).addLat(raw[i] - last).addLon(0);
+			last = raw[i];
+		}
+		byte[] block = Osmformat.PrimitiveBlock.newBuilder().setStringtable(stringTable()).setGranularity(1)
+				.addPrimitivegroup(Osmformat.PrimitiveGroup.newBuilder().setDense(dense)).build().toByteArray();
+		Collector c = parse(block, new Collector());
+		assertEquals(raw.length, c.nodes.size());
+		for (int i = 0; i < raw.length; i++) {
+			assertEquals(i + 1, c.nodes.get(i).getId());
+			assertEquals(expected[i], c.nodes.get(i).getFixedLat());
+			// without a version in the block
+			assertEquals(0, c.nodes.get(i).getVersion());
+		}
+	}
+
+	@Test
+	public void testDenseInfoWithoutVersion() {
+		Osmformat.DenseNodes.Builder dense = Osmformat.DenseNodes.newBuilder().addId(1).addId(1).addLat(0)
+				.addLat(0).addLon(0).addLon(0)
+				.setDenseinfo(Osmformat.DenseInfo.newBuilder().addTimestamp(10).addTimestamp(0));
+		byte[] block = Osmformat.PrimitiveBlock.newBuilder().setStringtable(stringTable())
+				.addPrimitivegroup(Osmformat.PrimitiveGroup.newBuilder().setDense(dense)).build().toByteArray();
+		Collector c = parse(block, new Collector());
+		assertEquals(2, c.nodes.size());
+		assertEquals(-1, c.nodes.get(0).getVersion());
+		assertEquals(-1, c.nodes.get(1).getVersion());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnterminatedGroup() throws IOException {
+		Fields fields = new Fields();
+		fields.out.writeTag(34, WireFormat.WIRETYPE_START_GROUP);
+		fields.out.writeUInt32(1, 5);
+		byte[] block = concat(Osmformat.PrimitiveBlock.newBuilder().setStringtable(stringTable()).build(), fields);
+		parse(block, new Collector());
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+package uk.me.parabola.splitter.parser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for saving and loading the index files of pbf and o5m files.
+ * A damaged index must be ignored.
+ */
+public class IndexFileTest {
+
+	private static File createDataFile(File dir, String name) throws IOException {
+		File f = new File(dir, name);
+		byte[] data = new byte[10000];
+		new Random(42).nextBytes(data);
+		Files.write(f.toPath(), data);
+		return f;
+	}
+
+	private static void patchInt(File f, long pos, int value) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+			raf.seek(pos);
+			raf.writeInt(value);
+		}
+	}
+
+	private static void cleanup(File dir) {
+		for (File f : dir.listFiles())
+			f.delete();
+		dir.delete();
+	}
+
+	@Test
+	public void testPbfIndex() throws IOException {
+		File dir = Files.createTempDirectory("index-test").toFile();
+		try {
+			File pbf = createDataFile(dir, "test.osm.pbf");
+			File indexFile = new File(pbf.getPath() + PbfBlockIndex.SUFFIX);
+			try (FileInputStream in = new FileInputStream(pbf)) {
+				FileChannel channel = in.getChannel();
+				PbfBlockIndex index = new PbfBlockIndex();
+				index.add(0, 100, (short) 0, 0, 0, 1, 1, 0, 0);
+				index.add(100, 5000, (short) 1, 1, 1000, 10, 20, 30, 40);
+				index.save(pbf, channel, pbf.lastModified());
+				// only the index is left, no temporary file
+				assertEquals(2, dir.listFiles().length);
+				PbfBlockIndex loaded = PbfBlockIndex.load(pbf, channel);
+				assertNotNull(loaded);
+				assertEquals(2, loaded.size());
+				assertEquals(100, loaded.getOffset(1));
+				assertEquals(5000, loaded.getSize(1));
+				assertEquals(1000, loaded.getMaxId(1));
+
+				byte[] saved = Files.readAllBytes(indexFile.toPath());
+				// the number of blocks
+				for (int n : new int[] { -1, 0, 3, Integer.MAX_VALUE }) {
+					patchInt(indexFile, 32, n);
+					assertNull(PbfBlockIndex.load(pbf, channel));
+				}
+				// the size of the first block
+				for (int size : new int[] { -1, 20000 }) {
+					Files.write(indexFile.toPath(), saved);
+					patchInt(indexFile, 36 + 8, size);
+					assertNull(PbfBlockIndex.load(pbf, channel));
+				}
+				// a truncated file
+				Files.write(indexFile.toPath(), Arrays.copyOf(saved, saved.length - 10));
+				assertNull(PbfBlockIndex.load(pbf, channel));
+				Files.write(indexFile.toPath(), saved);
+				assertNotNull(PbfBlockIndex.load(pbf, channel));
+			}
+		} finally {
+			cleanup(dir);
+		}
+	}
+
+	@Test
+	public void testO5mIndex() throws IOException {
+		File dir = Files.createTempDirectory("index-test").toFile();
+		try {
+			File o5m = createDataFile(dir, "test.o5m");
+			File indexFile = new File(o5m.getPath() + O5mIndex.SUFFIX);
+			try (FileInputStream in = new FileInputStream(o5m)) {
+				FileChannel channel = in.getChannel();
+				O5mIndex index = new O5mIndex(o5m.length());
+				index.addReset(0);
+				index.addType(O5mIndex.TYPE_NODES);
+				long[] positions = { 10, 20, 30 };
+				long[] deltas = new long[O5mIndex.NUM_DELTAS];
+				deltas[0] = 1234;
+				index.addCheckPoint(5000, deltas, O5mIndex.encodePositions(positions, positions.length));
+				index.addType(O5mIndex.TYPE_WAYS);
+				index.save(o5m, channel, o5m.lastModified());
+				assertEquals(2, dir.listFiles().length);
+				O5mIndex loaded = O5mIndex.load(o5m, channel);
+				assertNotNull(loaded);
+				assertEquals(2, loaded.size());
+				assertEquals(5000, loaded.getStart(1));
+
+				byte[] saved = Files.readAllBytes(indexFile.toPath());
+				// header: 36 bytes, first segment without check point: 45 bytes
+				int segPos = 36 + 45;
+				int deltasPos = segPos + 8 + 4 + 1;
+				int stringTablePos = deltasPos + 4 + 8 * O5mIndex.NUM_DELTAS;
+				long[][] patches = { { 32, -1 }, { 32, Integer.MAX_VALUE }, { deltasPos, -1 },
+						{ deltasPos, Integer.MAX_VALUE }, { stringTablePos, -1 }, { stringTablePos, Integer.MAX_VALUE },
+						{ stringTablePos + 4, -1 }, { stringTablePos + 4, 1000 }, { segPos + 4, -1 } };
+				for (long[] patch : patches) {
+					Files.write(indexFile.toPath(), saved);
+					patchInt(indexFile, patch[0], (int) patch[1]);
+					assertNull("patch at " + patch[0], O5mIndex.load(o5m, channel));
+				}
+				Files.write(indexFile.toPath(), Arrays.copyOf(saved, saved.length - 10));
+				assertNull(O5mIndex.load(o5m, channel));
+				Files.write(indexFile.toPath(), saved);
+				assertNotNull(O5mIndex.load(o5m, channel));
+			}
+		} finally {
+			cleanup(dir);
+		}
+	}
+
+	@Test
+	public void testDecodePositions() {
+		long[] positions = { 1, 200, 70000, 1L << 40 };
+		assertArrayEquals(positions, O5mIndex.decodePositions(O5mIndex.encodePositions(positions, positions.length)));
+	}
+}
@@ -0,0 +1,380 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+package uk.me.parabola.splitter.parser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import uk.me.parabola.splitter.AbstractMapProcessor;
+import uk.me.parabola.splitter.Node;
+import uk.me.parabola.splitter.Relation;
+import uk.me.parabola.splitter.Way;
+
+/**
+ * Unit tests for the {@link O5mMapParser}. The o5m data is written by hand,
+ * the relations refer to member roles which are stored in the string table
+ * between the tags of other elements.
+ */
+public class O5mMapParserTest {
+	private static final int NODE_DATASET = 0x10;
+	private static final int WAY_DATASET = 0x11;
+	private static final int REL_DATASET = 0x12;
+	private static final int HEADER_DATASET = 0xe0;
+	private static final int EOD_FLAG = 0xfe;
+	private static final int RESET_FLAG = 0xff;
+
+	/**
+	 * Collects the decoded elements.
+	 */
+	private static class Collector extends AbstractMapProcessor {
+		final List<Node> nodes = new ArrayList<>();
+		final List<Way> ways = new ArrayList<>();
+		final List<Relation> rels = new ArrayList<>();
+
+		@Override
+		public void processNode(Node n) {
+			nodes.add(n);
+		}
+
+		@Override
+		public void processWay(Way w) {
+			ways.add(w);
+		}
+
+		@Override
+		public void processRelation(Relation r) {
+			rels.add(r);
+		}
+	}
+
+	/**
+	 * Writes the o5m data sets.
+	 */
+	private static class O5mWriter {
+		private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		private ByteArrayOutputStream data = new ByteArrayOutputStream();
+		// node, way and relation ids
+		private final long[] lastId = new long[3];
+		private final long[] lastRef = new long[3];
+		private int lastLon, lastLat;
+		// the type of the data set in data
+		private int pendingType = -1;
+
+		O5mWriter() {
+			out.write(RESET_FLAG);
+			out.write(HEADER_DATASET);
+			out.write(4);
+			out.write('o'); out.write('5'); out.write('m'); out.write('2');
+		}
+
+		private static void unsigned(ByteArrayOutputStream os, long v) {
+			while (v >= 0x80) {
+				os.write((int) (v & 0x7f) | 0x80);
+				v >>>= 7;
+			}
+			os.write((int) v);
+		}
+
+		private static void signed(ByteArrayOutputStream os, long v) {
+			unsigned(os, v < 0 ? ((-v - 1) << 1) | 1 : v << 1);
+		}
+
+		private static void string(ByteArrayOutputStream os, String s) {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			os.write(bytes, 0, bytes.length);
+			os.write(0);
+		}
+
+		/** a new string pair */
+		O5mWriter pair(String key, String value) {
+			data.write(0);
+			string(data, key);
+			string(data, value);
+			return this;
+		}
+
+		/** a reference to the string pair which was stored n pairs ago */
+		O5mWriter pairRef(int n) {
+			unsigned(data, n);
+			return this;
+		}
+
+		private void end(int type) {
+			out.write(type);
+			unsigned(out, data.size());
+			out.write(data.toByteArray(), 0, data.size());
+			data = new ByteArrayOutputStream();
+		}
+
+		O5mWriter node(long id, int lon, int lat) {
+			end();
+			signed(data, id - lastId[0]);
+			data.write(0); // no version
+			signed(data, lon - lastLon);
+			signed(data, lat - lastLat);
+			lastLon = lon;
+			lastLat = lat;
+			lastId[0] = id;
+			pendingType = NODE_DATASET;
+			return this;
+		}
+
+		O5mWriter way(long id, long... refs) {
+			end();
+			signed(data, id - lastId[1]);
+			data.write(0);
+			ByteArrayOutputStream r = new ByteArrayOutputStream();
+			for (long ref : refs) {
+				signed(r, ref - lastRef[0]);
+				lastRef[0] = ref;
+			}
+			unsigned(data, r.size());
+			data.write(r.toByteArray(), 0, r.size());
+			lastId[1] = id;
+			pendingType = WAY_DATASET;
+			return this;
+		}
+
+		/**
+		 * @param members type, id and role of each member, a role "#n" is a
+		 *            reference to the string which was stored n pairs ago
+		 */
+		O5mWriter rel(long id, Object... members) {
+			end();
+			signed(data, id - lastId[2]);
+			data.write(0);
+			ByteArrayOutputStream r = new ByteArrayOutputStream();
+			for (int i = 0; i < members.length; i += 3) {
+				int type = (Integer) members[i];
+				long ref = (Long) members[i + 1];
+				String role = (String) members[i + 2];
+				signed(r, ref - lastRef[type]);
+				lastRef[type] = ref;
+				if (role.startsWith("#")) {
+					unsigned(r, Integer.parseInt(role.substring(1)));
+				} else {
+					r.write(0);
+					string(r, type + role);
+				}
+			}
+			unsigned(data, r.size());
+			data.write(r.toByteArray(), 0, r.size());
+			lastId[2] = id;
+			pendingType = REL_DATASET;
+			return this;
+		}
+
+		private void end() {
+			if (pendingType >= 0)
+				end(pendingType);
+			pendingType = -1;
+		}
+
+		/** starts a new segment, the ids and the string table are reset */
+		O5mWriter reset() {
+			end();
+			out.write(RESET_FLAG);
+			for (int i = 0; i < 3; i++)
+				lastId[i] = lastRef[i] = 0;
+			lastLon = lastLat = 0;
+			return this;
+		}
+
+		byte[] toByteArray() {
+			end();
+			out.write(EOD_FLAG);
+			return out.toByteArray();
+		}
+	}
+
+	/**
+	 * Relations and ways between elements with tags. The tag pairs are
+	 * stored before and between the member roles, so the string references
+	 * in the relations depend on all of them.
+	 */
+	private static byte[] createMixedSegment() {
+		return new O5mWriter()
+				.node(1, 100, 200).pair("name", "a")
+				.node(2, 300, 400).pair("highway", "crossing")
+				.rel(10, 1, 20L, "outer").pair("type", "multipolygon")
+				.way(21, 1, 2).pair("highway", "road")
+				// "outer" was stored 3 pairs ago, then the new role "" of the node
+				.rel(11, 1, 21L, "#3", 0, 2L, "").pairRef(3)
+				.way(22, 2, 1).pairRef(3)
+				.toByteArray();
+	}
+
+	private static O5mIndex createIndex(File f) throws IOException {
+		try (FileInputStream in = new FileInputStream(f)) {
+			O5mMapParser parser = new O5mMapParser(new Collector(), in.getChannel(), null);
+			parser.parse();
+			return parser.getIndex();
+		}
+	}
+
+	private static <T extends AbstractMapProcessor> T parse(File f, O5mIndex index, T processor) throws IOException {
+		try (FileInputStream in = new FileInputStream(f)) {
+			new O5mMapParser(processor, in.getChannel(), index).parse();
+		}
+		return processor;
+	}
+
+	private static File write(byte[] data) throws IOException {
+		File f = File.createTempFile("o5m-test", ".o5m");
+		f.deleteOnExit();
+		Files.write(f.toPath(), data);
+		return f;
+	}
+
+	private static void checkWays(Collector c) {
+		assertEquals(2, c.ways.size());
+		assertEquals(21, c.ways.get(0).getId());
+		assertArrayEquals(new long[] { 1, 2 }, c.ways.get(0).getRefs().toLongArray());
+		assertEquals(22, c.ways.get(1).getId());
+		assertArrayEquals(new long[] { 2, 1 }, c.ways.get(1).getRefs().toLongArray());
+	}
+
+	private static void checkRels(Collector c) {
+		assertEquals(2, c.rels.size());
+		Relation r = c.rels.get(1);
+		assertEquals(11, r.getId());
+		assertEquals(2, r.getMemberCount());
+		assertEquals(Relation.MEM_WAY, r.getMemberType(0));
+		assertEquals(21, r.getMemberRef(0));
+		assertEquals("outer", r.getMemberRole(0));
+		assertEquals(Relation.MEM_NODE, r.getMemberType(1));
+		assertEquals(2, r.getMemberRef(1));
+		assertEquals("", r.getMemberRole(1));
+	}
+
+	@Test
+	public void testFullParse() throws IOException {
+		File f = write(createMixedSegment());
+		Collector c = parse(f, null, new Collector());
+		assertEquals(2, c.nodes.size());
+		assertEquals("crossing", c.nodes.get(1).getTag("highway"));
+		checkWays(c);
+		assertEquals("road", c.ways.get(0).getTag("highway"));
+		assertEquals("multipolygon", c.ways.get(1).getTag("type"));
+		checkRels(c);
+		assertEquals("multipolygon", c.rels.get(1).getTag("type"));
+	}
+
+	/**
+	 * The relations are skipped but decoded to maintain the delta values,
+	 * so the roles have to be resolved with the complete string table.
+	 */
+	@Test
+	public void testSkippedRelations() throws IOException {
+		File f = write(createMixedSegment());
+		O5mIndex index = createIndex(f);
+		Collector c = parse(f, index, new Collector() {
+			@Override
+			public boolean skipTags() {
+				return true;
+			}
+
+			@Override
+			public boolean skipRels() {
+				return true;
+			}
+		});
+		assertEquals(0, c.rels.size());
+		checkWays(c);
+	}
+
+	@Test
+	public void testRelationsWithoutTags() throws IOException {
+		File f = write(createMixedSegment());
+		Collector c = parse(f, createIndex(f), new Collector() {
+			@Override
+			public boolean skipTags() {
+				return true;
+			}
+		});
+		checkWays(c);
+		checkRels(c);
+		assertEquals(false, c.rels.get(1).hasTags());
+	}
+
+	/**
+	 * The tags of a segment without relations are skipped.
+	 */
+	@Test
+	public void testSegments() throws IOException {
+		byte[] data = new O5mWriter()
+				.node(1, 100, 200).pair("name", "a")
+				.way(21, 1, 2).pairRef(1)
+				.reset()
+				.node(2, 300, 400).pair("name", "b")
+				.rel(10, 1, 20L, "outer").pairRef(2)
+				.way(22, 2, 1).pairRef(2)
+				.toByteArray();
+		File f = write(data);
+		O5mIndex index = createIndex(f);
+		assertEquals(false, index.contains(index.size() - 2, O5mIndex.TYPE_RELS));
+		assertEquals(true, index.contains(index.size() - 1, O5mIndex.TYPE_RELS));
+		Collector c = parse(f, index, new Collector() {
+			@Override
+			public boolean skipTags() {
+				return true;
+			}
+
+			@Override
+			public boolean skipRels() {
+				return true;
+			}
+		});
+		checkWays(c);
+		assertEquals(2, c.nodes.size());
+	}
+
+	/**
+	 * The nodes of a batch are passed with the precision of the file.
+	 */
+	@Test
+	public void testBatchPrecision() throws IOException {
+		byte[] data = new O5mWriter()
+				.node(1, 86_123_457, 475_432_109)
+				.node(2, -1_234_567_891, -891_234_567)
+				.toByteArray();
+		Collector c = parse(write(data), null, new Collector() {
+			@Override
+			public boolean skipTags() {
+				return true;
+			}
+
+			@Override
+			public boolean useBatches() {
+				return true;
+			}
+		});
+		assertEquals(2, c.nodes.size());
+		assertEquals(475_432_109, c.nodes.get(0).getFixedLat());
+		assertEquals(86_123_457, c.nodes.get(0).getFixedLon());
+		assertEquals(-891_234_567, c.nodes.get(1).getFixedLat());
+		assertEquals(-1_234_567_891, c.nodes.get(1).getFixedLon());
+	}
+}
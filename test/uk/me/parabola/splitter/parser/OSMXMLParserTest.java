@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+package uk.me.parabola.splitter.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.xmlpull.v1.XmlPullParserException;
+
+import uk.me.parabola.splitter.AbstractMapProcessor;
+import uk.me.parabola.splitter.Node;
+import uk.me.parabola.splitter.Relation;
+import uk.me.parabola.splitter.Way;
+
+/**
+ * Unit tests for the byte level OSM XML parser.
+ */
+public class OSMXMLParserTest {
+	private static final String XML = "\uFEFF<?xml version='1.0' encoding='UTF-8'?>\n"
+			+ "<!DOCTYPE osm [ <!ENTITY x 'y'> ]>\n"
+			+ "<osm version=\"0.6\">\n"
+			+ " <!-- a comment with <node> inside -->\n"
+			+ " <node id=\"1\" lat=\"51.5\" lon='-0.125' version=\"3\">\n"
+			+ "  <tag k=\"name\" v=\"A &amp; B &lt;&#228;&#xe4;&gt;\"/>\n"
+			+ "  <tag k = \"note\" v=\"line1\nline2\r\nx\t\u00e4\"/>\n"
+			+ " </node>\n"
+			+ " <node id=\"2\" lat=\"1\" lon=\"2\" action=\"delete\"/>\n"
+			+ " <node id=\"3\" lat=\"1\" lon=\"2\"><![CDATA[ <tag k='a' v='b'/> ]]]></node>\n"
+			+ " <way id=\"10\"><nd ref=\"1\"/><nd ref=\"3\"/><tag k=\"highway\" v=\"road\"/></way>\n"
+			+ " <relation id=\"20\">\n"
+			+ "  <member type=\"way\" ref=\"10\" role=\"outer\"/>\n"
+			+ "  <member type=\"node\" ref=\"1\"/>\n"
+			+ "  <member type=\"area\" ref=\"1\"/>\n"
+			+ " </relation>\n"
+			+ "</osm>\n";
+
+	@Test
+	public void testParse() throws Exception {
+		final List<Node> nodes = new ArrayList<>();
+		final List<Way> ways = new ArrayList<>();
+		final List<Relation> rels = new ArrayList<>();
+		parse(XML, new AbstractMapProcessor() {
+			@Override
+			public void processNode(Node n) {
+				nodes.add(n);
+			}
+
+			@Override
+			public void processWay(Way w) {
+				ways.add(w);
+			}
+
+			@Override
+			public void processRelation(Relation r) {
+				rels.add(r);
+			}
+		});
+		assertEquals(2, nodes.size());
+		Node n = nodes.get(0);
+		assertEquals(1, n.getId());
+		assertEquals(3, n.getVersion());
+		assertEquals(51.5, n.getLat(), 0);
+		assertEquals(-0.125, n.getLon(), 0);
+		assertEquals("A & B <\u00e4\u00e4>", n.getTag("name"));
+		assertEquals("line1 line2 x \u00e4", n.getTag("note"));
+		assertEquals(3, nodes.get(1).getId());
+		assertEquals(false, nodes.get(1).hasTags());
+
+		assertEquals(1, ways.size());
+		assertEquals(10, ways.get(0).getId());
+		assertEquals(2, ways.get(0).getRefs().size());
+		assertEquals(3, ways.get(0).getRefs().getLong(1));
+		assertEquals("road", ways.get(0).getTag("highway"));
+
+		assertEquals(1, rels.size());
+		Relation rel = rels.get(0);
+		assertEquals(2, rel.getMemberCount());
+		assertEquals(Relation.MEM_WAY, rel.getMemberType(0));
+		assertEquals("way", rel.getMemberTypeName(0));
+		assertEquals(10, rel.getMemberRef(0));
+		assertEquals("outer", rel.getMemberRole(0));
+		assertEquals(Relation.MEM_NODE, rel.getMemberType(1));
+		assertEquals("", rel.getMemberRole(1));
+	}
+
+	@Test
+	public void testWantedKeys() throws Exception {
+		final List<Node> nodes = new ArrayList<>();
+		parse(XML, new AbstractMapProcessor() {
+			@Override
+			public Set<String> getWantedKeys() {
+				return Collections.singleton("note");
+			}
+
+			@Override
+			public void processNode(Node n) {
+				nodes.add(n);
+			}
+		});
+		Node n = nodes.get(0);
+		assertEquals(1, n.getTagCount());
+		assertNull(n.getTag("name"));
+		assertEquals("line1 line2 x \u00e4", n.getTag("note"));
+	}
+
+	@Test(expected = XmlPullParserException.class)
+	public void testUnquotedAttribute() throws Exception {
+		parse("<osm><node id=1 lat=\"1\" lon=\"2\"/></osm>", new AbstractMapProcessor() {
+		});
+	}
+
+	/**
+	 * The byte order mark is only skipped at the start of the stream, also
+	 * when each read returns a single byte.
+	 */
+	@Test
+	public void testShortReads() throws Exception {
+		for (String xml : new String[] { XML, XML.substring(1) }) {
+			final List<Node> nodes = new ArrayList<>();
+			InputStream is = new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)) {
+				@Override
+				public synchronized int read(byte[] b, int off, int len) {
+					return super.read(b, off, Math.min(len, 1));
+				}
+			};
+			parse(is, new AbstractMapProcessor() {
+				@Override
+				public void processNode(Node n) {
+					nodes.add(n);
+				}
+			});
+			assertEquals(2, nodes.size());
+			assertEquals("A & B <\u00e4\u00e4>", nodes.get(0).getTag("name"));
+		}
+	}
+
+	@Test
+	public void testSkipNodes() throws Exception {
+		final List<Way> ways = new ArrayList<>();
+		parse(XML, new AbstractMapProcessor() {
+			@Override
+			public boolean skipNodes() {
+				return true;
+			}
+
+			@Override
+			public void processNode(Node n) {
+				throw new AssertionError("node " + n.getId() + " was not skipped");
+			}
+
+			@Override
+			public void processWay(Way w) {
+				ways.add(w);
+			}
+		});
+		assertEquals(1, ways.size());
+		assertEquals("road", ways.get(0).getTag("highway"));
+	}
+
+	private static void parse(String xml, AbstractMapProcessor processor) throws Exception {
+		parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), processor);
+	}
+
+	private static void parse(InputStream is, AbstractMapProcessor processor) throws Exception {
+		OSMXMLParser parser = new OSMXMLParser(processor, false);
+		parser.setInputStream(is);
+		parser.parse();
+	}
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2026, agent
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ */
+
+package uk.me.parabola.splitter.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import uk.me.parabola.splitter.AbstractMapProcessor;
+import uk.me.parabola.splitter.Node;
+import uk.me.parabola.splitter.NodeBatch;
+import uk.me.parabola.splitter.Relation;
+import uk.me.parabola.splitter.Way;
+
+/**
+ * Unit tests for writing and reading the work cache.
+ */
+public class WorkCacheTest {
+	@Rule
+	public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+	private static File createInput(File dir) throws IOException {
+		File input = new File(dir, "input.osm");
+		try (FileOutputStream out = new FileOutputStream(input)) {
+			out.write("<osm/>".getBytes());
+		}
+		return input;
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		File dir = tmpFolder.getRoot();
+		File input = createInput(dir);
+		WorkCacheWriter writer = new WorkCacheWriter(new AbstractMapProcessor() {}, dir, input);
+		for (int i = 0; i < 200_000; i++) {
+			Node n = new Node();
+			n.setFixed(1000 + 3 * i, -900_000_000 + i * 7919, 1_800_000_000 - i * 8999);
+			n.setVersion(i % 5);
+			if (i % 1000 == 0)
+				n.addTag("name", "node " + i);
+			writer.processNode(n);
+		}
+		Way w = new Way();
+		w.set(5);
+		w.addRef(1003);
+		w.addRef(1000);
+		w.addTag("highway", "road");
+		writer.processWay(w);
+		Relation r = new Relation();
+		r.setId(7);
+		r.addMember(Relation.MEM_WAY, 5, "outer");
+		r.addMember(Relation.MEM_NODE, 1000, "");
+		r.addTag("type", "multipolygon");
+		writer.processRelation(r);
+		assertNotNull(writer.finish());
+
+		WorkCache cache = WorkCache.load(dir, input);
+		assertNotNull(cache);
+		final List<Node> nodes = new ArrayList<>();
+		final List<Way> ways = new ArrayList<>();
+		final List<Relation> rels = new ArrayList<>();
+		new WorkCacheReader(new AbstractMapProcessor() {
+			@Override
+			public void processNode(Node n) {
+				nodes.add(n);
+			}
+
+			@Override
+			public void processWay(Way way) {
+				ways.add(way);
+			}
+
+			@Override
+			public void processRelation(Relation rel) {
+				rels.add(rel);
+			}
+		}, cache, 2).process();
+		assertEquals(200_000, nodes.size());
+		for (int i = 0; i < nodes.size(); i++) {
+			Node n = nodes.get(i);
+			assertEquals(1000 + 3 * i, n.getId());
+			assertEquals(-900_000_000 + i * 7919, n.getFixedLat());
+			assertEquals(1_800_000_000 - i * 8999, n.getFixedLon());
+			assertEquals(i % 5, n.getVersion());
+			assertEquals(i % 1000 == 0 ? "node " + i : null, n.getTag("name"));
+		}
+		assertEquals(1, ways.size());
+		assertEquals(5, ways.get(0).getId());
+		assertEquals(1003, ways.get(0).getRefs().getLong(0));
+		assertEquals(1000, ways.get(0).getRefs().getLong(1));
+		assertEquals("road", ways.get(0).getTag("highway"));
+		assertEquals(1, rels.size());
+		Relation rel = rels.get(0);
+		assertEquals(2, rel.getMemberCount());
+		assertEquals(Relation.MEM_WAY, rel.getMemberType(0));
+		assertEquals(5, rel.getMemberRef(0));
+		assertEquals("outer", rel.getMemberRole(0));
+		assertEquals(1000, rel.getMemberRef(1));
+		assertEquals("", rel.getMemberRole(1));
+		assertEquals("multipolygon", rel.getTag("type"));
+
+		// processors that skip ways and relations get the nodes as batches
+		final long[] count = new long[1];
+		new WorkCacheReader(new AbstractMapProcessor() {
+			@Override
+			public boolean skipTags() {
+				return true;
+			}
+
+			@Override
+			public boolean skipWays() {
+				return true;
+			}
+
+			@Override
+			public boolean skipRels() {
+				return true;
+			}
+
+			@Override
+			public boolean useBatches() {
+				return true;
+			}
+
+			@Override
+			public void processNodes(NodeBatch batch) {
+				count[0] += batch.size();
+			}
+		}, cache, 0).process();
+		assertEquals(200_000, count[0]);
+
+		// a changed input invalidates the cache
+		try (FileOutputStream out = new FileOutputStream(input)) {
+			out.write("<osm></osm>".getBytes());
+		}
+		assertNull(WorkCache.load(dir, input));
+	}
+
+	/**
+	 * A cache file which is too short for the header and the trailer is ignored.
+	 */
+	@Test
+	public void testTruncated() throws IOException {
+		File dir = tmpFolder.getRoot();
+		File input = createInput(dir);
+		WorkCacheWriter writer = new WorkCacheWriter(new AbstractMapProcessor() {}, dir, input);
+		Node n = new Node();
+		n.setFixed(1, 2, 3);
+		writer.processNode(n);
+		assertNotNull(writer.finish());
+		File cacheFile = WorkCache.getCacheFile(dir, input);
+		byte[] data = Files.readAllBytes(cacheFile.toPath());
+		assertNotNull(WorkCache.load(dir, input));
+		for (int len : new int[] { 0, 8, WorkCache.HEADER_SIZE, WorkCache.HEADER_SIZE + WorkCache.TRAILER_SIZE - 1,
+				data.length - 1 }) {
+			Files.write(cacheFile.toPath(), Arrays.copyOf(data, len));
+			assertNull("length " + len, WorkCache.load(dir, input));
+		}
+	}
+}